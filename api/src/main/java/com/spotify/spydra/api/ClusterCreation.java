@@ -0,0 +1,160 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Operation;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.AdaptivePollInterval;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cluster creation in progress, tracked through its long-running Dataproc operation.
+ *
+ * <p>The operation is polled with an interval that grows while its state does not change and
+ * goes back to the minimum whenever progress is observed.
+ */
+public class ClusterCreation {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClusterCreation.class);
+
+  // Same as the time gcloud waits for a cluster creation before giving up
+  public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(35);
+
+  static final Duration MIN_POLL_INTERVAL = Duration.ofSeconds(2);
+  static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(30);
+  static final double POLL_INTERVAL_FACTOR = 1.5;
+
+  private final DataprocApi dataprocApi;
+  private final SpydraArgument arguments;
+  private final AdaptivePollInterval pollInterval;
+  private Operation operation;
+
+  ClusterCreation(DataprocApi dataprocApi, SpydraArgument arguments, Operation operation) {
+    this(dataprocApi, arguments, operation,
+        new AdaptivePollInterval(MIN_POLL_INTERVAL, MAX_POLL_INTERVAL, POLL_INTERVAL_FACTOR));
+  }
+
+  @VisibleForTesting
+  ClusterCreation(DataprocApi dataprocApi, SpydraArgument arguments, Operation operation,
+                  AdaptivePollInterval pollInterval) {
+    this.dataprocApi = dataprocApi;
+    this.arguments = arguments;
+    this.operation = operation;
+    this.pollInterval = pollInterval;
+  }
+
+  public synchronized Operation operation() {
+    return operation;
+  }
+
+  public String clusterName() {
+    return arguments.getCluster().getName();
+  }
+
+  public synchronized boolean isDone() {
+    return operation.done;
+  }
+
+  /**
+   * Refreshes the state of the operation once.
+   *
+   * @return whether the operation made progress since it was last seen
+   */
+  public synchronized boolean poll() throws IOException {
+    Optional<Operation> latest = dataprocApi.describeOperation(arguments, operation.name);
+    if (!latest.isPresent()) {
+      return false;
+    }
+    boolean progress = latest.get().done != operation.done
+        || !Objects.equals(progress(latest.get()), progress(operation));
+    operation = latest.get();
+    if (progress && !operation.done) {
+      LOGGER.info("Creating cluster " + clusterName() + ": " + progress(operation));
+    }
+    return progress;
+  }
+
+  /**
+   * Waits for the cluster to be created, cancelling the creation if it does not finish in time.
+   *
+   * @return the created cluster, or empty if the creation failed or was cancelled
+   */
+  public Optional<Cluster> await(Duration timeout) throws IOException {
+    Instant deadline = Instant.now().plus(timeout);
+    while (!isDone()) {
+      Duration remaining = Duration.between(Instant.now(), deadline);
+      if (remaining.isNegative() || remaining.isZero()) {
+        LOGGER.error("Creation of cluster " + clusterName() + " did not finish within "
+            + timeout + ", cancelling it");
+        cancel();
+        return Optional.empty();
+      }
+      Duration interval = pollInterval.next();
+      try {
+        Thread.sleep(Math.min(interval.toMillis(), remaining.toMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for cluster " + clusterName(), e);
+      }
+      if (poll()) {
+        pollInterval.reset();
+      }
+    }
+
+    Operation done = operation();
+    if (done.isFailed()) {
+      LOGGER.error("Creation of cluster " + clusterName() + " failed: " + done.error.message);
+      return Optional.empty();
+    }
+    if (done.response != null && done.response.clusterName != null) {
+      return Optional.of(done.response);
+    }
+    return dataprocApi.findCluster(arguments,
+        ClusterQuery.builder().clusterName(clusterName()).build());
+  }
+
+  /**
+   * Cancels the creation. Dataproc deletes a cluster whose creation was cancelled.
+   */
+  public boolean cancel() throws IOException {
+    return dataprocApi.cancelOperation(arguments, operation().name);
+  }
+
+  private static String progress(Operation operation) {
+    Operation.Metadata.Status status = operation.metadata.status;
+    StringBuilder progress = new StringBuilder(String.valueOf(status.state));
+    if (status.innerState != null) {
+      progress.append(" (").append(status.innerState).append(")");
+    }
+    if (status.details != null) {
+      progress.append(" ").append(status.details);
+    }
+    return progress.toString();
+  }
+}
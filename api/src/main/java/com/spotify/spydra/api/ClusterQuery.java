@@ -0,0 +1,272 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.StringJoiner;
+
+/**
+ * A cluster listing request whose predicates are evaluated by the server where possible.
+ *
+ * <p>Label, state and name predicates are turned into a gcloud filter expression, the page size
+ * and limit bound how much is fetched, and the fields restrict the returned cluster descriptions.
+ * The same predicates can be evaluated locally with {@link #matches(Cluster)}.
+ */
+public class ClusterQuery {
+
+  /**
+   * The fields bound by {@link Cluster}, used unless other fields are requested. Besides what
+   * is needed to place a job, they include the machines and the YARN metrics that the usage of a
+   * pooled or reused cluster is worked out from.
+   */
+  public static final List<String> DEFAULT_FIELDS = Collections.unmodifiableList(Arrays.asList(
+      "clusterName",
+      "labels",
+      "status",
+      "config.gceClusterConfig.zoneUri",
+      "config.gceClusterConfig.metadata",
+      "config.masterConfig.instanceNames",
+      "config.masterConfig.machineTypeUri",
+      "config.masterConfig.numInstances",
+      "config.workerConfig.machineTypeUri",
+      "config.workerConfig.numInstances",
+      "config.secondaryWorkerConfig.machineTypeUri",
+      "config.secondaryWorkerConfig.numInstances",
+      "metrics.yarnMetrics"));
+
+  private static final String CLUSTER_NAME_FILTER = "clusterName";
+  private static final String STATE_FILTER = "status.state";
+
+  private final Map<String, String> labels;
+  private final List<String> states;
+  private final Optional<String> clusterName;
+  private final Map<String, String> otherFilters;
+  private final OptionalInt pageSize;
+  private final OptionalInt limit;
+  private final List<String> fields;
+
+  private ClusterQuery(Builder builder) {
+    this.labels = Collections.unmodifiableMap(new LinkedHashMap<>(builder.labels));
+    this.states = Collections.unmodifiableList(new ArrayList<>(builder.states));
+    this.clusterName = builder.clusterName;
+    this.otherFilters = Collections.unmodifiableMap(new LinkedHashMap<>(builder.otherFilters));
+    this.pageSize = builder.pageSize;
+    this.limit = builder.limit;
+    this.fields = Collections.unmodifiableList(new ArrayList<>(builder.fields));
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a query from gcloud filters on labels (prefixed with "labels."), state, cluster name
+   * or other fields, where an empty value matches any value.
+   */
+  public static ClusterQuery fromFilters(Map<String, String> filters) {
+    Builder builder = builder();
+    if (filters != null) {
+      filters.forEach(builder::filter);
+    }
+    return builder.build();
+  }
+
+  public Map<String, String> labels() {
+    return labels;
+  }
+
+  public List<String> states() {
+    return states;
+  }
+
+  public Optional<String> clusterName() {
+    return clusterName;
+  }
+
+  public OptionalInt pageSize() {
+    return pageSize;
+  }
+
+  public OptionalInt limit() {
+    return limit;
+  }
+
+  public List<String> fields() {
+    return fields;
+  }
+
+  public ClusterQuery withLimit(int limit) {
+    return toBuilder().limit(limit).build();
+  }
+
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.labels.putAll(labels);
+    builder.states.addAll(states);
+    builder.clusterName = clusterName;
+    builder.otherFilters.putAll(otherFilters);
+    builder.pageSize = pageSize;
+    builder.limit = limit;
+    builder.fields.clear();
+    builder.fields.addAll(fields);
+    return builder;
+  }
+
+  /**
+   * Returns the gcloud filter expression for this query, or an empty string if it matches all.
+   */
+  public String filter() {
+    return render(true);
+  }
+
+  /**
+   * Returns the filter expression using only conjunctions, as understood by the Dataproc REST
+   * API. Alternative states can not be expressed and are left to {@link #matches(Cluster)}.
+   */
+  public String conjunctiveFilter() {
+    return render(false);
+  }
+
+  private String render(boolean disjunctions) {
+    StringJoiner filter = new StringJoiner(" AND ");
+    labels.forEach((key, value) -> filter.add(term(
+        SpydraArgument.OPTIONS_FILTER_LABEL_PREFIX + key, value)));
+    clusterName.ifPresent(name -> filter.add(term(CLUSTER_NAME_FILTER, name)));
+    if (states.size() == 1) {
+      filter.add(term(STATE_FILTER, states.get(0)));
+    } else if (states.size() > 1 && disjunctions) {
+      StringJoiner anyState = new StringJoiner(" OR ", "(", ")");
+      states.forEach(state -> anyState.add(term(STATE_FILTER, state)));
+      filter.add(anyState.toString());
+    }
+    otherFilters.forEach((key, value) -> filter.add(term(key, value)));
+    return filter.toString();
+  }
+
+  private static String term(String key, String value) {
+    //Allows for filters to not specify a value to match "anything" (just check if exists)
+    return String.format("%s = %s", key, value == null || value.isEmpty() ? "*" : value);
+  }
+
+  /**
+   * Evaluates the label, state and name predicates of this query locally.
+   */
+  public boolean matches(Cluster cluster) {
+    Map<String, String> clusterLabels =
+        cluster.labels != null ? cluster.labels : Collections.emptyMap();
+    boolean labelsMatch = labels.entrySet().stream().allMatch(label ->
+        matchesValue(label.getValue(), clusterLabels.get(label.getKey())));
+    boolean stateMatches = states.isEmpty()
+        || cluster.status != null && states.contains(cluster.status.state);
+    boolean nameMatches = !clusterName.isPresent()
+        || clusterName.get().equals(cluster.clusterName);
+    return labelsMatch && stateMatches && nameMatches;
+  }
+
+  private static boolean matchesValue(String expected, String actual) {
+    return actual != null
+        && (expected == null || expected.isEmpty() || expected.equals("*")
+            || expected.equals(actual));
+  }
+
+  public static class Builder {
+
+    private final Map<String, String> labels = new LinkedHashMap<>();
+    private final List<String> states = new ArrayList<>();
+    private Optional<String> clusterName = Optional.empty();
+    private final Map<String, String> otherFilters = new LinkedHashMap<>();
+    private OptionalInt pageSize = OptionalInt.empty();
+    private OptionalInt limit = OptionalInt.empty();
+    private final List<String> fields = new ArrayList<>(DEFAULT_FIELDS);
+
+    private Builder() {
+    }
+
+    /**
+     * Requires the label to be present, with the given value unless the value is empty.
+     */
+    public Builder label(String key, String value) {
+      labels.put(key, value);
+      return this;
+    }
+
+    /**
+     * Requires the cluster to be in any of the given states.
+     */
+    public Builder states(String... states) {
+      this.states.addAll(Arrays.asList(states));
+      return this;
+    }
+
+    public Builder clusterName(String clusterName) {
+      this.clusterName = Optional.of(clusterName);
+      return this;
+    }
+
+    /**
+     * Adds a raw gcloud filter term, recognizing labels, state and cluster name.
+     */
+    public Builder filter(String key, String value) {
+      if (key.startsWith(SpydraArgument.OPTIONS_FILTER_LABEL_PREFIX)) {
+        label(key.substring(SpydraArgument.OPTIONS_FILTER_LABEL_PREFIX.length()), value);
+      } else if (key.equals(STATE_FILTER)) {
+        states(value);
+      } else if (key.equals(CLUSTER_NAME_FILTER)) {
+        clusterName(value);
+      } else {
+        otherFilters.put(key, value);
+      }
+      return this;
+    }
+
+    public Builder pageSize(int pageSize) {
+      this.pageSize = OptionalInt.of(pageSize);
+      return this;
+    }
+
+    public Builder limit(int limit) {
+      this.limit = OptionalInt.of(limit);
+      return this;
+    }
+
+    /**
+     * Restricts the returned cluster descriptions to the given fields.
+     */
+    public Builder fields(String... fields) {
+      this.fields.clear();
+      this.fields.addAll(Arrays.asList(fields));
+      return this;
+    }
+
+    public ClusterQuery build() {
+      return new ClusterQuery(this);
+    }
+  }
+}
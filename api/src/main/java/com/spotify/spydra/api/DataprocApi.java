@@ -21,84 +21,353 @@
 package com.spotify.spydra.api;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.spotify.spydra.api.gcloud.GcloudExecutor;
 import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.model.Operation;
+import com.spotify.spydra.api.retry.DataprocCall;
+import com.spotify.spydra.api.retry.ErrorCategory;
+import com.spotify.spydra.api.retry.ErrorClassifier;
+import com.spotify.spydra.api.retry.RetryableException;
+import com.spotify.spydra.api.throttle.Throttle;
 import com.spotify.spydra.metrics.Metrics;
 import com.spotify.spydra.metrics.MetricsFactory;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Tracer;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DataprocApi {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DataprocApi.class);
+
+  // Enough to overlap the steps of a few concurrent submissions without forking gcloud unboundedly
+  static final int ASYNC_THREADS = 8;
+
+  private static class AsyncExecutorHolder {
+    static final ExecutorService INSTANCE = Executors.newFixedThreadPool(ASYNC_THREADS,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("dataproc-api-%d").build());
+  }
+
+  @FunctionalInterface
+  interface ApiCall<T> {
+
+    T call() throws IOException;
+  }
+
   private final Metrics metrics;
   private final GcloudExecutor gcloud;
+  private final Throttle throttle;
 
   public DataprocApi() {
-    gcloud = new GcloudExecutor();
-    metrics = MetricsFactory.getInstance();
+    this(Throttle.none());
+  }
+
+  public DataprocApi(Throttle throttle) {
+    this(new GcloudExecutor(), MetricsFactory.getInstance(), throttle);
   }
 
   @VisibleForTesting
   DataprocApi(GcloudExecutor gcloud, Metrics metrics) {
+    this(gcloud, metrics, Throttle.none());
+  }
+
+  @VisibleForTesting
+  DataprocApi(GcloudExecutor gcloud, Metrics metrics, Throttle throttle) {
     this.gcloud = gcloud;
     this.metrics = metrics;
+    this.throttle = throttle;
   }
 
   public void dryRun(boolean dryRun) {
     gcloud.dryRun(dryRun);
   }
 
+  /**
+   * Creates a cluster and waits for it to come up, cancelling the creation if it takes longer
+   * than {@link ClusterCreation#DEFAULT_TIMEOUT}.
+   */
   public Optional<Cluster> createCluster(SpydraArgument arguments) throws IOException {
     boolean success = false;
     String zoneUri = null;
+    Span span = Tracer.span("cluster create").tag("cluster", arguments.getCluster().getName());
+    long start = System.nanoTime();
     try {
-      Optional<Cluster> cluster = gcloud.createCluster(arguments.getCluster().getName(),
-          arguments.getRegion(),
-          arguments.getCluster().getOptions());
+      Optional<ClusterCreation> creation = startClusterCreation(arguments);
+      Optional<Cluster> cluster = creation.isPresent()
+          ? creation.get().await(ClusterCreation.DEFAULT_TIMEOUT)
+          : Optional.empty();
       success = cluster.isPresent();
       if (success) {
         zoneUri = cluster.get().config.gceClusterConfig.zoneUri;
       }
       return cluster;
     } finally {
+      span.tag("succeeded", success).close();
+      metrics.phaseLatency(arguments, "cluster_create", elapsedSince(start));
       metrics.clusterCreation(arguments, zoneUri, success);
     }
   }
 
+  /**
+   * Starts creating a cluster and returns right away, so that other work can be done while the
+   * cluster comes up. The returned handle tracks and can cancel the creation.
+   */
+  public Optional<ClusterCreation> startClusterCreation(SpydraArgument arguments)
+      throws IOException {
+    return call(DataprocCall.CREATE_CLUSTER, arguments, () -> gcloud.startClusterCreation(
+        arguments.getCluster().getName(),
+        arguments.getRegion(),
+        arguments.getCluster().getOptions()))
+        .map(operation -> new ClusterCreation(this, arguments, operation));
+  }
+
+  public Optional<Operation> describeOperation(SpydraArgument arguments, String operationName)
+      throws IOException {
+    return call(DataprocCall.DESCRIBE_OPERATION, arguments, () ->
+        gcloud.describeOperation(operationName, arguments.getRegion(), projectOption(arguments)));
+  }
+
+  public boolean cancelOperation(SpydraArgument arguments, String operationName)
+      throws IOException {
+    return call(DataprocCall.CANCEL_OPERATION, arguments, () ->
+        gcloud.cancelOperation(operationName, arguments.getRegion(), projectOption(arguments)));
+  }
+
+  private static Map<String, String> projectOption(SpydraArgument arguments) {
+    String project = arguments.getCluster().getOptions().get(SpydraArgument.OPTION_PROJECT);
+    return project != null
+        ? Collections.singletonMap(SpydraArgument.OPTION_PROJECT, project)
+        : Collections.emptyMap();
+  }
+
   public boolean deleteCluster(SpydraArgument arguments) throws IOException {
     Map<String, String> args = Collections.singletonMap(
         SpydraArgument.OPTION_PROJECT,
         arguments.getCluster().getOptions().get(SpydraArgument.OPTION_PROJECT));
     boolean success = false;
+    long start = System.nanoTime();
     try {
-      success = gcloud.deleteCluster(arguments.getCluster().getName(), arguments.getRegion(), args);
+      success = call(DataprocCall.DELETE_CLUSTER, arguments, () ->
+          gcloud.deleteCluster(arguments.getCluster().getName(), arguments.getRegion(), args));
     } finally {
+      metrics.phaseLatency(arguments, "cluster_delete", elapsedSince(start));
       metrics.clusterDeletion(arguments, success);
     }
     return success;
   }
 
+  /**
+   * Updates a cluster in place, e.g. its labels or its scheduled deletion time. Returns once the
+   * update has been accepted, without waiting for the update operation to finish.
+   *
+   * @param updates gcloud clusters update options, e.g. update-labels or expiration-time
+   */
+  public boolean updateCluster(SpydraArgument arguments, Map<String, String> updates)
+      throws IOException {
+    Map<String, String> args = new HashMap<>(updates);
+    args.put(SpydraArgument.OPTION_PROJECT,
+        arguments.getCluster().getOptions().get(SpydraArgument.OPTION_PROJECT));
+    return call(DataprocCall.UPDATE_CLUSTER, arguments, () ->
+        gcloud.updateCluster(arguments.getCluster().getName(), arguments.getRegion(), args));
+  }
+
   public boolean submit(SpydraArgument arguments) throws IOException {
     boolean success = false;
+    long start = System.nanoTime();
     try {
+      // The call lasts as long as the job, so it only waits for the rate and never takes a slot
+      throttle.awaitRate();
       success = gcloud.submit(arguments.getJobType(),
           arguments.submit.pyFile,
           arguments.getRegion(),
           arguments.getSubmit().getOptions(),
           arguments.getSubmit().getJobArgs());
     } finally {
+      metrics.phaseLatency(arguments, "job_submit", elapsedSince(start));
       metrics.jobSubmission(arguments, "dataproc", success);
     }
     return success;
   }
 
+  /**
+   * Submits a job without waiting for it to finish. Use {@link #describeJob} to follow it.
+   */
+  public Optional<Job> submitDetached(SpydraArgument arguments) throws IOException {
+    Optional<Job> job = Optional.empty();
+    long start = System.nanoTime();
+    try {
+      job = call(DataprocCall.SUBMIT_JOB, arguments, () -> gcloud.submitAsync(
+          arguments.getJobType(),
+          arguments.submit.pyFile,
+          arguments.getRegion(),
+          arguments.getSubmit().getOptions(),
+          arguments.getSubmit().getJobArgs()));
+      return job;
+    } finally {
+      metrics.phaseLatency(arguments, "job_submit", elapsedSince(start));
+      metrics.jobSubmission(arguments, "dataproc-detached", job.isPresent());
+    }
+  }
+
+  private static Duration elapsedSince(long startNanos) {
+    return Duration.ofNanos(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Describes a job.
+   *
+   * @return the job, or empty if Dataproc does not know it
+   * @throws IOException if describing the job failed for any other reason
+   */
+  public Optional<Job> describeJob(SpydraArgument arguments, String jobId) throws IOException {
+    Map<String, String> args = Collections.singletonMap(
+        SpydraArgument.OPTION_PROJECT,
+        arguments.getSubmit().getOptions().get(SpydraArgument.OPTION_PROJECT));
+    return call(DataprocCall.DESCRIBE_JOB, arguments, () ->
+        gcloud.describeJob(jobId, arguments.getRegion(), args));
+  }
+
   public List<Cluster> listClusters(SpydraArgument arguments, Map<String, String> filters)
       throws IOException {
+    return listClusters(arguments, ClusterQuery.fromFilters(filters));
+  }
+
+  public List<Cluster> listClusters(SpydraArgument arguments, ClusterQuery query)
+      throws IOException {
     String project = arguments.cluster.getOptions().get("project");
     String region = arguments.getRegion();
-    return gcloud.listClusters(project, region, filters);
+    return call(DataprocCall.LIST_CLUSTERS, arguments, () ->
+        gcloud.listClusters(project, region, query));
+  }
+
+  /**
+   * Returns the first cluster matching the query, without listing any further clusters.
+   */
+  public Optional<Cluster> findCluster(SpydraArgument arguments, ClusterQuery query)
+      throws IOException {
+    return listClusters(arguments, query.withLimit(1)).stream().findFirst();
+  }
+
+  /**
+   * Describes several clusters by name, returning the ones that exist.
+   */
+  public Map<String, Cluster> describeClusters(SpydraArgument arguments,
+                                               Collection<String> clusterNames)
+      throws IOException {
+    Map<String, Cluster> clusters = new LinkedHashMap<>();
+    for (String clusterName : clusterNames) {
+      findCluster(arguments, ClusterQuery.builder().clusterName(clusterName).build())
+          .ifPresent(cluster -> clusters.put(clusterName, cluster));
+    }
+    return clusters;
+  }
+
+  /**
+   * Makes a call to Dataproc through the throttle. Calls that fail in a way that may pass are
+   * retried within the budget of their kind, after the delay Dataproc asked for or an exponential
+   * backoff if it did not say.
+   */
+  final <T> T call(DataprocCall kind, SpydraArgument arguments, ApiCall<T> call)
+      throws IOException {
+    try (Span span = Tracer.span(kind.callName())) {
+      for (int retry = 1; ; retry++) {
+        Duration backoff;
+        ErrorCategory category;
+        span.tag("attempts", retry);
+        try (Throttle.Permit permit = throttle.acquire()) {
+          try {
+            return call.call();
+          } catch (IOException e) {
+            category = ErrorClassifier.classify(e);
+            span.tag("error", category);
+            if (category == ErrorCategory.RATE_LIMITED) {
+              permit.overloaded();
+            }
+            if (!category.isRetryable()) {
+              throw e;
+            }
+            int budget = category == ErrorCategory.RATE_LIMITED
+                ? throttle.maxRetries()
+                : kind.transientRetries();
+            if (retry > budget) {
+              metrics.apiCallExhausted(arguments, kind.callName(), category.name(), retry);
+              throw e;
+            }
+            backoff = (e instanceof RetryableException
+                ? ((RetryableException) e).getRetryAfter()
+                : Optional.<Duration>empty())
+                .orElse(throttle.backoff(retry));
+            metrics.apiCallRetried(arguments, kind.callName(), category.name(), retry);
+            LOGGER.warn(String.format(
+                "Dataproc %s call failed with %s error, retrying in %d ms: %s",
+                kind.callName(), category, backoff.toMillis(), e.getMessage()));
+          }
+        }
+        throttle.backOff(backoff, category == ErrorCategory.RATE_LIMITED);
+      }
+    }
+  }
+
+  /**
+   * Lists clusters on a small shared pool of daemon threads, so that independent steps can
+   * overlap with the listing. A failure completes the future exceptionally with a
+   * CompletionException wrapping the IOException, see {@link #await}.
+   */
+  public final CompletableFuture<List<Cluster>> listClustersAsync(SpydraArgument arguments,
+                                                                  ClusterQuery query) {
+    return async(() -> listClusters(arguments, query));
+  }
+
+  private static <T> CompletableFuture<T> async(ApiCall<T> call) {
+    return CompletableFuture.supplyAsync(Tracer.propagate(() -> {
+      try {
+        return call.call();
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }), AsyncExecutorHolder.INSTANCE);
+  }
+
+  /**
+   * Waits for an asynchronous call, rethrowing its IOException.
+   */
+  public static <T> T await(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the Dataproc API", e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Creates the Dataproc API configured for a submission.
+   */
+  public static DataprocApi forArguments(SpydraArgument arguments) {
+    Throttle throttle = Throttle.forArguments(arguments);
+    return arguments.isRestApiEnabled()
+        ? new RestDataprocApi(throttle)
+        : new DataprocApi(throttle);
   }
 }
@@ -0,0 +1,41 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import com.spotify.spydra.api.retry.ErrorCategory;
+import com.spotify.spydra.api.retry.RetryableException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Signals that Dataproc rejected a call because a request rate quota was exhausted. Such calls
+ * can be retried once the quota has recovered, at the earliest after {@link #getRetryAfter()}.
+ */
+public class QuotaExceededException extends RetryableException {
+
+  public QuotaExceededException(String msg) {
+    this(msg, Optional.empty());
+  }
+
+  public QuotaExceededException(String msg, Optional<Duration> retryAfter) {
+    super(ErrorCategory.RATE_LIMITED, msg, retryAfter);
+  }
+}
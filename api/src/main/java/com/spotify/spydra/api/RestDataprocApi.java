@@ -0,0 +1,89 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.rest.DataprocRestClient;
+import com.spotify.spydra.api.retry.DataprocCall;
+import com.spotify.spydra.api.throttle.Throttle;
+import com.spotify.spydra.metrics.Metrics;
+import com.spotify.spydra.metrics.MetricsFactory;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.CredentialSession;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A {@link DataprocApi} that reads clusters and jobs through the Dataproc REST API over pooled
+ * connections. Operations that change clusters or submit jobs are still run through gcloud.
+ */
+public class RestDataprocApi extends DataprocApi {
+
+  private final DataprocRestClient client;
+
+  public RestDataprocApi() {
+    this(Throttle.none());
+  }
+
+  public RestDataprocApi(Throttle throttle) {
+    this(new GcloudExecutor(), MetricsFactory.getInstance(), throttle, new DataprocRestClient());
+  }
+
+  @VisibleForTesting
+  RestDataprocApi(GcloudExecutor gcloud, Metrics metrics, Throttle throttle,
+                  DataprocRestClient client) {
+    super(gcloud, metrics, throttle);
+    this.client = client;
+  }
+
+  @Override
+  public List<Cluster> listClusters(SpydraArgument arguments, ClusterQuery query)
+      throws IOException {
+    return call(DataprocCall.LIST_CLUSTERS, arguments, () -> client.listClusters(
+        project(arguments.getCluster().getOptions()), arguments.getRegion(), query));
+  }
+
+  @Override
+  public Map<String, Cluster> describeClusters(SpydraArgument arguments,
+                                               Collection<String> clusterNames)
+      throws IOException {
+    return call(DataprocCall.DESCRIBE_CLUSTERS, arguments, () -> client.getClusters(
+        project(arguments.getCluster().getOptions()), arguments.getRegion(), clusterNames));
+  }
+
+  @Override
+  public Optional<Job> describeJob(SpydraArgument arguments, String jobId) throws IOException {
+    return call(DataprocCall.DESCRIBE_JOB, arguments, () -> client.getJob(
+        project(arguments.getSubmit().getOptions()), arguments.getRegion(), jobId));
+  }
+
+  // gcloud falls back to the configured project, the API needs it spelled out
+  private static String project(Map<String, String> options) {
+    String project = options.get(SpydraArgument.OPTION_PROJECT);
+    return project != null ? project : CredentialSession.shared().getProjectId();
+  }
+}
@@ -0,0 +1,312 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.gcloud;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.JsonCodecs;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Parses the JSON output of {@code gcloud dataproc clusters list}, or the cluster listings of the
+ * Dataproc REST API, while it is being read.
+ *
+ * <p>Only the fields present in {@link Cluster} are bound, everything else in the (potentially
+ * very large) cluster descriptions is skipped without being materialized. Clusters not accepted
+ * by the filter are dropped as soon as they have been read, and parsing stops once the limit
+ * has been reached.
+ */
+public class ClusterListParser {
+
+  private static final JsonFactory JSON_FACTORY = JsonCodecs.LOWER_CAMEL_CASE.factory();
+  private static final ObjectReader STATUS_READER =
+      JsonCodecs.LOWER_CAMEL_CASE.reader(Cluster.Status.class);
+  private static final ObjectReader DATE_TIME_READER =
+      JsonCodecs.LOWER_CAMEL_CASE.reader(ZonedDateTime.class);
+
+  private final Predicate<Cluster> filter;
+  private final int limit;
+
+  public ClusterListParser() {
+    this(cluster -> true, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parses clusters matching the query, stopping once the query limit has been reached.
+   */
+  public ClusterListParser(ClusterQuery query) {
+    this(query::matches, query.limit().orElse(Integer.MAX_VALUE));
+  }
+
+  public ClusterListParser(Predicate<Cluster> filter, int limit) {
+    this.filter = filter;
+    this.limit = limit;
+  }
+
+  /**
+   * Returns whether a parse result holds as many clusters as wanted, so that the remaining
+   * output need not be read.
+   */
+  public boolean isComplete(List<Cluster> clusters) {
+    return clusters.size() >= limit;
+  }
+
+  public List<Cluster> parse(InputStream in) throws IOException {
+    List<Cluster> clusters = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      JsonToken token = parser.nextToken();
+      if (token == null) {
+        return clusters;
+      }
+      parseClusters(parser, clusters);
+    }
+    return clusters;
+  }
+
+  /**
+   * Parses one page of a Dataproc REST API cluster listing into the given list, returning the
+   * token of the next page if there is one and the limit has not been reached yet.
+   */
+  public Optional<String> parsePage(InputStream in, List<Cluster> clusters) throws IOException {
+    String nextPageToken = null;
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      parser.nextToken();
+      expect(parser, JsonToken.START_OBJECT);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if (field.equals("clusters")) {
+          if (!parseClusters(parser, clusters)) {
+            return Optional.empty();
+          }
+        } else if (field.equals("nextPageToken")) {
+          nextPageToken = parser.getValueAsString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return Optional.ofNullable(nextPageToken).filter(token -> !token.isEmpty());
+  }
+
+  /**
+   * Parses a single cluster description.
+   */
+  public Cluster parseDescription(InputStream in) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      parser.nextToken();
+      expect(parser, JsonToken.START_OBJECT);
+      return parseCluster(parser);
+    }
+  }
+
+  /**
+   * Adds the accepted clusters of a JSON array to the list, returning false if it stopped early
+   * because the limit was reached.
+   */
+  private boolean parseClusters(JsonParser parser, List<Cluster> clusters) throws IOException {
+    expect(parser, JsonToken.START_ARRAY);
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      Cluster cluster = parseCluster(parser);
+      if (filter.test(cluster)) {
+        clusters.add(cluster);
+        if (isComplete(clusters)) {
+          return false;
+        }
+      }
+    }
+    expect(parser, JsonToken.END_ARRAY);
+    return true;
+  }
+
+  private Cluster parseCluster(JsonParser parser) throws IOException {
+    Cluster cluster = new Cluster();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "clusterName":
+          cluster.clusterName = parser.getValueAsString();
+          break;
+        case "labels":
+          cluster.labels = parseStringMap(parser);
+          break;
+        case "status":
+          cluster.status = STATUS_READER.readValue(parser);
+          break;
+        case "config":
+          parseConfig(parser, cluster.config);
+          break;
+        case "metrics":
+          parseMetrics(parser, cluster.metrics);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return cluster;
+  }
+
+  private void parseConfig(JsonParser parser, Cluster.Config config) throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "gceClusterConfig":
+          parseGceClusterConfig(parser, config.gceClusterConfig);
+          break;
+        case "masterConfig":
+          parseMasterConfig(parser, config.masterConfig);
+          break;
+        case "workerConfig":
+          parseInstanceGroupConfig(parser, config.workerConfig);
+          break;
+        case "secondaryWorkerConfig":
+          parseInstanceGroupConfig(parser, config.secondaryWorkerConfig);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+  }
+
+  private void parseGceClusterConfig(JsonParser parser, Cluster.Config.GceClusterConfig config)
+      throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "zoneUri":
+          config.zoneUri = parser.getValueAsString();
+          break;
+        case "metadata":
+          parseMetadata(parser, config.metadata);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+  }
+
+  private void parseMetadata(JsonParser parser, Cluster.Config.GceClusterConfig.Metadata metadata)
+      throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("heartbeat") && parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+        metadata.heartbeat = Optional.of(DATE_TIME_READER.readValue(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void parseMasterConfig(JsonParser parser, Cluster.Config.MasterConfig config)
+      throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("instanceNames")) {
+        expect(parser, JsonToken.START_ARRAY);
+        List<String> instanceNames = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          instanceNames.add(parser.getValueAsString());
+        }
+        config.instanceNames = instanceNames;
+      } else {
+        parseInstanceGroupField(parser, field, config);
+      }
+    }
+  }
+
+  private void parseInstanceGroupConfig(JsonParser parser,
+                                        Cluster.Config.InstanceGroupConfig config)
+      throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      parseInstanceGroupField(parser, field, config);
+    }
+  }
+
+  private void parseInstanceGroupField(JsonParser parser, String field,
+                                       Cluster.Config.InstanceGroupConfig config)
+      throws IOException {
+    switch (field) {
+      case "numInstances":
+        config.numInstances = parser.getValueAsInt();
+        break;
+      case "machineTypeUri":
+        config.machineTypeUri = parser.getValueAsString();
+        break;
+      default:
+        parser.skipChildren();
+    }
+  }
+
+  private void parseMetrics(JsonParser parser, Cluster.Metrics metrics) throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("yarnMetrics")) {
+        metrics.yarnMetrics = parseStringMap(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static Map<String, String> parseStringMap(JsonParser parser) throws IOException {
+    expect(parser, JsonToken.START_OBJECT);
+    Map<String, String> map = new HashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String key = parser.getCurrentName();
+      parser.nextToken();
+      map.put(key, parser.getValueAsString());
+    }
+    return map;
+  }
+
+  private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+    if (parser.getCurrentToken() != expected) {
+      throw new IOException("Unexpected " + parser.getCurrentToken() + " in cluster list at "
+          + parser.getCurrentLocation() + ", expected " + expected);
+    }
+  }
+}
@@ -20,13 +20,20 @@
 
 package com.spotify.spydra.api.gcloud;
 
-import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.QuotaExceededException;
 import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.model.Operation;
 import com.spotify.spydra.api.process.ProcessHelper;
-import com.spotify.spydra.model.JsonHelper;
+import com.spotify.spydra.api.retry.ErrorCategory;
+import com.spotify.spydra.api.retry.ErrorClassifier;
+import com.spotify.spydra.api.retry.RetryableException;
+import com.spotify.spydra.model.JsonCodecs;
 import com.spotify.spydra.model.SpydraArgument;
-import com.spotify.spydra.util.GcpUtils;
+import com.spotify.spydra.util.CredentialSession;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +41,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import jdk.nashorn.tools.Shell;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,49 +52,118 @@ public class GcloudExecutor {
   private static final Logger LOGGER = LoggerFactory.getLogger(GcloudExecutor.class);
 
   private static final String DEFAULT_GCLOUD_COMMAND = "gcloud";
+  private static final String OPTION_PAGE_SIZE = "page-size";
+  private static final String OPTION_LIMIT = "limit";
+  // The status gcloud reports for a resource that does not exist
+  private static final String NOT_FOUND = "NOT_FOUND";
+
+  // When set, the time from JVM start to the first gcloud call is logged, see startup/benchmark.sh
+  static final String STARTUP_TRACE_PROPERTY = "spydra.startup.trace";
+
+  /**
+   * Names the gcloud executable to run instead of the one on the path, e.g. a fake standing in
+   * for gcloud in offline tests and benchmarks.
+   */
+  public static final String GCLOUD_COMMAND_PROPERTY = "spydra.gcloud.command";
+
+  private static final AtomicBoolean startupTraced = new AtomicBoolean();
 
   private final String baseCommand;
 
+  private final CredentialSession credentials = CredentialSession.shared();
+
   private boolean dryRun = false;
 
   public GcloudExecutor() {
-    this.baseCommand = DEFAULT_GCLOUD_COMMAND;
+    this.baseCommand = System.getProperty(GCLOUD_COMMAND_PROPERTY, DEFAULT_GCLOUD_COMMAND);
   }
 
-  public Optional<Cluster> createCluster(String name, String region, Map<String, String> args)
-      throws IOException {
+  /**
+   * Starts creating a cluster without waiting for it to come up.
+   *
+   * @return the creation operation, or empty if the creation could not be started
+   */
+  public Optional<Operation> startClusterCreation(String name, String region,
+                                                  Map<String, String> args) throws IOException {
     Map<String, String> createOptions = new HashMap<>(args);
     createOptions.put(SpydraArgument.OPTION_REGION, region);
     List<String> command = Arrays.asList(
-        "--format=json", "beta", "dataproc", "clusters", "create", name);
+        "--format=json", "beta", "dataproc", "clusters", "create", name, createOption("async", ""));
     StringBuilder outputBuilder = new StringBuilder();
     boolean success = ProcessHelper.executeForOutput(
         buildCommand(command, createOptions, Collections.emptyList()),
         outputBuilder);
     String output = outputBuilder.toString();
     if (success) {
-      Cluster cluster = JsonHelper.objectMapper()
-          .setPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CAMEL_CASE)
-          .readValue(output, Cluster.class);
-      return Optional.of(cluster);
+      return Optional.of(readOperation(output));
     } else {
       if (output.contains("ALREADY_EXISTS")) {
         throw new GcloudClusterAlreadyExistsException(output);
       }
+      checkRetryable(output);
       LOGGER.error("Dataproc cluster creation call failed. Command line output:");
       LOGGER.error(output);
       return Optional.empty();
     }
   }
 
+  public Optional<Operation> describeOperation(String operationName, String region,
+                                               Map<String, String> args) throws IOException {
+    Map<String, String> describeOptions = new HashMap<>(args);
+    describeOptions.put(SpydraArgument.OPTION_REGION, region);
+    List<String> command =
+        Arrays.asList("--format=json", "dataproc", "operations", "describe", operationName);
+    StringBuilder outputBuilder = new StringBuilder();
+    boolean success = ProcessHelper.executeForOutput(
+        buildCommand(command, describeOptions, Collections.emptyList()),
+        outputBuilder);
+    String output = outputBuilder.toString();
+    if (success) {
+      return Optional.of(readOperation(output));
+    } else {
+      checkRetryable(output);
+      LOGGER.warn("Dataproc operation describe call failed. Command line output:");
+      LOGGER.warn(output);
+      return Optional.empty();
+    }
+  }
+
+  public boolean cancelOperation(String operationName, String region, Map<String, String> args)
+      throws IOException {
+    Map<String, String> cancelOptions = new HashMap<>(args);
+    cancelOptions.put(SpydraArgument.OPTION_REGION, region);
+    return executeChecked(
+        Arrays.asList("dataproc", "operations", "cancel", operationName),
+        cancelOptions,
+        "Dataproc operation cancel call failed."
+    );
+  }
+
+  private static Operation readOperation(String json) throws IOException {
+    return JsonCodecs.LOWER_CAMEL_CASE.read(json, Operation.class);
+  }
+
   public boolean deleteCluster(String name, String region, Map<String, String> args)
       throws IOException {
     Map<String, String> deleteOptions = new HashMap<>(args);
     deleteOptions.put(SpydraArgument.OPTION_REGION, region);
-    return execute(
+    // A cluster that is already gone counts as deleted
+    return executeChecked(
         Arrays.asList("dataproc", "clusters", "delete", name, createOption("async", "")),
         deleteOptions,
-        Collections.emptyList()
+        "Dataproc cluster deletion call failed.",
+        output -> output.contains(NOT_FOUND)
+    );
+  }
+
+  public boolean updateCluster(String name, String region, Map<String, String> args)
+      throws IOException {
+    Map<String, String> updateOptions = new HashMap<>(args);
+    updateOptions.put(SpydraArgument.OPTION_REGION, region);
+    return executeChecked(
+        Arrays.asList("beta", "dataproc", "clusters", "update", name, createOption("async", "")),
+        updateOptions,
+        "Dataproc cluster update call failed."
     );
   }
 
@@ -100,6 +177,74 @@ public class GcloudExecutor {
     Map<String, String> submitOptions = new HashMap<>(options);
     submitOptions.put(SpydraArgument.OPTION_REGION, region);
     List<String> submitCommand = new ArrayList<>(Arrays.asList("dataproc", "jobs", "submit", type));
+    addPositionalSubmitArguments(submitCommand, type, pyFile);
+    return execute(submitCommand, submitOptions, jobArgs);
+  }
+
+  /**
+   * Submits a job without waiting for it to finish.
+   *
+   * @return the submitted job, or empty if the submission failed
+   */
+  public Optional<Job> submitAsync(
+      String type,
+      Optional<String> pyFile,
+      String region,
+      Map<String, String> options,
+      List<String> jobArgs
+  ) throws IOException {
+    Map<String, String> submitOptions = new HashMap<>(options);
+    submitOptions.put(SpydraArgument.OPTION_REGION, region);
+    List<String> submitCommand = new ArrayList<>(Arrays.asList(
+        "--format=json", "dataproc", "jobs", "submit", type, createOption("async", "")));
+    addPositionalSubmitArguments(submitCommand, type, pyFile);
+    List<String> command = buildCommand(submitCommand, submitOptions, jobArgs);
+    if (this.dryRun) {
+      System.out.println(String.join(" ", command));
+      Job job = new Job();
+      job.reference.jobId = options.get(SpydraArgument.OPTION_JOB_ID);
+      job.status.state = Job.Status.DONE;
+      return Optional.of(job);
+    }
+
+    StringBuilder outputBuilder = new StringBuilder();
+    boolean success = ProcessHelper.executeForOutput(command, outputBuilder);
+    String output = outputBuilder.toString();
+    if (success) {
+      return Optional.of(JsonCodecs.LOWER_CAMEL_CASE.read(output, Job.class));
+    } else {
+      checkRetryable(output);
+      LOGGER.error("Dataproc job submission call failed. Command line output:");
+      LOGGER.error(output);
+      return Optional.empty();
+    }
+  }
+
+  public Optional<Job> describeJob(String jobId, String region, Map<String, String> args)
+      throws IOException {
+    Map<String, String> describeOptions = new HashMap<>(args);
+    describeOptions.put(SpydraArgument.OPTION_REGION, region);
+    List<String> command = Arrays.asList("--format=json", "dataproc", "jobs", "describe", jobId);
+    StringBuilder outputBuilder = new StringBuilder();
+    boolean success = ProcessHelper.executeForOutput(
+        buildCommand(command, describeOptions, Collections.emptyList()),
+        outputBuilder);
+    String output = outputBuilder.toString();
+    if (success) {
+      return Optional.of(JsonCodecs.LOWER_CAMEL_CASE.read(output, Job.class));
+    } else {
+      checkRetryable(output);
+      if (output.contains(NOT_FOUND)) {
+        return Optional.empty();
+      }
+      LOGGER.warn("Dataproc job describe call failed. Command line output:");
+      LOGGER.warn(output);
+      throw new IOException("Failed to describe job " + jobId + ". Gcloud call failed.");
+    }
+  }
+
+  private static void addPositionalSubmitArguments(
+      List<String> submitCommand, String type, Optional<String> pyFile) {
     if (type.equals(SpydraArgument.JOB_TYPE_PYSPARK)) {
       // JOB_TYPE_PYSPARK is special, it has a positional argument :|
       submitCommand.add(pyFile.orElseThrow(() -> new IllegalArgumentException(
@@ -107,7 +252,6 @@ public class GcloudExecutor {
           + "This should've been caught in SpydraArgumentUtil#checkRequiredArguments already!"
       )));
     }
-    return execute(submitCommand, submitOptions, jobArgs);
   }
 
   private List<String> buildCommand(
@@ -115,14 +259,12 @@ public class GcloudExecutor {
       Map<String, String> options,
       List<String> jobArgs
   ) {
+    traceStartup();
     List<String> command = new ArrayList<>();
     command.add(this.baseCommand);
-    final GcpUtils gcpUtils = new GcpUtils();
-    gcpUtils.getJsonCredentialsPath().ifPresent(
-        ignored -> gcpUtils.getUserId().ifPresent(userId -> {
-          command.add("--account");
-          command.add(userId);
-        })
+    credentials.getJsonCredentialsPath().ifPresent(
+        ignored -> credentials.getUserId().ifPresent(userId ->
+            command.add(createOption("account", userId)))
     );
 
     command.addAll(commands);
@@ -136,6 +278,13 @@ public class GcloudExecutor {
     return command;
   }
 
+  private static void traceStartup() {
+    if (Boolean.getBoolean(STARTUP_TRACE_PROPERTY) && startupTraced.compareAndSet(false, true)) {
+      LOGGER.info("Time to first gcloud call: "
+          + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+    }
+  }
+
   private boolean execute(List<String> commands, Map<String, String> options, List<String> jobArgs)
       throws IOException {
     List<String> command = buildCommand(commands, options, jobArgs);
@@ -147,6 +296,56 @@ public class GcloudExecutor {
     }
   }
 
+  /**
+   * Like {@link #execute(List, Map, List)}, but captures the output of the call so that failures
+   * worth retrying can be told apart from other failures.
+   *
+   * @throws RetryableException if the call failed in a way that may pass when repeated
+   */
+  private boolean executeChecked(List<String> commands, Map<String, String> options,
+                                 String failureMessage) throws IOException {
+    return executeChecked(commands, options, failureMessage, output -> false);
+  }
+
+  /**
+   * Runs a gcloud command, raising retryable failures.
+   *
+   * @param success whether the output of a failed command still means success
+   */
+  private boolean executeChecked(List<String> commands, Map<String, String> options,
+                                 String failureMessage, Predicate<String> success)
+      throws IOException {
+    List<String> command = buildCommand(commands, options, Collections.emptyList());
+    if (this.dryRun) {
+      System.out.println(String.join(" ", command));
+      return true;
+    }
+    StringBuilder outputBuilder = new StringBuilder();
+    if (ProcessHelper.executeForOutput(command, outputBuilder)) {
+      return true;
+    }
+    String output = outputBuilder.toString();
+    checkRetryable(output);
+    if (success.test(output)) {
+      return true;
+    }
+    LOGGER.error(failureMessage + " Command line output:");
+    LOGGER.error(output);
+    return false;
+  }
+
+  /**
+   * Raises failures that may go away when the call is repeated, leaving the rest to the caller.
+   */
+  private static void checkRetryable(String output) throws RetryableException {
+    ErrorCategory category = ErrorClassifier.classify(output);
+    if (category == ErrorCategory.RATE_LIMITED) {
+      throw new QuotaExceededException(output);
+    } else if (category.isRetryable()) {
+      throw new RetryableException(category, output);
+    }
+  }
+
   private static String createOption(String optionName, String optionValue) {
     if (optionValue.length() > 0) {
       return "--" + optionName + "=" + optionValue;
@@ -161,37 +360,45 @@ public class GcloudExecutor {
 
   public List<Cluster> listClusters(String project, String region, Map<String, String> filters)
       throws IOException {
-    final List<String> command = Arrays.asList("dataproc", "clusters", "list", "--format=json");
+    return listClusters(project, region, ClusterQuery.fromFilters(filters));
+  }
+
+  /**
+   * Lists the clusters matching a query. The query predicates are pushed into the server-side
+   * filter and also applied while parsing, and the listing stops as soon as the query limit has
+   * been reached rather than fetching the remaining pages.
+   */
+  public List<Cluster> listClusters(String project, String region, ClusterQuery query)
+      throws IOException {
+    String format = query.fields().isEmpty()
+        ? "--format=json"
+        : "--format=json(" + String.join(",", query.fields()) + ")";
+    final List<String> command = Arrays.asList("dataproc", "clusters", "list", format);
     Map<String, String> options = new HashMap<>();
     options.put(SpydraArgument.OPTION_PROJECT, project);
     options.put(SpydraArgument.OPTION_REGION, region);
 
-    if (filters != null && !filters.isEmpty()) {
-      StringJoiner filterItems = new StringJoiner(" AND ");
-      filters.forEach((key, value) -> {
-        //Allows for label filters to not specify a value to match "anything" (just check if exists)
-        if (value == null || value.isEmpty()) {
-          value = "*";
-        }
-        filterItems.add(String.format("%s = %s", key, value));
-      });
-      options.put(SpydraArgument.OPTIONS_FILTER, filterItems.toString());
+    String filter = query.filter();
+    if (!filter.isEmpty()) {
+      options.put(SpydraArgument.OPTIONS_FILTER, filter);
     }
+    query.pageSize().ifPresent(pageSize ->
+        options.put(OPTION_PAGE_SIZE, Integer.toString(pageSize)));
+    query.limit().ifPresent(limit -> options.put(OPTION_LIMIT, Integer.toString(limit)));
 
-    StringBuilder outputBuilder = new StringBuilder();
-    boolean success = ProcessHelper.executeForOutput(
+    ClusterListParser parser = new ClusterListParser(query);
+    StringBuilder errorBuilder = new StringBuilder();
+    Optional<List<Cluster>> clusters = ProcessHelper.executeForStream(
         buildCommand(command, options, Collections.emptyList()),
-        outputBuilder
-    );
-    String output = outputBuilder.toString();
-    if (success) {
-      Cluster[] clusters = JsonHelper.objectMapper()
-          .setPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CAMEL_CASE)
-          .readValue(output, Cluster[].class);
-      return Arrays.asList(clusters);
+        parser::parse,
+        errorBuilder,
+        parser::isComplete);
+    if (clusters.isPresent()) {
+      return clusters.get();
     } else {
+      checkRetryable(errorBuilder.toString());
       LOGGER.error("Dataproc cluster listing call failed. Command line output:");
-      LOGGER.error(output);
+      LOGGER.error(errorBuilder.toString());
       throw new IOException("Failed to list clusters. Gcloud call failed.");
     }
   }
@@ -36,6 +36,8 @@ public class Cluster {
     public static final String ERROR = "ERROR";
     public static final String CREATING = "CREATING";
     public static final String RUNNING = "RUNNING";
+    public static final String UPDATING = "UPDATING";
+    public static final String DELETING = "DELETING";
     public String state;
     public ZonedDateTime stateStartTime;
   }
@@ -52,7 +54,8 @@ public class Cluster {
       public static class Metadata {
 
         // This is the initial heartbeat of the cluster. It is not updated.
-        // Look at the MasterConfig.instanceNames[0] for updated heartbeats
+        // Look at the MasterConfig.instanceNames[0] for updated heartbeats, or at the
+        // spydra-heartbeat label for clusters with a client-side heartbeat.
         public Optional<ZonedDateTime> heartbeat = Optional.empty();
       }
 
@@ -61,21 +64,41 @@ public class Cluster {
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
-    public static class MasterConfig {
+    public static class InstanceGroupConfig {
+
+      public int numInstances;
+      // e.g. https://www.googleapis.com/compute/v1/projects/p/zones/z/machineTypes/n1-standard-4
+      public String machineTypeUri;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class MasterConfig extends InstanceGroupConfig {
 
       public List<String> instanceNames = Collections.emptyList();
     }
 
     public MasterConfig masterConfig = new MasterConfig();
+    public InstanceGroupConfig workerConfig = new InstanceGroupConfig();
+    public InstanceGroupConfig secondaryWorkerConfig = new InstanceGroupConfig();
     public GceClusterConfig gceClusterConfig = new GceClusterConfig();
   }
 
   public Config config = new Config();
 
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Metrics {
+
+    public static final String YARN_APPS_RUNNING = "yarn-apps-running";
+
+    // Dataproc reports the values as strings, e.g. "yarn-apps-running": "2"
+    public Map<String, String> yarnMetrics = Collections.emptyMap();
+  }
+
+  public Metrics metrics = new Metrics();
+
   public String clusterName;
 
   public Map<String, String> labels;
 
-  //TODO: TW Look at the `metrics` for the cluster
   //TODO: TW look at labels to see if it is a spydra created cluster?
 }
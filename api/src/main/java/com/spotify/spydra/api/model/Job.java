@@ -0,0 +1,57 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.time.ZonedDateTime;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Job {
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Reference {
+
+    public String projectId;
+    public String jobId;
+  }
+
+  public Reference reference = new Reference();
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Status {
+
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String ERROR = "ERROR";
+    public static final String CANCELLED = "CANCELLED";
+    public String state;
+    public String details;
+    public ZonedDateTime stateStartTime;
+
+    public boolean isTerminal() {
+      return DONE.equals(state) || ERROR.equals(state) || CANCELLED.equals(state);
+    }
+  }
+
+  public Status status = new Status();
+
+  public String driverOutputResourceUri;
+}
@@ -0,0 +1,73 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.time.ZonedDateTime;
+
+/**
+ * A long-running Dataproc operation, such as the creation of a cluster.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Operation {
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Error {
+
+    public int code;
+    public String message;
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Metadata {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Status {
+
+      public static final String PENDING = "PENDING";
+      public static final String RUNNING = "RUNNING";
+      public static final String DONE = "DONE";
+      public String state;
+      public String innerState;
+      public String details;
+      public ZonedDateTime stateStartTime;
+    }
+
+    public String clusterName;
+    public String operationType;
+    public String description;
+    public Status status = new Status();
+  }
+
+  public String name;
+  public boolean done;
+  public Error error;
+  public Metadata metadata = new Metadata();
+
+  /**
+   * The created cluster, once a cluster creation has succeeded.
+   */
+  public Cluster response;
+
+  public boolean isFailed() {
+    return done && error != null;
+  }
+}
@@ -22,8 +22,11 @@ package com.spotify.spydra.api.process;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
 import jdk.nashorn.tools.Shell;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,72 +34,195 @@ import org.slf4j.LoggerFactory;
 public class ProcessHelper {
   private static final Logger LOGGER = LoggerFactory.getLogger(ProcessHelper.class);
 
+  /**
+   * Consumes the standard output of a process while it is running.
+   */
+  @FunctionalInterface
+  public interface OutputParser<T> {
+
+    T parse(InputStream output) throws IOException;
+  }
+
   public static int executeCommand(List<String> command) throws IOException {
     LOGGER.debug("Executing command: " + String.join(" ", command));
-    ProcessBuilder pb = new ProcessBuilder(command)
-        .redirectError(ProcessBuilder.Redirect.INHERIT)
-        .redirectOutput(ProcessBuilder.Redirect.INHERIT);
+    try (ProcessInvocation invocation = ProcessInvocation.start(command)) {
+      ProcessBuilder pb = new ProcessBuilder(command)
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .redirectOutput(ProcessBuilder.Redirect.INHERIT);
 
-    Process p = pb.start();
-    try {
-      p.waitFor();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      p.destroy();
-    }
+      Process p = pb.start();
+      try {
+        p.waitFor();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        p.destroy();
+      }
 
-    return p.exitValue();
+      invocation.exited(p.exitValue());
+      return p.exitValue();
+    }
   }
 
   public static boolean executeForOutput(List<String> command, StringBuilder outputBuilder)
       throws IOException {
     LOGGER.debug("Executing command: " + String.join(" ", command));
-    ProcessBuilder pb = new ProcessBuilder(command)
-        .redirectError(ProcessBuilder.Redirect.PIPE)
-        .redirectOutput(ProcessBuilder.Redirect.PIPE);
+    try (ProcessInvocation invocation = ProcessInvocation.start(command)) {
+      ProcessBuilder pb = new ProcessBuilder(command)
+          .redirectError(ProcessBuilder.Redirect.PIPE)
+          .redirectOutput(ProcessBuilder.Redirect.PIPE);
 
-    Process p = pb.start();
-    String lineSeparator = System.getProperty("line.separator");
-    try {
-      // Read from both stdout and stderr so that we don't
-      // fill up buffers and deadlock the process.
-      BufferedReader outReader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-      BufferedReader errReader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+      Process p = pb.start();
+      String lineSeparator = System.getProperty("line.separator");
+      try {
+        // Read from both stdout and stderr so that we don't
+        // fill up buffers and deadlock the process.
+        BufferedReader outReader = new BufferedReader(
+            new InputStreamReader(invocation.countOutput(p.getInputStream())));
+        BufferedReader errReader = new BufferedReader(new InputStreamReader(p.getErrorStream()));
 
-      StringBuilder output = new StringBuilder();
-      StringBuilder error = new StringBuilder();
+        StringBuilder output = new StringBuilder();
+        StringBuilder error = new StringBuilder();
 
-      while (p.isAlive() || outReader.ready() || errReader.ready()) {
-        while (outReader.ready()) {
-          output.append(outReader.readLine());
-          output.append(lineSeparator);
+        while (p.isAlive() || outReader.ready() || errReader.ready()) {
+          while (outReader.ready()) {
+            output.append(outReader.readLine());
+            output.append(lineSeparator);
+          }
+
+          while (errReader.ready()) {
+            error.append(errReader.readLine());
+            error.append(lineSeparator);
+          }
+
+          Thread.sleep(100);
         }
 
-        while (errReader.ready()) {
-          error.append(errReader.readLine());
-          error.append(lineSeparator);
+        int exitCode = p.waitFor();
+        invocation.exited(exitCode);
+        boolean success = exitCode == Shell.SUCCESS;
+
+        if (success) {
+          outputBuilder.append(output);
+        } else {
+          outputBuilder.append(error);
         }
 
-        Thread.sleep(100);
+        return success;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        p.destroy();
+        throw new IOException("Failed to read process output", e);
+      } catch (IOException e) {
+        p.destroy();
+        throw e;
       }
+    }
+  }
 
-      int exitCode = p.waitFor();
-      boolean success = exitCode == Shell.SUCCESS;
+  /**
+   * Executes a command and parses its standard output as it is produced, rather than buffering
+   * it. Standard error is collected on a background thread so that neither pipe can fill up and
+   * block the process.
+   *
+   * @param errorBuilder receives the standard error of the process if it fails
+   * @return the parsed output if the process succeeded, empty otherwise
+   */
+  public static <T> Optional<T> executeForStream(
+      List<String> command, OutputParser<T> parser, StringBuilder errorBuilder)
+      throws IOException {
+    return executeForStream(command, parser, errorBuilder, result -> false);
+  }
+
+  /**
+   * Like {@link #executeForStream(List, OutputParser, StringBuilder)}, but stops the process
+   * instead of reading its remaining output once the parsed result is complete.
+   *
+   * @param complete whether a parsed result makes the rest of the output irrelevant
+   */
+  public static <T> Optional<T> executeForStream(
+      List<String> command, OutputParser<T> parser, StringBuilder errorBuilder,
+      Predicate<T> complete) throws IOException {
+    LOGGER.debug("Executing command: " + String.join(" ", command));
+    try (ProcessInvocation invocation = ProcessInvocation.start(command)) {
+      Process p = new ProcessBuilder(command)
+          .redirectError(ProcessBuilder.Redirect.PIPE)
+          .redirectOutput(ProcessBuilder.Redirect.PIPE)
+          .start();
 
-      if (success) {
-        outputBuilder.append(output);
-      } else {
-        outputBuilder.append(error);
+      StringBuilder error = new StringBuilder();
+      Thread errorDrainer = new Thread(() -> drain(p.getErrorStream(), error),
+          "process-stderr-drainer");
+      errorDrainer.setDaemon(true);
+      errorDrainer.start();
+
+      try (InputStream output = invocation.countOutput(p.getInputStream())) {
+        T result;
+        try {
+          result = parser.parse(output);
+        } catch (IOException | RuntimeException e) {
+          discardQuietly(output);
+          int exitCode = p.waitFor();
+          errorDrainer.join();
+          invocation.exited(exitCode);
+          if (exitCode != Shell.SUCCESS) {
+            // A failed command prints nothing worth parsing, its error is what the caller needs
+            errorBuilder.append(error);
+            return Optional.empty();
+          }
+          throw e;
+        }
+        if (complete.test(result)) {
+          p.destroy();
+          invocation.stoppedEarly();
+          return Optional.of(result);
+        }
+        // Whatever the parser did not need is discarded so that the process can exit.
+        discardQuietly(output);
+        int exitCode = p.waitFor();
+        errorDrainer.join();
+        invocation.exited(exitCode);
+        if (exitCode != Shell.SUCCESS) {
+          errorBuilder.append(error);
+          return Optional.empty();
+        }
+        return Optional.of(result);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        p.destroy();
+        throw new IOException("Failed to read process output", e);
+      } catch (IOException e) {
+        p.destroy();
+        throw e;
       }
+    }
+  }
+
+  private static void discard(InputStream stream) throws IOException {
+    byte[] buffer = new byte[8192];
+    while (stream.read(buffer) != -1) {
+      // Discard
+    }
+  }
 
-      return success;
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      p.destroy();
-      throw new IOException("Failed to read process output", e);
+  private static void discardQuietly(InputStream stream) {
+    try {
+      discard(stream);
+    } catch (IOException e) {
+      // The parser may have closed the stream already
+    }
+  }
+
+  private static void drain(InputStream stream, StringBuilder builder) {
+    String lineSeparator = System.getProperty("line.separator");
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        synchronized (builder) {
+          builder.append(line).append(lineSeparator);
+        }
+      }
     } catch (IOException e) {
-      p.destroy();
-      throw e;
+      LOGGER.debug("Failed to read process error output", e);
     }
   }
 }
@@ -0,0 +1,172 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.process;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.io.CountingInputStream;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Tracer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures one run of a command from start to exit and hands the measurement to the
+ * {@link ProcessRecorder} when closed.
+ */
+final class ProcessInvocation implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProcessInvocation.class);
+
+  private static final int MAX_SPAN_COMMAND_WORDS = 4;
+
+  // Global gcloud flags whose value may be given as the next word rather than after a "="
+  private static final List<String> VALUE_FLAGS =
+      Arrays.asList("--account", "--configuration", "--format", "--project");
+
+  private static final Path PROC_SELF_STAT = Paths.get("/proc/self/stat");
+  // USER_HZ, which Linux fixes at 100 for everything it exposes to user space
+  private static final long NANOS_PER_CLOCK_TICK = TimeUnit.SECONDS.toNanos(1) / 100;
+
+  private final String kind;
+  private final Span span;
+  private final long startNanos;
+  private final OptionalLong startChildCpuNanos;
+  private CountingInputStream output;
+  private int exitCode = -1;
+  private boolean stoppedEarly;
+
+  private ProcessInvocation(List<String> command) {
+    this.kind = kind(command);
+    this.span = processSpan(command);
+    this.startChildCpuNanos = childCpuNanos();
+    this.startNanos = System.nanoTime();
+  }
+
+  static ProcessInvocation start(List<String> command) {
+    return new ProcessInvocation(command);
+  }
+
+  /**
+   * Counts the bytes read from the standard output of the process.
+   */
+  InputStream countOutput(InputStream stream) {
+    output = new CountingInputStream(stream);
+    return output;
+  }
+
+  void exited(int exitCode) {
+    this.exitCode = exitCode;
+    span.tag("exit_code", exitCode);
+  }
+
+  /**
+   * Marks the process as stopped on purpose before it exited, which is not a failure.
+   */
+  void stoppedEarly() {
+    stoppedEarly = true;
+    span.tag("stopped_early", true);
+  }
+
+  @Override
+  public void close() {
+    long wallNanos = System.nanoTime() - startNanos;
+    OptionalLong endChildCpuNanos = childCpuNanos();
+    OptionalLong cpuNanos = startChildCpuNanos.isPresent() && endChildCpuNanos.isPresent()
+        ? OptionalLong.of(endChildCpuNanos.getAsLong() - startChildCpuNanos.getAsLong())
+        : OptionalLong.empty();
+    long outputBytes = output != null ? output.getCount() : 0;
+    boolean failed = !stoppedEarly && exitCode != 0;
+    span.tag("output_bytes", outputBytes).close();
+    ProcessRecorder.record(kind, failed, wallNanos, cpuNanos, outputBytes);
+    LOGGER.debug(String.format("%s command exited with %d after %d ms, %d bytes of output",
+        kind, exitCode, TimeUnit.NANOSECONDS.toMillis(wallNanos), outputBytes));
+  }
+
+  /**
+   * Names the kind of a command, e.g. clusters.create for {@code gcloud dataproc clusters create},
+   * and the name of the executable for other commands.
+   */
+  static String kind(List<String> command) {
+    List<String> words = new ArrayList<>();
+    for (int i = 0; i < command.size(); i++) {
+      String word = command.get(i);
+      if (VALUE_FLAGS.contains(word)) {
+        // The value is the next word, e.g. the email address of --account
+        i++;
+      } else if (!word.startsWith("-")) {
+        words.add(word);
+      }
+    }
+    if (words.isEmpty()) {
+      return "unknown";
+    }
+    String executable = Paths.get(words.get(0)).getFileName().toString();
+    if (!executable.equals("gcloud")) {
+      return executable;
+    }
+    List<String> group = words.subList(1, words.size()).stream()
+        .filter(word -> !Arrays.asList("alpha", "beta", "dataproc").contains(word))
+        .limit(2)
+        .collect(Collectors.toList());
+    return group.isEmpty() ? executable : String.join(".", group);
+  }
+
+  private static Span processSpan(List<String> command) {
+    if (!Tracer.isRecording()) {
+      return Tracer.span("process");
+    }
+    String name = command.stream()
+        .limit(MAX_SPAN_COMMAND_WORDS)
+        .filter(word -> !word.startsWith("-"))
+        .collect(Collectors.joining(" "));
+    return Tracer.span("process").tag("command", name);
+  }
+
+  /**
+   * Returns the user and system CPU time of all children of this process that have exited and
+   * been waited for. The difference over a run covers the command, and any other commands that
+   * exited in the meantime when commands run concurrently. Only available on Linux.
+   */
+  static OptionalLong childCpuNanos() {
+    try {
+      String stat = new String(Files.readAllBytes(PROC_SELF_STAT), US_ASCII);
+      // The executable name in the second field may contain spaces, the fields after it do not.
+      // Counting from the state in the third field, cutime and cstime are the 14th and 15th.
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      long ticks = Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+      return OptionalLong.of(ticks * NANOS_PER_CLOCK_TICK);
+    } catch (IOException | RuntimeException e) {
+      return OptionalLong.empty();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.process;
+
+import com.spotify.spydra.metrics.ProcessUsage;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Adds up the commands run through {@link ProcessHelper} per kind of command, so that the usage
+ * of a submission can be reported once it is done.
+ */
+public final class ProcessRecorder {
+
+  private static final Map<String, Totals> totals = new ConcurrentHashMap<>();
+
+  private ProcessRecorder() {
+  }
+
+  static void record(String kind, boolean failed, long wallNanos, OptionalLong cpuNanos,
+                     long outputBytes) {
+    totals.computeIfAbsent(kind, k -> new Totals()).add(failed, wallNanos, cpuNanos, outputBytes);
+  }
+
+  /**
+   * Returns the usage of every kind of command run so far, ordered by kind.
+   */
+  public static List<ProcessUsage> usage() {
+    return totals.entrySet().stream()
+        .sorted(Map.Entry.comparingByKey())
+        .map(entry -> entry.getValue().usage(entry.getKey()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Forgets the commands run so far.
+   */
+  public static void reset() {
+    totals.clear();
+  }
+
+  private static class Totals {
+    private int invocations;
+    private int failures;
+    private long wallNanos;
+    private long cpuNanos;
+    private boolean cpuMeasured = true;
+    private long outputBytes;
+
+    synchronized void add(boolean failed, long wallNanos, OptionalLong cpuNanos,
+                          long outputBytes) {
+      invocations++;
+      failures += failed ? 1 : 0;
+      this.wallNanos += wallNanos;
+      if (cpuNanos.isPresent()) {
+        this.cpuNanos += cpuNanos.getAsLong();
+      } else {
+        cpuMeasured = false;
+      }
+      this.outputBytes += outputBytes;
+    }
+
+    synchronized ProcessUsage usage(String kind) {
+      return new ProcessUsage(kind, invocations, failures, Duration.ofNanos(wallNanos),
+          cpuMeasured ? Optional.of(Duration.ofNanos(cpuNanos)) : Optional.empty(), outputBytes);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.rest;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.QuotaExceededException;
+import com.spotify.spydra.api.gcloud.ClusterListParser;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.retry.ErrorCategory;
+import com.spotify.spydra.api.retry.ErrorClassifier;
+import com.spotify.spydra.api.retry.RetryableException;
+import com.spotify.spydra.model.JsonCodecs;
+import com.spotify.spydra.util.CredentialSession;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads clusters and jobs from the Dataproc REST API over a pool of kept-alive connections,
+ * instead of forking one gcloud process per call.
+ *
+ * <p>Independent requests, such as describing several clusters, are issued concurrently over
+ * the pooled connections and awaited together.
+ */
+public class DataprocRestClient {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DataprocRestClient.class);
+
+  public static final String DEFAULT_ROOT_URL = "https://dataproc.googleapis.com/v1/";
+
+  // Matches the default number of idle connections kept alive per host (http.maxConnections)
+  static final int MAX_CONCURRENT_REQUESTS = 5;
+
+  private static final ObjectReader JOB_READER = JsonCodecs.LOWER_CAMEL_CASE.reader(Job.class);
+
+  private final HttpRequestFactory requestFactory;
+  private final String rootUrl;
+  private final ExecutorService executor;
+
+  public DataprocRestClient() {
+    this(new NetHttpTransport(), DEFAULT_ROOT_URL, bearerToken(CredentialSession.shared()));
+  }
+
+  @VisibleForTesting
+  public DataprocRestClient(HttpTransport transport, String rootUrl,
+                            HttpRequestInitializer initializer) {
+    this.requestFactory = transport.createRequestFactory(initializer);
+    this.rootUrl = rootUrl.endsWith("/") ? rootUrl : rootUrl + "/";
+    this.executor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("dataproc-rest-%d").build());
+  }
+
+  private static HttpRequestInitializer bearerToken(CredentialSession session) {
+    return request -> request.getHeaders().setAuthorization("Bearer " + session.getAccessToken());
+  }
+
+  /**
+   * Lists the clusters matching a query page by page, without requesting further pages once the
+   * query limit has been reached.
+   */
+  public List<Cluster> listClusters(String project, String region, ClusterQuery query)
+      throws IOException {
+    ClusterListParser parser = new ClusterListParser(query);
+    List<Cluster> clusters = new ArrayList<>();
+    Optional<String> pageToken = Optional.empty();
+    do {
+      GenericUrl url = clustersUrl(project, region);
+      String filter = query.conjunctiveFilter();
+      if (!filter.isEmpty()) {
+        url.put("filter", filter);
+      }
+      query.pageSize().ifPresent(pageSize -> url.put("pageSize", pageSize));
+      if (!query.fields().isEmpty()) {
+        url.put("fields", "nextPageToken,clusters(" + fieldMask(query.fields()) + ")");
+      }
+      pageToken.ifPresent(token -> url.put("pageToken", token));
+
+      HttpResponse response = get(url);
+      try (InputStream content = response.getContent()) {
+        checkSuccess(response, "list clusters");
+        pageToken = parser.parsePage(content, clusters);
+      } finally {
+        response.disconnect();
+      }
+    } while (pageToken.isPresent());
+    return clusters;
+  }
+
+  public Optional<Cluster> getCluster(String project, String region, String clusterName)
+      throws IOException {
+    GenericUrl url = clustersUrl(project, region);
+    url.appendRawPath("/" + clusterName);
+    HttpResponse response = get(url);
+    try (InputStream content = response.getContent()) {
+      if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+        return Optional.empty();
+      }
+      checkSuccess(response, "describe cluster " + clusterName);
+      return Optional.of(new ClusterListParser().parseDescription(content));
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  /**
+   * Describes several clusters at once, returning the ones that exist by name.
+   */
+  public Map<String, Cluster> getClusters(String project, String region,
+                                          Collection<String> clusterNames) throws IOException {
+    List<Future<Optional<Cluster>>> futures = clusterNames.stream()
+        .map(name -> executor.submit(() -> getCluster(project, region, name)))
+        .collect(Collectors.toList());
+    Map<String, Cluster> clusters = new LinkedHashMap<>();
+    for (Future<Optional<Cluster>> future : futures) {
+      await(future).ifPresent(cluster -> clusters.put(cluster.clusterName, cluster));
+    }
+    return clusters;
+  }
+
+  public Optional<Job> getJob(String project, String region, String jobId) throws IOException {
+    GenericUrl url = new GenericUrl(
+        String.format("%sprojects/%s/regions/%s/jobs/%s", rootUrl, project, region, jobId));
+    HttpResponse response = get(url);
+    try (InputStream content = response.getContent()) {
+      if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+        return Optional.empty();
+      }
+      checkSuccess(response, "describe job " + jobId);
+      return Optional.of(JOB_READER.readValue(content));
+    } finally {
+      response.disconnect();
+    }
+  }
+
+  private GenericUrl clustersUrl(String project, String region) {
+    return new GenericUrl(
+        String.format("%sprojects/%s/regions/%s/clusters", rootUrl, project, region));
+  }
+
+  private HttpResponse get(GenericUrl url) throws IOException {
+    LOGGER.debug("GET " + url.build());
+    HttpRequest request = requestFactory.buildGetRequest(url);
+    request.setThrowExceptionOnExecuteError(false);
+    return request.execute();
+  }
+
+  private static void checkSuccess(HttpResponse response, String operation) throws IOException {
+    if (!response.isSuccessStatusCode()) {
+      String message = String.format("Failed to %s. Dataproc API returned %d %s: %s",
+          operation, response.getStatusCode(), response.getStatusMessage(),
+          response.parseAsString());
+      ErrorCategory category = ErrorClassifier.classify(response.getStatusCode());
+      if (category == ErrorCategory.RATE_LIMITED) {
+        throw new QuotaExceededException(message, retryAfter(response.getHeaders()));
+      } else if (category.isRetryable()) {
+        throw new RetryableException(category, message, retryAfter(response.getHeaders()));
+      }
+      throw new IOException(message);
+    }
+  }
+
+  /**
+   * Reads a Retry-After header given in seconds. The HTTP date form is not used by Google APIs.
+   */
+  static Optional<Duration> retryAfter(HttpHeaders headers) {
+    Object value = headers.get("retry-after");
+    if (value instanceof List && !((List<?>) value).isEmpty()) {
+      value = ((List<?>) value).get(0);
+    }
+    if (value == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Duration.ofSeconds(Long.parseLong(value.toString().trim())));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Translates dotted field paths into the sub-selection syntax of the fields parameter.
+   */
+  static String fieldMask(List<String> fields) {
+    return fields.stream()
+        .map(field -> field.replace('.', '/'))
+        .collect(Collectors.joining(","));
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the Dataproc API", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Dataproc API request failed", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.retry;
+
+/**
+ * The kinds of Dataproc calls, each with a budget of retries after transient failures that
+ * depends on whether repeating the call is safe. Calls rejected by a rate quota never took
+ * effect and are retried regardless, within the budget of the throttle.
+ */
+public enum DataprocCall {
+  LIST_CLUSTERS("clusters.list", 4),
+  DESCRIBE_CLUSTERS("clusters.describe", 4),
+  // A creation that failed in transit may still have started, a repeat would then fail on the
+  // existing cluster rather than wait for it
+  CREATE_CLUSTER("clusters.create", 0),
+  DELETE_CLUSTER("clusters.delete", 3),
+  UPDATE_CLUSTER("clusters.update", 3),
+  DESCRIBE_OPERATION("operations.describe", 4),
+  CANCEL_OPERATION("operations.cancel", 3),
+  // A repeated submission would fail on the taken job id if the first one went through
+  SUBMIT_JOB("jobs.submit", 0),
+  DESCRIBE_JOB("jobs.describe", 4);
+
+  private final String callName;
+  private final int transientRetries;
+
+  DataprocCall(String callName, int transientRetries) {
+    this.callName = callName;
+    this.transientRetries = transientRetries;
+  }
+
+  /**
+   * The name of the call in logs and metrics.
+   */
+  public String callName() {
+    return callName;
+  }
+
+  /**
+   * How many times the call is retried after transient failures.
+   */
+  public int transientRetries() {
+    return transientRetries;
+  }
+}
@@ -0,0 +1,43 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.retry;
+
+/**
+ * What a failed Dataproc call says about whether repeating it can succeed.
+ */
+public enum ErrorCategory {
+  /**
+   * Rejected by a request rate quota, succeeds once the quota has recovered.
+   */
+  RATE_LIMITED,
+  /**
+   * A passing problem of the service or the network, e.g. UNAVAILABLE or a reset connection.
+   */
+  TRANSIENT,
+  /**
+   * Fails the same way when repeated, e.g. an invalid argument or a missing permission.
+   */
+  PERMANENT;
+
+  public boolean isRetryable() {
+    return this != PERMANENT;
+  }
+}
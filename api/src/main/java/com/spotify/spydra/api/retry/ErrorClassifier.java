@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.retry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.regex.Pattern;
+
+/**
+ * Tells the failures of Dataproc calls that are worth retrying from those that are not, based
+ * on the error output of gcloud, the status of REST API responses or the exception raised.
+ */
+public final class ErrorClassifier {
+
+  // e.g. RESOURCE_EXHAUSTED: Quota exceeded for quota metric 'Read requests'
+  private static final Pattern RATE_LIMITED = Pattern.compile(
+      "RESOURCE_EXHAUSTED|(?i:quota exceeded|rate ?limit ?exceeded|too many requests"
+          + "|HTTPError 429)");
+
+  // e.g. (gcloud.dataproc.clusters.list) UNAVAILABLE: The service is currently unavailable, or
+  // HTTPError 503: Backend Error. Status codes only count as the status of the gcloud command,
+  // not when they appear in a message, e.g. the output of a job or the name of a cluster.
+  private static final Pattern TRANSIENT = Pattern.compile(
+      "\\(gcloud\\.[\\w.-]+\\) (UNAVAILABLE|DEADLINE_EXCEEDED|INTERNAL|ABORTED):"
+          + "|(?i:HTTPError 50[0234]|backend error|connection reset|connection aborted"
+          + "|read timed out|read operation timed out|temporary failure in name resolution)");
+
+  private ErrorClassifier() {
+  }
+
+  /**
+   * Classifies the error output of a failed gcloud call.
+   */
+  public static ErrorCategory classify(String output) {
+    if (RATE_LIMITED.matcher(output).find()) {
+      return ErrorCategory.RATE_LIMITED;
+    }
+    if (TRANSIENT.matcher(output).find()) {
+      return ErrorCategory.TRANSIENT;
+    }
+    return ErrorCategory.PERMANENT;
+  }
+
+  /**
+   * Classifies the status of a failed REST API response.
+   */
+  public static ErrorCategory classify(int httpStatus) {
+    switch (httpStatus) {
+      case 429:
+        return ErrorCategory.RATE_LIMITED;
+      case 500:
+      case 502:
+      case 503:
+      case 504:
+        return ErrorCategory.TRANSIENT;
+      default:
+        return ErrorCategory.PERMANENT;
+    }
+  }
+
+  /**
+   * Classifies the exception a call failed with.
+   */
+  public static ErrorCategory classify(IOException e) {
+    if (e instanceof RetryableException) {
+      return ((RetryableException) e).getCategory();
+    }
+    if (e instanceof SocketTimeoutException) {
+      return ErrorCategory.TRANSIENT;
+    }
+    if (e instanceof InterruptedIOException) {
+      // The caller gave up, repeating the call would only delay that
+      return ErrorCategory.PERMANENT;
+    }
+    if (e instanceof ConnectException || e instanceof NoRouteToHostException
+        || e instanceof UnknownHostException || e instanceof SocketException) {
+      return ErrorCategory.TRANSIENT;
+    }
+    return ErrorCategory.PERMANENT;
+  }
+}
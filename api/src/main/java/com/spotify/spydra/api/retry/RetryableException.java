@@ -0,0 +1,55 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Signals a failed Dataproc call that may succeed when repeated.
+ */
+public class RetryableException extends IOException {
+
+  private final ErrorCategory category;
+  private final Optional<Duration> retryAfter;
+
+  public RetryableException(ErrorCategory category, String msg) {
+    this(category, msg, Optional.empty());
+  }
+
+  public RetryableException(ErrorCategory category, String msg, Optional<Duration> retryAfter) {
+    super(msg);
+    this.category = category;
+    this.retryAfter = retryAfter;
+  }
+
+  public ErrorCategory getCategory() {
+    return category;
+  }
+
+  /**
+   * How long the service asked to wait before retrying, if it said so.
+   */
+  public Optional<Duration> getRetryAfter() {
+    return retryAfter;
+  }
+}
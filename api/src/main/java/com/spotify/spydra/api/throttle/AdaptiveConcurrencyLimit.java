@@ -0,0 +1,76 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.throttle;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits how many calls run at the same time, adapting the limit to how Dataproc copes with the
+ * load: every call that succeeds raises the limit additively, by about one per round of calls,
+ * and every call rejected by a rate quota halves it.
+ */
+public class AdaptiveConcurrencyLimit {
+
+  static final double DECREASE_FACTOR = 0.5;
+
+  private final int maxLimit;
+  private double limit;
+  private int inFlight = 0;
+
+  public AdaptiveConcurrencyLimit(int maxLimit) {
+    this.maxLimit = maxLimit;
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Waits until fewer calls than the current limit are running and registers another one.
+   */
+  public synchronized void acquire() throws InterruptedIOException {
+    while (inFlight >= (int) limit) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a Dataproc call slot");
+      }
+    }
+    inFlight++;
+  }
+
+  /**
+   * Registers that a call has finished and adapts the limit to its outcome.
+   *
+   * @param overloaded whether the call was rejected by a rate quota
+   */
+  public synchronized void release(boolean overloaded) {
+    inFlight--;
+    if (overloaded) {
+      limit = Math.max(1, limit * DECREASE_FACTOR);
+    } else {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  public synchronized int limit() {
+    return (int) limit;
+  }
+}
@@ -0,0 +1,185 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.throttle;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket whose state is kept in a file, so that all Spydra processes on a host draw
+ * from one budget of Dataproc calls rather than each assuming it has the quota to itself.
+ *
+ * <p>The bucket holds up to {@code burst} permits and is refilled at {@code permitsPerSecond}.
+ * Reading and updating the state happens under an exclusive lock on the file, so the bucket
+ * stays consistent however many processes use it. When a call hits a rate quota anyway, the
+ * bucket can be paused, holding back the calls of every process until the quota recovers.
+ */
+public class HostTokenBucket {
+
+  // Tokens as double bits, the time of the last refill and the end of a pause, in epoch millis
+  private static final int STATE_SIZE = 3 * Long.BYTES;
+
+  // File locks are held by the whole process, so its threads take turns on the file first
+  private static final Map<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+  private static class State {
+    double tokens;
+    long refilledAt;
+    long pausedUntil;
+  }
+
+  @FunctionalInterface
+  private interface StateUpdate {
+
+    long apply(State state, long now);
+  }
+
+  private final Path stateFile;
+  private final double permitsPerSecond;
+  private final int burst;
+  private final LongSupplier clock;
+  private final Sleeper sleeper;
+
+  public HostTokenBucket(Path stateFile, double permitsPerSecond, int burst) {
+    this(stateFile, permitsPerSecond, burst, System::currentTimeMillis, Sleeper.SYSTEM);
+  }
+
+  HostTokenBucket(Path stateFile, double permitsPerSecond, int burst, LongSupplier clock,
+                  Sleeper sleeper) {
+    this.stateFile = stateFile.toAbsolutePath().normalize();
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+    this.clock = clock;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * Takes a permit, waiting until one is available and the bucket is not paused.
+   */
+  public void acquire() throws IOException {
+    long waitMillis;
+    while ((waitMillis = tryAcquire()) > 0) {
+      try {
+        sleeper.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a Dataproc call permit");
+      }
+    }
+  }
+
+  /**
+   * Takes a permit if one is available right away.
+   *
+   * @return zero if a permit was taken, otherwise how many milliseconds to wait before trying
+   *         again
+   */
+  long tryAcquire() throws IOException {
+    return update((state, now) -> {
+      if (state.pausedUntil > now) {
+        return state.pausedUntil - now;
+      }
+      if (state.tokens >= 1) {
+        state.tokens -= 1;
+        return 0;
+      }
+      return (long) Math.ceil((1 - state.tokens) * 1000 / permitsPerSecond);
+    });
+  }
+
+  /**
+   * Holds back all permits on the host for a while, e.g. as long as Dataproc asked to wait
+   * after rejecting a call. Overlapping pauses end with the latest one.
+   */
+  public void pause(Duration duration) throws IOException {
+    update((state, now) -> {
+      state.pausedUntil = Math.max(state.pausedUntil, now + duration.toMillis());
+      return 0;
+    });
+  }
+
+  private long update(StateUpdate update) throws IOException {
+    ReentrantLock processLock = PROCESS_LOCKS.computeIfAbsent(stateFile, f -> new ReentrantLock());
+    processLock.lock();
+    try {
+      Files.createDirectories(stateFile.getParent());
+      try (FileChannel channel = FileChannel.open(stateFile, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+           FileLock ignored = channel.lock()) {
+        long now = clock.getAsLong();
+        State state = read(channel, now);
+        // Clocks may step back, which must not drain the bucket
+        long elapsed = Math.max(0, now - state.refilledAt);
+        state.tokens = Math.min(burst, state.tokens + elapsed * permitsPerSecond / 1000);
+        state.refilledAt = Math.max(now, state.refilledAt);
+        long result = update.apply(state, now);
+        write(channel, state);
+        return result;
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  private State read(FileChannel channel, long now) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE);
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+      // Keep reading
+    }
+    State state = new State();
+    if (buffer.hasRemaining()) {
+      // A new or truncated state file starts out full
+      state.tokens = burst;
+      state.refilledAt = now;
+      return state;
+    }
+    buffer.flip();
+    state.tokens = Double.longBitsToDouble(buffer.getLong());
+    state.refilledAt = buffer.getLong();
+    state.pausedUntil = buffer.getLong();
+    if (Double.isNaN(state.tokens)) {
+      state.tokens = burst;
+    }
+    return state;
+  }
+
+  private static void write(FileChannel channel, State state) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(STATE_SIZE);
+    buffer.putLong(Double.doubleToLongBits(state.tokens));
+    buffer.putLong(state.refilledAt);
+    buffer.putLong(state.pausedUntil);
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, buffer.position());
+    }
+  }
+}
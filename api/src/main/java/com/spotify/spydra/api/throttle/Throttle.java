@@ -0,0 +1,185 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.throttle;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Paces the calls to Dataproc: at most a host-wide rate of calls through a
+ * {@link HostTokenBucket}, at most an adaptive number of concurrent calls per process through an
+ * {@link AdaptiveConcurrencyLimit}, and backoff between the retries of failed calls.
+ */
+public class Throttle {
+
+  public static final int DEFAULT_MAX_RETRIES = 5;
+  public static final double DEFAULT_REQUESTS_PER_SECOND = 5;
+  public static final int DEFAULT_BURST = 10;
+  public static final int DEFAULT_MAX_CONCURRENCY = 8;
+  public static final String DEFAULT_STATE_FILE = ".spydra/dataproc-rate-limit";
+
+  static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+  static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+
+  // Processes use a single throttle for all their Dataproc calls
+  private static final Map<Path, Throttle> SHARED = new ConcurrentHashMap<>();
+
+  /**
+   * The slot of a call holding back other calls while it runs.
+   */
+  public class Permit implements AutoCloseable {
+
+    private boolean overloaded = false;
+
+    private Permit() {
+    }
+
+    /**
+     * Marks the call as rejected by a rate quota, lowering the concurrency limit once it ends.
+     */
+    public void overloaded() {
+      overloaded = true;
+    }
+
+    @Override
+    public void close() {
+      concurrency.ifPresent(limit -> limit.release(overloaded));
+    }
+  }
+
+  private final Optional<HostTokenBucket> bucket;
+  private final Optional<AdaptiveConcurrencyLimit> concurrency;
+  private final int maxRetries;
+  private final Sleeper sleeper;
+
+  public Throttle(Optional<HostTokenBucket> bucket,
+                  Optional<AdaptiveConcurrencyLimit> concurrency,
+                  int maxRetries, Sleeper sleeper) {
+    this.bucket = bucket;
+    this.concurrency = concurrency;
+    this.maxRetries = maxRetries;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * A throttle that lets all calls through right away, but still backs off between retries.
+   */
+  public static Throttle none() {
+    return new Throttle(Optional.empty(), Optional.empty(), DEFAULT_MAX_RETRIES, Sleeper.SYSTEM);
+  }
+
+  /**
+   * Returns the throttle configured for a submission, shared by all calls of the process that use
+   * the same rate limit state.
+   */
+  public static Throttle forArguments(SpydraArgument arguments) {
+    if (!arguments.isRateLimitEnabled()) {
+      return none();
+    }
+    SpydraArgument.RateLimit rateLimit = arguments.getRateLimit();
+    Path stateFile = rateLimit.getStateFile()
+        .map(Paths::get)
+        .orElseGet(() -> Paths.get(System.getProperty("user.home"), DEFAULT_STATE_FILE))
+        .toAbsolutePath()
+        .normalize();
+    return SHARED.computeIfAbsent(stateFile, file -> new Throttle(
+        Optional.of(new HostTokenBucket(file,
+            rateLimit.getRequestsPerSecond().orElse(DEFAULT_REQUESTS_PER_SECOND),
+            rateLimit.getBurst().orElse(DEFAULT_BURST))),
+        Optional.of(new AdaptiveConcurrencyLimit(
+            rateLimit.getMaxConcurrency().orElse(DEFAULT_MAX_CONCURRENCY))),
+        rateLimit.getMaxRetries().orElse(DEFAULT_MAX_RETRIES),
+        Sleeper.SYSTEM));
+  }
+
+  /**
+   * Waits for a slot and a permit to make a call. The returned permit must be closed when the
+   * call has ended.
+   */
+  public Permit acquire() throws IOException {
+    if (concurrency.isPresent()) {
+      concurrency.get().acquire();
+    }
+    Permit permit = new Permit();
+    try {
+      awaitRate();
+    } catch (IOException | RuntimeException e) {
+      permit.close();
+      throw e;
+    }
+    return permit;
+  }
+
+  /**
+   * Waits only for the host-wide rate, for calls that hold on for too long to take up a slot,
+   * like job submissions that wait for the job to finish.
+   */
+  public void awaitRate() throws IOException {
+    if (bucket.isPresent()) {
+      bucket.get().acquire();
+    }
+  }
+
+  /**
+   * How many times a call rejected by a rate quota is retried.
+   */
+  public int maxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Returns how long to wait before the given retry of a failed call: exponentially growing,
+   * capped at {@link #MAX_BACKOFF} and randomized so that processes failing together do not
+   * retry together.
+   */
+  public Duration backoff(int retry) {
+    long exponential = INITIAL_BACKOFF.toMillis() << Math.min(retry - 1, 16);
+    long capped = Math.min(MAX_BACKOFF.toMillis(), exponential);
+    return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+  }
+
+  /**
+   * Waits before retrying a failed call.
+   *
+   * @param rateLimited whether the call was rejected by a rate quota, in which case the other
+   *                    processes on the host hold back their calls for as long, as they would
+   *                    most likely be rejected as well
+   */
+  public void backOff(Duration duration, boolean rateLimited) throws IOException {
+    if (rateLimited && bucket.isPresent()) {
+      bucket.get().pause(duration);
+    }
+    try {
+      sleeper.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while backing off from Dataproc");
+    }
+  }
+}
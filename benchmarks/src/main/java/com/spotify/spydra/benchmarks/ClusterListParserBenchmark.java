@@ -0,0 +1,139 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.gcloud.ClusterListParser;
+import com.spotify.spydra.api.model.Cluster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing the output of {@code gcloud dataproc clusters list}, as done by the gcloud
+ * executor, for listings with full cluster descriptions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterListParserBenchmark {
+
+  @Param({"10", "1000"})
+  public int clusterCount;
+
+  private byte[] listing;
+  private ClusterQuery firstRunningOfClient;
+
+  @Setup
+  public void setUp() {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < clusterCount; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append(cluster(i));
+    }
+    listing = json.append(']').toString().getBytes(UTF_8);
+
+    // The clusters of the client are at the end of the listing
+    firstRunningOfClient = ClusterQuery.builder()
+        .label("client", "client-" + (clusterCount - 1) % 10)
+        .states("RUNNING")
+        .limit(1)
+        .build();
+  }
+
+  @Benchmark
+  public List<Cluster> parseAll() throws IOException {
+    return new ClusterListParser().parse(new ByteArrayInputStream(listing));
+  }
+
+  @Benchmark
+  public List<Cluster> parseFirstMatching() throws IOException {
+    return new ClusterListParser(firstRunningOfClient).parse(new ByteArrayInputStream(listing));
+  }
+
+  private static String cluster(int i) {
+    String name = "spydra-" + i;
+    return "{\"clusterName\": \"" + name + "\","
+        + " \"clusterUuid\": \"0b6a1c7e-5f4e-4c1a-9a43-" + String.format("%012d", i) + "\","
+        + " \"projectId\": \"project\","
+        + " \"config\": {"
+        + "   \"configBucket\": \"dataproc-staging-bucket\","
+        + "   \"gceClusterConfig\": {"
+        + "     \"metadata\": {\"heartbeat\": \"2018-05-01T10:15:30.123Z\"},"
+        + "     \"serviceAccountScopes\": ["
+        + "       \"https://www.googleapis.com/auth/cloud-platform\"],"
+        + "     \"subnetworkUri\": \"https://www.googleapis.com/compute/v1/projects/project"
+        + "/regions/europe-west1/subnetworks/default\","
+        + "     \"zoneUri\": \"https://www.googleapis.com/compute/v1/projects/project"
+        + "/zones/europe-west1-b\"},"
+        + "   \"initializationActions\": [{"
+        + "     \"executableFile\": \"gs://spydra-init-actions/spydra/autoscaler.sh\","
+        + "     \"executionTimeout\": \"600s\"}],"
+        + "   \"masterConfig\": {"
+        + "     \"diskConfig\": {\"bootDiskSizeGb\": 500},"
+        + "     \"imageUri\": \"https://www.googleapis.com/compute/v1/projects/cloud-dataproc"
+        + "/global/images/dataproc-1-2-deb9\","
+        + "     \"instanceNames\": [\"" + name + "-m\"],"
+        + "     \"machineTypeUri\": \"https://www.googleapis.com/compute/v1/projects/project"
+        + "/zones/europe-west1-b/machineTypes/n1-standard-4\","
+        + "     \"numInstances\": 1},"
+        + "   \"softwareConfig\": {"
+        + "     \"imageVersion\": \"1.2.36\","
+        + "     \"properties\": {"
+        + "       \"mapred:mapreduce.jobhistory.done-dir\": \"gs://bucket/history/client/done\","
+        + "       \"yarn:yarn.log-aggregation-enable\": \"true\","
+        + "       \"core:fs.gs.implicit.dir.repair.enable\": \"false\"}},"
+        + "   \"workerConfig\": {"
+        + "     \"diskConfig\": {\"bootDiskSizeGb\": 500},"
+        + "     \"instanceNames\": [\"" + name + "-w-0\", \"" + name + "-w-1\"],"
+        + "     \"machineTypeUri\": \"n1-standard-8\","
+        + "     \"numInstances\": 2}},"
+        + " \"labels\": {\"spydra-cluster\": \"1\", \"client\": \"client-" + i % 10 + "\","
+        + "   \"spydra-placement-token\": \"" + i + "-211842\"},"
+        + " \"metrics\": {"
+        + "   \"hdfsMetrics\": {\"dfs-capacity-used\": \"1073741824\"},"
+        + "   \"yarnMetrics\": {\"yarn-apps-running\": \"1\","
+        + "     \"yarn-memory-mb-available\": \"0\"}},"
+        + " \"status\": {\"state\": \"RUNNING\", \"stateStartTime\": \"2018-05-01T10:00:00.123Z\"},"
+        + " \"statusHistory\": ["
+        + "   {\"state\": \"CREATING\", \"stateStartTime\": \"2018-05-01T09:58:00.123Z\"}]"
+        + "}";
+  }
+}
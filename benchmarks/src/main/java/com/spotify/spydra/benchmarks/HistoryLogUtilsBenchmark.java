@@ -0,0 +1,92 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks;
+
+import com.spotify.spydra.historytools.HistoryLogUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures locating the history file of a job in a recursive listing of the history done
+ * directory, laid out as the job history server does with a history and a configuration file
+ * per job. The wanted job is the last one listed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HistoryLogUtilsBenchmark {
+
+  private static final long CLUSTER_TIMESTAMP = 1525167330123L;
+  private static final String DONE_DIR = "gs://bucket/history/client/done";
+
+  @Param({"10000", "1000000"})
+  public int listingSize;
+
+  private List<LocatedFileStatus> listing;
+  private ApplicationId applicationId;
+
+  @Setup
+  public void setUp() throws IOException {
+    int jobs = listingSize / 2;
+    listing = new ArrayList<>(listingSize);
+    for (int id = 1; id <= jobs; id++) {
+      String dir = String.format("%s/2018/05/01/%06d/", DONE_DIR, id / 1000);
+      String job = String.format("job_%d_%04d", CLUSTER_TIMESTAMP, id);
+      listing.add(file(dir + job + "-1525168000000-user-word+count-1525168100000-4-1"
+          + "-SUCCEEDED-default-1525168010000.jhist"));
+      listing.add(file(dir + job + "_conf.xml"));
+    }
+    applicationId = ApplicationId.newInstance(CLUSTER_TIMESTAMP, jobs);
+  }
+
+  @Benchmark
+  public Optional<String> findHistoryFilePath() {
+    return HistoryLogUtils.findHistoryFilePath(listing.iterator(), applicationId);
+  }
+
+  private static LocatedFileStatus file(String path) throws IOException {
+    return new LocatedFileStatus(
+        new FileStatus(1024, false, 1, 64 * 1024 * 1024, 0, new Path(path)),
+        new BlockLocation[0]);
+  }
+}
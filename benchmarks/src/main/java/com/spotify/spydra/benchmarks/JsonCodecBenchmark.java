@@ -0,0 +1,90 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.model.JsonCodecs;
+import com.spotify.spydra.model.JsonHelper;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading the JSON of a gcloud job description and of a Spydra configuration file
+ * with a mapper set up per call, as done before {@link JsonCodecs}, to reading it with the
+ * shared codecs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+  private static final String JOB_JSON = "{"
+      + "\"reference\": {\"projectId\": \"project\", \"jobId\": \"spydra-job-1\"},"
+      + "\"placement\": {\"clusterName\": \"spydra-cluster\", \"clusterUuid\": \"uuid\"},"
+      + "\"status\": {\"state\": \"RUNNING\", \"stateStartTime\": \"2018-05-01T10:15:30.123Z\"},"
+      + "\"driverOutputResourceUri\": \"gs://bucket/google-cloud-dataproc-metainfo/driveroutput\""
+      + "}";
+
+  private static final String CONFIG_JSON = "{"
+      + "\"client_id\": \"client\","
+      + "\"cluster_type\": \"dataproc\","
+      + "\"log_bucket\": \"bucket\","
+      + "\"region\": \"europe-west1\","
+      + "\"cluster\": {\"options\": {\"project\": \"project\", \"num-workers\": \"4\"}},"
+      + "\"submit\": {\"options\": {\"project\": \"project\"}}"
+      + "}";
+
+  @Benchmark
+  public Job jobWithMapperPerCall() throws IOException {
+    return JsonHelper.objectMapper()
+        .setPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CAMEL_CASE)
+        .readValue(JOB_JSON, Job.class);
+  }
+
+  @Benchmark
+  public Job jobWithSharedCodec() throws IOException {
+    return JsonCodecs.LOWER_CAMEL_CASE.read(JOB_JSON, Job.class);
+  }
+
+  @Benchmark
+  public SpydraArgument configWithMapperPerCall() throws IOException {
+    return JsonHelper.objectMapper().readValue(CONFIG_JSON, SpydraArgument.class);
+  }
+
+  @Benchmark
+  public SpydraArgument configWithSharedCodec() throws IOException {
+    return JsonCodecs.SNAKE_CASE.read(CONFIG_JSON, SpydraArgument.class);
+  }
+}
@@ -0,0 +1,99 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks;
+
+import com.spotify.spydra.model.ClusterType;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.SpydraArgumentUtil;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the configuration handling done before every submission: loading the bundled
+ * defaults from the classpath, merging them with the user's arguments and replacing the
+ * placeholders in the cluster properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpydraArgumentBenchmark {
+
+  private SpydraArgument defaults;
+  private SpydraArgument arguments;
+
+  @Setup
+  public void setUp() throws IOException, URISyntaxException {
+    defaults = SpydraArgumentUtil.loadArguments(
+        SpydraArgumentUtil.DEFAULT_DATAPROC_ARGUMENT_FILE_NAME);
+
+    arguments = new SpydraArgument();
+    arguments.setClientId("client");
+    arguments.setLogBucket("bucket");
+    arguments.setClusterType(ClusterType.DATAPROC);
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_PROJECT, "project");
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_NUM_WORKERS, "8");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_JAR, "job.jar");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_PROPERTIES,
+        "mapreduce.job.user.name=${CLIENT_ID},mapreduce.job.queuename=default");
+  }
+
+  @Benchmark
+  public SpydraArgument loadDefaults() throws IOException, URISyntaxException {
+    return SpydraArgumentUtil.loadArguments(
+        SpydraArgumentUtil.DEFAULT_DATAPROC_ARGUMENT_FILE_NAME);
+  }
+
+  @Benchmark
+  public SpydraArgument merge() {
+    return SpydraArgument.merge(defaults, arguments);
+  }
+
+  /**
+   * Placeholders are replaced in place, so this merges into a fresh copy first; subtract
+   * {@link #merge()} for the cost of the replacement alone.
+   */
+  @Benchmark
+  public SpydraArgument mergeAndReplacePlaceholders() {
+    SpydraArgument merged = SpydraArgument.merge(defaults, arguments);
+    merged.replacePlaceholders();
+    return merged;
+  }
+
+  @Benchmark
+  public SpydraArgument mergeConfigurations() throws IOException, URISyntaxException {
+    return SpydraArgumentUtil.mergeConfigurations(arguments, Optional.of("user@example.com"));
+  }
+}
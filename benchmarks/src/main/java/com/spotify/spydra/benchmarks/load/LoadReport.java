@@ -0,0 +1,185 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks.load;
+
+import com.spotify.spydra.model.JsonCodecs;
+import com.spotify.spydra.testing.FakeGcloud.CallerActivity;
+import com.spotify.spydra.testing.FakeGcp;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a load test, written as JSON so that runs against different versions can be
+ * compared. Latencies are in milliseconds.
+ */
+class LoadReport {
+
+  /**
+   * How one submission went, as seen by the load test.
+   */
+  static class Submission {
+
+    final String caller;
+    final boolean succeeded;
+    final Instant started;
+    final Instant finished;
+
+    Submission(String caller, boolean succeeded, Instant started, Instant finished) {
+      this.caller = caller;
+      this.succeeded = succeeded;
+      this.started = started;
+      this.finished = finished;
+    }
+  }
+
+  /**
+   * The distribution of a measurement over the submissions.
+   */
+  static class Distribution {
+
+    public final int count;
+    public final double mean;
+    public final long p50;
+    public final long p90;
+    public final long p99;
+    public final long max;
+
+    Distribution(List<Long> values) {
+      List<Long> sorted = new ArrayList<>(values);
+      Collections.sort(sorted);
+      count = sorted.size();
+      mean = sorted.stream().mapToLong(Long::longValue).average().orElse(0);
+      p50 = percentile(sorted, 50);
+      p90 = percentile(sorted, 90);
+      p99 = percentile(sorted, 99);
+      max = sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1);
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+      if (sorted.isEmpty()) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+      return sorted.get(Math.max(rank, 1) - 1);
+    }
+  }
+
+  public final String label;
+  public final Map<String, Object> settings;
+  public final long durationMillis;
+  public final int succeeded;
+  public final int failed;
+  public final double failureRate;
+  public final int apiCalls;
+  public final Map<String, Integer> apiCallsByKind;
+  public final Distribution apiCallsPerSubmission;
+  public final int clustersCreated;
+  public final int peakClusters;
+  public final int clusterOvershoot;
+  // From the first Dataproc call of a submission to the submission of its job
+  public final Distribution acquisitionLatency;
+  public final Distribution submissionLatency;
+
+  private LoadReport(LoadSettings settings, List<Submission> submissions, FakeGcp gcp,
+                     Duration duration) {
+    Map<String, CallerActivity> callers = gcp.gcloud().callers();
+
+    label = settings.label;
+    this.settings = settings(settings);
+    durationMillis = duration.toMillis();
+    succeeded = (int) submissions.stream().filter(submission -> submission.succeeded).count();
+    failed = submissions.size() - succeeded;
+    failureRate = (double) failed / submissions.size();
+    apiCallsByKind = gcp.dataproc().calls();
+    apiCalls = apiCallsByKind.values().stream().mapToInt(Integer::intValue).sum();
+
+    List<Long> callCounts = new ArrayList<>();
+    List<Long> acquisitionLatencies = new ArrayList<>();
+    List<Long> submissionLatencies = new ArrayList<>();
+    for (Submission submission : submissions) {
+      CallerActivity activity = callers.get(submission.caller);
+      callCounts.add(activity == null ? 0L : activity.calls);
+      if (activity != null && activity.firstJobSubmission.isPresent()) {
+        acquisitionLatencies.add(
+            Duration.between(activity.firstCall, activity.firstJobSubmission.get()).toMillis());
+      }
+      submissionLatencies.add(Duration.between(submission.started, submission.finished).toMillis());
+    }
+    apiCallsPerSubmission = new Distribution(callCounts);
+    acquisitionLatency = new Distribution(acquisitionLatencies);
+    submissionLatency = new Distribution(submissionLatencies);
+
+    clustersCreated = gcp.dataproc().createdClusters();
+    peakClusters = gcp.dataproc().peakClusters();
+    clusterOvershoot = settings.isPooled() ? Math.max(0, peakClusters - settings.poolLimit) : 0;
+  }
+
+  static LoadReport create(LoadSettings settings, List<Submission> submissions, FakeGcp gcp,
+                           Duration duration) {
+    return new LoadReport(settings, submissions, gcp, duration);
+  }
+
+  String toJson() throws IOException {
+    return JsonCodecs.SNAKE_CASE.writer().withDefaultPrettyPrinter().writeValueAsString(this);
+  }
+
+  String summary() {
+    return String.format("%s: %d submissions in %d s, %d failed (%.1f %%)%n"
+            + "Dataproc calls: %d, per submission mean %.1f, p99 %d, max %d%n"
+            + "Clusters: %d created, peak %d, %d over the pool limit%n"
+            + "Cluster acquisition: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n"
+            + "Submission: p50 %d ms, p90 %d ms, p99 %d ms, max %d ms",
+        label, succeeded + failed, durationMillis / 1000, failed, failureRate * 100,
+        apiCalls, apiCallsPerSubmission.mean, apiCallsPerSubmission.p99,
+        apiCallsPerSubmission.max,
+        clustersCreated, peakClusters, clusterOvershoot,
+        acquisitionLatency.p50, acquisitionLatency.p90, acquisitionLatency.p99,
+        acquisitionLatency.max,
+        submissionLatency.p50, submissionLatency.p90, submissionLatency.p99,
+        submissionLatency.max);
+  }
+
+  private static Map<String, Object> settings(LoadSettings settings) {
+    Map<String, Object> values = new LinkedHashMap<>();
+    values.put("submissions", settings.submissions);
+    values.put("ramp_up", settings.rampUp.toString());
+    values.put("mode", settings.mode);
+    values.put("pool_limit", settings.poolLimit);
+    values.put("pool_max_age", settings.poolMaxAge.toString());
+    values.put("call_latency", settings.callLatency.toString());
+    values.put("cluster_create_time", settings.clusterCreateTime.toString());
+    values.put("job_run_time", settings.jobRunTime.toString());
+    values.put("max_clusters", unlimitedAsNull(settings.maxClusters));
+    values.put("max_calls_per_minute", unlimitedAsNull(settings.maxCallsPerMinute));
+    values.put("failing_jobs", settings.failingJobs);
+    return values;
+  }
+
+  private static Integer unlimitedAsNull(int limit) {
+    return limit == Integer.MAX_VALUE ? null : limit;
+  }
+}
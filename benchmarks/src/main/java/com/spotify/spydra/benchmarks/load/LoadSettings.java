@@ -0,0 +1,157 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks.load;
+
+import com.spotify.spydra.submitter.runner.CliHelper;
+import com.spotify.spydra.testing.FakeDataproc;
+import java.time.Duration;
+import java.util.function.Function;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+/**
+ * The shape of a load test: how many submissions start how quickly, how they are pooled and how
+ * the fake Dataproc behaves. Durations are given like {@code PT30S}.
+ */
+class LoadSettings {
+
+  static final String MODE_THREADS = "threads";
+  static final String MODE_PROCESSES = "processes";
+
+  private static final String SUBMISSIONS = "submissions";
+  private static final String RAMP_UP = "ramp-up";
+  private static final String MODE = "mode";
+  private static final String POOL_LIMIT = "pool-limit";
+  private static final String POOL_MAX_AGE = "pool-max-age";
+  private static final String CALL_LATENCY = "call-latency";
+  private static final String CLUSTER_CREATE_TIME = "cluster-create-time";
+  private static final String JOB_RUN_TIME = "job-run-time";
+  private static final String MAX_CLUSTERS = "max-clusters";
+  private static final String MAX_CALLS_PER_MINUTE = "max-calls-per-minute";
+  private static final String FAILING_JOBS = "failing-jobs";
+  private static final String REPORT = "report";
+  private static final String LABEL = "label";
+
+  private static final Options options = new Options();
+
+  static {
+    options.addOption(CliHelper.createSingleOption(SUBMISSIONS,
+        "number of submissions, 500 by default"));
+    options.addOption(CliHelper.createSingleOption(RAMP_UP,
+        "time over which the submissions are started evenly, PT1M by default"));
+    options.addOption(CliHelper.createSingleOption(MODE,
+        "run submissions as threads of this JVM or as separate processes, threads by default"));
+    options.addOption(CliHelper.createSingleOption(POOL_LIMIT,
+        "pooling limit of the submissions, 10 by default, 0 to create a cluster per submission"));
+    options.addOption(CliHelper.createSingleOption(POOL_MAX_AGE,
+        "maximum age of pooled clusters, PT30M by default"));
+    options.addOption(CliHelper.createSingleOption(CALL_LATENCY,
+        "latency of every fake Dataproc call, PT0.5S by default"));
+    options.addOption(CliHelper.createSingleOption(CLUSTER_CREATE_TIME,
+        "time fake clusters take to come up, PT5S by default"));
+    options.addOption(CliHelper.createSingleOption(JOB_RUN_TIME,
+        "time fake jobs run, PT10S by default"));
+    options.addOption(CliHelper.createSingleOption(MAX_CLUSTERS,
+        "cluster quota of the fake Dataproc, unlimited by default"));
+    options.addOption(CliHelper.createSingleOption(MAX_CALLS_PER_MINUTE,
+        "rate quota of the fake Dataproc, unlimited by default"));
+    options.addOption(CliHelper.createSingleOption(FAILING_JOBS,
+        "number of jobs the fake Dataproc fails, 0 by default"));
+    options.addOption(CliHelper.createSingleOption(REPORT,
+        "file to write the JSON report to, only printed by default"));
+    options.addOption(CliHelper.createSingleOption(LABEL,
+        "label of the report, such as the version under test, the Spydra version by default"));
+  }
+
+  final int submissions;
+  final Duration rampUp;
+  final String mode;
+  final int poolLimit;
+  final Duration poolMaxAge;
+  final Duration callLatency;
+  final Duration clusterCreateTime;
+  final Duration jobRunTime;
+  final int maxClusters;
+  final int maxCallsPerMinute;
+  final int failingJobs;
+  final String report;
+  final String label;
+
+  private LoadSettings(CommandLine commandLine) {
+    submissions = value(commandLine, SUBMISSIONS, Integer::valueOf, 500);
+    rampUp = value(commandLine, RAMP_UP, Duration::parse, Duration.ofMinutes(1));
+    mode = value(commandLine, MODE, Function.identity(), MODE_THREADS);
+    poolLimit = value(commandLine, POOL_LIMIT, Integer::valueOf, 10);
+    poolMaxAge = value(commandLine, POOL_MAX_AGE, Duration::parse, Duration.ofMinutes(30));
+    callLatency = value(commandLine, CALL_LATENCY, Duration::parse, Duration.ofMillis(500));
+    clusterCreateTime =
+        value(commandLine, CLUSTER_CREATE_TIME, Duration::parse, Duration.ofSeconds(5));
+    jobRunTime = value(commandLine, JOB_RUN_TIME, Duration::parse, Duration.ofSeconds(10));
+    maxClusters = value(commandLine, MAX_CLUSTERS, Integer::valueOf, Integer.MAX_VALUE);
+    maxCallsPerMinute =
+        value(commandLine, MAX_CALLS_PER_MINUTE, Integer::valueOf, Integer.MAX_VALUE);
+    failingJobs = value(commandLine, FAILING_JOBS, Integer::valueOf, 0);
+    report = commandLine.getOptionValue(REPORT);
+    label = value(commandLine, LABEL, Function.identity(), spydraVersion());
+
+    if (!mode.equals(MODE_THREADS) && !mode.equals(MODE_PROCESSES)) {
+      throw new IllegalArgumentException("Unknown mode: " + mode);
+    }
+    if (submissions <= 0 || poolLimit < 0) {
+      throw new IllegalArgumentException("Submissions must be positive and the pool limit not "
+          + "negative");
+    }
+  }
+
+  static LoadSettings parse(String[] args) {
+    return new LoadSettings(CliHelper.tryParse(new DefaultParser(), options, args));
+  }
+
+  static void printHelp() {
+    new HelpFormatter().printHelp(SubmissionLoadTest.class.getName(), options);
+  }
+
+  boolean isPooled() {
+    return poolLimit > 0;
+  }
+
+  void applyTo(FakeDataproc dataproc) {
+    dataproc.setCallLatency(callLatency);
+    dataproc.setClusterCreateTime(clusterCreateTime);
+    dataproc.setJobRunTime(jobRunTime);
+    dataproc.setMaxClusters(maxClusters);
+    dataproc.setMaxCallsPerMinute(maxCallsPerMinute);
+    dataproc.failNextJobs(failingJobs);
+  }
+
+  private static <T> T value(CommandLine commandLine, String option, Function<String, T> parser,
+                             T defaultValue) {
+    String value = commandLine.getOptionValue(option);
+    return value == null ? defaultValue : parser.apply(value);
+  }
+
+  private static String spydraVersion() {
+    String version = CliHelper.class.getPackage().getImplementationVersion();
+    return version == null ? "unknown" : version;
+  }
+}
@@ -0,0 +1,299 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.benchmarks.load;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.model.JsonCodecs;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.submitter.api.Submitter;
+import com.spotify.spydra.submitter.runner.CliConsts;
+import com.spotify.spydra.submitter.runner.HelpParser;
+import com.spotify.spydra.submitter.runner.Runner;
+import com.spotify.spydra.submitter.runner.SubmissionCliParser;
+import com.spotify.spydra.testing.FakeGcloud;
+import com.spotify.spydra.testing.FakeGcp;
+import com.spotify.spydra.util.SpydraArgumentUtil;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts many submissions at once against a {@link FakeGcp} and reports how Spydra copes with
+ * them: the Dataproc calls each submission makes, how far pooling overshoots its limit, how long
+ * acquiring a cluster takes and how many submissions fail.
+ *
+ * <p>Submissions run as threads of this JVM, or with {@code --mode processes} as separate Spydra
+ * processes like independent clients. See {@link LoadSettings} for the options, and run it from
+ * the benchmarks jar:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.spotify.spydra.benchmarks.load.SubmissionLoadTest
+ * </pre>
+ */
+public class SubmissionLoadTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubmissionLoadTest.class);
+
+  private static final String CLIENT_ID = "load-test";
+  private static final String LOG_BUCKET = "load-test-logs";
+  private static final String REGION = "europe-west1";
+
+  private final LoadSettings settings;
+  private final FakeGcp gcp;
+  private final Path workDirectory;
+
+  SubmissionLoadTest(LoadSettings settings, FakeGcp gcp, Path workDirectory) {
+    this.settings = settings;
+    this.gcp = gcp;
+    this.workDirectory = workDirectory;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (HelpParser.helpSpecified(args)) {
+      LoadSettings.printHelp();
+      System.exit(1);
+    }
+    LoadSettings settings = LoadSettings.parse(args);
+    Path workDirectory = Files.createTempDirectory("spydra-load-test");
+
+    LoadReport report;
+    try (FakeGcp gcp = FakeGcp.start()) {
+      settings.applyTo(gcp.dataproc());
+      report = new SubmissionLoadTest(settings, gcp, workDirectory).run();
+    }
+
+    System.out.println(report.summary());
+    String json = report.toJson();
+    if (settings.report != null) {
+      Files.write(Paths.get(settings.report), json.getBytes(UTF_8));
+      System.out.println("Wrote report to " + settings.report);
+    } else {
+      System.out.println(json);
+    }
+    System.out.println("Submission configuration and logs are in " + workDirectory);
+    System.exit(0);
+  }
+
+  LoadReport run() throws IOException, InterruptedException {
+    Path configuration = writeConfiguration();
+    boolean threads = settings.mode.equals(LoadSettings.MODE_THREADS);
+
+    Properties systemProperties = System.getProperties();
+    CallerProperties callerProperties = null;
+    if (threads) {
+      gcp.install();
+      // The gcloud executors of a submission are created on its thread, and pick up the
+      // executable attributing their calls to it from there
+      callerProperties = new CallerProperties(systemProperties);
+      System.setProperties(callerProperties);
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("load-submission-%d").build());
+    try {
+      List<Future<LoadReport.Submission>> futures = new ArrayList<>();
+      long rampUpNanos = settings.rampUp.toNanos();
+      long start = System.nanoTime();
+      Instant started = Instant.now();
+      for (int i = 0; i < settings.submissions; i++) {
+        String caller = String.format("submission-%04d", i);
+        long startAt = start + rampUpNanos / settings.submissions * i;
+        List<String> arguments = submitArguments(configuration);
+        if (threads) {
+          // Parsed up front as the parser is not thread-safe
+          SpydraArgument parsed = parse(arguments);
+          CallerProperties properties = callerProperties;
+          futures.add(executor.submit(() -> submission(caller, startAt,
+              () -> submitInThread(properties, caller, parsed))));
+        } else {
+          futures.add(executor.submit(() -> submission(caller, startAt,
+              () -> submitInProcess(caller, arguments))));
+        }
+      }
+
+      List<LoadReport.Submission> submissions = new ArrayList<>();
+      for (Future<LoadReport.Submission> future : futures) {
+        submissions.add(future.get());
+      }
+      return LoadReport.create(settings, submissions, gcp,
+          Duration.between(started, Instant.now()));
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to run a submission", e.getCause());
+    } finally {
+      executor.shutdownNow();
+      if (threads) {
+        System.setProperties(systemProperties);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Submit {
+
+    boolean submit() throws Exception;
+  }
+
+  private static LoadReport.Submission submission(String caller, long startAt, Submit submit)
+      throws InterruptedException {
+    long delay = startAt - System.nanoTime();
+    if (delay > 0) {
+      TimeUnit.NANOSECONDS.sleep(delay);
+    }
+    Instant started = Instant.now();
+    boolean succeeded;
+    try {
+      succeeded = submit.submit();
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      LOGGER.warn("Submission " + caller + " failed", e);
+      succeeded = false;
+    }
+    return new LoadReport.Submission(caller, succeeded, started, Instant.now());
+  }
+
+  private boolean submitInThread(CallerProperties properties, String caller,
+                                 SpydraArgument arguments) throws IOException {
+    properties.setGcloudCommand(gcp.gcloud().command(caller));
+    return Submitter.getSubmitter(arguments).executeJob(arguments);
+  }
+
+  private boolean submitInProcess(String caller, List<String> arguments)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(gcp.jvmArguments());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(Runner.class.getName());
+    command.add(CliConsts.SUBMIT_CMD_NAME);
+    command.addAll(arguments);
+
+    ProcessBuilder processBuilder = new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectOutput(workDirectory.resolve(caller + ".log").toFile());
+    processBuilder.environment().put(FakeGcloud.CALLER_VARIABLE, caller);
+    // Only the fake project may be used
+    processBuilder.environment().remove("GOOGLE_APPLICATION_CREDENTIALS");
+    Process process = processBuilder.start();
+    try {
+      return process.waitFor() == 0;
+    } finally {
+      process.destroy();
+    }
+  }
+
+  private static List<String> submitArguments(Path configuration) {
+    return Arrays.asList("--" + CliConsts.SPYDRA_JSON_OPTION_NAME + "=" + configuration);
+  }
+
+  /**
+   * Merges the configuration of a submission like the submit command does.
+   */
+  private static SpydraArgument parse(List<String> arguments) throws IOException {
+    SpydraArgument parsed = new SubmissionCliParser().parse(arguments.toArray(new String[0]));
+    try {
+      SpydraArgument merged = SpydraArgumentUtil.mergeConfigurations(parsed, Optional.empty());
+      merged.replacePlaceholders();
+      return merged;
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Path writeConfiguration() throws IOException {
+    Map<String, Object> configuration = new LinkedHashMap<>();
+    configuration.put("cluster_type", "dataproc");
+    configuration.put("client_id", CLIENT_ID);
+    configuration.put("log_bucket", LOG_BUCKET);
+    configuration.put("region", REGION);
+    configuration.put("job_type", "hadoop");
+    // Job history is not waited for, the load is on acquiring clusters
+    configuration.put("history_timeout", 0);
+    if (settings.isPooled()) {
+      Map<String, Object> pooling = new LinkedHashMap<>();
+      pooling.put("limit", settings.poolLimit);
+      pooling.put("max_age", settings.poolMaxAge.toString());
+      configuration.put("pooling", pooling);
+    }
+    configuration.put("cluster", options(SpydraArgument.OPTION_PROJECT, FakeGcp.PROJECT));
+    configuration.put("submit", options(SpydraArgument.OPTION_JAR, "gs://load-test/job.jar"));
+
+    Path file = workDirectory.resolve("spydra.json");
+    Files.write(file, JsonCodecs.SNAKE_CASE.write(configuration).getBytes(UTF_8));
+    return file;
+  }
+
+  private static Map<String, Object> options(String key, String value) {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put(key, value);
+    Map<String, Object> section = new LinkedHashMap<>();
+    section.put("options", options);
+    return section;
+  }
+
+  /**
+   * System properties that point the gcloud executors created on a thread, and the threads it
+   * starts, at the executable of its own caller.
+   */
+  private static class CallerProperties extends Properties {
+
+    private final transient InheritableThreadLocal<Path> gcloudCommand =
+        new InheritableThreadLocal<>();
+
+    CallerProperties(Properties properties) {
+      putAll(properties);
+    }
+
+    void setGcloudCommand(Path command) {
+      gcloudCommand.set(command);
+    }
+
+    @Override
+    public String getProperty(String key) {
+      Path command = gcloudCommand.get();
+      if (command != null && key.equals(GcloudExecutor.GCLOUD_COMMAND_PROPERTY)) {
+        return command.toString();
+      }
+      return super.getProperty(key);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static com.spotify.spydra.submitter.api.PoolingSubmitter.SPYDRA_PLACEMENT_TOKEN_LABEL;
+
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how a pooled submission computes the placements of the pool and looks for its
+ * cluster in the listing, at pool limits and listing sizes beyond what is common today.
+ *
+ * <p>Lives in the package of {@link ClusterPlacement} as the placement methods are package
+ * private. Half of the listed clusters belong to the current placements, the rest are of the
+ * previous generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterPlacementBenchmark {
+
+  private static final Supplier<Long> TIME_SOURCE = () -> 1525167330123L;
+
+  @Param({"10", "100", "1000"})
+  public int poolLimit;
+
+  @Param({"100", "10000"})
+  public int clusterCount;
+
+  private SpydraArgument.Pooling pooling;
+  private List<ClusterPlacement> placements;
+  private List<Cluster> clusters;
+  private List<Cluster> pooledClusters;
+  private ClusterPlacement lastPlacement;
+
+  @Setup
+  public void setUp() {
+    pooling = new SpydraArgument.Pooling();
+    pooling.setLimit(poolLimit);
+    pooling.setMaxAge(Duration.ofHours(2));
+
+    placements = ClusterPlacement.all(TIME_SOURCE, pooling);
+    lastPlacement = placements.get(placements.size() - 1);
+
+    clusters = new ArrayList<>(clusterCount);
+    for (int i = 0; i < clusterCount; i++) {
+      Cluster cluster = new Cluster();
+      cluster.clusterName = "spydra-" + i;
+      ClusterPlacement placement = placements.get(i % placements.size());
+      long generation = i % 2 == 0
+          ? placement.clusterGeneration()
+          : placement.clusterGeneration() - 1;
+      cluster.labels = Collections.singletonMap(SPYDRA_PLACEMENT_TOKEN_LABEL,
+          placement.clusterNumber() + "-" + generation);
+      clusters.add(cluster);
+    }
+    pooledClusters = ClusterPlacement.filterClusters(clusters, placements);
+  }
+
+  @Benchmark
+  public List<ClusterPlacement> all() {
+    return ClusterPlacement.all(TIME_SOURCE, pooling);
+  }
+
+  @Benchmark
+  public List<Cluster> filterClusters() {
+    return ClusterPlacement.filterClusters(clusters, placements);
+  }
+
+  /**
+   * Looks for the last placement of the pool, which is found at the end of the listing, if at
+   * all.
+   */
+  @Benchmark
+  public Optional<Cluster> findIn() {
+    return lastPlacement.findIn(pooledClusters);
+  }
+}
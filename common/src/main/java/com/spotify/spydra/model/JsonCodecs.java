@@ -0,0 +1,98 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared, pre-configured JSON readers and writers, one set per property naming strategy.
+ *
+ * <p>Setting up an {@link ObjectMapper} and looking up the (de)serializers of a type is costly,
+ * so every reader is built once per type and reused. Readers and writers are immutable and safe
+ * to use from several threads, and the mapper behind them is never handed out, so that its
+ * configuration cannot be changed after the first use.
+ */
+public final class JsonCodecs {
+
+  /**
+   * Spydra configuration files and local state.
+   */
+  public static final JsonCodecs SNAKE_CASE = new JsonCodecs(PropertyNamingStrategy.SNAKE_CASE);
+
+  /**
+   * The output of gcloud and the responses of the Dataproc REST API.
+   */
+  public static final JsonCodecs LOWER_CAMEL_CASE =
+      new JsonCodecs(PropertyNamingStrategy.LOWER_CAMEL_CASE);
+
+  private final ObjectMapper mapper;
+  private final ObjectWriter writer;
+  private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+  private JsonCodecs(PropertyNamingStrategy namingStrategy) {
+    mapper = JsonHelper.objectMapper().setPropertyNamingStrategy(namingStrategy);
+    writer = mapper.writer();
+  }
+
+  /**
+   * Returns the reader of a type, built on first use.
+   */
+  public ObjectReader reader(Class<?> type) {
+    return readers.computeIfAbsent(type, mapper::readerFor);
+  }
+
+  public ObjectWriter writer() {
+    return writer;
+  }
+
+  /**
+   * Returns the factory of streaming parsers matching the readers, for callers that bind only
+   * parts of a document.
+   */
+  public JsonFactory factory() {
+    return mapper.getFactory();
+  }
+
+  public <T> T read(String json, Class<T> type) throws IOException {
+    return reader(type).readValue(json);
+  }
+
+  public <T> T read(InputStream in, Class<T> type) throws IOException {
+    return reader(type).readValue(in);
+  }
+
+  public <T> T read(File file, Class<T> type) throws IOException {
+    return reader(type).readValue(file);
+  }
+
+  public String write(Object value) throws IOException {
+    return writer.writeValueAsString(value);
+  }
+}
@@ -35,17 +35,21 @@ public class JsonHelper {
   protected static final ObjectMapper OBJECT_MAPPER = objectMapper();
 
   public static <T> T fromString(String json, Class<T> clazz) throws IOException {
-    return OBJECT_MAPPER.readValue(json, clazz);
+    return JsonCodecs.SNAKE_CASE.read(json, clazz);
   }
 
   public static <T> T fromStream(InputStream in, Class<T> clazz) throws IOException {
-    return OBJECT_MAPPER.readValue(in, clazz);
+    return JsonCodecs.SNAKE_CASE.read(in, clazz);
   }
 
   public static String toString(Object object) throws IOException {
-    return OBJECT_MAPPER.writeValueAsString(object);
+    return JsonCodecs.SNAKE_CASE.write(object);
   }
 
+  /**
+   * Creates a new, separately configurable mapper. This is costly, reading and writing should go
+   * through the shared {@link JsonCodecs} instead.
+   */
   public static ObjectMapper objectMapper() {
     return new ObjectMapper()
         .setPropertyNamingStrategy(SNAKE_CASE)
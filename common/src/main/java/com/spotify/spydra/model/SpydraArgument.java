@@ -21,6 +21,9 @@
 package com.spotify.spydra.model;
 
 import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -63,6 +66,7 @@ public class SpydraArgument {
   public static final String CLIENT_ID_PROPERTIES_PLACEHOLDER = "${CLIENT_ID}";
   public static final String LOG_BUCKET_PROPERTIES_PLACEHOLDER = "${LOG_BUCKET}";
   public static final String UUID_PLACEHOLDER = "${UUID}";
+  public static final String PARTITION_PLACEHOLDER = "${PARTITION}";
 
   public static final String OPTION_DRYRUN = "dry-run";
 
@@ -78,6 +82,17 @@ public class SpydraArgument {
   public Optional<Boolean> dryRun = Optional.of(false);
   public Optional<AutoScaler> autoScaler = Optional.empty();
   public Optional<Pooling> pooling = Optional.empty();
+  public Optional<Boolean> reuseIdleClusters = Optional.empty();
+  public Optional<DetachedSubmit> detachedSubmit = Optional.empty();
+  public Optional<Heartbeat> heartbeat = Optional.empty();
+  public Optional<FanOut> fanOut = Optional.empty();
+  public Optional<Boolean> restApi = Optional.empty();
+  public Optional<DeletionReaper> deletionReaper = Optional.empty();
+  public Optional<RateLimit> rateLimit = Optional.empty();
+  public Optional<AsyncMetrics> asyncMetrics = Optional.empty();
+  public Optional<Tracing> tracing = Optional.empty();
+  public Optional<Prometheus> prometheus = Optional.empty();
+  public Optional<List<String>> metricClasses = Optional.empty();
 
   // Dataproc arguments
   public Cluster cluster = new Cluster();
@@ -257,6 +272,273 @@ public class SpydraArgument {
 
   }
 
+  public static class DetachedSubmit {
+    public Optional<String> stateDir = Optional.empty();
+    public Optional<Duration> minPollInterval = Optional.empty();
+    public Optional<Duration> maxPollInterval = Optional.empty();
+    public Optional<Boolean> streamDriverOutput = Optional.empty();
+
+    public Optional<String> getStateDir() {
+      return stateDir;
+    }
+
+    public void setStateDir(String stateDir) {
+      this.stateDir = Optional.of(stateDir);
+    }
+
+    public Optional<Duration> getMinPollInterval() {
+      return minPollInterval;
+    }
+
+    public void setMinPollInterval(Duration minPollInterval) {
+      this.minPollInterval = Optional.of(minPollInterval);
+    }
+
+    public Optional<Duration> getMaxPollInterval() {
+      return maxPollInterval;
+    }
+
+    public void setMaxPollInterval(Duration maxPollInterval) {
+      this.maxPollInterval = Optional.of(maxPollInterval);
+    }
+
+    public boolean isStreamDriverOutput() {
+      return streamDriverOutput.orElse(false);
+    }
+
+    public void setStreamDriverOutput(Boolean streamDriverOutput) {
+      this.streamDriverOutput = Optional.of(streamDriverOutput);
+    }
+  }
+
+  public static class Heartbeat {
+    public Optional<Duration> interval = Optional.empty();
+    public Optional<Duration> timeout = Optional.empty();
+
+    public Optional<Duration> getInterval() {
+      return interval;
+    }
+
+    public void setInterval(Duration interval) {
+      this.interval = Optional.of(interval);
+    }
+
+    public Optional<Duration> getTimeout() {
+      return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+      this.timeout = Optional.of(timeout);
+    }
+  }
+
+  public static class FanOut {
+    public Optional<List<String>> partitions = Optional.empty();
+    public Optional<LocalDate> start = Optional.empty();
+    public Optional<LocalDate> end = Optional.empty();
+    public Optional<Period> step = Optional.empty();
+    public Optional<Integer> concurrency = Optional.empty();
+
+    public Optional<List<String>> getPartitions() {
+      return partitions;
+    }
+
+    public void setPartitions(List<String> partitions) {
+      this.partitions = Optional.of(partitions);
+    }
+
+    public Optional<LocalDate> getStart() {
+      return start;
+    }
+
+    public void setStart(LocalDate start) {
+      this.start = Optional.of(start);
+    }
+
+    public Optional<LocalDate> getEnd() {
+      return end;
+    }
+
+    public void setEnd(LocalDate end) {
+      this.end = Optional.of(end);
+    }
+
+    public Optional<Period> getStep() {
+      return step;
+    }
+
+    public void setStep(Period step) {
+      this.step = Optional.of(step);
+    }
+
+    public Optional<Integer> getConcurrency() {
+      return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+      this.concurrency = Optional.of(concurrency);
+    }
+  }
+
+  public static class DeletionReaper {
+    public Optional<String> queueDir = Optional.empty();
+    public Optional<Integer> concurrency = Optional.empty();
+    public Optional<Double> deletesPerSecond = Optional.empty();
+    public Optional<Boolean> reconcileErrorClusters = Optional.empty();
+
+    public Optional<String> getQueueDir() {
+      return queueDir;
+    }
+
+    public void setQueueDir(String queueDir) {
+      this.queueDir = Optional.of(queueDir);
+    }
+
+    public Optional<Integer> getConcurrency() {
+      return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+      this.concurrency = Optional.of(concurrency);
+    }
+
+    public Optional<Double> getDeletesPerSecond() {
+      return deletesPerSecond;
+    }
+
+    public void setDeletesPerSecond(Double deletesPerSecond) {
+      this.deletesPerSecond = Optional.of(deletesPerSecond);
+    }
+
+    public boolean isReconcileErrorClusters() {
+      return reconcileErrorClusters.orElse(false);
+    }
+
+    public void setReconcileErrorClusters(Boolean reconcileErrorClusters) {
+      this.reconcileErrorClusters = Optional.of(reconcileErrorClusters);
+    }
+  }
+
+  public static class RateLimit {
+    public Optional<String> stateFile = Optional.empty();
+    public Optional<Double> requestsPerSecond = Optional.empty();
+    public Optional<Integer> burst = Optional.empty();
+    public Optional<Integer> maxConcurrency = Optional.empty();
+    public Optional<Integer> maxRetries = Optional.empty();
+
+    public Optional<String> getStateFile() {
+      return stateFile;
+    }
+
+    public void setStateFile(String stateFile) {
+      this.stateFile = Optional.of(stateFile);
+    }
+
+    public Optional<Double> getRequestsPerSecond() {
+      return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(Double requestsPerSecond) {
+      this.requestsPerSecond = Optional.of(requestsPerSecond);
+    }
+
+    public Optional<Integer> getBurst() {
+      return burst;
+    }
+
+    public void setBurst(Integer burst) {
+      this.burst = Optional.of(burst);
+    }
+
+    public Optional<Integer> getMaxConcurrency() {
+      return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+      this.maxConcurrency = Optional.of(maxConcurrency);
+    }
+
+    public Optional<Integer> getMaxRetries() {
+      return maxRetries;
+    }
+
+    public void setMaxRetries(Integer maxRetries) {
+      this.maxRetries = Optional.of(maxRetries);
+    }
+  }
+
+  public static class AsyncMetrics {
+    public Optional<Integer> queueSize = Optional.empty();
+    public Optional<Duration> flushTimeout = Optional.empty();
+    public Optional<String> spoolDir = Optional.empty();
+
+    public Optional<Integer> getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(Integer queueSize) {
+      this.queueSize = Optional.of(queueSize);
+    }
+
+    public Optional<Duration> getFlushTimeout() {
+      return flushTimeout;
+    }
+
+    public void setFlushTimeout(Duration flushTimeout) {
+      this.flushTimeout = Optional.of(flushTimeout);
+    }
+
+    public Optional<String> getSpoolDir() {
+      return spoolDir;
+    }
+
+    public void setSpoolDir(String spoolDir) {
+      this.spoolDir = Optional.of(spoolDir);
+    }
+  }
+
+  public static class Tracing {
+    public Optional<String> traceDir = Optional.empty();
+    public Optional<String> collectorUrl = Optional.empty();
+
+    public Optional<String> getTraceDir() {
+      return traceDir;
+    }
+
+    public void setTraceDir(String traceDir) {
+      this.traceDir = Optional.of(traceDir);
+    }
+
+    public Optional<String> getCollectorUrl() {
+      return collectorUrl;
+    }
+
+    public void setCollectorUrl(String collectorUrl) {
+      this.collectorUrl = Optional.of(collectorUrl);
+    }
+  }
+
+  public static class Prometheus {
+    public Optional<String> textfileDirectory = Optional.empty();
+    public Optional<Integer> httpPort = Optional.empty();
+
+    public Optional<String> getTextfileDirectory() {
+      return textfileDirectory;
+    }
+
+    public void setTextfileDirectory(String textfileDirectory) {
+      this.textfileDirectory = Optional.of(textfileDirectory);
+    }
+
+    public Optional<Integer> getHttpPort() {
+      return httpPort;
+    }
+
+    public void setHttpPort(Integer httpPort) {
+      this.httpPort = Optional.of(httpPort);
+    }
+  }
+
   /**
    * Merges two set of arguments, with the values in the first argument overwritten by the second.
    *
@@ -292,6 +574,12 @@ public class SpydraArgument {
       merged.metricClass = first.metricClass;
     }
 
+    if (second.metricClasses.isPresent()) {
+      merged.metricClasses = second.metricClasses;
+    } else {
+      merged.metricClasses = first.metricClasses;
+    }
+
     if (second.clusterType.isPresent()) {
       merged.clusterType = second.clusterType;
     } else {
@@ -358,9 +646,82 @@ public class SpydraArgument {
       merged.region = first.region;
     }
 
+    if (second.reuseIdleClusters.isPresent()) {
+      merged.reuseIdleClusters = second.reuseIdleClusters;
+    } else {
+      merged.reuseIdleClusters = first.reuseIdleClusters;
+    }
+
+    if (second.detachedSubmit.isPresent()) {
+      merged.detachedSubmit = second.detachedSubmit;
+    } else {
+      merged.detachedSubmit = first.detachedSubmit;
+    }
+
+    if (second.heartbeat.isPresent()) {
+      merged.heartbeat = second.heartbeat;
+    } else {
+      merged.heartbeat = first.heartbeat;
+    }
+
+    if (second.fanOut.isPresent()) {
+      merged.fanOut = second.fanOut;
+    } else {
+      merged.fanOut = first.fanOut;
+    }
+
+    if (second.restApi.isPresent()) {
+      merged.restApi = second.restApi;
+    } else {
+      merged.restApi = first.restApi;
+    }
+
+    if (second.deletionReaper.isPresent()) {
+      merged.deletionReaper = second.deletionReaper;
+    } else {
+      merged.deletionReaper = first.deletionReaper;
+    }
+
+    if (second.rateLimit.isPresent()) {
+      merged.rateLimit = second.rateLimit;
+    } else {
+      merged.rateLimit = first.rateLimit;
+    }
+
+    if (second.asyncMetrics.isPresent()) {
+      merged.asyncMetrics = second.asyncMetrics;
+    } else {
+      merged.asyncMetrics = first.asyncMetrics;
+    }
+
+    if (second.tracing.isPresent()) {
+      merged.tracing = second.tracing;
+    } else {
+      merged.tracing = first.tracing;
+    }
+
+    if (second.prometheus.isPresent()) {
+      merged.prometheus = second.prometheus;
+    } else {
+      merged.prometheus = first.prometheus;
+    }
+
     return merged;
   }
 
+  /**
+   * Creates a copy that does not change along with these arguments. The cluster, its options, the
+   * submit options and the job arguments are copied. The remaining settings are shared, as they
+   * are not changed once the arguments have been read.
+   */
+  public SpydraArgument copy() {
+    SpydraArgument nothing = new SpydraArgument();
+    nothing.dryRun = Optional.empty();
+    SpydraArgument copy = merge(this, nothing);
+    copy.submit.jobArgs = submit.jobArgs.map(ArrayList::new);
+    return copy;
+  }
+
   public void replacePlaceholders() {
     replacePlaceholders(getCluster().getOptions());
     replacePlaceholders(getSubmit().getOptions());
@@ -463,6 +824,10 @@ public class SpydraArgument {
     return metricClass.get();
   }
 
+  public Optional<List<String>> getMetricClasses() {
+    return metricClasses;
+  }
+
   public String getRegion() {
     return region.get();
   }
@@ -515,6 +880,118 @@ public class SpydraArgument {
     return pooling.isPresent();
   }
 
+  public boolean isReuseIdleClustersEnabled() {
+    return reuseIdleClusters.orElse(false);
+  }
+
+  public void setReuseIdleClusters(Boolean reuseIdleClusters) {
+    this.reuseIdleClusters = Optional.of(reuseIdleClusters);
+  }
+
+  public DetachedSubmit getDetachedSubmit() {
+    return detachedSubmit.get();
+  }
+
+  public void setDetachedSubmit(DetachedSubmit detachedSubmit) {
+    this.detachedSubmit = Optional.of(detachedSubmit);
+  }
+
+  public boolean isDetachedSubmitEnabled() {
+    return detachedSubmit.isPresent();
+  }
+
+  public Heartbeat getHeartbeat() {
+    return heartbeat.get();
+  }
+
+  public void setHeartbeat(Heartbeat heartbeat) {
+    this.heartbeat = Optional.of(heartbeat);
+  }
+
+  public boolean isHeartbeatEnabled() {
+    return heartbeat.isPresent();
+  }
+
+  public FanOut getFanOut() {
+    return fanOut.get();
+  }
+
+  public void setFanOut(FanOut fanOut) {
+    this.fanOut = Optional.of(fanOut);
+  }
+
+  public boolean isFanOutEnabled() {
+    return fanOut.isPresent();
+  }
+
+  public boolean isRestApiEnabled() {
+    return restApi.orElse(false);
+  }
+
+  public void setRestApi(Boolean restApi) {
+    this.restApi = Optional.of(restApi);
+  }
+
+  public DeletionReaper getDeletionReaper() {
+    return deletionReaper.get();
+  }
+
+  public void setDeletionReaper(DeletionReaper deletionReaper) {
+    this.deletionReaper = Optional.of(deletionReaper);
+  }
+
+  public boolean isDeletionReaperEnabled() {
+    return deletionReaper.isPresent();
+  }
+
+  public RateLimit getRateLimit() {
+    return rateLimit.get();
+  }
+
+  public void setRateLimit(RateLimit rateLimit) {
+    this.rateLimit = Optional.of(rateLimit);
+  }
+
+  public boolean isRateLimitEnabled() {
+    return rateLimit.isPresent();
+  }
+
+  public AsyncMetrics getAsyncMetrics() {
+    return asyncMetrics.get();
+  }
+
+  public void setAsyncMetrics(AsyncMetrics asyncMetrics) {
+    this.asyncMetrics = Optional.of(asyncMetrics);
+  }
+
+  public boolean isAsyncMetricsEnabled() {
+    return asyncMetrics.isPresent();
+  }
+
+  public Tracing getTracing() {
+    return tracing.get();
+  }
+
+  public void setTracing(Tracing tracing) {
+    this.tracing = Optional.of(tracing);
+  }
+
+  public boolean isTracingEnabled() {
+    return tracing.isPresent();
+  }
+
+  public Prometheus getPrometheus() {
+    return prometheus.get();
+  }
+
+  public void setPrometheus(Prometheus prometheus) {
+    this.prometheus = Optional.of(prometheus);
+  }
+
+  public boolean isPrometheusEnabled() {
+    return prometheus.isPresent();
+  }
+
   public void setClientId(String clientId) {
     this.clientId = Optional.of(clientId);
   }
@@ -527,6 +1004,10 @@ public class SpydraArgument {
     this.metricClass = Optional.of(metricClass);
   }
 
+  public void setMetricClasses(List<String> metricClasses) {
+    this.metricClasses = Optional.of(metricClasses);
+  }
+
   public void setRegion(String region) {
     this.region = Optional.of(region);
   }
@@ -0,0 +1,66 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util;
+
+import java.time.Duration;
+
+/**
+ * A poll interval that starts short and grows geometrically while nothing changes.
+ *
+ * <p>Call {@link #reset()} whenever progress is observed to go back to polling often.
+ */
+public class AdaptivePollInterval {
+
+  private final Duration min;
+  private final Duration max;
+  private final double factor;
+  private Duration current;
+
+  public AdaptivePollInterval(Duration min, Duration max, double factor) {
+    if (min.isNegative() || min.isZero()) {
+      throw new IllegalArgumentException("Minimum poll interval must be positive");
+    }
+    if (max.compareTo(min) < 0) {
+      throw new IllegalArgumentException("Maximum poll interval must not be less than minimum");
+    }
+    if (factor < 1.0) {
+      throw new IllegalArgumentException("Poll interval factor must be at least 1.0");
+    }
+    this.min = min;
+    this.max = max;
+    this.factor = factor;
+    this.current = min;
+  }
+
+  /**
+   * Returns the interval to wait before the next poll and grows the interval for the one after.
+   */
+  public Duration next() {
+    Duration interval = current;
+    long grownMillis = (long) Math.ceil(current.toMillis() * factor);
+    current = grownMillis >= max.toMillis() ? max : Duration.ofMillis(grownMillis);
+    return interval;
+  }
+
+  public void reset() {
+    current = min;
+  }
+}
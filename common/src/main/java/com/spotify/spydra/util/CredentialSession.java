@@ -0,0 +1,128 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * The credentials of this process, resolved once and shared by everything talking to GCP.
+ *
+ * <p>Project id, user id and credentials are looked up on first use and cached for the lifetime of
+ * the session. Access tokens are cached as well and only refreshed when they are about to expire.
+ */
+public class CredentialSession {
+
+  static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+
+  private static final String CLOUD_PLATFORM_SCOPE =
+      "https://www.googleapis.com/auth/cloud-platform";
+
+  private static class SharedSessionHolder {
+    static final CredentialSession INSTANCE =
+        new CredentialSession(GcpConfiguration.create(), Clock.systemUTC());
+  }
+
+  private final GcpConfiguration configuration;
+  private final Clock clock;
+
+  private String projectId;
+  private Optional<String> userId;
+  private GoogleCredentials credentials;
+  private GoogleCredentials scopedCredentials;
+  private GoogleCredential credential;
+
+  @VisibleForTesting
+  CredentialSession(GcpConfiguration configuration, Clock clock) {
+    this.configuration = configuration;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the session for the credentials configured in the environment of this process.
+   */
+  public static CredentialSession shared() {
+    return SharedSessionHolder.INSTANCE;
+  }
+
+  public synchronized String getProjectId() {
+    if (projectId == null) {
+      projectId = configuration.getProjectId();
+    }
+    return projectId;
+  }
+
+  public synchronized Optional<String> getUserId() {
+    if (userId == null) {
+      userId = configuration.getUserId();
+    }
+    return userId;
+  }
+
+  public Optional<String> getJsonCredentialsPath() {
+    return configuration.getJsonCredentialsPath();
+  }
+
+  public synchronized GoogleCredentials getCredentials() {
+    if (credentials == null) {
+      credentials = configuration.getCredentials();
+    }
+    return credentials;
+  }
+
+  public synchronized GoogleCredential getCredential() {
+    if (credential == null) {
+      credential = configuration.getCredential();
+    }
+    return credential;
+  }
+
+  /**
+   * Returns an access token for the cloud-platform scope that is valid for at least
+   * {@link #REFRESH_MARGIN}, refreshing the cached token if needed.
+   */
+  public synchronized String getAccessToken() throws IOException {
+    if (scopedCredentials == null) {
+      GoogleCredentials unscoped = getCredentials();
+      scopedCredentials = unscoped.createScopedRequired()
+          ? unscoped.createScoped(Collections.singletonList(CLOUD_PLATFORM_SCOPE))
+          : unscoped;
+    }
+    AccessToken token = scopedCredentials.getAccessToken();
+    if (token == null || expiresSoon(token)) {
+      scopedCredentials.refresh();
+      token = scopedCredentials.getAccessToken();
+    }
+    return token.getTokenValue();
+  }
+
+  private boolean expiresSoon(AccessToken token) {
+    return token.getExpirationTime() != null
+        && token.getExpirationTime().getTime() - clock.millis() < REFRESH_MARGIN.toMillis();
+  }
+}
@@ -20,11 +20,13 @@
 
 package com.spotify.spydra.util;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.auth.Credentials;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
 import com.google.cloud.ServiceOptions;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
 import java.io.ByteArrayInputStream;
@@ -57,7 +59,7 @@ public abstract class GcpConfiguration {
     return Optional.ofNullable(jsonCredentialPath());
   }
 
-  public abstract Credentials getCredentials();
+  public abstract GoogleCredentials getCredentials();
 
   public abstract GoogleCredential getCredential();
 
@@ -69,7 +71,7 @@ public abstract class GcpConfiguration {
     }
 
     @Override
-    public Credentials getCredentials() {
+    public GoogleCredentials getCredentials() {
       try {
         return GoogleCredentials.getApplicationDefault();
       } catch (IOException e) {
@@ -94,61 +96,68 @@ public abstract class GcpConfiguration {
 
   private static class GcpConfigurationFromServiceAccountKey extends GcpConfiguration {
 
+    // The key file is read and parsed once, on first use.
+    private String credentialJson;
+    private DocumentContext credentialDocument;
+
     @Override
     public String getProjectId() {
-      return projectFromJsonCredential(credentialJsonFromEnv());
+      try {
+        return credentialDocument().read("$.project_id");
+      } catch (PathNotFoundException ex) {
+        throw new RuntimeException("Could not parse project_id from credentials.");
+      }
     }
 
-    private String credentialJsonFromEnv() {
+    private synchronized String credentialJsonFromEnv() {
+      if (credentialJson != null) {
+        return credentialJson;
+      }
       String jsonFile = jsonCredentialPath();
       if (jsonFile == null || !Files.exists(Paths.get(jsonFile))) {
         throw new IllegalArgumentException(
             "GOOGLE_APPLICATION_CREDENTIALS needs to be set and point to a valid credential json");
       }
       try {
-        return new String(Files.readAllBytes(Paths.get(jsonFile)));
+        credentialJson = new String(Files.readAllBytes(Paths.get(jsonFile)), UTF_8);
+        return credentialJson;
       } catch (IOException e) {
         throw new RuntimeException("Failed to read " + jsonFile, e);
       }
     }
 
-    private String projectFromJsonCredential(String json) {
-      try {
-        return JsonPath.read(json, "$.project_id");
-      } catch (PathNotFoundException ex) {
-        throw new RuntimeException("Could not parse project_id from credentials.");
+    private synchronized DocumentContext credentialDocument() {
+      if (credentialDocument == null) {
+        credentialDocument = JsonPath.parse(credentialJsonFromEnv());
       }
+      return credentialDocument;
     }
 
     @Override
-    public Credentials getCredentials() {
+    public GoogleCredentials getCredentials() {
       try {
         return ServiceAccountCredentials.fromStream(
-            new ByteArrayInputStream(credentialJsonFromEnv().getBytes("UTF-8")));
+            new ByteArrayInputStream(credentialJsonFromEnv().getBytes(UTF_8)));
       } catch (IOException e) {
         throw new RuntimeException("Failed to load service account credentials from file", e);
       }
     }
 
-    private String userIdFromJsonCredential(String json) {
+    @Override
+    public Optional<String> getUserId() {
       try {
-        return JsonPath.read(json, "$.client_email");
+        return Optional.of(credentialDocument().read("$.client_email"));
       } catch (PathNotFoundException ex) {
         throw new IllegalArgumentException(
             "No valid credentials (service account) were available to forward to the cluster.", ex);
       }
     }
 
-    @Override
-    public Optional<String> getUserId() {
-      return Optional.of(userIdFromJsonCredential(credentialJsonFromEnv()));
-    }
-
     @Override
     public GoogleCredential getCredential() {
       try {
         return GoogleCredential.fromStream(
-            new ByteArrayInputStream(credentialJsonFromEnv().getBytes()));
+            new ByteArrayInputStream(credentialJsonFromEnv().getBytes(UTF_8)));
       } catch (IOException e) {
         throw new RuntimeException("Failed to load GoogleCredential from json", e);
       }
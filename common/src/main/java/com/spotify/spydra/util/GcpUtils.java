@@ -25,17 +25,29 @@ import static java.util.Objects.requireNonNull;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.gax.paging.Page;
 import com.google.auth.Credentials;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.BucketInfo;
 import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
 import com.spotify.spydra.model.SpydraArgument;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.StreamSupport;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -48,9 +60,15 @@ public class GcpUtils {
 
   private static final String HADOOP_CONFIG_NAME = "spydra-default.xml";
 
-  public static Storage storage;
+  private static final int HTTP_PRECONDITION_FAILED = 412;
+
+  /**
+   * The root URL of a Cloud Storage emulator to use instead of Cloud Storage, e.g.
+   * http://localhost:8080. No credentials are sent to it.
+   */
+  public static final String STORAGE_ENDPOINT_PROPERTY = "spydra.storage.endpoint";
 
-  private static final GcpConfiguration gcpConfiguration = GcpConfiguration.create();
+  public static Storage storage;
 
   public void configureCredentialFromEnvironment(Configuration configuration) {
     configuration.set("fs.gs.project.id", getProjectId());
@@ -78,6 +96,15 @@ public class GcpUtils {
 
   public void configureStorageFromEnvironment()
       throws IOException {
+    String endpoint = System.getProperty(STORAGE_ENDPOINT_PROPERTY);
+    if (endpoint != null) {
+      storage = StorageOptions.newBuilder()
+          .setHost(endpoint)
+          .setCredentials(NoCredentials.getInstance())
+          .build()
+          .getService();
+      return;
+    }
     storage = StorageOptions.newBuilder()
         .setCredentials(getCredentials())
         .setProjectId(getProjectId())
@@ -106,6 +133,131 @@ public class GcpUtils {
     return blob;
   }
 
+  /**
+   * Atomically creates a blob, failing if a blob with the same name already exists.
+   *
+   * @return the generation of the created blob, or empty if it already existed
+   */
+  public Optional<Long> createBlobIfAbsent(String bucketName, String blobName, byte[] content) {
+    BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, blobName))
+        .setContentType("text/plain")
+        .build();
+    try {
+      return Optional.of(
+          storage.create(blobInfo, content, Storage.BlobTargetOption.doesNotExist())
+              .getGeneration());
+    } catch (StorageException e) {
+      if (e.getCode() == HTTP_PRECONDITION_FAILED) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the generation of a blob and when it was last written, if it exists.
+   */
+  public Optional<BlobVersion> blobVersion(String bucketName, String blobName) {
+    Blob blob = storage.get(BlobId.of(bucketName, blobName),
+        Storage.BlobGetOption.fields(Storage.BlobField.GENERATION, Storage.BlobField.UPDATED));
+    if (blob == null) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new BlobVersion(blob.getGeneration(), Instant.ofEpochMilli(blob.getUpdateTime())));
+  }
+
+  /**
+   * Atomically overwrites a blob, failing if it was written or deleted since the given
+   * generation.
+   *
+   * @return the generation written, or empty if the blob changed in between
+   */
+  public Optional<Long> replaceBlobIfUnchanged(String bucketName, String blobName,
+                                               long generation, byte[] content) {
+    BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, blobName, generation))
+        .setContentType("text/plain")
+        .build();
+    try {
+      return Optional.of(
+          storage.create(blobInfo, content, Storage.BlobTargetOption.generationMatch())
+              .getGeneration());
+    } catch (StorageException e) {
+      if (e.getCode() == HTTP_PRECONDITION_FAILED) {
+        return Optional.empty();
+      }
+      throw e;
+    }
+  }
+
+  public boolean blobExists(String bucketName, String blobName) {
+    return storage.get(BlobId.of(bucketName, blobName), Storage.BlobGetOption.fields()) != null;
+  }
+
+  /**
+   * Uploads a local file to a blob, streaming its contents rather than reading it into memory.
+   */
+  public void uploadFile(String bucketName, String blobName, Path file) throws IOException {
+    BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, blobName)).build();
+    try (WriteChannel writer = storage.writer(blobInfo);
+         InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[1024 * 1024];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        writer.write(ByteBuffer.wrap(buffer, 0, read));
+      }
+    }
+  }
+
+  public boolean deleteBlob(String bucketName, String blobName) {
+    return storage.delete(BlobId.of(bucketName, blobName));
+  }
+
+  /**
+   * Atomically deletes a blob, failing if it was written since the given generation.
+   *
+   * @return true if the blob was deleted, false if it changed or was deleted in between
+   */
+  public boolean deleteBlobIfUnchanged(String bucketName, String blobName, long generation) {
+    try {
+      return storage.delete(BlobId.of(bucketName, blobName, generation),
+          Storage.BlobSourceOption.generationMatch());
+    } catch (StorageException e) {
+      if (e.getCode() == HTTP_PRECONDITION_FAILED) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Lists the blobs under a prefix together with their sizes, ordered by name.
+   */
+  public SortedMap<String, Long> listBlobSizes(String bucketName, String prefix) {
+    SortedMap<String, Long> sizes = new TreeMap<>();
+    for (Blob blob : storage.list(bucketName, Storage.BlobListOption.prefix(prefix))
+        .iterateAll()) {
+      sizes.put(blob.getName(), blob.getSize());
+    }
+    return sizes;
+  }
+
+  /**
+   * Reads the contents of a blob starting at the given byte offset.
+   */
+  public byte[] readBlob(String bucketName, String blobName, long offset) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ReadChannel reader = storage.reader(BlobId.of(bucketName, blobName))) {
+      reader.seek(offset);
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      while (reader.read(buffer) > 0) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    }
+    return out.toByteArray();
+  }
+
   public Page<Blob> listBucket(String bucketName, String directory) {
     Bucket bucket = requireNonNull(
         storage.get(bucketName, Storage.BucketGetOption.fields()),
@@ -120,23 +272,37 @@ public class GcpUtils {
   }
 
   public String getProjectId() {
-    return gcpConfiguration.getProjectId();
+    return CredentialSession.shared().getProjectId();
   }
 
   public Optional<String> getUserId() {
-    return gcpConfiguration.getUserId();
+    return CredentialSession.shared().getUserId();
   }
 
   public Optional<String> getJsonCredentialsPath() {
-    return gcpConfiguration.getJsonCredentialsPath();
+    return CredentialSession.shared().getJsonCredentialsPath();
   }
 
   public Credentials getCredentials() {
-    return gcpConfiguration.getCredentials();
+    return CredentialSession.shared().getCredentials();
   }
 
   public GoogleCredential getCredential() {
-    return gcpConfiguration.getCredential();
+    return CredentialSession.shared().getCredential();
+  }
+
+  /**
+   * A generation of a blob, see {@link #blobVersion(String, String)}.
+   */
+  public static class BlobVersion {
+
+    public final long generation;
+    public final Instant updated;
+
+    public BlobVersion(long generation, Instant updated) {
+      this.generation = generation;
+      this.updated = updated;
+    }
   }
 
 }
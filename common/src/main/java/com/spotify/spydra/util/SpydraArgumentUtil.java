@@ -32,8 +32,13 @@ import com.spotify.spydra.model.SpydraArgument;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -48,6 +53,8 @@ public class SpydraArgumentUtil {
   public static final String SPYDRA_CONFIGURATION_FILE_NAME = "spydra_conf.json";
   public static final String DEFAULT_DATAPROC_ARGUMENT_FILE_NAME = "dataproc_defaults.json";
 
+  private static final Duration MIN_HEARTBEAT_TIMEOUT = Duration.ofMinutes(10);
+
   public static SpydraArgument loadArguments(String fileName)
       throws IOException, URISyntaxException {
     ClassLoader classLoader = SpydraArgumentUtil.class.getClassLoader();
@@ -122,17 +129,17 @@ public class SpydraArgumentUtil {
                      SPYDRA_CONFIGURATION_FILE_NAME},
         base);
 
-    GcpUtils gcpUtils = new GcpUtils();
-    gcpUtils.getUserId().ifPresent(userId -> {
+    CredentialSession credentials = CredentialSession.shared();
+    credentials.getUserId().ifPresent(userId -> {
       final Map<String, String> options = defaults.getCluster().getOptions();
 
       options.put(SpydraArgument.OPTION_ACCOUNT, userId);
       // If we have json credentials on path, add the user as the service account user too
-      gcpUtils.getJsonCredentialsPath().ifPresent(
+      credentials.getJsonCredentialsPath().ifPresent(
           ignored -> options.put(SpydraArgument.OPTION_SERVICE_ACCOUNT, userId));
     });
 
-    gcpUtils.configureClusterProjectFromCredential(defaults);
+    new GcpUtils().configureClusterProjectFromCredential(defaults);
     defaults.replacePlaceholders();
     return defaults;
   }
@@ -147,7 +154,7 @@ public class SpydraArgumentUtil {
   public static void setProjectFromCredentialsIfNotSet(SpydraArgument arguments) {
     arguments.getCluster().getOptions().computeIfAbsent(
         SpydraArgument.OPTION_PROJECT,
-        key -> new GcpUtils().getProjectId());
+        key -> CredentialSession.shared().getProjectId());
   }
 
   public static void checkRequiredArguments(SpydraArgument arguments, boolean isOnPremiseInvocation,
@@ -240,6 +247,141 @@ public class SpydraArgumentUtil {
       pooling.maxAge.orElseThrow(() ->
           new IllegalArgumentException("pooling.max_age needs to be set"));
     });
+    if (arguments.isPoolingEnabled() && arguments.isReuseIdleClustersEnabled()) {
+      throw new IllegalArgumentException(
+          "pooling and reuse_idle_clusters can not be enabled at the same time");
+    }
+    if (arguments.isHeartbeatEnabled()) {
+      checkHeartbeat(arguments.getHeartbeat());
+    }
+    if (arguments.isFanOutEnabled()) {
+      checkFanOut(arguments);
+    }
+    if (arguments.isDeletionReaperEnabled()) {
+      checkDeletionReaper(arguments.getDeletionReaper());
+    }
+    if (arguments.isRateLimitEnabled()) {
+      checkRateLimit(arguments.getRateLimit());
+    }
+    if (arguments.isAsyncMetricsEnabled()) {
+      checkAsyncMetrics(arguments.getAsyncMetrics());
+    }
+    if (arguments.isTracingEnabled()) {
+      checkTracing(arguments.getTracing());
+    }
+    if (arguments.isPrometheusEnabled()) {
+      checkPrometheus(arguments.getPrometheus());
+    }
+  }
+
+  private static void checkPrometheus(SpydraArgument.Prometheus prometheus) {
+    if (!prometheus.getTextfileDirectory().isPresent() && !prometheus.getHttpPort().isPresent()) {
+      throw new IllegalArgumentException(
+          "prometheus requires a textfile_directory or an http_port");
+    }
+    int port = prometheus.getHttpPort().orElse(0);
+    if (port < 0 || port > 65535) {
+      throw new IllegalArgumentException("prometheus http_port must be between 0 and 65535");
+    }
+  }
+
+  private static void checkTracing(SpydraArgument.Tracing tracing) {
+    if (!tracing.getTraceDir().isPresent() && !tracing.getCollectorUrl().isPresent()) {
+      throw new IllegalArgumentException("tracing requires a trace_dir or a collector_url");
+    }
+    if (tracing.getCollectorUrl().isPresent()) {
+      try {
+        new URL(tracing.getCollectorUrl().get());
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException("tracing collector_url is not a valid URL", e);
+      }
+    }
+  }
+
+  private static void checkAsyncMetrics(SpydraArgument.AsyncMetrics asyncMetrics) {
+    if (asyncMetrics.getQueueSize().orElse(1) < 1) {
+      throw new IllegalArgumentException("async_metrics queue_size must be at least 1");
+    }
+    if (asyncMetrics.getFlushTimeout().map(Duration::isNegative).orElse(false)) {
+      throw new IllegalArgumentException("async_metrics flush_timeout must not be negative");
+    }
+    if (asyncMetrics.getSpoolDir().map(String::isEmpty).orElse(false)) {
+      throw new IllegalArgumentException("async_metrics spool_dir must not be empty");
+    }
+  }
+
+  private static void checkRateLimit(SpydraArgument.RateLimit rateLimit) {
+    if (rateLimit.getRequestsPerSecond().orElse(1.0) <= 0) {
+      throw new IllegalArgumentException("rate_limit requests_per_second must be positive");
+    }
+    if (rateLimit.getBurst().orElse(1) < 1) {
+      throw new IllegalArgumentException("rate_limit burst must be at least 1");
+    }
+    if (rateLimit.getMaxConcurrency().orElse(1) < 1) {
+      throw new IllegalArgumentException("rate_limit max_concurrency must be at least 1");
+    }
+    if (rateLimit.getMaxRetries().orElse(0) < 0) {
+      throw new IllegalArgumentException("rate_limit max_retries must not be negative");
+    }
+  }
+
+  private static void checkDeletionReaper(SpydraArgument.DeletionReaper reaper) {
+    if (reaper.getConcurrency().orElse(1) < 1) {
+      throw new IllegalArgumentException("deletion_reaper concurrency must be at least 1");
+    }
+    if (reaper.getDeletesPerSecond().orElse(1.0) <= 0) {
+      throw new IllegalArgumentException("deletion_reaper deletes_per_second must be positive");
+    }
+  }
+
+  private static void checkFanOut(SpydraArgument arguments) {
+    SpydraArgument.FanOut fanOut = arguments.getFanOut();
+    boolean dateRange = fanOut.getStart().isPresent() && fanOut.getEnd().isPresent();
+    if (fanOut.getPartitions().isPresent() == dateRange) {
+      throw new IllegalArgumentException(
+          "fan_out requires either partitions or both start and end to be set");
+    }
+    if (fanOut.getPartitions().map(List::isEmpty).orElse(false)) {
+      throw new IllegalArgumentException("fan_out partitions must not be empty");
+    }
+    if (dateRange && !fanOut.getStart().get().isBefore(fanOut.getEnd().get())) {
+      throw new IllegalArgumentException("fan_out start must be before end");
+    }
+    // A step that does not move forward would never reach the end of the range
+    if (fanOut.getStep().map(step -> step.isZero() || step.isNegative()).orElse(false)) {
+      throw new IllegalArgumentException("fan_out step must be positive");
+    }
+    if (fanOut.getConcurrency().orElse(1) < 1) {
+      throw new IllegalArgumentException("fan_out concurrency must be at least 1");
+    }
+    boolean hasPlaceholder = arguments.getSubmit().jobArgs.orElse(Collections.emptyList())
+        .stream()
+        .anyMatch(jobArg -> jobArg.contains(SpydraArgument.PARTITION_PLACEHOLDER));
+    if (!hasPlaceholder) {
+      throw new IllegalArgumentException("fan_out requires the "
+          + SpydraArgument.PARTITION_PLACEHOLDER + " placeholder in the job arguments");
+    }
+  }
+
+  private static void checkHeartbeat(SpydraArgument.Heartbeat heartbeat) {
+    if (heartbeat.getInterval().isPresent()
+        && (heartbeat.getInterval().get().isNegative() || heartbeat.getInterval().get().isZero())) {
+      throw new IllegalArgumentException("heartbeat interval must be positive");
+    }
+    if (!heartbeat.getTimeout().isPresent()) {
+      return;
+    }
+    Duration timeout = heartbeat.getTimeout().get();
+    // Dataproc rejects scheduled deletion less than ten minutes in the future.
+    if (timeout.compareTo(MIN_HEARTBEAT_TIMEOUT) < 0) {
+      throw new IllegalArgumentException("heartbeat timeout must be at least "
+          + MIN_HEARTBEAT_TIMEOUT);
+    }
+    if (heartbeat.getInterval().isPresent()
+        && heartbeat.getInterval().get().multipliedBy(2).compareTo(timeout) > 0) {
+      throw new IllegalArgumentException(
+          "heartbeat timeout must be at least twice the heartbeat interval");
+    }
   }
 
   public static boolean isOnPremiseInvocation(SpydraArgument arguments) {
@@ -0,0 +1,99 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.spydra.model.JsonCodecs;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a trace as a file in the Chrome trace event format, one file per trace named after its
+ * id. The files can be opened in chrome://tracing or Perfetto, or processed in bulk to break
+ * down the critical path of many submissions.
+ */
+public class ChromeTraceExporter implements TraceExporter {
+
+  private final Path directory;
+
+  public ChromeTraceExporter(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public void export(Trace trace) throws IOException {
+    Files.createDirectories(directory);
+    Path file = directory.resolve("spydra-" + trace.getTraceId() + ".json");
+    Path temporary = Files.createTempFile(directory, ".spydra-trace", ".tmp");
+    try {
+      Files.write(temporary, toJson(trace).getBytes(UTF_8));
+      Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  static String toJson(Trace trace) throws IOException {
+    List<Map<String, Object>> events = new ArrayList<>();
+    Set<Long> threads = new HashSet<>();
+    for (Span span : trace.getSpans()) {
+      if (threads.add(span.getThreadId())) {
+        Map<String, Object> threadName = new LinkedHashMap<>();
+        threadName.put("name", "thread_name");
+        threadName.put("ph", "M");
+        threadName.put("pid", 1);
+        threadName.put("tid", span.getThreadId());
+        threadName.put("args", Collections.singletonMap("name", span.getThreadName()));
+        events.add(threadName);
+      }
+      Map<String, Object> args = new LinkedHashMap<>(span.getAttributes());
+      args.put("span_id", span.getId());
+      args.put("parent_id", span.getParentId());
+
+      Map<String, Object> event = new LinkedHashMap<>();
+      event.put("name", span.getName());
+      event.put("ph", "X");
+      event.put("ts", trace.epochMicros(span.getStartNanos()));
+      event.put("dur",
+          TimeUnit.NANOSECONDS.toMicros(span.getEndNanos() - span.getStartNanos()));
+      event.put("pid", 1);
+      event.put("tid", span.getThreadId());
+      event.put("args", args);
+      events.add(event);
+    }
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("traceEvents", events);
+    json.put("displayTimeUnit", "ms");
+    json.put("otherData", Collections.singletonMap("trace_id", trace.getTraceId()));
+    return JsonCodecs.LOWER_CAMEL_CASE.write(json);
+  }
+}
@@ -0,0 +1,103 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.spydra.model.JsonCodecs;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a trace to a collector accepting spans in the Zipkin v2 JSON format, e.g. a local Zipkin
+ * server or an OpenTelemetry collector with a Zipkin receiver at
+ * {@code http://localhost:9411/api/v2/spans}.
+ */
+public class CollectorTraceExporter implements TraceExporter {
+
+  static final String SERVICE_NAME = "spydra";
+
+  private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(5);
+
+  private final URL url;
+
+  public CollectorTraceExporter(URL url) {
+    this.url = url;
+  }
+
+  @Override
+  public void export(Trace trace) throws IOException {
+    byte[] body = toJson(trace).getBytes(UTF_8);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "application/json");
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+      int status = connection.getResponseCode();
+      if (status / 100 != 2) {
+        throw new IOException("Trace collector at " + url + " responded with " + status);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  static String toJson(Trace trace) throws IOException {
+    List<Map<String, Object>> spans = new ArrayList<>();
+    for (Span span : trace.getSpans()) {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("traceId", trace.getTraceId());
+      json.put("id", spanId(span.getId()));
+      if (span.getParentId() != 0) {
+        json.put("parentId", spanId(span.getParentId()));
+      }
+      json.put("name", span.getName());
+      json.put("timestamp", trace.epochMicros(span.getStartNanos()));
+      // Zipkin drops spans with a duration of zero, they are rounded up to a microsecond
+      json.put("duration", Math.max(1,
+          TimeUnit.NANOSECONDS.toMicros(span.getEndNanos() - span.getStartNanos())));
+      json.put("localEndpoint", Collections.singletonMap("serviceName", SERVICE_NAME));
+      Map<String, String> tags = span.getAttributes();
+      tags.put("thread", span.getThreadName());
+      json.put("tags", tags);
+      spans.add(json);
+    }
+    return JsonCodecs.LOWER_CAMEL_CASE.write(spans);
+  }
+
+  private static String spanId(long id) {
+    return String.format("%016x", id);
+  }
+}
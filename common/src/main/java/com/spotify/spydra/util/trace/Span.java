@@ -0,0 +1,110 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed phase of a submission, e.g. creating a cluster or a single gcloud call. Spans opened
+ * while another span is open on the same thread are nested in it. Closing a span ends it.
+ */
+public class Span implements AutoCloseable {
+
+  static final Span NOOP = new Span(null, "", 0, 0);
+
+  private final Trace trace;
+  private final String name;
+  private final long id;
+  private final long parentId;
+  private final long threadId;
+  private final String threadName;
+  private final long startNanos;
+  private final Map<String, String> attributes = Collections.synchronizedMap(new LinkedHashMap<>());
+  private volatile long endNanos = -1;
+
+  Span(Trace trace, String name, long id, long parentId) {
+    this.trace = trace;
+    this.name = name;
+    this.id = id;
+    this.parentId = parentId;
+    Thread thread = Thread.currentThread();
+    this.threadId = thread.getId();
+    this.threadName = thread.getName();
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Attaches a detail to the span, e.g. the name of a cluster or the exit code of a process.
+   */
+  public Span tag(String key, Object value) {
+    if (trace != null) {
+      attributes.put(key, String.valueOf(value));
+    }
+    return this;
+  }
+
+  @Override
+  public void close() {
+    if (trace != null && endNanos < 0) {
+      endNanos = System.nanoTime();
+      trace.end(this);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Returns the id of the enclosing span, or 0 for a root span.
+   */
+  public long getParentId() {
+    return parentId;
+  }
+
+  public long getThreadId() {
+    return threadId;
+  }
+
+  public String getThreadName() {
+    return threadName;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getEndNanos() {
+    return endNanos;
+  }
+
+  public Map<String, String> getAttributes() {
+    synchronized (attributes) {
+      return new LinkedHashMap<>(attributes);
+    }
+  }
+}
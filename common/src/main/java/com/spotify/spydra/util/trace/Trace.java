@@ -0,0 +1,93 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The spans recorded during one submission.
+ */
+public class Trace {
+
+  private final String traceId = UUID.randomUUID().toString().replace("-", "");
+  private final long startEpochMicros =
+      TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<Deque<Span>> open = ThreadLocal.withInitial(ArrayDeque::new);
+
+  Span open(String name) {
+    Deque<Span> stack = open.get();
+    long parentId = stack.isEmpty() ? 0 : stack.peek().getId();
+    return push(new Span(this, name, nextId.getAndIncrement(), parentId));
+  }
+
+  Span open(String name, Span parent) {
+    return push(new Span(this, name, nextId.getAndIncrement(), parent.getId()));
+  }
+
+  private Span push(Span span) {
+    open.get().push(span);
+    return span;
+  }
+
+  Span current() {
+    Span span = open.get().peek();
+    return span != null ? span : Span.NOOP;
+  }
+
+  void end(Span span) {
+    // Spans are closed in reverse order of opening with try-with-resources, anything else is
+    // tolerated by removing the span wherever it is
+    open.get().remove(span);
+    spans.add(span);
+  }
+
+  /**
+   * Returns a 128 bit identifier of the trace, as 32 hex digits.
+   */
+  public String getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * Returns the time of a span timestamp in microseconds since the epoch.
+   */
+  public long epochMicros(long nanos) {
+    return startEpochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - startNanos);
+  }
+
+  /**
+   * Returns the ended spans, in the order they ended.
+   */
+  public List<Span> getSpans() {
+    return new ArrayList<>(spans);
+  }
+}
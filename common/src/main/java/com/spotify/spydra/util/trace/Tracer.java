@@ -0,0 +1,96 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Records the phases of a submission as nested {@link Span spans}, for breaking down where the
+ * time of a submission went. Recording is off unless a trace has been started, and spans opened
+ * while it is off cost next to nothing.
+ *
+ * <pre>{@code
+ * try (Span span = Tracer.span("cluster create").tag("cluster", name)) {
+ *   ...
+ * }
+ * }</pre>
+ */
+public final class Tracer {
+
+  private static volatile Trace trace;
+
+  private Tracer() {
+  }
+
+  /**
+   * Starts recording a new trace, discarding any trace recorded so far.
+   */
+  public static Trace start() {
+    Trace started = new Trace();
+    trace = started;
+    return started;
+  }
+
+  /**
+   * Stops recording and returns the recorded trace, if one was started.
+   */
+  public static Optional<Trace> finish() {
+    Trace finished = trace;
+    trace = null;
+    return Optional.ofNullable(finished);
+  }
+
+  /**
+   * Whether spans are being recorded, for skipping work that only serves to tag spans.
+   */
+  public static boolean isRecording() {
+    return trace != null;
+  }
+
+  /**
+   * Opens a span nested in the span open on the current thread, if any.
+   */
+  public static Span span(String name) {
+    Trace current = trace;
+    return current != null ? current.open(name) : Span.NOOP;
+  }
+
+  /**
+   * Wraps a task to be run on another thread so that the spans it opens are nested in the span
+   * that is open on the current thread.
+   */
+  public static <T> Supplier<T> propagate(Supplier<T> task) {
+    Trace current = trace;
+    if (current == null) {
+      return task;
+    }
+    Span parent = current.current();
+    if (parent == Span.NOOP) {
+      return task;
+    }
+    return () -> {
+      try (Span ignored = current.open(parent.getName() + " (async)", parent)) {
+        return task.get();
+      }
+    };
+  }
+}
@@ -0,0 +1,69 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonCodecsTest {
+
+  public static class Sample {
+    public String clientId;
+    public Map<String, String> extraOptions;
+  }
+
+  @Test
+  public void testReadersAreReused() {
+    assertSame(JsonCodecs.SNAKE_CASE.reader(Sample.class),
+        JsonCodecs.SNAKE_CASE.reader(Sample.class));
+  }
+
+  @Test
+  public void testNamingStrategies() throws IOException {
+    Sample sample = new Sample();
+    sample.clientId = "client";
+    sample.extraOptions = Collections.singletonMap("key", "value");
+
+    assertEquals("{\"client_id\":\"client\",\"extra_options\":{\"key\":\"value\"}}",
+        JsonCodecs.SNAKE_CASE.write(sample));
+    assertEquals("{\"clientId\":\"client\",\"extraOptions\":{\"key\":\"value\"}}",
+        JsonCodecs.LOWER_CAMEL_CASE.write(sample));
+    assertEquals("client",
+        JsonCodecs.LOWER_CAMEL_CASE.read("{\"clientId\": \"client\"}", Sample.class).clientId);
+  }
+
+  @Test
+  public void testKeepsSharedConfiguration() throws IOException {
+    Sample sample = new Sample();
+    sample.clientId = "client";
+
+    // Null fields are left out and single values accepted as lists, like with JsonHelper
+    assertEquals("{\"clientId\":\"client\"}", JsonCodecs.LOWER_CAMEL_CASE.write(sample));
+    assertEquals(Collections.singletonList("a"),
+        JsonCodecs.SNAKE_CASE.read("{\"submit\": {\"job_args\": \"a\"}}", SpydraArgument.class)
+            .getSubmit().jobArgs.get());
+  }
+}
@@ -0,0 +1,58 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import org.junit.Test;
+
+public class AdaptivePollIntervalTest {
+
+  @Test
+  public void testGrowsUpToMax() {
+    AdaptivePollInterval interval =
+        new AdaptivePollInterval(Duration.ofSeconds(1), Duration.ofSeconds(5), 2.0);
+
+    assertEquals(Duration.ofSeconds(1), interval.next());
+    assertEquals(Duration.ofSeconds(2), interval.next());
+    assertEquals(Duration.ofSeconds(4), interval.next());
+    assertEquals(Duration.ofSeconds(5), interval.next());
+    assertEquals(Duration.ofSeconds(5), interval.next());
+  }
+
+  @Test
+  public void testResetStartsOver() {
+    AdaptivePollInterval interval =
+        new AdaptivePollInterval(Duration.ofSeconds(1), Duration.ofSeconds(5), 2.0);
+    interval.next();
+    interval.next();
+
+    interval.reset();
+
+    assertEquals(Duration.ofSeconds(1), interval.next());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsMaxBelowMin() {
+    new AdaptivePollInterval(Duration.ofSeconds(5), Duration.ofSeconds(1), 2.0);
+  }
+}
@@ -0,0 +1,137 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Optional;
+import org.junit.Test;
+
+public class CredentialSessionTest {
+
+  private static final Instant NOW = Instant.parse("2018-03-01T10:00:00Z");
+  private static final Clock CLOCK = Clock.fixed(NOW, ZoneOffset.UTC);
+
+  @Test
+  public void testConfigurationIsResolvedOnce() {
+    CountingConfiguration configuration = new CountingConfiguration(new CountingCredentials(null));
+    CredentialSession session = new CredentialSession(configuration, CLOCK);
+
+    assertEquals("project", session.getProjectId());
+    assertEquals("project", session.getProjectId());
+    assertEquals(Optional.of("user@project"), session.getUserId());
+    assertEquals(Optional.of("user@project"), session.getUserId());
+    session.getCredentials();
+    session.getCredentials();
+
+    assertEquals(1, configuration.projectIdCalls);
+    assertEquals(1, configuration.userIdCalls);
+    assertEquals(1, configuration.credentialsCalls);
+  }
+
+  @Test
+  public void testValidTokenIsReused() throws Exception {
+    CountingCredentials credentials = new CountingCredentials(
+        new AccessToken("cached", Date.from(NOW.plusSeconds(3600))));
+    CredentialSession session = new CredentialSession(new CountingConfiguration(credentials), CLOCK);
+
+    assertEquals("cached", session.getAccessToken());
+    assertEquals("cached", session.getAccessToken());
+    assertEquals(0, credentials.refreshes);
+  }
+
+  @Test
+  public void testTokenIsRefreshedBeforeExpiry() throws Exception {
+    CountingCredentials credentials = new CountingCredentials(
+        new AccessToken("expiring", Date.from(NOW.plusSeconds(60))));
+    CredentialSession session = new CredentialSession(new CountingConfiguration(credentials), CLOCK);
+
+    assertEquals("refreshed-1", session.getAccessToken());
+    assertEquals("refreshed-1", session.getAccessToken());
+    assertEquals(1, credentials.refreshes);
+  }
+
+  @Test
+  public void testMissingTokenIsFetched() throws Exception {
+    CountingCredentials credentials = new CountingCredentials(null);
+    CredentialSession session = new CredentialSession(new CountingConfiguration(credentials), CLOCK);
+
+    assertEquals("refreshed-1", session.getAccessToken());
+    assertEquals(1, credentials.refreshes);
+  }
+
+  private static class CountingCredentials extends GoogleCredentials {
+
+    int refreshes;
+
+    CountingCredentials(AccessToken accessToken) {
+      super(accessToken);
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() {
+      refreshes++;
+      return new AccessToken("refreshed-" + refreshes, Date.from(NOW.plusSeconds(3600)));
+    }
+  }
+
+  private static class CountingConfiguration extends GcpConfiguration {
+
+    private final GoogleCredentials credentials;
+    int projectIdCalls;
+    int userIdCalls;
+    int credentialsCalls;
+
+    CountingConfiguration(GoogleCredentials credentials) {
+      this.credentials = credentials;
+    }
+
+    @Override
+    public String getProjectId() {
+      projectIdCalls++;
+      return "project";
+    }
+
+    @Override
+    public Optional<String> getUserId() {
+      userIdCalls++;
+      return Optional.of("user@project");
+    }
+
+    @Override
+    public GoogleCredentials getCredentials() {
+      credentialsCalls++;
+      return credentials;
+    }
+
+    @Override
+    public GoogleCredential getCredential() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
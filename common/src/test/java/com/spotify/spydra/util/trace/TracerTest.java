@@ -0,0 +1,151 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.util.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.model.JsonCodecs;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TracerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void tearDown() {
+    Tracer.finish();
+  }
+
+  @Test
+  public void testSpansAreNotRecordedUnlessStarted() {
+    assertFalse(Tracer.isRecording());
+    try (Span span = Tracer.span("ignored")) {
+      assertSame(Span.NOOP, span.tag("key", "value"));
+    }
+    assertFalse(Tracer.finish().isPresent());
+  }
+
+  @Test
+  public void testNestsSpansOnTheSameThread() {
+    Tracer.start();
+    try (Span root = Tracer.span("root")) {
+      try (Span child = Tracer.span("child").tag("cluster", "spydra-1")) {
+        Tracer.span("grandchild").close();
+      }
+      Tracer.span("sibling").close();
+    }
+
+    List<Span> spans = Tracer.finish().get().getSpans();
+    assertEquals(4, spans.size());
+    Span grandchild = spans.get(0);
+    Span child = spans.get(1);
+    Span sibling = spans.get(2);
+    Span root = spans.get(3);
+    assertEquals("root", root.getName());
+    assertEquals(0, root.getParentId());
+    assertEquals(root.getId(), child.getParentId());
+    assertEquals(child.getId(), grandchild.getParentId());
+    assertEquals(root.getId(), sibling.getParentId());
+    assertEquals("spydra-1", child.getAttributes().get("cluster"));
+    assertTrue(root.getEndNanos() >= child.getEndNanos());
+  }
+
+  @Test
+  public void testPropagatesParentToOtherThreads() throws Exception {
+    Tracer.start();
+    try (Span ignored = Tracer.span("submission")) {
+      CompletableFuture.supplyAsync(Tracer.propagate(() -> {
+        Tracer.span("clusters.create").close();
+        return null;
+      })).get();
+    }
+
+    List<Span> spans = Tracer.finish().get().getSpans();
+    assertEquals(3, spans.size());
+    Span call = spans.get(0);
+    Span async = spans.get(1);
+    Span submission = spans.get(2);
+    assertEquals("submission (async)", async.getName());
+    assertEquals(submission.getId(), async.getParentId());
+    assertEquals(async.getId(), call.getParentId());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExportsChromeTraceEvents() throws Exception {
+    Trace trace = Tracer.start();
+    try (Span ignored = Tracer.span("submission")) {
+      Tracer.span("job submit").tag("succeeded", true).close();
+    }
+    Tracer.finish();
+
+    Path directory = folder.getRoot().toPath().resolve("traces");
+    new ChromeTraceExporter(directory).export(trace);
+
+    Path file = directory.resolve("spydra-" + trace.getTraceId() + ".json");
+    Map<String, Object> json = JsonCodecs.LOWER_CAMEL_CASE.read(file.toFile(), Map.class);
+    List<Map<String, Object>> events = (List<Map<String, Object>>) json.get("traceEvents");
+    // One thread name and two complete events
+    assertEquals(3, events.size());
+    assertEquals("M", events.get(0).get("ph"));
+    Map<String, Object> jobSubmit = events.get(1);
+    assertEquals("job submit", jobSubmit.get("name"));
+    assertEquals("X", jobSubmit.get("ph"));
+    assertEquals("true", ((Map<String, Object>) jobSubmit.get("args")).get("succeeded"));
+    assertEquals(1, Files.list(directory).count());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFormatsZipkinSpans() throws Exception {
+    Trace trace = Tracer.start();
+    try (Span ignored = Tracer.span("submission")) {
+      Tracer.span("clusters.list").close();
+    }
+    Optional<Trace> finished = Tracer.finish();
+    assertSame(trace, finished.get());
+
+    List<Map<String, Object>> spans = JsonCodecs.LOWER_CAMEL_CASE
+        .read(CollectorTraceExporter.toJson(trace), List.class);
+    assertEquals(2, spans.size());
+    Map<String, Object> list = spans.get(0);
+    Map<String, Object> submission = spans.get(1);
+    assertEquals(trace.getTraceId(), list.get("traceId"));
+    assertEquals(16, ((String) list.get("id")).length());
+    assertEquals(submission.get("id"), list.get("parentId"));
+    assertFalse(submission.containsKey("parentId"));
+    assertEquals(CollectorTraceExporter.SERVICE_NAME,
+        ((Map<String, Object>) list.get("localEndpoint")).get("serviceName"));
+  }
+}
@@ -0,0 +1,293 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits metrics on a background thread, so that a slow metrics backend does not hold up cluster
+ * creation or job submission.
+ *
+ * <p>Events are put into a bounded, lock-free queue and handed to the wrapped implementation in
+ * batches by a single daemon thread, in the order they were emitted. If the backend falls so far
+ * behind that the queue is full, further events are dropped rather than blocking the caller.
+ * {@link #flush()} waits for the queued events to be emitted and the wrapped implementation to
+ * be flushed, but no longer than the flush timeout.
+ *
+ * <p>With a spool directory, the events still queued when the flush timeout has passed are
+ * written to a {@link MetricsSpool} instead of being lost, and emitted by the next invocation
+ * that uses the same implementation and directory.
+ */
+public class AsyncMetrics extends Metrics {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncMetrics.class);
+
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+  public static final Duration DEFAULT_FLUSH_TIMEOUT = Duration.ofSeconds(10);
+
+  static final int BATCH_SIZE = 64;
+
+  private final Metrics delegate;
+  private final int queueSize;
+  private final Duration flushTimeout;
+  private final Optional<MetricsSpool> spool;
+
+  private final Queue<Consumer<Metrics>> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicBoolean unflushed = new AtomicBoolean();
+  private final Thread dispatcher;
+
+  public AsyncMetrics(Metrics delegate) {
+    this(delegate, DEFAULT_QUEUE_SIZE, DEFAULT_FLUSH_TIMEOUT);
+  }
+
+  public AsyncMetrics(Metrics delegate, int queueSize, Duration flushTimeout) {
+    this(delegate, queueSize, flushTimeout, Optional.empty());
+  }
+
+  /**
+   * Creates an instance that spools events it could not flush in time to {@code spoolDir}, and
+   * emits those an earlier invocation spooled there first.
+   */
+  public AsyncMetrics(Metrics delegate, int queueSize, Duration flushTimeout,
+                      Optional<Path> spoolDir) {
+    super(delegate.getUser());
+    this.delegate = delegate;
+    this.queueSize = queueSize;
+    this.flushTimeout = flushTimeout;
+    this.spool = spoolDir.map(dir -> new MetricsSpool(dir, delegate.getClass().getName()));
+    spool.ifPresent(this::replay);
+    dispatcher = new Thread(this::dispatch,
+        "metrics-dispatcher-" + delegate.getClass().getSimpleName());
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  public Metrics getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Returns whether events were emitted since the last flush.
+   */
+  public boolean hasUnflushedEvents() {
+    return unflushed.get();
+  }
+
+  /**
+   * Returns how many events were dropped because the queue was full.
+   */
+  public long droppedEvents() {
+    return dropped.get();
+  }
+
+  @Override
+  public void clusterCreation(SpydraArgument arguments, String zoneUri, boolean success) {
+    enqueue(MetricEvent.clusterCreation(arguments, zoneUri, success));
+  }
+
+  @Override
+  public void clusterDeletion(SpydraArgument arguments, boolean success) {
+    enqueue(MetricEvent.clusterDeletion(arguments, success));
+  }
+
+  @Override
+  public void jobSubmission(SpydraArgument arguments, String type, boolean success) {
+    enqueue(MetricEvent.jobSubmission(arguments, type, success));
+  }
+
+  @Override
+  public void apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                             int retry) {
+    enqueue(MetricEvent.apiCallRetried(arguments, call, errorCategory, retry));
+  }
+
+  @Override
+  public void apiCallExhausted(SpydraArgument arguments, String call, String errorCategory,
+                               int attempts) {
+    enqueue(MetricEvent.apiCallExhausted(arguments, call, errorCategory, attempts));
+  }
+
+  @Override
+  public void phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+    enqueue(MetricEvent.phaseLatency(arguments, phase, duration));
+  }
+
+  @Override
+  public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+    enqueue(MetricEvent.clusterUsage(arguments, usage));
+  }
+
+  @Override
+  public void processUsage(SpydraArgument arguments, ProcessUsage usage) {
+    enqueue(MetricEvent.processUsage(arguments, usage));
+  }
+
+  @Override
+  public void fatalError(SpydraArgument argument, Throwable throwable) {
+    enqueue(MetricEvent.fatalError(argument, throwable));
+  }
+
+  @Override
+  public void executionResult(SpydraArgument argument, boolean success) {
+    enqueue(MetricEvent.executionResult(argument, success));
+  }
+
+  /**
+   * Waits until the events emitted so far have been handed to the wrapped implementation and it
+   * has been flushed, or until the flush timeout has passed.
+   */
+  @Override
+  public void flush() {
+    awaitFlush(requestFlush(), System.nanoTime() + flushTimeout.toNanos());
+  }
+
+  /**
+   * Queues flushing the wrapped implementation after the pending events, without waiting.
+   *
+   * @return a latch that is released once flushed
+   */
+  CountDownLatch requestFlush() {
+    CountDownLatch flushed = new CountDownLatch(1);
+    unflushed.set(false);
+    // Flushing must not be dropped, so it bypasses the bound of the queue
+    queued.incrementAndGet();
+    queue.add(metrics -> {
+      metrics.flush();
+      flushed.countDown();
+    });
+    LockSupport.unpark(dispatcher);
+    return flushed;
+  }
+
+  /**
+   * Waits for a flush requested with {@link #requestFlush()} until a {@link System#nanoTime()}
+   * deadline.
+   *
+   * @return whether the flush completed in time
+   */
+  boolean awaitFlush(CountDownLatch flushed, long deadlineNanos) {
+    boolean completed = false;
+    try {
+      completed = flushed.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (!completed) {
+        spill();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    long droppedEvents = dropped.get();
+    if (droppedEvents > 0) {
+      LOGGER.warn(droppedEvents + " " + delegate.getClass().getSimpleName()
+          + " metric events were dropped because the queue was full");
+    }
+    return completed;
+  }
+
+  private void enqueue(MetricEvent event) {
+    unflushed.set(true);
+    if (queued.incrementAndGet() > queueSize) {
+      queued.decrementAndGet();
+      dropped.incrementAndGet();
+      return;
+    }
+    queue.add(event);
+    LockSupport.unpark(dispatcher);
+  }
+
+  /**
+   * Queues the events earlier invocations spooled, ahead of the events of this one. About as
+   * many as fit into the queue are taken, the rest stays spooled for later invocations.
+   */
+  private void replay(MetricsSpool spool) {
+    List<MetricEvent> events = spool.replay(queueSize);
+    if (events.isEmpty()) {
+      return;
+    }
+    LOGGER.info("Emitting " + events.size() + " spooled " + delegate.getClass().getSimpleName()
+        + " metric events");
+    // Spooled events must not be dropped again, so they bypass the bound of the queue
+    queued.addAndGet(events.size());
+    queue.addAll(events);
+    unflushed.set(true);
+  }
+
+  /**
+   * Takes the events that are still queued off the queue and spools them, if there is a spool.
+   * The event being emitted at the time is left to the dispatcher.
+   */
+  private void spill() {
+    List<MetricEvent> pending = new ArrayList<>();
+    Consumer<Metrics> event;
+    while ((event = queue.poll()) != null) {
+      queued.decrementAndGet();
+      // Pending flushes are not spooled, the next invocation flushes on its own
+      if (event instanceof MetricEvent) {
+        pending.add((MetricEvent) event);
+      }
+    }
+    String name = delegate.getClass().getSimpleName();
+    if (spool.isPresent() && !pending.isEmpty() && spool.get().write(pending)) {
+      LOGGER.warn(name + " metrics were not flushed within " + flushTimeout + ", spooled "
+          + pending.size() + " pending events to " + spool.get().getDirectory());
+    } else {
+      LOGGER.warn(name + " metrics were not flushed within " + flushTimeout + ", giving up on "
+          + pending.size() + " pending events");
+    }
+  }
+
+  private void dispatch() {
+    while (true) {
+      int emitted = 0;
+      Consumer<Metrics> event;
+      while (emitted < BATCH_SIZE && (event = queue.poll()) != null) {
+        queued.decrementAndGet();
+        emitted++;
+        try {
+          event.accept(delegate);
+        } catch (RuntimeException e) {
+          LOGGER.warn("Failed to emit metric", e);
+        }
+      }
+      if (emitted == 0) {
+        // Woken up by the next event, the timeout only guards against a missed wake-up
+        LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Duration;
+
+/**
+ * The cluster resources one job consumed.
+ *
+ * <p>A cluster created for the job is charged to it as a whole, from the request to create it
+ * until it was deleted. The time it was not running the job is idle time. A pooled cluster is
+ * shared, so the job is only charged for the time it ran, divided between the jobs running on
+ * the cluster at the time.
+ */
+public class ClusterUsage {
+
+  private final String clusterName;
+  private final boolean pooled;
+  private final int vcpus;
+  private final Duration clusterTime;
+  private final Duration jobTime;
+  private final int sharedBy;
+
+  @JsonCreator
+  public ClusterUsage(@JsonProperty("cluster_name") String clusterName,
+                      @JsonProperty("pooled") boolean pooled,
+                      @JsonProperty("vcpus") int vcpus,
+                      @JsonProperty("cluster_time") Duration clusterTime,
+                      @JsonProperty("job_time") Duration jobTime,
+                      @JsonProperty("shared_by") int sharedBy) {
+    this.clusterName = clusterName;
+    this.pooled = pooled;
+    this.vcpus = vcpus;
+    this.clusterTime = clusterTime;
+    this.jobTime = jobTime;
+    this.sharedBy = Math.max(1, sharedBy);
+  }
+
+  public String getClusterName() {
+    return clusterName;
+  }
+
+  public boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * The number of vCPUs of the cluster, 0 if its machine types are unknown.
+   */
+  public int getVcpus() {
+    return vcpus;
+  }
+
+  /**
+   * How long the cluster was held for the job.
+   */
+  public Duration getClusterTime() {
+    return clusterTime;
+  }
+
+  /**
+   * How long the job ran.
+   */
+  public Duration getJobTime() {
+    return jobTime;
+  }
+
+  /**
+   * How long the cluster was held without running the job, e.g. while it was created, waited
+   * for history files or was deleted.
+   */
+  public Duration getIdleTime() {
+    Duration idle = clusterTime.minus(jobTime);
+    return idle.isNegative() ? Duration.ZERO : idle;
+  }
+
+  /**
+   * The number of jobs the cluster time is divided between, including this one.
+   */
+  public int getSharedBy() {
+    return sharedBy;
+  }
+
+  /**
+   * The share of the cluster time charged to the job.
+   */
+  public Duration getAttributedTime() {
+    return clusterTime.dividedBy(sharedBy);
+  }
+
+  public double getVcpuHours() {
+    return getAttributedTime().toMillis() * vcpus / 3_600_000.0;
+  }
+
+  @Override
+  public String toString() {
+    return "cluster=" + clusterName + " pooled=" + pooled + " vcpus=" + vcpus
+        + " clusterSeconds=" + clusterTime.getSeconds() + " jobSeconds=" + jobTime.getSeconds()
+        + " idleSeconds=" + getIdleTime().getSeconds() + " sharedBy=" + sharedBy
+        + " vcpuHours=" + String.format("%.3f", getVcpuHours());
+  }
+}
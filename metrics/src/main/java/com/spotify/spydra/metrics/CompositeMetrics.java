@@ -0,0 +1,146 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * Emits every metric to several implementations, e.g. an existing backend and
+ * {@link com.spotify.spydra.metrics.impl.PrometheusMetrics}.
+ *
+ * <p>Each implementation gets its own {@link AsyncMetrics} queue and thread, so that a slow or
+ * failing one neither holds up the submission nor the other implementations. {@link #flush()}
+ * flushes all of them at once and waits no longer than the flush timeout for the slowest, the
+ * implementations that did not make it spool their pending events if there is a spool directory.
+ */
+public class CompositeMetrics extends Metrics {
+
+  private final List<AsyncMetrics> sinks;
+  private final Duration flushTimeout;
+
+  public CompositeMetrics(List<Metrics> sinks, int queueSize, Duration flushTimeout) {
+    this(sinks, queueSize, flushTimeout, Optional.empty());
+  }
+
+  /**
+   * Creates an instance whose implementations spool the events they could not flush in time to
+   * {@code spoolDir}, each to files of its own.
+   */
+  public CompositeMetrics(List<Metrics> sinks, int queueSize, Duration flushTimeout,
+                          Optional<Path> spoolDir) {
+    super(sinks.get(0).getUser());
+    List<AsyncMetrics> asyncSinks = new ArrayList<>();
+    for (Metrics sink : sinks) {
+      asyncSinks.add(new AsyncMetrics(sink, queueSize, flushTimeout, spoolDir));
+    }
+    this.sinks = Collections.unmodifiableList(asyncSinks);
+    this.flushTimeout = flushTimeout;
+  }
+
+  public List<AsyncMetrics> getSinks() {
+    return sinks;
+  }
+
+  /**
+   * Returns whether events were emitted to any implementation since the last flush.
+   */
+  public boolean hasUnflushedEvents() {
+    return sinks.stream().anyMatch(AsyncMetrics::hasUnflushedEvents);
+  }
+
+  @Override
+  public void clusterCreation(SpydraArgument arguments, String zoneUri, boolean success) {
+    emit(metrics -> metrics.clusterCreation(arguments, zoneUri, success));
+  }
+
+  @Override
+  public void clusterDeletion(SpydraArgument arguments, boolean success) {
+    emit(metrics -> metrics.clusterDeletion(arguments, success));
+  }
+
+  @Override
+  public void jobSubmission(SpydraArgument arguments, String type, boolean success) {
+    emit(metrics -> metrics.jobSubmission(arguments, type, success));
+  }
+
+  @Override
+  public void apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                             int retry) {
+    emit(metrics -> metrics.apiCallRetried(arguments, call, errorCategory, retry));
+  }
+
+  @Override
+  public void apiCallExhausted(SpydraArgument arguments, String call, String errorCategory,
+                               int attempts) {
+    emit(metrics -> metrics.apiCallExhausted(arguments, call, errorCategory, attempts));
+  }
+
+  @Override
+  public void phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+    emit(metrics -> metrics.phaseLatency(arguments, phase, duration));
+  }
+
+  @Override
+  public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+    emit(metrics -> metrics.clusterUsage(arguments, usage));
+  }
+
+  @Override
+  public void processUsage(SpydraArgument arguments, ProcessUsage usage) {
+    emit(metrics -> metrics.processUsage(arguments, usage));
+  }
+
+  @Override
+  public void fatalError(SpydraArgument argument, Throwable throwable) {
+    emit(metrics -> metrics.fatalError(argument, throwable));
+  }
+
+  @Override
+  public void executionResult(SpydraArgument argument, boolean success) {
+    emit(metrics -> metrics.executionResult(argument, success));
+  }
+
+  @Override
+  public void flush() {
+    long deadline = System.nanoTime() + flushTimeout.toNanos();
+    List<CountDownLatch> flushes = new ArrayList<>();
+    for (AsyncMetrics sink : sinks) {
+      flushes.add(sink.requestFlush());
+    }
+    for (int i = 0; i < sinks.size(); i++) {
+      sinks.get(i).awaitFlush(flushes.get(i), deadline);
+    }
+  }
+
+  private void emit(Consumer<Metrics> event) {
+    // Only queues the event, the sinks emit it on their own threads. Every sink queues it with a
+    // copy of the arguments, taken right away on the calling thread.
+    sinks.forEach(event);
+  }
+}
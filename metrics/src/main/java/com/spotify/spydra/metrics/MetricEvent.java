@@ -0,0 +1,202 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * A metric emitted through {@link AsyncMetrics}. It is kept as data rather than as a lambda, so
+ * that it can be written to a {@link MetricsSpool} if it could not be emitted before exit.
+ *
+ * <p>The event holds a copy of the arguments it was emitted with. An error is only kept as its
+ * description once spooled, so it is replayed as a {@link SpooledError}.
+ */
+final class MetricEvent implements Consumer<Metrics> {
+
+  enum Kind {
+    CLUSTER_CREATION,
+    CLUSTER_DELETION,
+    JOB_SUBMISSION,
+    API_CALL_RETRIED,
+    API_CALL_EXHAUSTED,
+    PHASE_LATENCY,
+    CLUSTER_USAGE,
+    PROCESS_USAGE,
+    FATAL_ERROR,
+    EXECUTION_RESULT
+  }
+
+  private Kind kind;
+  private SpydraArgument arguments;
+  private boolean success;
+  private String zoneUri;
+  // The job type, the API call or the phase
+  private String name;
+  private String errorCategory;
+  // The retry or the number of attempts
+  private int count;
+  private Duration duration;
+  private ClusterUsage clusterUsage;
+  private ProcessUsage processUsage;
+  private String error;
+  private transient Throwable throwable;
+
+  // For reading spooled events
+  private MetricEvent() {
+  }
+
+  private MetricEvent(Kind kind, SpydraArgument arguments) {
+    this.kind = kind;
+    // The submission keeps changing the arguments, e.g. the cluster and its options, while the
+    // event waits to be emitted on another thread
+    this.arguments = arguments == null ? null : arguments.copy();
+  }
+
+  static MetricEvent clusterCreation(SpydraArgument arguments, String zoneUri, boolean success) {
+    MetricEvent event = new MetricEvent(Kind.CLUSTER_CREATION, arguments);
+    event.zoneUri = zoneUri;
+    event.success = success;
+    return event;
+  }
+
+  static MetricEvent clusterDeletion(SpydraArgument arguments, boolean success) {
+    MetricEvent event = new MetricEvent(Kind.CLUSTER_DELETION, arguments);
+    event.success = success;
+    return event;
+  }
+
+  static MetricEvent jobSubmission(SpydraArgument arguments, String type, boolean success) {
+    MetricEvent event = new MetricEvent(Kind.JOB_SUBMISSION, arguments);
+    event.name = type;
+    event.success = success;
+    return event;
+  }
+
+  static MetricEvent apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                                    int retry) {
+    MetricEvent event = new MetricEvent(Kind.API_CALL_RETRIED, arguments);
+    event.name = call;
+    event.errorCategory = errorCategory;
+    event.count = retry;
+    return event;
+  }
+
+  static MetricEvent apiCallExhausted(SpydraArgument arguments, String call,
+                                      String errorCategory, int attempts) {
+    MetricEvent event = new MetricEvent(Kind.API_CALL_EXHAUSTED, arguments);
+    event.name = call;
+    event.errorCategory = errorCategory;
+    event.count = attempts;
+    return event;
+  }
+
+  static MetricEvent phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+    MetricEvent event = new MetricEvent(Kind.PHASE_LATENCY, arguments);
+    event.name = phase;
+    event.duration = duration;
+    return event;
+  }
+
+  static MetricEvent clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+    MetricEvent event = new MetricEvent(Kind.CLUSTER_USAGE, arguments);
+    event.clusterUsage = usage;
+    return event;
+  }
+
+  static MetricEvent processUsage(SpydraArgument arguments, ProcessUsage usage) {
+    MetricEvent event = new MetricEvent(Kind.PROCESS_USAGE, arguments);
+    event.processUsage = usage;
+    return event;
+  }
+
+  static MetricEvent fatalError(SpydraArgument arguments, Throwable throwable) {
+    MetricEvent event = new MetricEvent(Kind.FATAL_ERROR, arguments);
+    event.throwable = throwable;
+    event.error = String.valueOf(throwable);
+    return event;
+  }
+
+  static MetricEvent executionResult(SpydraArgument arguments, boolean success) {
+    MetricEvent event = new MetricEvent(Kind.EXECUTION_RESULT, arguments);
+    event.success = success;
+    return event;
+  }
+
+  Kind getKind() {
+    return kind;
+  }
+
+  @Override
+  public void accept(Metrics metrics) {
+    switch (kind) {
+      case CLUSTER_CREATION:
+        metrics.clusterCreation(arguments, zoneUri, success);
+        break;
+      case CLUSTER_DELETION:
+        metrics.clusterDeletion(arguments, success);
+        break;
+      case JOB_SUBMISSION:
+        metrics.jobSubmission(arguments, name, success);
+        break;
+      case API_CALL_RETRIED:
+        metrics.apiCallRetried(arguments, name, errorCategory, count);
+        break;
+      case API_CALL_EXHAUSTED:
+        metrics.apiCallExhausted(arguments, name, errorCategory, count);
+        break;
+      case PHASE_LATENCY:
+        metrics.phaseLatency(arguments, name, duration);
+        break;
+      case CLUSTER_USAGE:
+        metrics.clusterUsage(arguments, clusterUsage);
+        break;
+      case PROCESS_USAGE:
+        metrics.processUsage(arguments, processUsage);
+        break;
+      case FATAL_ERROR:
+        metrics.fatalError(arguments, throwable != null ? throwable : new SpooledError(error));
+        break;
+      case EXECUTION_RESULT:
+        metrics.executionResult(arguments, success);
+        break;
+      default:
+        throw new IllegalStateException("Unknown metric event " + kind);
+    }
+  }
+
+  /**
+   * An error reported by an earlier invocation, of which only the description was spooled.
+   */
+  static class SpooledError extends Exception {
+
+    SpooledError(String description) {
+      super(description, null, false, false);
+    }
+
+    @Override
+    public String toString() {
+      // The description already names the class of the original error
+      return getMessage();
+    }
+  }
+}
@@ -21,6 +21,7 @@
 package com.spotify.spydra.metrics;
 
 import com.spotify.spydra.model.SpydraArgument;
+import java.time.Duration;
 
 public abstract class Metrics {
   private final String user;
@@ -47,6 +48,51 @@ public abstract class Metrics {
 
   public abstract void jobSubmission(SpydraArgument arguments, String type, boolean success);
 
+  /**
+   * Emit a metric for a Dataproc call that failed and is retried. Does nothing by default, so
+   * that existing implementations keep working.
+   *
+   * @param call          The name of the call, e.g. clusters.list.
+   * @param errorCategory Why the call failed, e.g. RATE_LIMITED or TRANSIENT.
+   * @param retry         The number of the retry, starting at 1.
+   */
+  public void apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                             int retry) {
+  }
+
+  /**
+   * Emit a metric for a Dataproc call that failed in a retryable way but ran out of retries.
+   * Does nothing by default, so that existing implementations keep working.
+   *
+   * @param attempts The number of times the call was made.
+   */
+  public void apiCallExhausted(SpydraArgument arguments, String call, String errorCategory,
+                               int attempts) {
+  }
+
+  /**
+   * Emit how long a phase of the submission took. Does nothing by default, so that existing
+   * implementations keep working.
+   *
+   * @param phase The phase, e.g. cluster_create, job_submit, history_wait or submission.
+   */
+  public void phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+  }
+
+  /**
+   * Emit the cluster resources the job consumed, once the cluster has been released. Does nothing
+   * by default, so that existing implementations keep working.
+   */
+  public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+  }
+
+  /**
+   * Emit how much the submission used one kind of command, once per kind at the end of the
+   * submission. Does nothing by default, so that existing implementations keep working.
+   */
+  public void processUsage(SpydraArgument arguments, ProcessUsage usage) {
+  }
+
   public abstract void fatalError(SpydraArgument argument, Throwable throwable);
 
   public abstract void executionResult(SpydraArgument argument, boolean success);
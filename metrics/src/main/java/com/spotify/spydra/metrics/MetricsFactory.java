@@ -24,6 +24,14 @@ import com.spotify.spydra.metrics.impl.LoggingMetrics;
 import com.spotify.spydra.model.SpydraArgument;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,14 +52,76 @@ public class MetricsFactory {
     if (metrics != null) {
       throw new RuntimeException("Initializing MetricsFactory multiple times");
     }
+    Metrics primary = create(arguments.getMetricClass(), arguments, user);
+    List<Metrics> sinks = new ArrayList<>();
+    sinks.add(primary);
+    for (String metricClass : arguments.getMetricClasses().orElse(Collections.emptyList())) {
+      // A further implementation that cannot be created is left out rather than failing, also
+      // when it fails to link against the classes on the class path or to initialize
+      try {
+        sinks.add(create(metricClass, arguments, user));
+      } catch (RuntimeException | LinkageError e) {
+        LOGGER.warn("Failed to create metrics " + metricClass + ", leaving it out", e);
+      }
+    }
+
+    Optional<SpydraArgument.AsyncMetrics> asyncMetrics = arguments.asyncMetrics;
+    int queueSize = asyncMetrics.flatMap(SpydraArgument.AsyncMetrics::getQueueSize)
+        .orElse(AsyncMetrics.DEFAULT_QUEUE_SIZE);
+    Duration flushTimeout = asyncMetrics.flatMap(SpydraArgument.AsyncMetrics::getFlushTimeout)
+        .orElse(AsyncMetrics.DEFAULT_FLUSH_TIMEOUT);
+    Optional<Path> spoolDir = asyncMetrics.flatMap(SpydraArgument.AsyncMetrics::getSpoolDir)
+        .map(Paths::get);
+    if (sinks.size() > 1) {
+      CompositeMetrics composite = new CompositeMetrics(sinks, queueSize, flushTimeout, spoolDir);
+      flushOnExit(composite, composite::hasUnflushedEvents);
+      metrics = composite;
+    } else if (asyncMetrics.isPresent()) {
+      AsyncMetrics async = new AsyncMetrics(primary, queueSize, flushTimeout, spoolDir);
+      flushOnExit(async, async::hasUnflushedEvents);
+      metrics = async;
+    } else {
+      metrics = primary;
+    }
+  }
+
+  /**
+   * Flushes queued events that are still unflushed when the JVM exits, e.g. because the
+   * submission failed with an exception before it flushed. The flush timeout still bounds how
+   * long exiting takes.
+   */
+  private static void flushOnExit(Metrics metrics, BooleanSupplier unflushed) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      if (unflushed.getAsBoolean()) {
+        metrics.flush();
+      }
+    }, "metrics-exit-flush"));
+  }
+
+  private static Metrics create(String metricClass, SpydraArgument arguments, String user) {
     try {
-      Class clazz =
-          Class.forName(arguments.getMetricClass(), true, MetricsFactory.class.getClassLoader());
-      Constructor<Metrics> constructor = clazz.getConstructor(String.class);
-      metrics = constructor.newInstance(user);
+      Class clazz = Class.forName(metricClass, true, MetricsFactory.class.getClassLoader());
+      return newInstance(clazz, arguments, user);
     } catch (ClassNotFoundException | IllegalAccessException | InstantiationException
         | NoSuchMethodException | InvocationTargetException e) {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Creates a metrics implementation through its (String user, SpydraArgument arguments)
+   * constructor if it has one, so that it can configure itself, or its (String user) constructor.
+   */
+  @SuppressWarnings("unchecked")
+  private static Metrics newInstance(Class clazz, SpydraArgument arguments, String user)
+      throws NoSuchMethodException, IllegalAccessException, InstantiationException,
+      InvocationTargetException {
+    try {
+      Constructor<Metrics> constructor = clazz.getConstructor(String.class, SpydraArgument.class);
+      return constructor.newInstance(user, arguments);
+    } catch (NoSuchMethodException e) {
+      Constructor<Metrics> constructor = clazz.getConstructor(String.class);
+      return constructor.newInstance(user);
+    }
+  }
 }
@@ -0,0 +1,152 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spotify.spydra.model.JsonHelper;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the metric events of one implementation that could not be emitted before exit in a local
+ * directory, so that the next invocation emits them instead.
+ *
+ * <p>Each spill is written to a file of its own, named after the implementation and the time,
+ * which only appears once it is completely written. A file is claimed by renaming it before it
+ * is replayed, so that invocations starting at the same time do not emit its events twice.
+ */
+class MetricsSpool {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetricsSpool.class);
+
+  private static final String SUFFIX = ".json";
+  private static final TypeReference<List<MetricEvent>> EVENTS =
+      new TypeReference<List<MetricEvent>>() {
+      };
+
+  private final Path directory;
+  private final String sink;
+
+  MetricsSpool(Path directory, String sink) {
+    this.directory = directory;
+    this.sink = sink;
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Writes events to a new spool file.
+   *
+   * @return whether the events were written
+   */
+  boolean write(List<MetricEvent> events) {
+    String name = sink + "-" + System.currentTimeMillis() + "-" + UUID.randomUUID() + SUFFIX;
+    Path temporary = directory.resolve("." + name + ".tmp");
+    try {
+      Files.createDirectories(directory);
+      Codec.MAPPER.writeValue(temporary.toFile(), events);
+      Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+      return true;
+    } catch (IOException e) {
+      LOGGER.warn("Failed to spool " + events.size() + " metric events to " + directory, e);
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException ignored) {
+        // Left behind, it is never replayed
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Claims and reads the spool files of the implementation, oldest first, until at least
+   * {@code maxEvents} events have been read. A file that cannot be read is deleted.
+   */
+  List<MetricEvent> replay(int maxEvents) {
+    if (!Files.isDirectory(directory)) {
+      return Collections.emptyList();
+    }
+    List<Path> files = new ArrayList<>();
+    String pattern = sink + "-*" + SUFFIX;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, pattern)) {
+      stream.forEach(files::add);
+    } catch (IOException e) {
+      LOGGER.warn("Failed to list spooled metrics in " + directory, e);
+      return Collections.emptyList();
+    }
+    // The names start with the time they were written at
+    Collections.sort(files);
+
+    List<MetricEvent> events = new ArrayList<>();
+    for (Path file : files) {
+      if (events.size() >= maxEvents) {
+        break;
+      }
+      Path claimed = file.resolveSibling(file.getFileName() + ".claimed-" + UUID.randomUUID());
+      try {
+        Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+      } catch (NoSuchFileException e) {
+        // Claimed by another invocation
+        continue;
+      } catch (IOException e) {
+        LOGGER.warn("Failed to claim spooled metrics " + file, e);
+        continue;
+      }
+      try {
+        events.addAll(Codec.MAPPER.readValue(claimed.toFile(), EVENTS));
+      } catch (IOException e) {
+        LOGGER.warn("Discarding unreadable spooled metrics " + file, e);
+      }
+      try {
+        Files.delete(claimed);
+      } catch (IOException e) {
+        LOGGER.warn("Failed to delete spooled metrics " + claimed, e);
+      }
+    }
+    return events;
+  }
+
+  private static class Codec {
+
+    // Events are written field by field, as their getters and those of the arguments do not
+    // match their fields
+    static final ObjectMapper MAPPER = JsonHelper.objectMapper()
+        .setVisibility(PropertyAccessor.ALL, Visibility.NONE)
+        .setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+        .setSerializationInclusion(JsonInclude.Include.NON_ABSENT);
+  }
+}
@@ -0,0 +1,100 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * How much a submission used one kind of command, e.g. all the gcloud clusters.list calls it
+ * made.
+ */
+public class ProcessUsage {
+
+  private final String kind;
+  private final int invocations;
+  private final int failures;
+  private final Duration wallTime;
+  private final Optional<Duration> cpuTime;
+  private final long outputBytes;
+
+  @JsonCreator
+  public ProcessUsage(@JsonProperty("kind") String kind,
+                      @JsonProperty("invocations") int invocations,
+                      @JsonProperty("failures") int failures,
+                      @JsonProperty("wall_time") Duration wallTime,
+                      @JsonProperty("cpu_time") Optional<Duration> cpuTime,
+                      @JsonProperty("output_bytes") long outputBytes) {
+    this.kind = kind;
+    this.invocations = invocations;
+    this.failures = failures;
+    this.wallTime = wallTime;
+    this.cpuTime = cpuTime;
+    this.outputBytes = outputBytes;
+  }
+
+  /**
+   * The kind of command, e.g. clusters.create or jobs.submit for gcloud dataproc commands.
+   */
+  public String getKind() {
+    return kind;
+  }
+
+  public int getInvocations() {
+    return invocations;
+  }
+
+  /**
+   * The number of invocations that exited with a non-zero code or could not be run.
+   */
+  public int getFailures() {
+    return failures;
+  }
+
+  public Duration getWallTime() {
+    return wallTime;
+  }
+
+  /**
+   * The user and system CPU time of the processes, if the platform reports it.
+   */
+  public Optional<Duration> getCpuTime() {
+    return cpuTime;
+  }
+
+  /**
+   * The number of bytes the processes wrote to standard output, not counting output that was
+   * passed through to the console.
+   */
+  public long getOutputBytes() {
+    return outputBytes;
+  }
+
+  @Override
+  public String toString() {
+    return kind + " invocations=" + invocations + " failures=" + failures
+        + " wallTimeMs=" + wallTime.toMillis()
+        + " cpuTimeMs=" + cpuTime.map(time -> String.valueOf(time.toMillis())).orElse("n/a")
+        + " outputBytes=" + outputBytes;
+  }
+}
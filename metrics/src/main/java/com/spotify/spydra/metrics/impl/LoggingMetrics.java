@@ -20,8 +20,11 @@
 
 package com.spotify.spydra.metrics.impl;
 
+import com.spotify.spydra.metrics.ClusterUsage;
 import com.spotify.spydra.metrics.Metrics;
+import com.spotify.spydra.metrics.ProcessUsage;
 import com.spotify.spydra.model.SpydraArgument;
+import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +50,34 @@ public class LoggingMetrics extends Metrics {
     LOGGER.info(type + " job was submitted with success=" + success);
   }
 
+  @Override
+  public void apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                             int retry) {
+    LOGGER.info(call + " call is retried after " + errorCategory + " failure, retry=" + retry);
+  }
+
+  @Override
+  public void apiCallExhausted(SpydraArgument arguments, String call, String errorCategory,
+                               int attempts) {
+    LOGGER.info(call + " call failed with " + errorCategory + " failure after attempts="
+        + attempts);
+  }
+
+  @Override
+  public void phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+    LOGGER.info(phase + " took " + duration.toMillis() + " ms");
+  }
+
+  @Override
+  public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+    LOGGER.info("Cluster usage " + usage);
+  }
+
+  @Override
+  public void processUsage(SpydraArgument arguments, ProcessUsage usage) {
+    LOGGER.info("Process usage " + usage);
+  }
+
   @Override
   public void fatalError(SpydraArgument argument, Throwable throwable) {
     LOGGER.info("Fatal error was caught" + throwable.getCause());
@@ -0,0 +1,287 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.spydra.metrics.ClusterUsage;
+import com.spotify.spydra.metrics.Metrics;
+import com.spotify.spydra.metrics.ProcessUsage;
+import com.spotify.spydra.metrics.impl.PrometheusRegistry.Family;
+import com.spotify.spydra.model.SpydraArgument;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps counters and histograms of the submission in the Prometheus text exposition format.
+ *
+ * <p>With a {@code textfile_directory}, the metrics are added to those of earlier submissions in
+ * {@value #TEXTFILE_NAME} in that directory when flushed, for the node exporter textfile
+ * collector to pick up. The file is replaced atomically, and concurrent submissions on the host
+ * take turns through a lock file. With an {@code http_port}, the metrics of the running
+ * submission are served on the loopback interface at {@code /metrics}.
+ */
+public class PrometheusMetrics extends Metrics {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusMetrics.class);
+
+  static final String TEXTFILE_NAME = "spydra.prom";
+
+  // From a quick API call to a job running for hours
+  private static final double[] LATENCY_BUCKETS =
+      {1, 5, 15, 30, 60, 120, 300, 600, 1800, 3600, 7200, 21600};
+
+  private final PrometheusRegistry registry = new PrometheusRegistry();
+  private final Family clusterCreations = registry.counter("spydra_cluster_creations_total",
+      "Clusters created.", "client_id", "success");
+  private final Family clusterDeletions = registry.counter("spydra_cluster_deletions_total",
+      "Clusters deleted.", "client_id", "success");
+  private final Family jobSubmissions = registry.counter("spydra_job_submissions_total",
+      "Jobs submitted.", "client_id", "type", "success");
+  private final Family apiCallRetries = registry.counter("spydra_api_call_retries_total",
+      "Dataproc calls retried after a failure.", "client_id", "call", "category");
+  private final Family apiCallExhaustions = registry.counter("spydra_api_call_exhaustions_total",
+      "Dataproc calls that failed after running out of retries.", "client_id", "call",
+      "category");
+  private final Family fatalErrors = registry.counter("spydra_fatal_errors_total",
+      "Submissions aborted by an error.", "client_id", "exception");
+  private final Family executions = registry.counter("spydra_executions_total",
+      "Submissions finished.", "client_id", "success");
+  private final Family phaseDurations = registry.histogram("spydra_phase_duration_seconds",
+      "Duration of the phases of submissions.", LATENCY_BUCKETS, "client_id", "phase");
+  private final Family clusterSeconds = registry.counter("spydra_cluster_seconds_total",
+      "Cluster time charged to jobs.", "client_id", "pooled");
+  private final Family clusterIdleSeconds = registry.counter(
+      "spydra_cluster_idle_seconds_total", "Cluster time not spent running jobs.", "client_id",
+      "pooled");
+  private final Family clusterVcpuHours = registry.counter("spydra_cluster_vcpu_hours_total",
+      "Cluster vCPU hours charged to jobs.", "client_id", "pooled");
+  private final Family jobClusterSeconds = registry.histogram("spydra_job_cluster_seconds",
+      "Cluster time charged to each job.", LATENCY_BUCKETS, "client_id", "pooled");
+  private final Family processInvocations = registry.counter(
+      "spydra_process_invocations_total", "Commands run.", "client_id", "kind");
+  private final Family processFailures = registry.counter("spydra_process_failures_total",
+      "Commands that failed.", "client_id", "kind");
+  private final Family processSeconds = registry.counter("spydra_process_seconds_total",
+      "Wall time of commands.", "client_id", "kind");
+  private final Family processCpuSeconds = registry.counter("spydra_process_cpu_seconds_total",
+      "CPU time of commands.", "client_id", "kind");
+  private final Family processOutputBytes = registry.counter(
+      "spydra_process_output_bytes_total", "Bytes read from the output of commands.",
+      "client_id", "kind");
+
+  private final Optional<Path> textfileDirectory;
+  private final Optional<HttpServer> server;
+  // What was added to the textfile already, so that flushing twice does not count twice
+  private Map<String, Double> flushed = Collections.emptyMap();
+
+  public PrometheusMetrics(String user, SpydraArgument arguments) {
+    this(user,
+        arguments.prometheus.flatMap(SpydraArgument.Prometheus::getTextfileDirectory)
+            .map(Paths::get),
+        arguments.prometheus.flatMap(SpydraArgument.Prometheus::getHttpPort));
+  }
+
+  public PrometheusMetrics(String user, Optional<Path> textfileDirectory,
+                           Optional<Integer> httpPort) {
+    super(user);
+    this.textfileDirectory = textfileDirectory;
+    this.server = httpPort.flatMap(this::startServer);
+  }
+
+  private Optional<HttpServer> startServer(int port) {
+    try {
+      HttpServer server = HttpServer.create(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.createContext("/metrics", exchange -> {
+        byte[] body = registry.format(registry.samples()).getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      });
+      server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "prometheus-metrics-server");
+        thread.setDaemon(true);
+        return thread;
+      }));
+      server.start();
+      LOGGER.info("Serving metrics at http://" + server.getAddress().getHostString() + ":"
+          + server.getAddress().getPort() + "/metrics");
+      return Optional.of(server);
+    } catch (IOException e) {
+      LOGGER.warn("Failed to serve metrics on port " + port, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * The port metrics are served on, if they are.
+   */
+  Optional<Integer> httpPort() {
+    return server.map(s -> s.getAddress().getPort());
+  }
+
+  @Override
+  public void clusterCreation(SpydraArgument arguments, String zoneUri, boolean success) {
+    clusterCreations.inc(clientId(arguments), String.valueOf(success));
+  }
+
+  @Override
+  public void clusterDeletion(SpydraArgument arguments, boolean success) {
+    clusterDeletions.inc(clientId(arguments), String.valueOf(success));
+  }
+
+  @Override
+  public void jobSubmission(SpydraArgument arguments, String type, boolean success) {
+    jobSubmissions.inc(clientId(arguments), type, String.valueOf(success));
+  }
+
+  @Override
+  public void apiCallRetried(SpydraArgument arguments, String call, String errorCategory,
+                             int retry) {
+    apiCallRetries.inc(clientId(arguments), call, errorCategory);
+  }
+
+  @Override
+  public void apiCallExhausted(SpydraArgument arguments, String call, String errorCategory,
+                               int attempts) {
+    apiCallExhaustions.inc(clientId(arguments), call, errorCategory);
+  }
+
+  @Override
+  public void phaseLatency(SpydraArgument arguments, String phase, Duration duration) {
+    phaseDurations.observe(duration.toMillis() / 1000.0, clientId(arguments), phase);
+  }
+
+  @Override
+  public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+    String clientId = clientId(arguments);
+    String pooled = String.valueOf(usage.isPooled());
+    clusterSeconds.add(usage.getAttributedTime().toMillis() / 1000.0, clientId, pooled);
+    clusterIdleSeconds.add(usage.getIdleTime().toMillis() / 1000.0, clientId, pooled);
+    clusterVcpuHours.add(usage.getVcpuHours(), clientId, pooled);
+    jobClusterSeconds.observe(usage.getAttributedTime().toMillis() / 1000.0, clientId, pooled);
+  }
+
+  @Override
+  public void processUsage(SpydraArgument arguments, ProcessUsage usage) {
+    String clientId = clientId(arguments);
+    processInvocations.add(usage.getInvocations(), clientId, usage.getKind());
+    processFailures.add(usage.getFailures(), clientId, usage.getKind());
+    processSeconds.add(usage.getWallTime().toMillis() / 1000.0, clientId, usage.getKind());
+    usage.getCpuTime().ifPresent(cpuTime ->
+        processCpuSeconds.add(cpuTime.toMillis() / 1000.0, clientId, usage.getKind()));
+    processOutputBytes.add(usage.getOutputBytes(), clientId, usage.getKind());
+  }
+
+  @Override
+  public void fatalError(SpydraArgument argument, Throwable throwable) {
+    fatalErrors.inc(clientId(argument), throwable.getClass().getSimpleName());
+  }
+
+  @Override
+  public void executionResult(SpydraArgument argument, boolean success) {
+    executions.inc(clientId(argument), String.valueOf(success));
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (!textfileDirectory.isPresent()) {
+      return;
+    }
+    Map<String, Double> samples = registry.samples();
+    Map<String, Double> added = new LinkedHashMap<>();
+    samples.forEach((sample, value) -> {
+      // New samples are added even if zero, e.g. the empty buckets of a histogram
+      double delta = value - flushed.getOrDefault(sample, 0.0);
+      if (delta != 0 || !flushed.containsKey(sample)) {
+        added.put(sample, delta);
+      }
+    });
+    if (added.isEmpty()) {
+      return;
+    }
+    try {
+      addToTextfile(textfileDirectory.get(), added);
+      flushed = samples;
+    } catch (IOException e) {
+      LOGGER.warn("Failed to write metrics to " + textfileDirectory.get(), e);
+    }
+  }
+
+  private void addToTextfile(Path directory, Map<String, Double> added) throws IOException {
+    Files.createDirectories(directory);
+    Path textfile = directory.resolve(TEXTFILE_NAME);
+    // The textfile collector only reads *.prom files, so neither the lock file nor the
+    // temporary file are picked up
+    Path lockFile = directory.resolve("." + TEXTFILE_NAME + ".lock");
+    try (FileChannel channel = FileChannel.open(lockFile,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock ignored = channel.lock()) {
+      Map<String, Double> samples = Files.exists(textfile)
+          ? PrometheusRegistry.parse(new String(Files.readAllBytes(textfile), UTF_8))
+          : new LinkedHashMap<>();
+      added.forEach((sample, value) -> samples.merge(sample, value, Double::sum));
+      Path temporary = Files.createTempFile(directory, "." + TEXTFILE_NAME, ".tmp");
+      try {
+        Files.write(temporary, registry.format(samples).getBytes(UTF_8));
+        makeReadable(temporary);
+        Files.move(temporary, textfile, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  private static void makeReadable(Path file) throws IOException {
+    // Temporary files are only readable by their owner, the node exporter runs as another user
+    try {
+      Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+    } catch (UnsupportedOperationException e) {
+      // Not a POSIX file system
+    }
+  }
+
+  private static String clientId(SpydraArgument arguments) {
+    return arguments.clientId.orElse("");
+  }
+}
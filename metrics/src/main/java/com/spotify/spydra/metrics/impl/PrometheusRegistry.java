@@ -0,0 +1,229 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Counters and histograms in the Prometheus text exposition format. Every sample only ever
+ * grows, so that the samples of several processes can be added up.
+ */
+final class PrometheusRegistry {
+
+  private final Map<String, Family> families = new LinkedHashMap<>();
+
+  Family counter(String name, String help, String... labelNames) {
+    return register(new Family(name, help, labelNames, null));
+  }
+
+  Family histogram(String name, String help, double[] buckets, String... labelNames) {
+    return register(new Family(name, help, labelNames, buckets));
+  }
+
+  private synchronized Family register(Family family) {
+    families.put(family.name, family);
+    return family;
+  }
+
+  /**
+   * Returns the current value of every sample, keyed by its name and labels, in exposition order.
+   */
+  synchronized Map<String, Double> samples() {
+    Map<String, Double> samples = new LinkedHashMap<>();
+    for (Family family : families.values()) {
+      samples.putAll(family.samples());
+    }
+    return samples;
+  }
+
+  /**
+   * Formats samples, e.g. those of {@link #samples()}, grouped into their families. Samples of
+   * unknown families are left out.
+   */
+  synchronized String format(Map<String, Double> samples) {
+    StringBuilder text = new StringBuilder();
+    for (Family family : families.values()) {
+      List<Map.Entry<String, Double>> familySamples = new ArrayList<>();
+      for (Map.Entry<String, Double> sample : samples.entrySet()) {
+        if (family.owns(metricName(sample.getKey()))) {
+          familySamples.add(sample);
+        }
+      }
+      if (familySamples.isEmpty()) {
+        continue;
+      }
+      text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      text.append("# TYPE ").append(family.name).append(' ')
+          .append(family.buckets == null ? "counter" : "histogram").append('\n');
+      for (Map.Entry<String, Double> sample : familySamples) {
+        text.append(sample.getKey()).append(' ').append(formatValue(sample.getValue()))
+            .append('\n');
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Parses samples written by {@link #format(Map)}, ignoring comments and malformed lines.
+   */
+  static Map<String, Double> parse(String text) {
+    Map<String, Double> samples = new LinkedHashMap<>();
+    for (String line : text.split("\n")) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int end = line.indexOf('{') >= 0 ? line.lastIndexOf('}') + 1 : line.indexOf(' ');
+      if (end <= 0 || end >= line.length()) {
+        continue;
+      }
+      try {
+        samples.put(line.substring(0, end), Double.parseDouble(line.substring(end).trim()));
+      } catch (NumberFormatException e) {
+        // Not written by us, left out
+      }
+    }
+    return samples;
+  }
+
+  private static String metricName(String sample) {
+    int labels = sample.indexOf('{');
+    return labels >= 0 ? sample.substring(0, labels) : sample;
+  }
+
+  static String formatValue(double value) {
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  static final class Family {
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final double[] buckets;
+    private final ConcurrentMap<List<String>, DoubleAdder[]> series = new ConcurrentHashMap<>();
+    // The order series first appeared in, for a stable exposition
+    private final List<List<String>> order = new ArrayList<>();
+
+    private Family(String name, String help, String[] labelNames, double[] buckets) {
+      this.name = name;
+      this.help = help;
+      this.labelNames = labelNames;
+      this.buckets = buckets;
+    }
+
+    void inc(String... labelValues) {
+      add(1, labelValues);
+    }
+
+    void add(double amount, String... labelValues) {
+      series(labelValues)[0].add(amount);
+    }
+
+    void observe(double value, String... labelValues) {
+      DoubleAdder[] adders = series(labelValues);
+      for (int i = 0; i < buckets.length; i++) {
+        if (value <= buckets[i]) {
+          adders[i].add(1);
+        }
+      }
+      // +Inf bucket, count and sum
+      adders[buckets.length].add(1);
+      adders[buckets.length + 1].add(1);
+      adders[buckets.length + 2].add(value);
+    }
+
+    private DoubleAdder[] series(String[] labelValues) {
+      if (labelValues.length != labelNames.length) {
+        throw new IllegalArgumentException(
+            name + " takes labels " + Arrays.toString(labelNames));
+      }
+      return series.computeIfAbsent(Arrays.asList(labelValues), key -> {
+        synchronized (order) {
+          order.add(key);
+        }
+        DoubleAdder[] adders = new DoubleAdder[buckets == null ? 1 : buckets.length + 3];
+        for (int i = 0; i < adders.length; i++) {
+          adders[i] = new DoubleAdder();
+        }
+        return adders;
+      });
+    }
+
+    private boolean owns(String metricName) {
+      return buckets == null
+          ? metricName.equals(name)
+          : metricName.equals(name + "_bucket") || metricName.equals(name + "_count")
+              || metricName.equals(name + "_sum");
+    }
+
+    private Map<String, Double> samples() {
+      List<List<String>> keys;
+      synchronized (order) {
+        keys = new ArrayList<>(order);
+      }
+      Map<String, Double> samples = new LinkedHashMap<>();
+      for (List<String> key : keys) {
+        DoubleAdder[] adders = series.get(key);
+        if (buckets == null) {
+          samples.put(name + labels(key, null), adders[0].sum());
+          continue;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+          samples.put(name + "_bucket" + labels(key, formatValue(buckets[i])), adders[i].sum());
+        }
+        samples.put(name + "_bucket" + labels(key, "+Inf"), adders[buckets.length].sum());
+        samples.put(name + "_count" + labels(key, null), adders[buckets.length + 1].sum());
+        samples.put(name + "_sum" + labels(key, null), adders[buckets.length + 2].sum());
+      }
+      return samples;
+    }
+
+    private String labels(List<String> values, String le) {
+      StringBuilder labels = new StringBuilder("{");
+      for (int i = 0; i < labelNames.length; i++) {
+        if (i > 0) {
+          labels.append(',');
+        }
+        labels.append(labelNames[i]).append("=\"").append(escape(values.get(i))).append('"');
+      }
+      if (le != null) {
+        labels.append(labelNames.length > 0 ? "," : "").append("le=\"").append(le).append('"');
+      }
+      return labels.length() == 1 ? "" : labels.append('}').toString();
+    }
+
+    private static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+  }
+}
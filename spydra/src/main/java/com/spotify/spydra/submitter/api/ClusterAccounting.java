@@ -0,0 +1,144 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.metrics.ClusterUsage;
+import com.spotify.spydra.model.SpydraArgument;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of when a cluster was requested, ran the job and was released, to work out the
+ * {@link ClusterUsage} of the job.
+ */
+class ClusterAccounting {
+
+  // e.g. custom-8-30720, n2-custom-8-30720 or custom-8-30720-ext
+  private static final Pattern CUSTOM_MACHINE_TYPE = Pattern.compile("custom-(\\d+)-\\d+");
+  // e.g. n1-standard-4, e2-highmem-16 or n2d-highcpu-32
+  private static final Pattern PREDEFINED_MACHINE_TYPE = Pattern.compile("^\\w+-\\w+-(\\d+)$");
+
+  private final Clock clock;
+  private final Instant requested;
+  private Optional<Cluster> cluster = Optional.empty();
+  private boolean pooled;
+  private Optional<Instant> jobStarted = Optional.empty();
+  private Optional<Instant> jobFinished = Optional.empty();
+
+  ClusterAccounting(Clock clock) {
+    this.clock = clock;
+    this.requested = clock.instant();
+  }
+
+  void clusterAcquired(Cluster cluster, boolean pooled) {
+    this.cluster = Optional.of(cluster);
+    this.pooled = pooled;
+  }
+
+  void jobStarted() {
+    jobStarted = Optional.of(clock.instant());
+  }
+
+  void jobFinished() {
+    if (jobStarted.isPresent() && !jobFinished.isPresent()) {
+      jobFinished = Optional.of(clock.instant());
+    }
+  }
+
+  /**
+   * Works out the usage of the job once the cluster has been released, if a cluster was
+   * acquired.
+   */
+  Optional<ClusterUsage> usage(SpydraArgument arguments) {
+    if (!cluster.isPresent()) {
+      return Optional.empty();
+    }
+    Instant released = clock.instant();
+    Duration jobTime = jobStarted.isPresent()
+        ? Duration.between(jobStarted.get(), jobFinished.orElse(released))
+        : Duration.ZERO;
+    Duration clusterTime = pooled ? jobTime : Duration.between(requested, released);
+    int sharedBy = pooled ? runningApplications(cluster.get()) + 1 : 1;
+    return Optional.of(new ClusterUsage(cluster.get().clusterName, pooled,
+        vcpus(cluster.get(), arguments), clusterTime, jobTime, sharedBy));
+  }
+
+  /**
+   * The YARN applications running on the cluster when it was acquired, which share it with the
+   * job.
+   */
+  private static int runningApplications(Cluster cluster) {
+    try {
+      return Integer.parseInt(
+          cluster.metrics.yarnMetrics.getOrDefault(Cluster.Metrics.YARN_APPS_RUNNING, "0"));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Counts the vCPUs of all nodes of the cluster, falling back to the options the cluster was
+   * created with if the cluster description has no machine types.
+   */
+  static int vcpus(Cluster cluster, SpydraArgument arguments) {
+    Cluster.Config config = cluster.config;
+    int vcpus = vcpus(config.masterConfig) + vcpus(config.workerConfig)
+        + vcpus(config.secondaryWorkerConfig);
+    if (vcpus > 0) {
+      return vcpus;
+    }
+    Map<String, String> options = arguments.getCluster().getOptions();
+    try {
+      int workers = Integer.parseInt(
+          options.getOrDefault(SpydraArgument.OPTION_NUM_WORKERS, "0"));
+      return vcpus(options.get(SpydraArgument.OPTION_MASTER_MACHINE_TYPE))
+          + workers * vcpus(options.get(SpydraArgument.OPTION_WORKER_MACHINE_TYPE));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static int vcpus(Cluster.Config.InstanceGroupConfig config) {
+    return config.numInstances * vcpus(config.machineTypeUri);
+  }
+
+  /**
+   * Returns the vCPUs of a machine type, given by name or URI, or 0 if unknown.
+   */
+  static int vcpus(String machineType) {
+    if (machineType == null) {
+      return 0;
+    }
+    String name = machineType.substring(machineType.lastIndexOf('/') + 1);
+    Matcher custom = CUSTOM_MACHINE_TYPE.matcher(name);
+    if (custom.find()) {
+      return Integer.parseInt(custom.group(1));
+    }
+    Matcher predefined = PREDEFINED_MACHINE_TYPE.matcher(name);
+    return predefined.matches() ? Integer.parseInt(predefined.group(1)) : 0;
+  }
+}
@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static com.spotify.spydra.model.SpydraArgument.OPTION_ACCOUNT;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_LABELS;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_PROPERTIES;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes a fingerprint of the cluster configuration of a submission.
+ *
+ * <p>Two submissions with the same fingerprint would create identical clusters, which makes it
+ * safe to run the job of one on an idle cluster created by the other. The options are
+ * normalized before hashing, so that option order, list order and per-invocation values do
+ * not affect the result.
+ */
+final class ClusterFingerprint {
+
+  // Labels are managed by spydra itself and the account is only used for the gcloud invocation.
+  private static final Set<String> IGNORED_OPTIONS =
+      Stream.of(OPTION_LABELS, OPTION_ACCOUNT).collect(Collectors.toSet());
+
+  // The intermediate done dir contains a per-invocation UUID, see dataproc_defaults.json.
+  private static final String INTERMEDIATE_DONE_DIR_PROPERTY =
+      "mapred:mapreduce.jobhistory.intermediate-done-dir";
+
+  // Label values are limited to 63 characters
+  private static final int FINGERPRINT_LENGTH = 32;
+
+  private ClusterFingerprint() {
+  }
+
+  static String of(SpydraArgument arguments) {
+    Map<String, String> normalized = new TreeMap<>();
+    arguments.getCluster().getOptions().forEach((key, value) -> {
+      if (!IGNORED_OPTIONS.contains(key)) {
+        normalized.put(key, normalizeValue(key, value));
+      }
+    });
+
+    StringBuilder canonical = new StringBuilder();
+    canonical.append(arguments.region.orElse("")).append('\n');
+    normalized.forEach((key, value) ->
+        canonical.append(key).append('=').append(value).append('\n'));
+
+    return hash(canonical.toString()).substring(0, FINGERPRINT_LENGTH);
+  }
+
+  private static String normalizeValue(String key, String value) {
+    if (value == null) {
+      return "";
+    }
+    return Arrays.stream(value.split(","))
+        .map(String::trim)
+        .filter(item -> !item.isEmpty())
+        .filter(item -> !(OPTION_PROPERTIES.equals(key)
+                          && item.startsWith(INTERMEDIATE_DONE_DIR_PROPERTY + "=")))
+        .sorted()
+        .collect(Collectors.joining(","));
+  }
+
+  private static String hash(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
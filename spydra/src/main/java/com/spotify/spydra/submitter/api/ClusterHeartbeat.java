@@ -0,0 +1,130 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically marks a cluster as being in use by a live client.
+ *
+ * <p>Only clusters whose lifetime is bound to a single client get a heartbeat. Every beat stamps
+ * the cluster with a {@value #HEARTBEAT_LABEL} label and, with a {@code timeout}, pushes the
+ * scheduled deletion time of the cluster {@code timeout} into the future, so a cluster left behind
+ * by a killed client is deleted by Dataproc shortly after the last beat while a live client keeps
+ * it around indefinitely.
+ *
+ * <p>Beats run with a fixed delay on a single daemon thread. The label and the deletion time are
+ * written in one asynchronous update, so a beat does not wait for the update operation and the
+ * beats keep to the interval.
+ */
+class ClusterHeartbeat implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClusterHeartbeat.class);
+
+  static final String HEARTBEAT_LABEL = "spydra-heartbeat";
+  static final String OPTION_UPDATE_LABELS = "update-labels";
+  static final String OPTION_EXPIRATION_TIME = "expiration-time";
+
+  static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+
+  private final DataprocApi dataprocApi;
+  private final SpydraArgument arguments;
+  private final Duration interval;
+  private final Duration timeout;
+  private final Clock clock;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Creates a heartbeat that is not yet started.
+   *
+   * @param timeout how long the cluster may outlive the last beat, or null to only update the
+   *                heartbeat label
+   */
+  ClusterHeartbeat(DataprocApi dataprocApi, SpydraArgument arguments, Duration interval,
+                   Duration timeout, Clock clock) {
+    this.dataprocApi = dataprocApi;
+    this.arguments = arguments;
+    this.interval = interval;
+    this.timeout = timeout;
+    this.clock = clock;
+  }
+
+  static ClusterHeartbeat forArguments(DataprocApi dataprocApi, SpydraArgument arguments) {
+    SpydraArgument.Heartbeat heartbeat = arguments.getHeartbeat();
+    return new ClusterHeartbeat(dataprocApi, arguments,
+        heartbeat.getInterval().orElse(DEFAULT_INTERVAL),
+        heartbeat.getTimeout().orElse(null),
+        Clock.systemUTC());
+  }
+
+  void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "spydra-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::beat, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  void beat() {
+    try {
+      if (!dataprocApi.updateCluster(arguments, updates())) {
+        LOGGER.warn("Failed to update heartbeat of cluster " + arguments.getCluster().getName());
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Failed to update heartbeat of cluster " + arguments.getCluster().getName(), e);
+    }
+  }
+
+  Map<String, String> updates() {
+    Instant now = clock.instant();
+    Map<String, String> updates = new HashMap<>();
+    updates.put(OPTION_UPDATE_LABELS, HEARTBEAT_LABEL + "=" + now.getEpochSecond());
+    if (timeout != null) {
+      updates.put(OPTION_EXPIRATION_TIME, expirationTime(now, timeout));
+    }
+    return updates;
+  }
+
+  static String expirationTime(Instant now, Duration timeout) {
+    return now.truncatedTo(ChronoUnit.SECONDS).plus(timeout).toString();
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exclusive claim on a reusable cluster.
+ *
+ * <p>Dataproc labels can not be updated conditionally, so the lease is an object in the log
+ * bucket which is created with a does-not-exist precondition. Only one client can succeed in
+ * creating it, and the cluster is considered idle again once the object is deleted.
+ *
+ * <p>While a client holds a lease it rewrites the object periodically, each time on the
+ * condition that it still holds the generation it wrote last. A client that is killed stops
+ * renewing its lease, so a lease that has not been renewed for longer than the max-idle of the
+ * cluster is considered stale and taken over by overwriting it with a generation precondition,
+ * so that only one client succeeds. A client only ever releases the generation it holds, and
+ * therefore never the lease of a client that took it over.
+ */
+class ClusterLease {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClusterLease.class);
+
+  static final String LEASE_PREFIX = "spydra-leases";
+
+  // Renewals per max-idle, so that a few failed renewals do not make a held lease look stale
+  static final int RENEWALS_PER_MAX_IDLE = 4;
+  static final Duration DEFAULT_RENEW_INTERVAL = Duration.ofMinutes(5);
+
+  // A gcloud duration such as 30m or 1h30m
+  private static final Pattern GCLOUD_DURATION = Pattern.compile("(\\d+[dhms])+");
+  private static final Pattern GCLOUD_DURATION_PART = Pattern.compile("(\\d+)([dhms])");
+
+  private final GcpUtils gcpUtils;
+  private final Clock clock;
+  // Generation of the lease object last written by this client, per cluster
+  private final Map<String, Long> held = new HashMap<>();
+  private final Map<String, ScheduledFuture<?>> renewals = new HashMap<>();
+  private ScheduledExecutorService renewer;
+
+  ClusterLease(GcpUtils gcpUtils) {
+    this(gcpUtils, Clock.systemUTC());
+  }
+
+  ClusterLease(GcpUtils gcpUtils, Clock clock) {
+    this.gcpUtils = gcpUtils;
+    this.clock = clock;
+  }
+
+  /**
+   * Leases an existing cluster, taking over a stale lease on it.
+   */
+  boolean tryAcquire(SpydraArgument arguments, Cluster cluster) {
+    if (tryAcquire(arguments, cluster.clusterName)) {
+      return true;
+    }
+    Optional<Duration> maxIdle = maxIdle(arguments);
+    if (!maxIdle.isPresent()) {
+      return false;
+    }
+    String leaseName = leaseName(arguments, cluster.clusterName);
+    Optional<GcpUtils.BlobVersion> current =
+        gcpUtils.blobVersion(arguments.getLogBucket(), leaseName);
+    if (!current.isPresent()) {
+      // Released in the meantime
+      return tryAcquire(arguments, cluster.clusterName);
+    }
+    Duration sinceRenewal = Duration.between(current.get().updated, clock.instant());
+    if (sinceRenewal.compareTo(maxIdle.get()) <= 0) {
+      return false;
+    }
+    Optional<Long> generation = gcpUtils.replaceBlobIfUnchanged(arguments.getLogBucket(),
+        leaseName, current.get().generation, leaseContent().getBytes(StandardCharsets.UTF_8));
+    if (!generation.isPresent()) {
+      return false;
+    }
+    LOGGER.warn("Took over stale lease on cluster {}, not renewed for {}",
+        cluster.clusterName, sinceRenewal);
+    hold(arguments, cluster.clusterName, generation.get());
+    return true;
+  }
+
+  boolean tryAcquire(SpydraArgument arguments, String clusterName) {
+    Optional<Long> generation = gcpUtils.createBlobIfAbsent(
+        arguments.getLogBucket(),
+        leaseName(arguments, clusterName),
+        leaseContent().getBytes(StandardCharsets.UTF_8));
+    LOGGER.debug("Lease on cluster {} acquired={}", clusterName, generation.isPresent());
+    generation.ifPresent(acquired -> hold(arguments, clusterName, acquired));
+    return generation.isPresent();
+  }
+
+  private synchronized void hold(SpydraArgument arguments, String clusterName, long generation) {
+    held.put(clusterName, generation);
+    if (renewer == null) {
+      renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("cluster-lease-renewal-%d").build());
+    }
+    long interval = renewInterval(arguments).toMillis();
+    renewals.put(clusterName, renewer.scheduleWithFixedDelay(
+        () -> renew(arguments, clusterName), interval, interval, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Rewrites a held lease, so that other clients do not consider it stale.
+   *
+   * @return whether the lease is still held
+   */
+  synchronized boolean renew(SpydraArgument arguments, String clusterName) {
+    Long generation = held.get(clusterName);
+    if (generation == null) {
+      return false;
+    }
+    try {
+      Optional<Long> renewed = gcpUtils.replaceBlobIfUnchanged(arguments.getLogBucket(),
+          leaseName(arguments, clusterName), generation,
+          leaseContent().getBytes(StandardCharsets.UTF_8));
+      if (renewed.isPresent()) {
+        held.put(clusterName, renewed.get());
+        return true;
+      }
+      LOGGER.error("Lost lease on cluster {}, another client took it over", clusterName);
+      stopRenewal(clusterName);
+      held.remove(clusterName);
+      return false;
+    } catch (RuntimeException e) {
+      // Retried with the next renewal, the lease only goes stale after several failed ones
+      LOGGER.warn("Failed to renew lease on cluster " + clusterName, e);
+      return true;
+    }
+  }
+
+  synchronized void release(SpydraArgument arguments, String clusterName) {
+    stopRenewal(clusterName);
+    Long generation = held.remove(clusterName);
+    if (generation == null) {
+      LOGGER.warn("Lease on cluster {} is not held, leaving it", clusterName);
+    } else if (!gcpUtils.deleteBlobIfUnchanged(arguments.getLogBucket(),
+        leaseName(arguments, clusterName), generation)) {
+      LOGGER.warn("Lease on cluster {} was taken over or already released", clusterName);
+    }
+  }
+
+  private void stopRenewal(String clusterName) {
+    ScheduledFuture<?> renewal = renewals.remove(clusterName);
+    if (renewal != null) {
+      renewal.cancel(false);
+    }
+    if (renewals.isEmpty() && renewer != null) {
+      renewer.shutdown();
+      renewer = null;
+    }
+  }
+
+  static Duration renewInterval(SpydraArgument arguments) {
+    return maxIdle(arguments)
+        .map(maxIdle -> maxIdle.dividedBy(RENEWALS_PER_MAX_IDLE))
+        .filter(interval -> !interval.isZero())
+        .orElse(DEFAULT_RENEW_INTERVAL);
+  }
+
+  static Optional<Duration> maxIdle(SpydraArgument arguments) {
+    String maxIdle = arguments.getCluster().getOptions().get(SpydraArgument.OPTION_MAX_IDLE);
+    if (maxIdle == null || !GCLOUD_DURATION.matcher(maxIdle).matches()) {
+      return Optional.empty();
+    }
+    Duration duration = Duration.ZERO;
+    Matcher part = GCLOUD_DURATION_PART.matcher(maxIdle);
+    while (part.find()) {
+      long amount = Long.parseLong(part.group(1));
+      switch (part.group(2)) {
+        case "d":
+          duration = duration.plusDays(amount);
+          break;
+        case "h":
+          duration = duration.plusHours(amount);
+          break;
+        case "m":
+          duration = duration.plusMinutes(amount);
+          break;
+        default:
+          duration = duration.plusSeconds(amount);
+          break;
+      }
+    }
+    return Optional.of(duration);
+  }
+
+  static String leaseName(SpydraArgument arguments, String clusterName) {
+    return String.format("%s/%s/%s", LEASE_PREFIX, arguments.getClientId(), clusterName);
+  }
+
+  private static String leaseContent() {
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      host = "unknown";
+    }
+    return String.format("host=%s%nacquired=%s%n", host, Instant.now());
+  }
+}
@@ -0,0 +1,131 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.spydra.model.JsonHelper;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A host-local queue of cluster deletions, stored as one JSON file per cluster in a directory
+ * shared by all clients on the host.
+ *
+ * <p>Requests are keyed by project, region and cluster name, so that deleting the same cluster
+ * several times is coalesced into a single queued deletion.
+ */
+class DeletionQueue {
+
+  static final String DEFAULT_QUEUE_DIR = ".spydra/deletions";
+
+  private static final String REQUEST_SUFFIX = ".json";
+  private static final String LOCK_FILE = "reaper.lock";
+
+  public static class Request {
+
+    public String project;
+    public String region;
+    public String clusterName;
+    public String clientId;
+    // The account the cluster was deleted with, only reapers using the same one issue it
+    public String account;
+    // How many reapers gave up deleting the cluster
+    public int failedReaps;
+  }
+
+  private final Path directory;
+
+  DeletionQueue(Path directory) {
+    this.directory = directory;
+  }
+
+  static DeletionQueue forArguments(SpydraArgument arguments) {
+    Optional<String> queueDir = arguments.isDeletionReaperEnabled()
+        ? arguments.getDeletionReaper().getQueueDir()
+        : Optional.empty();
+    return new DeletionQueue(queueDir.map(Paths::get)
+        .orElseGet(() -> Paths.get(System.getProperty("user.home"), DEFAULT_QUEUE_DIR)));
+  }
+
+  static String key(Request request) {
+    // Project ids of domain-scoped projects contain a colon
+    return String.format("%s_%s_%s", String.valueOf(request.project).replace(':', '-'),
+        request.region, request.clusterName);
+  }
+
+  /**
+   * Adds a deletion to the queue. The file is moved into place, so that the reaper never reads a
+   * partially written request.
+   *
+   * @return the key of the queued request
+   */
+  String enqueue(Request request) throws IOException {
+    Files.createDirectories(directory);
+    String key = key(request);
+    Path temporary = Files.createTempFile(directory, key, ".tmp");
+    try {
+      Files.write(temporary, JsonHelper.toString(request).getBytes(UTF_8));
+      Files.move(temporary, directory.resolve(key + REQUEST_SUFFIX),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return key;
+  }
+
+  SortedMap<String, Request> list() throws IOException {
+    SortedMap<String, Request> requests = new TreeMap<>();
+    if (!Files.isDirectory(directory)) {
+      return requests;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + REQUEST_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          requests.put(name.substring(0, name.length() - REQUEST_SUFFIX.length()),
+              JsonHelper.fromString(new String(Files.readAllBytes(file), UTF_8), Request.class));
+        } catch (NoSuchFileException e) {
+          // Removed by another reaper in the meantime
+        }
+      }
+    }
+    return requests;
+  }
+
+  void remove(String key) throws IOException {
+    Files.deleteIfExists(directory.resolve(key + REQUEST_SUFFIX));
+  }
+
+  Path lockFile() throws IOException {
+    Files.createDirectories(directory);
+    return directory.resolve(LOCK_FILE);
+  }
+}
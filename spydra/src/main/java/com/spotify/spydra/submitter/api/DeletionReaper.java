@@ -0,0 +1,301 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes clusters through a {@link DeletionQueue} shared by the clients on a host.
+ *
+ * <p>Every client queues its deletion and then tries to become the reaper by locking the queue.
+ * The reaper issues all queued deletions, including the ones queued by other clients while it is
+ * running, concurrently and at a limited rate, retrying failed ones with backoff. Clients that do
+ * not get the lock wait until the running reaper has deleted their cluster or gave up the lock.
+ * Optionally, the client's own spydra clusters left in ERROR state are queued as well.
+ *
+ * <p>A reaper only issues the deletions queued with its own account, as it may lack the
+ * permissions for the clusters of others. A cluster that is already gone counts as deleted, and a
+ * deletion that {@value #MAX_FAILED_REAPS} reapers gave up on is dropped from the queue.
+ */
+class DeletionReaper {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeletionReaper.class);
+
+  static final int DEFAULT_CONCURRENCY = 4;
+  static final double DEFAULT_DELETES_PER_SECOND = 2.0;
+  static final int MAX_ATTEMPTS = 3;
+  static final int MAX_FAILED_REAPS = 5;
+  static final Duration DEFAULT_RETRY_BACKOFF = Duration.ofSeconds(1);
+
+  // File locks are held per process, clients in the same process are kept apart by this one
+  private static final ReentrantLock PROCESS_LOCK = new ReentrantLock();
+
+  private final DataprocApi dataprocApi;
+  private final DeletionQueue queue;
+  private final int concurrency;
+  private final RateLimiter rateLimiter;
+  private final boolean reconcileErrorClusters;
+  private final Duration retryBackoff;
+
+  @VisibleForTesting
+  DeletionReaper(DataprocApi dataprocApi, DeletionQueue queue, int concurrency,
+                 double deletesPerSecond, boolean reconcileErrorClusters, Duration retryBackoff) {
+    this.dataprocApi = dataprocApi;
+    this.queue = queue;
+    this.concurrency = concurrency;
+    this.rateLimiter = RateLimiter.create(deletesPerSecond);
+    this.reconcileErrorClusters = reconcileErrorClusters;
+    this.retryBackoff = retryBackoff;
+  }
+
+  static DeletionReaper forArguments(DataprocApi dataprocApi, SpydraArgument arguments) {
+    SpydraArgument.DeletionReaper config = arguments.getDeletionReaper();
+    return new DeletionReaper(dataprocApi,
+        DeletionQueue.forArguments(arguments),
+        config.getConcurrency().orElse(DEFAULT_CONCURRENCY),
+        config.getDeletesPerSecond().orElse(DEFAULT_DELETES_PER_SECOND),
+        config.isReconcileErrorClusters(),
+        DEFAULT_RETRY_BACKOFF);
+  }
+
+  /**
+   * Queues the deletion of the cluster of the given arguments and reaps the queue unless another
+   * client is already doing so.
+   *
+   * @return false if the cluster is still queued after reaping, because deleting it was given up
+   */
+  boolean delete(SpydraArgument arguments) throws IOException {
+    String key = queue.enqueue(request(arguments, arguments.getCluster().getName()));
+    // The running reaper may not issue the deletion, e.g. when it runs with another account
+    while (!reap(arguments)) {
+      if (!queue.list().containsKey(key)) {
+        return true;
+      }
+      try {
+        Thread.sleep(retryBackoff.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return !queue.list().containsKey(key);
+  }
+
+  /**
+   * Issues all deletions queued with the account of the client if no other client is doing so.
+   *
+   * @param arguments of the calling client, used to find clusters in ERROR state to reconcile
+   * @return whether this client did the reaping
+   */
+  boolean reap(SpydraArgument arguments) throws IOException {
+    boolean reaped = false;
+    boolean reconcile = reconcileErrorClusters;
+    Set<String> attempted = new HashSet<>();
+    // Deletions queued right before the lock was released are picked up by the next round
+    while ((reconcile || hasPending(arguments, attempted))
+        && tryReap(arguments, attempted, reconcile)) {
+      reaped = true;
+      reconcile = false;
+    }
+    return reaped;
+  }
+
+  private boolean hasPending(SpydraArgument arguments, Set<String> attempted) throws IOException {
+    return !pendingRequests(arguments, attempted).isEmpty();
+  }
+
+  private boolean tryReap(SpydraArgument arguments, Set<String> attempted, boolean reconcile)
+      throws IOException {
+    if (!PROCESS_LOCK.tryLock()) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(queue.lockFile(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        return false;
+      }
+      try {
+        if (reconcile) {
+          queueErrorClusters(arguments);
+        }
+        drain(arguments, attempted);
+        return true;
+      } finally {
+        lock.release();
+      }
+    } finally {
+      PROCESS_LOCK.unlock();
+    }
+  }
+
+  private void queueErrorClusters(SpydraArgument arguments) throws IOException {
+    if (!arguments.clientId.isPresent()) {
+      return;
+    }
+    List<Cluster> errorClusters = dataprocApi.listClusters(arguments, ClusterQuery.builder()
+        .label(DynamicSubmitter.SPYDRA_CLUSTER_LABEL, "")
+        .label(DynamicSubmitter.SPYDRA_CLIENTID_LABEL, arguments.getClientId())
+        .states(Cluster.Status.ERROR)
+        .build());
+    for (Cluster cluster : errorClusters) {
+      LOGGER.info("Queueing deletion of cluster " + cluster.clusterName + " in ERROR state");
+      queue.enqueue(request(arguments, cluster.clusterName));
+    }
+  }
+
+  private void drain(SpydraArgument arguments, Set<String> attempted) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("deletion-reaper-%d").build());
+    try {
+      Map<String, DeletionQueue.Request> pending;
+      while (!(pending = pendingRequests(arguments, attempted)).isEmpty()) {
+        List<Future<?>> deletions = new ArrayList<>();
+        pending.forEach((key, request) -> {
+          attempted.add(key);
+          deletions.add(executor.submit(() -> deleteWithRetries(key, request)));
+        });
+        for (Future<?> deletion : deletions) {
+          await(deletion);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Map<String, DeletionQueue.Request> pendingRequests(SpydraArgument arguments,
+                                                             Set<String> attempted)
+      throws IOException {
+    String account = account(arguments);
+    Map<String, DeletionQueue.Request> pending = queue.list();
+    pending.keySet().removeAll(attempted);
+    pending.values().removeIf(request -> !Objects.equals(account, request.account));
+    return pending;
+  }
+
+  private void deleteWithRetries(String key, DeletionQueue.Request request) {
+    Duration backoff = retryBackoff;
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      rateLimiter.acquire();
+      try {
+        if (dataprocApi.deleteCluster(arguments(request))) {
+          queue.remove(key);
+          return;
+        }
+        LOGGER.warn("Failed to delete cluster " + request.clusterName + ", attempt " + attempt);
+      } catch (IOException e) {
+        LOGGER.warn("Failed to delete cluster " + request.clusterName + ", attempt " + attempt, e);
+      }
+      if (attempt < MAX_ATTEMPTS) {
+        try {
+          Thread.sleep(backoff.toMillis());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        backoff = backoff.multipliedBy(2);
+      }
+    }
+    request.failedReaps++;
+    try {
+      if (request.failedReaps >= MAX_FAILED_REAPS) {
+        LOGGER.error("Giving up deleting cluster " + request.clusterName + " after "
+            + request.failedReaps + " reapers failed to, it has to be deleted manually");
+        queue.remove(key);
+      } else {
+        // Left in the queue for the next reaper
+        LOGGER.error("Giving up deleting cluster " + request.clusterName + " for now");
+        queue.enqueue(request);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Failed to update the queued deletion of cluster " + request.clusterName, e);
+    }
+  }
+
+  private static void await(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while deleting clusters", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to delete cluster", e.getCause());
+    }
+  }
+
+  private static DeletionQueue.Request request(SpydraArgument arguments, String clusterName) {
+    DeletionQueue.Request request = new DeletionQueue.Request();
+    request.project = arguments.getCluster().getOptions().get(SpydraArgument.OPTION_PROJECT);
+    request.region = arguments.getRegion();
+    request.clusterName = clusterName;
+    request.clientId = arguments.clientId.orElse(null);
+    request.account = account(arguments);
+    return request;
+  }
+
+  private static String account(SpydraArgument arguments) {
+    return arguments.getCluster().getOptions().get(SpydraArgument.OPTION_ACCOUNT);
+  }
+
+  private static SpydraArgument arguments(DeletionQueue.Request request) {
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setRegion(request.region);
+    arguments.getCluster().setName(request.clusterName);
+    if (request.project != null) {
+      arguments.getCluster().getOptions().put(SpydraArgument.OPTION_PROJECT, request.project);
+    }
+    if (request.clientId != null) {
+      arguments.setClientId(request.clientId);
+    }
+    return arguments;
+  }
+}
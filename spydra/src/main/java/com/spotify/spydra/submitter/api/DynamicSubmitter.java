@@ -29,9 +29,16 @@ import com.spotify.spydra.api.model.Cluster;
 import com.spotify.spydra.metrics.Metrics;
 import com.spotify.spydra.metrics.MetricsFactory;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.submitter.executor.DetachedJobState;
+import com.spotify.spydra.submitter.executor.JobStateStore;
 import com.spotify.spydra.util.GcpUtils;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Tracer;
 import java.io.IOException;
 import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -50,9 +57,11 @@ public class DynamicSubmitter extends Submitter {
   private static final String DEFAULT_CLUSTER_PREFIX = "spydra";
 
   public static final String SPYDRA_CLUSTER_LABEL = "spydra-cluster";
+  public static final String SPYDRA_CLIENTID_LABEL = "spydra-client-id";
 
   private final DataprocApi dataprocApi;
   private final GcpUtils gcpUtils;
+  private ClusterAccounting accounting;
 
   public DynamicSubmitter() {
     this(new DataprocApi(), new GcpUtils());
@@ -68,35 +77,151 @@ public class DynamicSubmitter extends Submitter {
   public boolean executeJob(SpydraArgument argument) {
 
     dataprocApi.dryRun(argument.isDryRun());
+    accounting = new ClusterAccounting(Clock.systemUTC());
 
+    if (!isDetached(argument)) {
+      return executeJobOnCluster(argument);
+    }
+    // Held for the whole submission, so that a second invocation of it neither adopts the job nor
+    // releases the cluster of this one
+    Optional<JobStateStore.Lock> lock;
     try {
-      if (!acquireCluster(argument, dataprocApi)) {
+      lock = JobStateStore.forArguments(argument).tryLock(JobStateStore.key(argument));
+    } catch (IOException e) {
+      LOGGER.error("Failed to lock the detached job", e);
+      return false;
+    }
+    if (!lock.isPresent()) {
+      LOGGER.error("The same submission is already running in another client, not running it "
+          + "again");
+      return false;
+    }
+    // A client stopped by a signal stops waiting like an interrupted one and keeps the cluster
+    try (JobStateStore.Lock ignored = lock.get();
+         ShutdownInterrupt ignoredInterrupt =
+             ShutdownInterrupt.register(ShutdownInterrupt.DEFAULT_GRACE_PERIOD)) {
+      return executeJobOnCluster(argument);
+    } catch (IOException e) {
+      LOGGER.warn("Failed to unlock the detached job", e);
+      return false;
+    }
+  }
+
+  private boolean executeJobOnCluster(SpydraArgument argument) {
+    Optional<ClusterHeartbeat> heartbeat = Optional.empty();
+    try {
+      Optional<DetachedJobState> detachedJob = findDetachedJob(argument);
+      if (detachedJob.isPresent()) {
+        LOGGER.info("Found previously submitted job on cluster " + detachedJob.get().clusterName);
+        setTargetCluster(argument, detachedJob.get().clusterName, detachedJob.get().clusterZone);
+      } else if (!acquireCluster(argument, dataprocApi)) {
         return false;
       }
+      heartbeat = startHeartbeat(argument);
+      accounting.jobStarted();
       return super.executeJob(argument);
     } catch (Exception e) {
       LOGGER.error("Failed to create cluster", e);
       metrics.fatalError(argument, e);
       return false;
     } finally {
-      try {
-        releaseCluster(argument, dataprocApi);
-      } catch (IOException e) {
-        LOGGER.warn("Failed to release cluster", e);
+      accounting.jobFinished();
+      heartbeat.ifPresent(ClusterHeartbeat::close);
+      if (detachedJobPending(argument)) {
+        LOGGER.warn("Keeping cluster " + argument.getCluster().getName()
+            + " for the unfinished detached job, run the same submission again to resume "
+            + "waiting");
+      } else {
+        try {
+          releaseCluster(argument, dataprocApi);
+        } catch (IOException e) {
+          LOGGER.warn("Failed to release cluster", e);
+        }
+      }
+      if (!argument.isDryRun()) {
+        accounting.usage(argument).ifPresent(usage -> metrics.clusterUsage(argument, usage));
       }
     }
   }
 
+  private static boolean isDetached(SpydraArgument arguments) {
+    return arguments.isDetachedSubmitEnabled() && !arguments.isDryRun();
+  }
+
+  /**
+   * Looks up a detached job that a previous invocation of the same submission left running, so
+   * that its cluster is reused rather than a new one created.
+   */
+  private Optional<DetachedJobState> findDetachedJob(SpydraArgument arguments)
+      throws IOException {
+    if (!isDetached(arguments)) {
+      return Optional.empty();
+    }
+    return JobStateStore.forArguments(arguments)
+        .load(JobStateStore.key(arguments))
+        .filter(state -> state.clusterName != null);
+  }
+
+  /**
+   * Whether a detached job is still stored, because it is not known to have finished. Waiting for
+   * it was interrupted or given up, so the next invocation resumes waiting for it on the same
+   * cluster.
+   */
+  private static boolean detachedJobPending(SpydraArgument arguments) {
+    if (!isDetached(arguments)) {
+      return false;
+    }
+    try {
+      return JobStateStore.forArguments(arguments).load(JobStateStore.key(arguments))
+          .isPresent();
+    } catch (IOException e) {
+      // Keeping a cluster that is no longer needed is cheaper than losing a running job
+      LOGGER.warn("Failed to look up the detached job", e);
+      return true;
+    }
+  }
+
+  private Optional<ClusterHeartbeat> startHeartbeat(SpydraArgument arguments) {
+    // A shared cluster would get an update from every client using it, and Dataproc rejects an
+    // update while another one is running
+    if (!arguments.isHeartbeatEnabled() || arguments.isDryRun() || !expiresWithClient()) {
+      return Optional.empty();
+    }
+    ClusterHeartbeat heartbeat = ClusterHeartbeat.forArguments(dataprocApi, arguments);
+    heartbeat.start();
+    return Optional.of(heartbeat);
+  }
+
+  /**
+   * Whether the cluster is used by this client only, so that it gets a heartbeat and may be
+   * scheduled for deletion once the client stops sending heartbeats.
+   */
+  protected boolean expiresWithClient() {
+    return true;
+  }
+
   public boolean acquireCluster(SpydraArgument arguments, DataprocApi dataprocApi)
       throws IOException {
 
-    Optional<Cluster> newCluster = createNewCluster(arguments, dataprocApi);
+    if (arguments.isHeartbeatEnabled() && expiresWithClient()) {
+      // Bound the lifetime of the cluster from the start. The heartbeat keeps pushing it forward.
+      arguments.getHeartbeat().getTimeout().ifPresent(timeout ->
+          arguments.getCluster().getOptions().put(ClusterHeartbeat.OPTION_EXPIRATION_TIME,
+              ClusterHeartbeat.expirationTime(Instant.now(), timeout)));
+    }
+
+    try (Span span = Tracer.span("cluster acquire")) {
+      Optional<Cluster> newCluster = createNewCluster(arguments, dataprocApi);
 
-    newCluster.ifPresent(cluster ->
-                             setTargetCluster(arguments, arguments.getCluster().getName(),
-                                              cluster.config.gceClusterConfig.zoneUri));
+      newCluster.ifPresent(cluster -> {
+        setTargetCluster(arguments, arguments.getCluster().getName(),
+                         cluster.config.gceClusterConfig.zoneUri);
+        clusterAcquired(cluster, false);
+      });
 
-    return newCluster.isPresent();
+      span.tag("cluster", arguments.getCluster().getName()).tag("created", newCluster.isPresent());
+      return newCluster.isPresent();
+    }
   }
 
   Optional<Cluster> createNewCluster(SpydraArgument arguments, DataprocApi dataprocApi)
@@ -119,12 +244,25 @@ public class DynamicSubmitter extends Submitter {
 
     arguments.addOption(createArguments.cluster.options, SpydraArgument.OPTION_LABELS,
                         SPYDRA_CLUSTER_LABEL + "=1");
+    arguments.clientId.ifPresent(clientId -> arguments.addOption(createArguments.cluster.options,
+        SpydraArgument.OPTION_LABELS, SPYDRA_CLIENTID_LABEL + "=" + clientId));
 
     Optional<Cluster> cluster = dataprocApi.createCluster(createArguments);
 
     return cluster;
   }
 
+  /**
+   * Records the cluster the job runs on, for working out its {@link ClusterAccounting usage}.
+   *
+   * @param pooled whether the cluster is shared with other jobs
+   */
+  void clusterAcquired(Cluster cluster, boolean pooled) {
+    if (accounting != null) {
+      accounting.clusterAcquired(cluster, pooled);
+    }
+  }
+
   protected void setTargetCluster(SpydraArgument arguments, String name, String zone) {
     arguments.getCluster().setName(name);
     arguments.getCluster().getOptions().put(OPTION_ZONE, zone);
@@ -175,19 +313,25 @@ public class DynamicSubmitter extends Submitter {
       directory = directory.substring(1, directory.length()); //remove leading slash from the path
     }
     LOGGER.info("Waiting for history files to be moved to its final location");
-    gcpUtils.configureStorageFromEnvironment();
-    while (gcpUtils.getCount(bucketName, directory + "/") <= 1) { //directory itself counts as one
-      LOGGER.info("Not yet moved files were encountered. Sleeping 1 second.");
-      try {
-        long now = System.currentTimeMillis();
-        if (now - start > TimeUnit.SECONDS.toMillis(timeoutSeconds)) {
-          throw new IOException("Timed out waiting for the history to be moved");
+    try (Span ignored = Tracer.span("history wait")) {
+      gcpUtils.configureStorageFromEnvironment();
+      while (gcpUtils.getCount(bucketName, directory + "/") <= 1) { //directory itself counts as 1
+        LOGGER.info("Not yet moved files were encountered. Sleeping 1 second.");
+        try {
+          long now = System.currentTimeMillis();
+          if (now - start > TimeUnit.SECONDS.toMillis(timeoutSeconds)) {
+            throw new IOException("Timed out waiting for the history to be moved");
+          }
+          Thread.sleep(1000);
+        } catch (InterruptedException e) {
+          LOGGER.debug("History move wait was interrupted", e);
+          break;
         }
-        Thread.sleep(1000);
-      } catch (InterruptedException e) {
-        LOGGER.debug("History move wait was interrupted", e);
-        break;
       }
+    } finally {
+      // Also recorded when timing out, which is when the wait takes longest
+      metrics.phaseLatency(arguments, "history_wait",
+          Duration.ofMillis(System.currentTimeMillis() - start));
     }
   }
 
@@ -204,6 +348,18 @@ public class DynamicSubmitter extends Submitter {
     try {
       waitForHistoryToBeMoved(arguments);
     } finally {
+      return deleteCluster(arguments, dataprocApi);
+    }
+  }
+
+  private static boolean deleteCluster(SpydraArgument arguments, DataprocApi dataprocApi)
+      throws IOException {
+    String cluster = arguments.getCluster().getName();
+    try (Span span = Tracer.span("cluster delete").tag("cluster", cluster)) {
+      if (arguments.isDeletionReaperEnabled() && !arguments.isDryRun()) {
+        span.tag("queued", true);
+        return DeletionReaper.forArguments(dataprocApi, arguments).delete(arguments);
+      }
       return dataprocApi.deleteCluster(arguments);
     }
   }
@@ -0,0 +1,178 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.spotify.spydra.metrics.Metrics;
+import com.spotify.spydra.metrics.MetricsFactory;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs one job per partition, each through its own submitter, with a bounded number of shards
+ * running at the same time.
+ *
+ * <p>Every shard is a copy of the submission where the ${PARTITION} placeholder in the job
+ * arguments is replaced by the partition. The fan-out succeeds only if all shards succeed.
+ */
+public class FanOutSubmitter extends Submitter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FanOutSubmitter.class);
+
+  static final int DEFAULT_CONCURRENCY = 4;
+  static final Period DEFAULT_STEP = Period.ofDays(1);
+
+  private static final String INTERMEDIATE_DONE_DIR_PROPERTY =
+      "mapred:mapreduce.jobhistory.intermediate-done-dir";
+
+  private final Metrics metrics = MetricsFactory.getInstance();
+
+  private final Function<SpydraArgument, Submitter> submitterFactory;
+  private final SharedStaging staging;
+
+  public FanOutSubmitter(Function<SpydraArgument, Submitter> submitterFactory) {
+    this(submitterFactory, new SharedStaging(new GcpUtils()));
+  }
+
+  @VisibleForTesting
+  FanOutSubmitter(Function<SpydraArgument, Submitter> submitterFactory, SharedStaging staging) {
+    this.submitterFactory = submitterFactory;
+    this.staging = staging;
+  }
+
+  @Override
+  public boolean executeJob(SpydraArgument arguments) {
+    List<String> partitions = partitions(arguments.getFanOut());
+    int concurrency = Math.min(
+        arguments.getFanOut().getConcurrency().orElse(DEFAULT_CONCURRENCY), partitions.size());
+    LOGGER.info("Fanning out " + partitions.size() + " partitions with a concurrency of "
+        + concurrency);
+
+    try {
+      staging.stage(arguments);
+    } catch (IOException e) {
+      LOGGER.error("Failed to stage files for the fan-out", e);
+      metrics.fatalError(arguments, e);
+      return false;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < partitions.size(); i++) {
+        SpydraArgument shard = shard(arguments, i, partitions.get(i));
+        results.add(executor.submit(() -> submitterFactory.apply(shard).executeJob(shard)));
+      }
+
+      List<String> failed = new ArrayList<>();
+      for (int i = 0; i < partitions.size(); i++) {
+        if (!shardSucceeded(results.get(i), partitions.get(i))) {
+          failed.add(partitions.get(i));
+        }
+      }
+      if (!failed.isEmpty()) {
+        LOGGER.error(failed.size() + " of " + partitions.size() + " partitions failed: "
+            + String.join(", ", failed));
+        return false;
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error("Interrupted while waiting for the fan-out to finish", e);
+      return false;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean shardSucceeded(Future<Boolean> result, String partition)
+      throws InterruptedException {
+    try {
+      boolean success = result.get();
+      LOGGER.info("Partition " + partition + (success ? " succeeded" : " failed"));
+      return success;
+    } catch (ExecutionException e) {
+      LOGGER.error("Partition " + partition + " failed", e.getCause());
+      return false;
+    }
+  }
+
+  static List<String> partitions(SpydraArgument.FanOut fanOut) {
+    if (fanOut.getPartitions().isPresent()) {
+      return fanOut.getPartitions().get();
+    }
+    LocalDate end = fanOut.getEnd().get();
+    Period step = fanOut.getStep().orElse(DEFAULT_STEP);
+    List<String> partitions = new ArrayList<>();
+    for (LocalDate date = fanOut.getStart().get(); date.isBefore(end); date = date.plus(step)) {
+      partitions.add(date.toString());
+    }
+    return partitions;
+  }
+
+  /**
+   * Creates an independent copy of the submission for a single partition.
+   */
+  static SpydraArgument shard(SpydraArgument arguments, int index, String partition) {
+    SpydraArgument override = new SpydraArgument();
+    override.dryRun = Optional.empty();
+    override.getSubmit().setJobArgs(arguments.getSubmit().getJobArgs().stream()
+        .map(jobArg -> jobArg.replace(SpydraArgument.PARTITION_PLACEHOLDER, partition))
+        .collect(Collectors.toList()));
+
+    SpydraArgument shard = SpydraArgument.merge(arguments, override);
+    shard.fanOut = Optional.empty();
+
+    String suffix = "shard-" + index;
+    // Explicit job ids and the history directories must not be shared between shards.
+    shard.getSubmit().getOptions().computeIfPresent(SpydraArgument.OPTION_JOB_ID,
+        (key, jobId) -> jobId + "-" + suffix);
+    shard.getCluster().getOptions().computeIfPresent(SpydraArgument.OPTION_PROPERTIES,
+        (key, properties) -> suffixIntermediateDoneDir(properties, suffix));
+    return shard;
+  }
+
+  private static String suffixIntermediateDoneDir(String properties, String suffix) {
+    List<String> result = new ArrayList<>();
+    for (String property : properties.split(",")) {
+      if (property.startsWith(INTERMEDIATE_DONE_DIR_PROPERTY + "=")) {
+        result.add(property + "/" + suffix);
+      } else {
+        result.add(property);
+      }
+    }
+    return String.join(",", result);
+  }
+}
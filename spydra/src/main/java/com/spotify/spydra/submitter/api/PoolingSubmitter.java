@@ -20,18 +20,20 @@
 
 package com.spotify.spydra.submitter.api;
 
-import static com.spotify.spydra.model.SpydraArgument.OPTIONS_FILTER_LABEL_PREFIX;
-
+import com.spotify.spydra.api.ClusterQuery;
 import com.spotify.spydra.api.DataprocApi;
 import com.spotify.spydra.api.gcloud.GcloudClusterAlreadyExistsException;
 import com.spotify.spydra.api.model.Cluster;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Tracer;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 /**
@@ -85,32 +87,39 @@ public class PoolingSubmitter extends DynamicSubmitter {
     this.randomPlacementGenerator = randomPlacementGenerator;
   }
 
+  public PoolingSubmitter(
+      Supplier<Long> timeSource,
+      RandomPlacementGenerator randomPlacementGenerator,
+      DataprocApi dataprocApi,
+      GcpUtils gcpUtils) {
+    super(dataprocApi, gcpUtils);
+    this.timeSource = timeSource;
+    this.randomPlacementGenerator = randomPlacementGenerator;
+  }
+
   @Override
   public boolean acquireCluster(SpydraArgument arguments, DataprocApi dataprocApi)
       throws IOException {
 
-    List<Cluster> existingPoolableClusters =
-        dataprocApi.listClusters(arguments, poolableClusterFilter(arguments.getClientId()));
-
     List<ClusterPlacement> allPlacements =
         ClusterPlacement.all(timeSource, arguments.getPooling());
 
-    List<Cluster> existingPlacementClusters =
-        ClusterPlacement.filterClusters(existingPoolableClusters, allPlacements);
-
+    // Only the cluster of the chosen placement is of interest, so rather than listing the whole
+    // pool it is looked up by its placement token on the server side.
     ClusterPlacement randomPlacement = randomPlacementGenerator.randomPlacement(allPlacements);
-    Cluster cluster = randomPlacement.findIn(existingPlacementClusters)
-        .orElseGet(() -> {
-          try {
-            return createNewCluster(arguments, dataprocApi, randomPlacement);
-          } catch (IOException e) {
-            throw new UncheckedIOException(e);
-          }
-        });
-
-    setTargetCluster(arguments, cluster.clusterName, cluster.config.gceClusterConfig.zoneUri);
-
-    return true;
+    try (Span span = Tracer.span("cluster acquire").tag("placement", randomPlacement.token())) {
+      Optional<Cluster> existingCluster = dataprocApi.findCluster(arguments,
+          placementQuery(arguments.getClientId(), randomPlacement));
+      Cluster cluster = existingCluster.isPresent()
+          ? existingCluster.get()
+          : createNewCluster(arguments, dataprocApi, randomPlacement);
+
+      setTargetCluster(arguments, cluster.clusterName, cluster.config.gceClusterConfig.zoneUri);
+      clusterAcquired(cluster, true);
+
+      span.tag("cluster", cluster.clusterName).tag("reused", existingCluster.isPresent());
+      return true;
+    }
   }
 
   private Cluster createNewCluster(
@@ -139,7 +148,13 @@ public class PoolingSubmitter extends DynamicSubmitter {
             "Expected a single cluster to exists. Cluster name:" + clusterName);
       }
 
-      return existingClusters.get(0);
+      // Left out by the placement query, but its name is only free again once it is gone
+      Cluster existingCluster = existingClusters.get(0);
+      if (Cluster.Status.DELETING.equals(existingCluster.status.state)) {
+        throw new IOException("Pooled cluster " + clusterName
+            + " is being deleted, submit again once it is gone");
+      }
+      return existingCluster;
     }
   }
 
@@ -147,6 +162,12 @@ public class PoolingSubmitter extends DynamicSubmitter {
     return String.format("spydra-%s-%s", clientId, placementToken);
   }
 
+  @Override
+  protected boolean expiresWithClient() {
+    // Pooled clusters are shared between clients and outlive any single one of them.
+    return false;
+  }
+
   @Override
   public boolean releaseCluster(SpydraArgument arguments, DataprocApi dataprocApi)
       throws IOException {
@@ -161,10 +182,15 @@ public class PoolingSubmitter extends DynamicSubmitter {
     return !shouldRelease || super.releaseCluster(arguments, dataprocApi);
   }
 
-  private static Map<String, String> poolableClusterFilter(String clientId) {
-    Map<String, String> result = new HashMap<>();
-    result.put(OPTIONS_FILTER_LABEL_PREFIX + SPYDRA_CLUSTER_LABEL, "");
-    result.put(OPTIONS_FILTER_LABEL_PREFIX + POOLED_CLUSTER_CLIENTID_LABEL, clientId);
-    return result;
+  static ClusterQuery placementQuery(String clientId, ClusterPlacement placement) {
+    return ClusterQuery.builder()
+        .label(SPYDRA_CLUSTER_LABEL, "")
+        .label(POOLED_CLUSTER_CLIENTID_LABEL, clientId)
+        .label(SPYDRA_PLACEMENT_TOKEN_LABEL, placement.token())
+        // Clusters being deleted are left out, an ERROR cluster is still picked up and released.
+        // Creating a cluster of the same name fails until the one being deleted is gone.
+        .states(Cluster.Status.CREATING, Cluster.Status.RUNNING, Cluster.Status.UPDATING,
+            Cluster.Status.ERROR)
+        .build();
   }
 }
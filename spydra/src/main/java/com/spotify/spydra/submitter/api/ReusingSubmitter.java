@@ -0,0 +1,179 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static com.spotify.spydra.model.SpydraArgument.OPTIONS_FILTER_LABEL_PREFIX;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ReusingSubmitter runs jobs on idle clusters with an identical configuration.
+ *
+ * <p>
+ * Clusters created by this submitter are labelled with the client id and a fingerprint of the
+ * normalized cluster options, see {@link ClusterFingerprint}. Before creating a new cluster,
+ * running clusters with the same labels are listed and the first one that can be leased and is
+ * still running is used, see {@link ClusterLease}. Released clusters are kept around and deleted
+ * by Dataproc once they have been idle for longer than the configured max-idle.
+ * </p>
+ */
+public class ReusingSubmitter extends DynamicSubmitter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReusingSubmitter.class);
+
+  public static final String REUSABLE_CLUSTER_CLIENTID_LABEL =
+      "spydra-reusable-cluster-client-id";
+  public static final String CONFIG_FINGERPRINT_LABEL = "spydra-config-fingerprint";
+
+  private final GcpUtils gcpUtils;
+  private final ClusterLease lease;
+
+  public ReusingSubmitter() {
+    this(new DataprocApi(), new GcpUtils());
+  }
+
+  public ReusingSubmitter(DataprocApi dataprocApi, GcpUtils gcpUtils) {
+    super(dataprocApi, gcpUtils);
+    this.gcpUtils = gcpUtils;
+    this.lease = new ClusterLease(gcpUtils);
+  }
+
+  @Override
+  public boolean acquireCluster(SpydraArgument arguments, DataprocApi dataprocApi)
+      throws IOException {
+    if (arguments.isDryRun()) {
+      return super.acquireCluster(arguments, dataprocApi);
+    }
+
+    String fingerprint = ClusterFingerprint.of(arguments);
+    // Set up the storage client for the lease while the idle clusters are being listed
+    CompletableFuture<List<Cluster>> idleClusters = dataprocApi.listClustersAsync(arguments,
+        ClusterQuery.fromFilters(reusableClusterFilter(arguments, fingerprint)));
+    gcpUtils.configureStorageFromEnvironment();
+
+    List<Cluster> candidates = new ArrayList<>(DataprocApi.await(idleClusters));
+    // Spread concurrent clients over the idle clusters to reduce lease contention
+    Collections.shuffle(candidates);
+    for (Cluster candidate : candidates) {
+      if (!lease.tryAcquire(arguments, candidate)) {
+        continue;
+      }
+      // Dataproc may have started deleting the idle cluster since it was listed
+      if (!isRunning(arguments, dataprocApi, candidate.clusterName)) {
+        LOGGER.info("Idle cluster {} is no longer running", candidate.clusterName);
+        lease.release(arguments, candidate.clusterName);
+        continue;
+      }
+      LOGGER.info("Reusing idle cluster {}", candidate.clusterName);
+      setTargetCluster(arguments, candidate.clusterName,
+                       candidate.config.gceClusterConfig.zoneUri);
+      // Leased to this job alone, so it is accounted like a cluster of its own
+      clusterAcquired(candidate, false);
+      return true;
+    }
+
+    SpydraArgument.addOption(arguments.cluster.options, SpydraArgument.OPTION_LABELS,
+                             REUSABLE_CLUSTER_CLIENTID_LABEL + "=" + arguments.getClientId());
+    SpydraArgument.addOption(arguments.cluster.options, SpydraArgument.OPTION_LABELS,
+                             CONFIG_FINGERPRINT_LABEL + "=" + fingerprint);
+
+    // Lease the cluster before it is created, so that it is never observed as idle.
+    String clusterName = generateName();
+    if (!lease.tryAcquire(arguments, clusterName)) {
+      throw new IllegalStateException("Failed to lease new cluster " + clusterName);
+    }
+    // The lease is released in releaseCluster, also if the creation fails.
+    Optional<Cluster> newCluster = createNewCluster(arguments, dataprocApi, () -> clusterName);
+    if (!newCluster.isPresent()) {
+      return false;
+    }
+
+    setTargetCluster(arguments, clusterName, newCluster.get().config.gceClusterConfig.zoneUri);
+    clusterAcquired(newCluster.get(), false);
+    return true;
+  }
+
+  @Override
+  protected boolean expiresWithClient() {
+    // Released clusters stay around to be reused by later invocations.
+    return false;
+  }
+
+  @Override
+  public boolean releaseCluster(SpydraArgument arguments, DataprocApi dataprocApi)
+      throws IOException {
+    if (arguments.isDryRun()) {
+      return super.releaseCluster(arguments, dataprocApi);
+    }
+    if (!arguments.getCluster().name.isPresent()) {
+      return true;
+    }
+
+    String clusterName = arguments.getCluster().getName();
+    try {
+      Map<String, String> clusterFilter = new HashMap<>();
+      clusterFilter.put("status.state", Cluster.Status.ERROR);
+      clusterFilter.put("clusterName", clusterName);
+
+      boolean broken = dataprocApi.listClusters(arguments, clusterFilter).stream()
+          .anyMatch(cluster -> Cluster.Status.ERROR.equals(cluster.status.state));
+
+      return !broken || super.releaseCluster(arguments, dataprocApi);
+    } finally {
+      lease.release(arguments, clusterName);
+    }
+  }
+
+  private static boolean isRunning(SpydraArgument arguments, DataprocApi dataprocApi,
+                                   String clusterName) throws IOException {
+    return dataprocApi.findCluster(arguments, ClusterQuery.builder()
+        .clusterName(clusterName)
+        .fields("clusterName", "status")
+        .build())
+        .map(cluster -> Cluster.Status.RUNNING.equals(cluster.status.state))
+        .orElse(false);
+  }
+
+  private static Map<String, String> reusableClusterFilter(
+      SpydraArgument arguments, String fingerprint) {
+    Map<String, String> result = new HashMap<>();
+    result.put(OPTIONS_FILTER_LABEL_PREFIX + SPYDRA_CLUSTER_LABEL, "");
+    result.put(OPTIONS_FILTER_LABEL_PREFIX + REUSABLE_CLUSTER_CLIENTID_LABEL,
+               arguments.getClientId());
+    result.put(OPTIONS_FILTER_LABEL_PREFIX + CONFIG_FINGERPRINT_LABEL, fingerprint);
+    result.put("status.state", Cluster.Status.RUNNING);
+    return result;
+  }
+}
@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import com.google.common.hash.Hashing;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads the local files of a submission to the log bucket once, so that the shards of a fan-out
+ * refer to the same GCS objects instead of each having gcloud upload them again.
+ *
+ * <p>Objects are named after the hash of their contents, so files that were staged by an earlier
+ * submission are not uploaded again.
+ */
+class SharedStaging {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SharedStaging.class);
+
+  private static final String STAGING_DIRECTORY = "staging";
+
+  private final GcpUtils gcpUtils;
+
+  SharedStaging(GcpUtils gcpUtils) {
+    this.gcpUtils = gcpUtils;
+  }
+
+  /**
+   * Replaces local jars, files and the python file of the submission with staged GCS copies.
+   */
+  void stage(SpydraArgument arguments) throws IOException {
+    if (arguments.isDryRun() || !arguments.logBucket.isPresent()) {
+      return;
+    }
+    gcpUtils.configureStorageFromEnvironment();
+
+    Map<String, String> options = arguments.getSubmit().getOptions();
+    for (String option : Arrays.asList(SpydraArgument.OPTION_JAR, SpydraArgument.OPTION_JARS,
+        SpydraArgument.OPTION_FILES)) {
+      if (options.containsKey(option)) {
+        options.put(option, stageList(arguments, options.get(option)));
+      }
+    }
+    if (arguments.getSubmit().pyFile.isPresent()) {
+      arguments.getSubmit().pyFile =
+          Optional.of(stageFile(arguments, arguments.getSubmit().pyFile.get()));
+    }
+  }
+
+  private String stageList(SpydraArgument arguments, String locations) throws IOException {
+    StringBuilder staged = new StringBuilder();
+    for (String location : locations.split(",")) {
+      if (staged.length() > 0) {
+        staged.append(',');
+      }
+      staged.append(stageFile(arguments, location.trim()));
+    }
+    return staged.toString();
+  }
+
+  private String stageFile(SpydraArgument arguments, String location) throws IOException {
+    if (location.contains("://")) {
+      return location;
+    }
+    Path file = Paths.get(location);
+    String hash = com.google.common.io.Files.asByteSource(file.toFile())
+        .hash(Hashing.sha256())
+        .toString();
+    String blobName = String.join("/", STAGING_DIRECTORY, arguments.getClientId(), hash,
+        file.getFileName().toString());
+    String bucket = arguments.getLogBucket();
+    if (!gcpUtils.blobExists(bucket, blobName)) {
+      LOGGER.info("Staging " + location + " to gs://" + bucket + "/" + blobName);
+      gcpUtils.uploadFile(bucket, blobName, file);
+    }
+    return "gs://" + bucket + "/" + blobName;
+  }
+}
@@ -0,0 +1,71 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+
+package com.spotify.spydra.submitter.api;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interrupts a thread when the JVM shuts down, e.g. on SIGTERM, and holds up the shutdown until
+ * the thread is done or a grace period has passed.
+ *
+ * <p>This lets the thread react to being stopped like to any other interrupt, instead of the JVM
+ * exiting in the middle of it.
+ */
+class ShutdownInterrupt implements AutoCloseable {
+
+  static final Duration DEFAULT_GRACE_PERIOD = Duration.ofSeconds(30);
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private final Thread hook;
+
+  private ShutdownInterrupt(Thread thread, Duration gracePeriod) {
+    hook = new Thread(() -> {
+      thread.interrupt();
+      try {
+        done.await(gracePeriod.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "shutdown-interrupt");
+  }
+
+  /**
+   * Interrupts the current thread on shutdown until closed.
+   */
+  static ShutdownInterrupt register(Duration gracePeriod) {
+    ShutdownInterrupt interrupt = new ShutdownInterrupt(Thread.currentThread(), gracePeriod);
+    Runtime.getRuntime().addShutdownHook(interrupt.hook);
+    return interrupt;
+  }
+
+  @Override
+  public void close() {
+    done.countDown();
+    try {
+      Runtime.getRuntime().removeShutdownHook(hook);
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      // The JVM is already shutting down and the hook is running or has run
+    }
+  }
+}
@@ -20,12 +20,16 @@
 
 package com.spotify.spydra.submitter.api;
 
+import com.spotify.spydra.api.DataprocApi;
 import com.spotify.spydra.metrics.Metrics;
 import com.spotify.spydra.metrics.MetricsFactory;
 import com.spotify.spydra.model.SpydraArgument;
 import com.spotify.spydra.submitter.executor.Executor;
 import com.spotify.spydra.submitter.executor.ExecutorFactory;
+import com.spotify.spydra.util.GcpUtils;
 import com.spotify.spydra.util.SpydraArgumentUtil;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Tracer;
 import java.io.IOException;
 import java.time.Clock;
 import org.slf4j.Logger;
@@ -44,24 +48,36 @@ public class Submitter {
             .isOnPremiseInvocation(arguments),
         SpydraArgumentUtil.isStaticInvocation(arguments));
 
+    if (arguments.isFanOutEnabled()) {
+      return new FanOutSubmitter(Submitter::createSubmitter);
+    }
+    return createSubmitter(arguments);
+  }
+
+  private static Submitter createSubmitter(SpydraArgument arguments) {
     Submitter submitter; // TODO: TW These if's are getting out of hand. Make it prettier
     if (SpydraArgumentUtil.isStaticInvocation(arguments) || SpydraArgumentUtil
         .isOnPremiseInvocation(arguments)) {
       submitter = new Submitter();
     } else {
       if (arguments.isPoolingEnabled()) {
-        submitter = new PoolingSubmitter(clock::millis, new DefaultRandomPlacementGenerator());
+        submitter = new PoolingSubmitter(clock::millis, new DefaultRandomPlacementGenerator(),
+            DataprocApi.forArguments(arguments), new GcpUtils());
+      } else if (arguments.isReuseIdleClustersEnabled()) {
+        submitter = new ReusingSubmitter(DataprocApi.forArguments(arguments), new GcpUtils());
       } else {
-        submitter = new DynamicSubmitter();
+        submitter = new DynamicSubmitter(DataprocApi.forArguments(arguments), new GcpUtils());
       }
     }
     return submitter;
   }
 
   public boolean executeJob(SpydraArgument arguments) {
-    try {
+    try (Span span = Tracer.span("job submit")) {
       Executor executor = new ExecutorFactory().getExecutor(arguments);
-      return executor.submit(arguments);
+      boolean succeeded = executor.submit(arguments);
+      span.tag("succeeded", succeeded);
+      return succeeded;
     } catch (IOException e) {
       LOGGER.error("Failed to submit job", e);
       metrics.fatalError(arguments, e);
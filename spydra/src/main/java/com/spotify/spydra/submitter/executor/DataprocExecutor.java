@@ -28,7 +28,7 @@ public class DataprocExecutor implements Executor {
 
   @Override
   public boolean submit(SpydraArgument arguments) throws IOException {
-    DataprocApi dataprocApi = new DataprocApi();
+    DataprocApi dataprocApi = DataprocApi.forArguments(arguments);
     dataprocApi.dryRun(arguments.isDryRun());
     return dataprocApi.submit(arguments);
   }
@@ -0,0 +1,218 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.AdaptivePollInterval;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Submits a Dataproc job asynchronously and polls its state instead of keeping a gcloud process
+ * attached to it.
+ *
+ * <p>The job id is stored in a {@link JobStateStore} before submitting, so a client that is
+ * restarted with the same submission resumes waiting for the job rather than submitting it again.
+ * The stored state is only removed once the job is known to have finished or never to have been
+ * submitted, so waiting that is given up or interrupted can always be resumed.
+ */
+public class DetachedDataprocExecutor implements Executor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DetachedDataprocExecutor.class);
+
+  static final Duration DEFAULT_MIN_POLL_INTERVAL = Duration.ofSeconds(5);
+  static final Duration DEFAULT_MAX_POLL_INTERVAL = Duration.ofMinutes(2);
+  private static final double POLL_INTERVAL_FACTOR = 1.5;
+  // How often in a row the job may fail to be described before waiting for it is given up
+  static final int MAX_FAILED_DESCRIBES = 10;
+
+  private final DataprocApi dataprocApi;
+  private final GcpUtils gcpUtils;
+
+  public DetachedDataprocExecutor() {
+    this(new DataprocApi(), new GcpUtils());
+  }
+
+  DetachedDataprocExecutor(DataprocApi dataprocApi, GcpUtils gcpUtils) {
+    this.dataprocApi = dataprocApi;
+    this.gcpUtils = gcpUtils;
+  }
+
+  @Override
+  public boolean submit(SpydraArgument arguments) throws IOException {
+    dataprocApi.dryRun(arguments.isDryRun());
+    if (arguments.isDryRun()) {
+      return dataprocApi.submitDetached(arguments).isPresent();
+    }
+
+    JobStateStore store = JobStateStore.forArguments(arguments);
+    String key = JobStateStore.key(arguments);
+    Optional<JobStateStore.Lock> lock = store.tryLock(key);
+    if (!lock.isPresent()) {
+      LOGGER.error("The same submission is already running in another client, not running it "
+          + "again");
+      return false;
+    }
+    try (JobStateStore.Lock ignored = lock.get()) {
+      return submit(arguments, store, key);
+    }
+  }
+
+  private boolean submit(SpydraArgument arguments, JobStateStore store, String key)
+      throws IOException {
+    Optional<DetachedJobState> stored = store.load(key);
+
+    DetachedJobState state;
+    if (stored.isPresent()) {
+      state = stored.get();
+      restoreTarget(arguments, state);
+      // Only a job that is known not to exist is submitted, a failure to describe it is raised
+      if (dataprocApi.describeJob(arguments, state.jobId).isPresent()) {
+        LOGGER.info("Resuming wait for previously submitted job " + state.jobId);
+        return waitForJob(arguments, store, state);
+      }
+      LOGGER.info("Previously stored job " + state.jobId + " was never submitted, submitting it");
+      arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_JOB_ID, state.jobId);
+    } else {
+      state = newState(arguments, key);
+    }
+
+    // Persist the job id before submitting, so that a client killed during the submission
+    // finds the job again instead of running it twice.
+    store.save(state);
+    if (!dataprocApi.submitDetached(arguments).isPresent()
+        && !dataprocApi.describeJob(arguments, state.jobId).isPresent()) {
+      store.delete(key);
+      return false;
+    }
+    LOGGER.info("Submitted job " + state.jobId);
+    return waitForJob(arguments, store, state);
+  }
+
+  private DetachedJobState newState(SpydraArgument arguments, String key) {
+    Map<String, String> submitOptions = arguments.getSubmit().getOptions();
+    DetachedJobState state = new DetachedJobState();
+    state.key = key;
+    state.jobId = submitOptions.computeIfAbsent(SpydraArgument.OPTION_JOB_ID,
+        ignored -> UUID.randomUUID().toString());
+    state.project = submitOptions.get(SpydraArgument.OPTION_PROJECT);
+    state.region = arguments.getRegion();
+    state.clusterName = submitOptions.get(SpydraArgument.OPTION_CLUSTER);
+    state.clusterZone = arguments.getCluster().getOptions().get(SpydraArgument.OPTION_ZONE);
+    return state;
+  }
+
+  private void restoreTarget(SpydraArgument arguments, DetachedJobState state) {
+    Map<String, String> submitOptions = arguments.getSubmit().getOptions();
+    if (state.project != null) {
+      submitOptions.putIfAbsent(SpydraArgument.OPTION_PROJECT, state.project);
+    }
+    if (state.clusterName != null) {
+      submitOptions.put(SpydraArgument.OPTION_CLUSTER, state.clusterName);
+    }
+  }
+
+  private boolean waitForJob(SpydraArgument arguments, JobStateStore store,
+                             DetachedJobState state) throws IOException {
+    boolean streamOutput = arguments.getDetachedSubmit().isStreamDriverOutput();
+    DriverOutputStreamer streamer = null;
+    if (streamOutput) {
+      gcpUtils.configureStorageFromEnvironment();
+      streamer = new DriverOutputStreamer(gcpUtils, System.out);
+    }
+
+    AdaptivePollInterval pollInterval = new AdaptivePollInterval(
+        arguments.getDetachedSubmit().getMinPollInterval().orElse(DEFAULT_MIN_POLL_INTERVAL),
+        arguments.getDetachedSubmit().getMaxPollInterval().orElse(DEFAULT_MAX_POLL_INTERVAL),
+        POLL_INTERVAL_FACTOR);
+    String lastState = null;
+    int failedDescribes = 0;
+    while (true) {
+      Optional<Job> job;
+      try {
+        job = dataprocApi.describeJob(arguments, state.jobId);
+        if (!job.isPresent()) {
+          LOGGER.warn("Job " + state.jobId + " was not found");
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Failed to describe job " + state.jobId, e);
+        job = Optional.empty();
+      }
+      if (!job.isPresent() && ++failedDescribes >= MAX_FAILED_DESCRIBES) {
+        LOGGER.error("Giving up waiting for job " + state.jobId + " after failing to describe it "
+            + failedDescribes + " times in a row, run the same submission again to resume "
+            + "waiting");
+        return false;
+      }
+      if (job.isPresent()) {
+        failedDescribes = 0;
+        boolean progress = false;
+        Job.Status status = job.get().status;
+        if (!status.state.equals(lastState)) {
+          LOGGER.info("Job " + state.jobId + " is " + status.state);
+          lastState = status.state;
+          progress = true;
+        }
+
+        if (streamer != null && job.get().driverOutputResourceUri != null) {
+          long offset = streamer.stream(job.get().driverOutputResourceUri,
+              state.driverOutputOffset);
+          if (offset != state.driverOutputOffset) {
+            state.driverOutputOffset = offset;
+            store.save(state);
+            progress = true;
+          }
+        }
+
+        if (status.isTerminal()) {
+          store.delete(state.key);
+          if (!Job.Status.DONE.equals(status.state)) {
+            LOGGER.error("Job " + state.jobId + " finished in state " + status.state + ": "
+                + status.details);
+            return false;
+          }
+          return true;
+        }
+
+        if (progress) {
+          pollInterval.reset();
+        }
+      }
+
+      try {
+        Thread.sleep(pollInterval.next().toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOGGER.warn("Interrupted while waiting for job " + state.jobId
+            + ", run the same submission again to resume waiting");
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+/**
+ * What is needed to resume waiting for a job submitted with {@link DetachedDataprocExecutor}.
+ */
+public class DetachedJobState {
+
+  public String key;
+  public String jobId;
+  public String project;
+  public String region;
+  public String clusterName;
+  public String clusterZone;
+  public long driverOutputOffset;
+}
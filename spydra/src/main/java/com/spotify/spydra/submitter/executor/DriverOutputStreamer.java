@@ -0,0 +1,72 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Copies the driver output of a Dataproc job from GCS to a local stream.
+ *
+ * <p>Dataproc writes the driver output as a sequence of numbered blobs sharing the prefix given in
+ * the job's driverOutputResourceUri. The position in the output is tracked as a byte offset into
+ * the concatenation of those blobs, so that output already printed is never printed again.
+ */
+class DriverOutputStreamer {
+
+  private final GcpUtils gcpUtils;
+  private final PrintStream out;
+
+  DriverOutputStreamer(GcpUtils gcpUtils, PrintStream out) {
+    this.gcpUtils = gcpUtils;
+    this.out = out;
+  }
+
+  /**
+   * Prints all output after the given offset.
+   *
+   * @return the offset up to which output has been printed
+   */
+  long stream(String driverOutputUri, long offset) throws IOException {
+    URI uri = URI.create(driverOutputUri);
+    String bucket = uri.getHost();
+    String prefix = uri.getPath().substring(1);
+
+    SortedMap<String, Long> blobs = gcpUtils.listBlobSizes(bucket, prefix);
+    long blobStart = 0;
+    long position = offset;
+    for (Map.Entry<String, Long> blob : blobs.entrySet()) {
+      long blobEnd = blobStart + blob.getValue();
+      if (blobEnd > position) {
+        byte[] content = gcpUtils.readBlob(bucket, blob.getKey(), position - blobStart);
+        out.write(content, 0, content.length);
+        position += content.length;
+      }
+      blobStart = blobEnd;
+    }
+    out.flush();
+    return position;
+  }
+}
@@ -20,7 +20,9 @@
 
 package com.spotify.spydra.submitter.executor;
 
+import com.spotify.spydra.api.DataprocApi;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
 
 /**
  * Factory responsible for creating instances of different executors based a
@@ -31,6 +33,9 @@ public class ExecutorFactory {
   public Executor getExecutor(SpydraArgument arguments) {
     switch (arguments.getClusterType()) {
       case DATAPROC:
+        if (arguments.isDetachedSubmitEnabled()) {
+          return new DetachedDataprocExecutor(DataprocApi.forArguments(arguments), new GcpUtils());
+        }
         return new DataprocExecutor();
       case ON_PREMISE:
         return new OnPremiseExecutor();
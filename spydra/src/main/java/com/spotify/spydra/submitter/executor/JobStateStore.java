@@ -0,0 +1,194 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hashing;
+import com.spotify.spydra.model.JsonHelper;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Stores the state of detached jobs as one JSON file per submission in a local directory.
+ *
+ * <p>Submissions are identified by a key derived from the client id, the job type, the job
+ * arguments and the submit options, so that running the same submission again finds the job that
+ * was submitted before. Options that differ between otherwise identical invocations, such as the
+ * cluster name and the properties containing random ids, are not part of the key.
+ *
+ * <p>A submission {@link #tryLock(String) locks} its key while it runs, so that a second
+ * invocation of the same submission does not adopt the job and the cluster of a running one.
+ */
+public class JobStateStore {
+
+  private static final String DEFAULT_STATE_DIR = ".spydra/jobs";
+
+  // File locks are held per process, threads of the same process are kept apart by this map
+  private static final Map<Path, Lock> LOCKS = new HashMap<>();
+
+  private final Path directory;
+
+  public JobStateStore(Path directory) {
+    this.directory = directory;
+  }
+
+  public static JobStateStore forArguments(SpydraArgument arguments) {
+    Optional<String> stateDir = arguments.isDetachedSubmitEnabled()
+        ? arguments.getDetachedSubmit().getStateDir()
+        : Optional.empty();
+    return new JobStateStore(stateDir.map(Paths::get)
+        .orElseGet(() -> Paths.get(System.getProperty("user.home"), DEFAULT_STATE_DIR)));
+  }
+
+  public static String key(SpydraArgument arguments) {
+    Map<String, String> options = new TreeMap<>(arguments.getSubmit().getOptions());
+    options.remove(SpydraArgument.OPTION_CLUSTER);
+    options.remove(SpydraArgument.OPTION_PROJECT);
+    options.remove(SpydraArgument.OPTION_PROPERTIES);
+    options.remove(SpydraArgument.OPTION_JOB_ID);
+
+    StringBuilder builder = new StringBuilder();
+    builder.append(arguments.clientId.orElse("")).append('\n');
+    builder.append(arguments.jobType.orElse("")).append('\n');
+    builder.append(arguments.getSubmit().pyFile.orElse("")).append('\n');
+    options.forEach((key, value) -> builder.append(key).append('=').append(value).append('\n'));
+    arguments.getSubmit().jobArgs.ifPresent(jobArgs -> jobArgs.forEach(
+        jobArg -> builder.append(jobArg).append('\n')));
+
+    String hash = Hashing.sha256().hashString(builder.toString(), UTF_8).toString();
+    return arguments.clientId.map(clientId -> clientId + "-").orElse("") + hash.substring(0, 32);
+  }
+
+  public Optional<DetachedJobState> load(String key) throws IOException {
+    try {
+      byte[] json = Files.readAllBytes(path(key));
+      return Optional.of(JsonHelper.fromString(new String(json, UTF_8), DetachedJobState.class));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Writes the state to a temporary file first and moves it into place, so that a client killed
+   * while saving never leaves a truncated state file behind.
+   */
+  public void save(DetachedJobState state) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, state.key, ".tmp");
+    try {
+      Files.write(temporary, JsonHelper.toString(state).getBytes(UTF_8));
+      Files.move(temporary, path(state.key), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  public void delete(String key) throws IOException {
+    Files.deleteIfExists(path(key));
+  }
+
+  /**
+   * Locks the submission with the given key against other invocations, in this process or in
+   * others. The thread holding the lock may lock the key again.
+   *
+   * @return the lock, or empty if another invocation holds it
+   */
+  public Optional<Lock> tryLock(String key) throws IOException {
+    Path lockFile = directory.resolve(key + ".lock");
+    synchronized (LOCKS) {
+      Lock held = LOCKS.get(lockFile);
+      if (held != null) {
+        if (held.owner != Thread.currentThread()) {
+          return Optional.empty();
+        }
+        held.holds++;
+        return Optional.of(held);
+      }
+
+      Files.createDirectories(directory);
+      FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE);
+      FileLock fileLock;
+      try {
+        fileLock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        fileLock = null;
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      if (fileLock == null) {
+        channel.close();
+        return Optional.empty();
+      }
+      Lock lock = new Lock(lockFile, channel);
+      LOCKS.put(lockFile, lock);
+      return Optional.of(lock);
+    }
+  }
+
+  /**
+   * The lock of a submission, released once it has been closed as often as it was taken.
+   */
+  public static final class Lock implements AutoCloseable {
+
+    private final Path lockFile;
+    private final FileChannel channel;
+    private final Thread owner = Thread.currentThread();
+    private int holds = 1;
+
+    private Lock(Path lockFile, FileChannel channel) {
+      this.lockFile = lockFile;
+      this.channel = channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (LOCKS) {
+        if (--holds > 0) {
+          return;
+        }
+        LOCKS.remove(lockFile);
+        // Closing the channel releases the file lock
+        channel.close();
+      }
+    }
+  }
+
+  private Path path(String key) {
+    return directory.resolve(key + ".json");
+  }
+}
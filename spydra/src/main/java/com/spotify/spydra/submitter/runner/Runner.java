@@ -20,6 +20,7 @@
 
 package com.spotify.spydra.submitter.runner;
 
+import com.spotify.spydra.api.process.ProcessRecorder;
 import com.spotify.spydra.historytools.DumpHistoryCliParser;
 import com.spotify.spydra.historytools.DumpLogsCliParser;
 import com.spotify.spydra.historytools.HistoryLogUtils;
@@ -33,9 +34,21 @@ import com.spotify.spydra.model.SpydraArgument;
 import com.spotify.spydra.submitter.api.Submitter;
 import com.spotify.spydra.util.GcpUtils;
 import com.spotify.spydra.util.SpydraArgumentUtil;
+import com.spotify.spydra.util.trace.ChromeTraceExporter;
+import com.spotify.spydra.util.trace.CollectorTraceExporter;
+import com.spotify.spydra.util.trace.Span;
+import com.spotify.spydra.util.trace.Trace;
+import com.spotify.spydra.util.trace.TraceExporter;
+import com.spotify.spydra.util.trace.Tracer;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
@@ -44,8 +57,6 @@ import org.slf4j.LoggerFactory;
 public class Runner {
   private static final Logger LOGGER = LoggerFactory.getLogger(Runner.class);
 
-  private static final GcpUtils gcpUtils = new GcpUtils();
-
   public static void main(String[] args) throws Exception {
 
     if (args.length == 0) {
@@ -95,13 +106,30 @@ public class Runner {
     CliParser<SpydraArgument> parser = new SubmissionCliParser();
     checkAndPrintHelp(args, parser);
 
-    SpydraArgument userArguments = parser.parse(args);
-    Optional<String> userId = userId(SpydraArgumentUtil.isOnPremiseInvocation(userArguments));
-    SpydraArgument finalArguments =
-        SpydraArgumentUtil.mergeConfigurations(userArguments, userId);
-    SpydraArgumentUtil.setDefaultClientIdIfRequired(finalArguments);
-    SpydraArgumentUtil.setProjectFromCredentialsIfNotSet(finalArguments);
-    finalArguments.replacePlaceholders();
+    // Whether to trace is only known once the configuration is merged, so recording starts
+    // unconditionally and is dropped again if tracing is not enabled
+    Tracer.start();
+    final Span submission = Tracer.span("submission");
+    final long start = System.nanoTime();
+
+    SpydraArgument userArguments;
+    Optional<String> userId;
+    try (Span ignored = Tracer.span("config parse")) {
+      userArguments = parser.parse(args);
+    }
+    try (Span ignored = Tracer.span("credential load")) {
+      userId = userId(SpydraArgumentUtil.isOnPremiseInvocation(userArguments));
+    }
+    SpydraArgument finalArguments;
+    try (Span ignored = Tracer.span("config merge")) {
+      finalArguments = SpydraArgumentUtil.mergeConfigurations(userArguments, userId);
+      SpydraArgumentUtil.setDefaultClientIdIfRequired(finalArguments);
+      SpydraArgumentUtil.setProjectFromCredentialsIfNotSet(finalArguments);
+      finalArguments.replacePlaceholders();
+    }
+    if (!finalArguments.isTracingEnabled()) {
+      Tracer.finish();
+    }
 
     MetricsFactory.initialize(finalArguments, userId.orElse("Application Default User"));
     Metrics metrics = MetricsFactory.getInstance();
@@ -110,12 +138,42 @@ public class Runner {
 
     LOGGER.info("Executing submission command");
     boolean status = submitter.executeJob(finalArguments);
+    submission.tag("status", status).close();
 
+    metrics.phaseLatency(finalArguments, "submission",
+        Duration.ofNanos(System.nanoTime() - start));
+    ProcessRecorder.usage().forEach(usage -> metrics.processUsage(finalArguments, usage));
     metrics.executionResult(finalArguments, status);
+    exportTrace(finalArguments);
     metrics.flush();
     System.exit(status ? 0 : 1);
   }
 
+  private static void exportTrace(SpydraArgument arguments) {
+    Optional<Trace> trace = Tracer.finish();
+    if (!trace.isPresent() || !arguments.isTracingEnabled()) {
+      return;
+    }
+    SpydraArgument.Tracing tracing = arguments.getTracing();
+    List<TraceExporter> exporters = new ArrayList<>();
+    tracing.getTraceDir().ifPresent(dir -> exporters.add(new ChromeTraceExporter(Paths.get(dir))));
+    if (tracing.getCollectorUrl().isPresent()) {
+      try {
+        exporters.add(new CollectorTraceExporter(new URL(tracing.getCollectorUrl().get())));
+      } catch (MalformedURLException e) {
+        LOGGER.warn("Not sending trace to invalid collector URL", e);
+      }
+    }
+    for (TraceExporter exporter : exporters) {
+      try {
+        exporter.export(trace.get());
+      } catch (IOException e) {
+        LOGGER.warn("Failed to export trace " + trace.get().getTraceId(), e);
+      }
+    }
+    LOGGER.info("Recorded trace " + trace.get().getTraceId());
+  }
+
   private static Optional<String> userId(boolean onPremiseInvocation) throws IOException {
     if (onPremiseInvocation) {
       return Optional.of(System.getenv().getOrDefault("HADOOP_USER_NAME", "onpremise"));
@@ -131,7 +189,7 @@ public class Runner {
     RunJhsCommand runJhsCommand = parser.parse(args);
     Configuration configuration = HistoryLogUtils.generateHadoopConfig(
         runJhsCommand.clientId(), runJhsCommand.logBucket());
-    gcpUtils.configureCredentialFromEnvironment(configuration);
+    new GcpUtils().configureCredentialFromEnvironment(configuration);
     HistoryLogUtils.startJhs(configuration);
   }
 
@@ -143,7 +201,7 @@ public class Runner {
     Configuration configuration = HistoryLogUtils.generateHadoopConfig(
         dumpHistoryCommand.clientId(),
         dumpHistoryCommand.logBucket());
-    gcpUtils.configureCredentialFromEnvironment(configuration);
+    new GcpUtils().configureCredentialFromEnvironment(configuration);
     HistoryLogUtils
         .dumpFullHistory(configuration,
             dumpHistoryCommand.applicationId());
@@ -156,7 +214,7 @@ public class Runner {
     DumpLogsCommand dumpLogsCommand = parser.parse(args);
     Configuration configuration = HistoryLogUtils.generateHadoopConfig(dumpLogsCommand.clientId(),
         dumpLogsCommand.username(), dumpLogsCommand.logBucket());
-    gcpUtils.configureCredentialFromEnvironment(configuration);
+    new GcpUtils().configureCredentialFromEnvironment(configuration);
     HistoryLogUtils.dumpFullLogs(configuration, dumpLogsCommand.applicationId());
   }
 }
@@ -22,7 +22,7 @@ package com.spotify.spydra.submitter.runner;
 
 import static java.lang.Integer.min;
 
-import com.spotify.spydra.model.JsonHelper;
+import com.spotify.spydra.model.JsonCodecs;
 import com.spotify.spydra.model.SpydraArgument;
 import java.io.File;
 import java.io.IOException;
@@ -73,7 +73,7 @@ public class SubmissionCliParser implements CliParser<SpydraArgument> {
       for (String file : files) {
         spydraArgument = SpydraArgument.merge(
             spydraArgument,
-            JsonHelper.objectMapper().readValue(new File(file), SpydraArgument.class));
+            JsonCodecs.SNAKE_CASE.read(new File(file), SpydraArgument.class));
       }
     }
 
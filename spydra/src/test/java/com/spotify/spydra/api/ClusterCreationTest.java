@@ -0,0 +1,138 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Operation;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.AdaptivePollInterval;
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterCreationTest {
+
+  private static final String OPERATION = "projects/p/regions/r/operations/o";
+
+  private DataprocApi dataprocApi;
+  private SpydraArgument arguments;
+
+  @Before
+  public void setUp() {
+    dataprocApi = mock(DataprocApi.class);
+    arguments = new SpydraArgument();
+    arguments.getCluster().setName("spydra-test");
+  }
+
+  @Test
+  public void testPollsUntilDone() throws Exception {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = "spydra-test";
+    when(dataprocApi.describeOperation(arguments, OPERATION)).thenReturn(
+        Optional.of(operation(false, Operation.Metadata.Status.PENDING)),
+        Optional.of(operation(false, Operation.Metadata.Status.RUNNING)),
+        Optional.of(done(cluster)));
+
+    ClusterCreation creation = creation(operation(false, Operation.Metadata.Status.PENDING));
+
+    assertEquals(Optional.of(cluster), creation.await(Duration.ofMinutes(1)));
+    assertTrue(creation.isDone());
+    verify(dataprocApi, times(3)).describeOperation(arguments, OPERATION);
+    verify(dataprocApi, never()).cancelOperation(any(SpydraArgument.class), any(String.class));
+  }
+
+  @Test
+  public void testReportsProgress() throws Exception {
+    when(dataprocApi.describeOperation(arguments, OPERATION)).thenReturn(
+        Optional.of(operation(false, Operation.Metadata.Status.PENDING)),
+        Optional.of(operation(false, Operation.Metadata.Status.RUNNING)));
+
+    ClusterCreation creation = creation(operation(false, Operation.Metadata.Status.PENDING));
+
+    assertFalse(creation.poll());
+    assertTrue(creation.poll());
+    assertEquals(Operation.Metadata.Status.RUNNING,
+        creation.operation().metadata.status.state);
+  }
+
+  @Test
+  public void testFailedCreation() throws Exception {
+    Operation failed = done(null);
+    failed.error = new Operation.Error();
+    failed.error.message = "Insufficient quota";
+    when(dataprocApi.describeOperation(arguments, OPERATION)).thenReturn(Optional.of(failed));
+
+    ClusterCreation creation = creation(operation(false, Operation.Metadata.Status.RUNNING));
+
+    assertFalse(creation.await(Duration.ofMinutes(1)).isPresent());
+  }
+
+  @Test
+  public void testCancelsStuckCreation() throws Exception {
+    ClusterCreation creation = creation(operation(false, Operation.Metadata.Status.RUNNING));
+
+    assertFalse(creation.await(Duration.ZERO).isPresent());
+    verify(dataprocApi).cancelOperation(arguments, OPERATION);
+  }
+
+  @Test
+  public void testLooksUpClusterWithoutResponse() throws Exception {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = "spydra-test";
+    when(dataprocApi.findCluster(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Optional.of(cluster));
+
+    ClusterCreation creation = creation(done(null));
+
+    assertEquals(Optional.of(cluster), creation.await(Duration.ofMinutes(1)));
+  }
+
+  private ClusterCreation creation(Operation operation) {
+    return new ClusterCreation(dataprocApi, arguments, operation,
+        new AdaptivePollInterval(Duration.ofMillis(1), Duration.ofMillis(1), 1.0));
+  }
+
+  private static Operation operation(boolean done, String state) {
+    Operation operation = new Operation();
+    operation.name = OPERATION;
+    operation.done = done;
+    operation.metadata.status.state = state;
+    return operation;
+  }
+
+  private static Operation done(Cluster cluster) {
+    Operation operation = operation(true, Operation.Metadata.Status.DONE);
+    operation.response = cluster;
+    return operation;
+  }
+}
@@ -0,0 +1,105 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.api.model.Cluster;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ClusterQueryTest {
+
+  @Test
+  public void testRendersServerSideFilter() {
+    ClusterQuery query = ClusterQuery.builder()
+        .label("spydra-cluster", "")
+        .label("client", "a")
+        .states(Cluster.Status.CREATING, Cluster.Status.RUNNING)
+        .build();
+
+    assertEquals("labels.spydra-cluster = * AND labels.client = a"
+            + " AND (status.state = CREATING OR status.state = RUNNING)",
+        query.filter());
+  }
+
+  @Test
+  public void testFromFilters() {
+    Map<String, String> filters = new LinkedHashMap<>();
+    filters.put("labels.client", "a");
+    filters.put("status.state", "ERROR");
+    filters.put("clusterName", "spydra-1");
+
+    ClusterQuery query = ClusterQuery.fromFilters(filters);
+
+    assertEquals("a", query.labels().get("client"));
+    assertEquals("spydra-1", query.clusterName().get());
+    assertEquals("labels.client = a AND clusterName = spydra-1 AND status.state = ERROR",
+        query.filter());
+  }
+
+  @Test
+  public void testEmptyQueryMatchesAll() {
+    ClusterQuery query = ClusterQuery.builder().build();
+
+    assertEquals("", query.filter());
+    assertTrue(query.matches(cluster("spydra-1", Cluster.Status.RUNNING, new HashMap<>())));
+  }
+
+  @Test
+  public void testMatchesLocally() {
+    Map<String, String> labels = new HashMap<>();
+    labels.put("client", "a");
+    ClusterQuery query = ClusterQuery.builder()
+        .label("client", "a")
+        .states(Cluster.Status.RUNNING)
+        .build();
+
+    assertTrue(query.matches(cluster("spydra-1", Cluster.Status.RUNNING, labels)));
+    assertFalse(query.matches(cluster("spydra-1", Cluster.Status.DELETING, labels)));
+    assertFalse(query.matches(cluster("spydra-1", Cluster.Status.RUNNING, new HashMap<>())));
+  }
+
+  @Test
+  public void testWithLimitKeepsPredicates() {
+    ClusterQuery query = ClusterQuery.builder().label("client", "a").pageSize(10).build();
+
+    ClusterQuery limited = query.withLimit(1);
+
+    assertEquals(1, limited.limit().getAsInt());
+    assertEquals(10, limited.pageSize().getAsInt());
+    assertEquals(query.filter(), limited.filter());
+    assertFalse(query.limit().isPresent());
+  }
+
+  private static Cluster cluster(String name, String state, Map<String, String> labels) {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = name;
+    cluster.labels = labels;
+    cluster.status = new Cluster.Status();
+    cluster.status.state = state;
+    return cluster;
+  }
+}
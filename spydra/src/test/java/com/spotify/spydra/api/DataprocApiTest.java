@@ -0,0 +1,213 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.retry.DataprocCall;
+import com.spotify.spydra.api.retry.ErrorCategory;
+import com.spotify.spydra.api.retry.RetryableException;
+import com.spotify.spydra.api.throttle.AdaptiveConcurrencyLimit;
+import com.spotify.spydra.api.throttle.Throttle;
+import com.spotify.spydra.metrics.Metrics;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataprocApiTest {
+
+  private GcloudExecutor gcloud;
+  private DataprocApi dataprocApi;
+  private SpydraArgument arguments;
+
+  @Before
+  public void setUp() {
+    gcloud = mock(GcloudExecutor.class);
+    dataprocApi = new DataprocApi(gcloud, mock(Metrics.class));
+    arguments = new SpydraArgument();
+    arguments.setRegion("europe-west1");
+    arguments.getCluster().setName("spydra-test");
+  }
+
+  @Test
+  public void testListClustersAsync() throws Exception {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = "spydra-test";
+    when(gcloud.listClusters(anyString(), eq("europe-west1"), any(ClusterQuery.class)))
+        .thenAnswer(invocation -> {
+          assertTrue(Thread.currentThread().getName().startsWith("dataproc-api-"));
+          return Collections.singletonList(cluster);
+        });
+
+    assertEquals(Collections.singletonList(cluster), DataprocApi.await(
+        dataprocApi.listClustersAsync(arguments, ClusterQuery.builder().build())));
+  }
+
+  @Test
+  public void testIndependentCallsOverlap() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    when(gcloud.listClusters(anyString(), eq("europe-west1"), any(ClusterQuery.class)))
+        .thenAnswer(invocation -> {
+          bothStarted.countDown();
+          // Only returns if the other listing runs at the same time
+          assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+          return Collections.emptyList();
+        });
+
+    CompletableFuture<List<Cluster>> first =
+        dataprocApi.listClustersAsync(arguments, ClusterQuery.builder().build());
+    CompletableFuture<List<Cluster>> second =
+        dataprocApi.listClustersAsync(arguments, ClusterQuery.builder().build());
+
+    assertTrue(DataprocApi.await(first).isEmpty());
+    assertTrue(DataprocApi.await(second).isEmpty());
+  }
+
+  @Test
+  public void testRetriesCallsRejectedByQuota() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    AdaptiveConcurrencyLimit concurrency = new AdaptiveConcurrencyLimit(4);
+    DataprocApi throttled = new DataprocApi(gcloud, mock(Metrics.class),
+        new Throttle(Optional.empty(), Optional.of(concurrency), 3, sleeps::add));
+    when(gcloud.describeJob(eq("job-1"), eq("europe-west1"), anyMapOf(String.class, String.class)))
+        .thenThrow(new QuotaExceededException("RESOURCE_EXHAUSTED"))
+        .thenThrow(new QuotaExceededException("RESOURCE_EXHAUSTED", Optional.of(
+            Duration.ofSeconds(30))))
+        .thenReturn(Optional.of(new Job()));
+
+    assertTrue(throttled.describeJob(arguments, "job-1").isPresent());
+    assertEquals(2, sleeps.size());
+    assertTrue(sleeps.get(0) <= 1000L);
+    assertEquals(30000L, (long) sleeps.get(1));
+    // Halved twice from 4, then raised again by the successful call
+    assertEquals(2, concurrency.limit());
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetries() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    DataprocApi throttled = new DataprocApi(gcloud, mock(Metrics.class),
+        new Throttle(Optional.empty(), Optional.empty(), 2, sleeps::add));
+    when(gcloud.describeJob(eq("job-1"), eq("europe-west1"), anyMapOf(String.class, String.class)))
+        .thenThrow(new QuotaExceededException("RESOURCE_EXHAUSTED"));
+
+    try {
+      throttled.describeJob(arguments, "job-1");
+      fail();
+    } catch (QuotaExceededException e) {
+      assertEquals(2, sleeps.size());
+    }
+  }
+
+  @Test
+  public void testRetriesTransientFailuresWithinBudget() throws Exception {
+    Metrics metrics = mock(Metrics.class);
+    List<Long> sleeps = new ArrayList<>();
+    DataprocApi retrying = new DataprocApi(gcloud, metrics,
+        new Throttle(Optional.empty(), Optional.empty(), 3, sleeps::add));
+    when(gcloud.deleteCluster(anyString(), anyString(), anyMapOf(String.class, String.class)))
+        .thenThrow(new RetryableException(ErrorCategory.TRANSIENT, "UNAVAILABLE"));
+
+    try {
+      retrying.deleteCluster(arguments);
+      fail();
+    } catch (RetryableException e) {
+      int retries = DataprocCall.DELETE_CLUSTER.transientRetries();
+      assertEquals(retries, sleeps.size());
+      verify(gcloud, times(retries + 1))
+          .deleteCluster(anyString(), anyString(), anyMapOf(String.class, String.class));
+      verify(metrics, times(retries))
+          .apiCallRetried(eq(arguments), eq("clusters.delete"), eq("TRANSIENT"), anyInt());
+      verify(metrics).apiCallExhausted(arguments, "clusters.delete", "TRANSIENT", retries + 1);
+    }
+  }
+
+  @Test
+  public void testDoesNotRepeatClusterCreationAfterTransientFailure() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    DataprocApi retrying = new DataprocApi(gcloud, mock(Metrics.class),
+        new Throttle(Optional.empty(), Optional.empty(), 3, sleeps::add));
+    when(gcloud.startClusterCreation(anyString(), anyString(),
+        anyMapOf(String.class, String.class)))
+        .thenThrow(new RetryableException(ErrorCategory.TRANSIENT, "DEADLINE_EXCEEDED"));
+
+    try {
+      retrying.startClusterCreation(arguments);
+      fail();
+    } catch (RetryableException e) {
+      assertTrue(sleeps.isEmpty());
+      verify(gcloud).startClusterCreation(anyString(), anyString(),
+          anyMapOf(String.class, String.class));
+    }
+  }
+
+  @Test
+  public void testDoesNotRetryPermanentFailures() throws Exception {
+    List<Long> sleeps = new ArrayList<>();
+    DataprocApi retrying = new DataprocApi(gcloud, mock(Metrics.class),
+        new Throttle(Optional.empty(), Optional.empty(), 3, sleeps::add));
+    when(gcloud.listClusters(anyString(), eq("europe-west1"), any(ClusterQuery.class)))
+        .thenThrow(new IOException("Failed to list clusters. Gcloud call failed."));
+
+    try {
+      retrying.listClusters(arguments, ClusterQuery.builder().build());
+      fail();
+    } catch (IOException e) {
+      assertTrue(sleeps.isEmpty());
+    }
+  }
+
+  @Test
+  public void testAwaitRethrowsIoException() throws Exception {
+    when(gcloud.listClusters(anyString(), eq("europe-west1"), any(ClusterQuery.class)))
+        .thenThrow(new IOException("gcloud failed"));
+
+    try {
+      DataprocApi.await(dataprocApi.listClustersAsync(arguments, ClusterQuery.builder().build()));
+      fail();
+    } catch (IOException e) {
+      assertEquals("gcloud failed", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.gcloud;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.model.Cluster;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class ClusterListParserTest {
+
+  private static final String CLUSTERS = "["
+      + "{\"clusterName\": \"spydra-1\","
+      + " \"clusterUuid\": \"uuid-1\","
+      + " \"config\": {"
+      + "   \"configBucket\": \"bucket\","
+      + "   \"gceClusterConfig\": {"
+      + "     \"metadata\": {\"heartbeat\": \"2018-03-01T10:15:30Z\", \"other\": \"x\"},"
+      + "     \"serviceAccountScopes\": [\"a\", \"b\"],"
+      + "     \"zoneUri\": \"europe-west1-b\"},"
+      + "   \"masterConfig\": {\"instanceNames\": [\"spydra-1-m\"], \"numInstances\": 1,"
+      + "     \"machineTypeUri\": \"https://compute/machineTypes/n1-standard-4\"},"
+      + "   \"workerConfig\": {\"numInstances\": 2, \"diskConfig\": {\"bootDiskSizeGb\": 500},"
+      + "     \"machineTypeUri\": \"n1-highmem-8\"},"
+      + "   \"softwareConfig\": {\"properties\": {\"a\": \"b\"}}},"
+      + " \"labels\": {\"spydra-cluster\": \"1\", \"client\": \"a\"},"
+      + " \"metrics\": {\"hdfsMetrics\": {\"dfs-capacity-used\": \"1\"},"
+      + "   \"yarnMetrics\": {\"yarn-apps-running\": \"2\"}},"
+      + " \"status\": {\"state\": \"RUNNING\", \"stateStartTime\": \"2018-03-01T10:00:00Z\"},"
+      + " \"statusHistory\": [{\"state\": \"CREATING\"}]},"
+      + "{\"clusterName\": \"spydra-2\","
+      + " \"labels\": {\"spydra-cluster\": \"1\", \"client\": \"b\"},"
+      + " \"status\": {\"state\": \"ERROR\"}},"
+      + "{\"clusterName\": \"other\","
+      + " \"status\": {\"state\": \"RUNNING\"}}"
+      + "]";
+
+  @Test
+  public void testParsesNeededFields() throws Exception {
+    List<Cluster> clusters = new ClusterListParser().parse(stream(CLUSTERS));
+
+    assertEquals(3, clusters.size());
+    Cluster cluster = clusters.get(0);
+    assertEquals("spydra-1", cluster.clusterName);
+    assertEquals("a", cluster.labels.get("client"));
+    assertEquals(Cluster.Status.RUNNING, cluster.status.state);
+    assertTrue(cluster.status.stateStartTime.isEqual(
+        ZonedDateTime.parse("2018-03-01T10:00:00Z")));
+    assertEquals("europe-west1-b", cluster.config.gceClusterConfig.zoneUri);
+    assertTrue(cluster.config.gceClusterConfig.metadata.heartbeat.get().isEqual(
+        ZonedDateTime.parse("2018-03-01T10:15:30Z")));
+    assertEquals(Collections.singletonList("spydra-1-m"), cluster.config.masterConfig.instanceNames);
+    assertEquals(1, cluster.config.masterConfig.numInstances);
+    assertEquals("https://compute/machineTypes/n1-standard-4",
+        cluster.config.masterConfig.machineTypeUri);
+    assertEquals(2, cluster.config.workerConfig.numInstances);
+    assertEquals("n1-highmem-8", cluster.config.workerConfig.machineTypeUri);
+    assertEquals(0, cluster.config.secondaryWorkerConfig.numInstances);
+    assertEquals("2", cluster.metrics.yarnMetrics.get(Cluster.Metrics.YARN_APPS_RUNNING));
+  }
+
+  @Test
+  public void testFiltersByLabel() throws Exception {
+    ClusterListParser parser = new ClusterListParser(
+        ClusterQuery.builder().label("client", "b").build());
+
+    List<Cluster> clusters = parser.parse(stream(CLUSTERS));
+
+    assertEquals(1, clusters.size());
+    assertEquals("spydra-2", clusters.get(0).clusterName);
+  }
+
+  @Test
+  public void testEmptyLabelValueMatchesAnyValue() throws Exception {
+    ClusterListParser parser = new ClusterListParser(
+        ClusterQuery.builder().label("spydra-cluster", "").build());
+
+    assertEquals(2, parser.parse(stream(CLUSTERS)).size());
+  }
+
+  @Test
+  public void testStopsAtLimit() throws Exception {
+    ClusterListParser parser = new ClusterListParser(
+        ClusterQuery.builder().states(Cluster.Status.RUNNING).limit(1).build());
+
+    // Everything after the first match is never read, so it need not even be valid
+    List<Cluster> clusters = parser.parse(stream(CLUSTERS.substring(0, CLUSTERS.indexOf("},{"))
+        + "}, {\"truncated"));
+
+    assertEquals(1, clusters.size());
+    assertEquals("spydra-1", clusters.get(0).clusterName);
+    assertTrue(parser.isComplete(clusters));
+  }
+
+  @Test
+  public void testEmptyOutput() throws Exception {
+    assertTrue(new ClusterListParser().parse(stream("")).isEmpty());
+    assertTrue(new ClusterListParser().parse(stream("[]")).isEmpty());
+  }
+
+  private static InputStream stream(String json) {
+    return new ByteArrayInputStream(json.getBytes(UTF_8));
+  }
+}
@@ -23,13 +23,23 @@ import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
 
+import com.spotify.spydra.metrics.ProcessUsage;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
 import org.junit.Test;
 
 public class ProcessHelperTest {
 
+  @Before
+  public void setUp() {
+    ProcessRecorder.reset();
+  }
+
   @Test
   public void testAllowsForLargeOutputOnStdout() throws IOException {
     final StringBuilder outputBuilder = new StringBuilder();
@@ -53,4 +63,78 @@ public class ProcessHelperTest {
     final List<String> words = Arrays.asList(outputBuilder.toString().split("\n"));
     assertEquals(100000, words.size());
   }
+
+  @Test
+  public void testStreamsOutputToParser() throws IOException {
+    final StringBuilder errorBuilder = new StringBuilder();
+    final Optional<Long> lines = ProcessHelper.executeForStream(Arrays.asList(
+        "bash",
+        "-c",
+        "for i in {1..100000}; do echo hello; >&2 echo world; done"),
+        output -> new BufferedReader(new InputStreamReader(output)).lines().count(),
+        errorBuilder);
+    assertEquals(Optional.of(100000L), lines);
+  }
+
+  @Test
+  public void testStreamReturnsErrorOnFailure() throws IOException {
+    final StringBuilder errorBuilder = new StringBuilder();
+    final Optional<String> result = ProcessHelper.executeForStream(Arrays.asList(
+        "bash",
+        "-c",
+        "echo partial; >&2 echo failure; false"),
+        output -> "parsed",
+        errorBuilder);
+    assertFalse(result.isPresent());
+    assertEquals("failure", errorBuilder.toString().trim());
+  }
+
+  @Test
+  public void testStreamStopsProcessOnceComplete() throws IOException {
+    final StringBuilder errorBuilder = new StringBuilder();
+    final Optional<String> result = ProcessHelper.executeForStream(Arrays.asList(
+        "bash",
+        "-c",
+        "echo first; sleep 60; false"),
+        output -> new BufferedReader(new InputStreamReader(output)).readLine(),
+        errorBuilder,
+        line -> line != null);
+    assertEquals(Optional.of("first"), result);
+  }
+
+  @Test
+  public void testRecordsUsagePerKind() throws IOException {
+    ProcessHelper.executeForOutput(Arrays.asList("bash", "-c", "echo hello"), new StringBuilder());
+    ProcessHelper.executeForOutput(Arrays.asList("bash", "-c", "false"), new StringBuilder());
+    ProcessHelper.executeForStream(Arrays.asList("echo", "partial"),
+        output -> new BufferedReader(new InputStreamReader(output)).readLine(),
+        new StringBuilder(), line -> line != null);
+
+    final List<ProcessUsage> usage = ProcessRecorder.usage();
+    assertEquals(2, usage.size());
+    final ProcessUsage bash = usage.get(0);
+    assertEquals("bash", bash.getKind());
+    assertEquals(2, bash.getInvocations());
+    assertEquals(1, bash.getFailures());
+    assertEquals("hello\n".length(), bash.getOutputBytes());
+    assertTrue(bash.getWallTime().toNanos() > 0);
+    final ProcessUsage echo = usage.get(1);
+    assertEquals("echo", echo.getKind());
+    assertEquals(0, echo.getFailures());
+  }
+
+  @Test
+  public void testNamesKindOfGcloudCommands() {
+    assertEquals("clusters.create", ProcessInvocation.kind(Arrays.asList(
+        "gcloud", "dataproc", "--format=json", "clusters", "create", "spydra-1", "--zone=z")));
+    assertEquals("jobs.submit", ProcessInvocation.kind(Arrays.asList(
+        "/usr/bin/gcloud", "beta", "dataproc", "jobs", "submit", "spark")));
+    assertEquals("clusters.list", ProcessInvocation.kind(Arrays.asList(
+        "gcloud", "--account", "spydra@project.iam.gserviceaccount.com", "dataproc", "clusters",
+        "list")));
+    assertEquals("clusters.list", ProcessInvocation.kind(Arrays.asList(
+        "gcloud", "--account=spydra@project.iam.gserviceaccount.com", "dataproc", "clusters",
+        "list")));
+    assertEquals("hadoop", ProcessInvocation.kind(Arrays.asList("hadoop", "jar", "job.jar")));
+  }
 }
@@ -0,0 +1,221 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.rest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.QuotaExceededException;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataprocRestClientTest {
+
+  private static final String CLUSTERS_PATH = "/v1/projects/project/regions/region/clusters";
+
+  private final List<String> clusters = Arrays.asList(
+      cluster("spydra-1", "RUNNING", "a"),
+      cluster("spydra-2", "ERROR", "b"),
+      cluster("spydra-3", "RUNNING", "b"));
+  private final AtomicInteger requests = new AtomicInteger();
+  private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+
+  private HttpServer server;
+  private DataprocRestClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/v1/", this::handle);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    client = new DataprocRestClient(new NetHttpTransport(),
+        "http://localhost:" + server.getAddress().getPort() + "/v1/", request -> { });
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testListsAllPages() throws IOException {
+    List<Cluster> result = client.listClusters("project", "region",
+        ClusterQuery.builder().label("client", "b").build());
+
+    assertEquals(2, result.size());
+    assertEquals("spydra-2", result.get(0).clusterName);
+    assertEquals("spydra-3", result.get(1).clusterName);
+    assertEquals(2, requests.get());
+    assertThat(queries.get(0), containsString("filter=labels.client = b"));
+    assertThat(queries.get(0), containsString(
+        "fields=nextPageToken,clusters(clusterName,labels,status,"
+            + "config/gceClusterConfig/zoneUri"));
+  }
+
+  @Test
+  public void testStopsPagingAtLimit() throws IOException {
+    List<Cluster> result = client.listClusters("project", "region",
+        ClusterQuery.builder().states(Cluster.Status.RUNNING).limit(1).build());
+
+    assertEquals(1, result.size());
+    assertEquals("spydra-1", result.get(0).clusterName);
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void testMatchesAlternativeStatesLocally() throws IOException {
+    List<Cluster> result = client.listClusters("project", "region",
+        ClusterQuery.builder().states(Cluster.Status.RUNNING, Cluster.Status.CREATING).build());
+
+    assertEquals(2, result.size());
+    assertFalse(queries.get(0).contains("status.state"));
+  }
+
+  @Test
+  public void testDescribesClustersConcurrently() throws IOException {
+    Map<String, Cluster> result = client.getClusters("project", "region",
+        Arrays.asList("spydra-1", "spydra-3", "missing"));
+
+    assertEquals(Arrays.asList("spydra-1", "spydra-3"), new ArrayList<>(result.keySet()));
+    assertEquals("b", result.get("spydra-3").labels.get("client"));
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testGetsJob() throws IOException {
+    Job job = client.getJob("project", "region", "job-1").get();
+
+    assertEquals("job-1", job.reference.jobId);
+    assertEquals(Job.Status.DONE, job.status.state);
+    assertFalse(client.getJob("project", "region", "missing").isPresent());
+  }
+
+  @Test
+  public void testFailsOnErrorResponse() {
+    try {
+      client.getJob("project", "region", "forbidden");
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("403"));
+    }
+  }
+
+  @Test
+  public void testReportsQuotaErrorWithRetryAfter() throws IOException {
+    try {
+      client.getJob("project", "region", "throttled");
+      fail();
+    } catch (QuotaExceededException e) {
+      assertEquals(Optional.of(Duration.ofSeconds(7)), e.getRetryAfter());
+    }
+  }
+
+  @Test
+  public void testFieldMask() {
+    assertEquals("clusterName,config/masterConfig/instanceNames", DataprocRestClient.fieldMask(
+        Arrays.asList("clusterName", "config.masterConfig.instanceNames")));
+  }
+
+  // A minimal Dataproc API serving two clusters per page
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    String path = exchange.getRequestURI().getPath();
+    Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+    queries.add(URLDecoder.decode(String.valueOf(exchange.getRequestURI().getRawQuery()), "UTF-8"));
+
+    if (path.equals(CLUSTERS_PATH)) {
+      int offset = Integer.parseInt(query.getOrDefault("pageToken", "0"));
+      int end = Math.min(offset + 2, clusters.size());
+      String nextPageToken = end < clusters.size()
+          ? ", \"nextPageToken\": \"" + end + "\"" : "";
+      respond(exchange, 200, "{\"clusters\": [" + String.join(",", clusters.subList(offset, end))
+          + "]" + nextPageToken + "}");
+    } else if (path.startsWith(CLUSTERS_PATH + "/")) {
+      String name = path.substring(CLUSTERS_PATH.length() + 1);
+      String cluster = clusters.stream()
+          .filter(json -> json.contains("\"" + name + "\""))
+          .findFirst().orElse(null);
+      respond(exchange, cluster != null ? 200 : 404, cluster != null ? cluster : "{}");
+    } else if (path.endsWith("/jobs/job-1")) {
+      respond(exchange, 200, "{\"reference\": {\"projectId\": \"project\", \"jobId\": \"job-1\"},"
+          + " \"status\": {\"state\": \"DONE\"}}");
+    } else if (path.endsWith("/jobs/forbidden")) {
+      respond(exchange, 403, "{\"error\": {\"code\": 403}}");
+    } else if (path.endsWith("/jobs/throttled")) {
+      exchange.getResponseHeaders().add("Retry-After", "7");
+      respond(exchange, 429, "{\"error\": {\"code\": 429, \"status\": \"RESOURCE_EXHAUSTED\"}}");
+    } else {
+      respond(exchange, 404, "{}");
+    }
+  }
+
+  private static Map<String, String> query(String rawQuery) throws IOException {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        String[] keyValue = parameter.split("=", 2);
+        query.put(keyValue[0], URLDecoder.decode(keyValue[1], "UTF-8"));
+      }
+    }
+    return query;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static String cluster(String name, String state, String client) {
+    return "{\"clusterName\": \"" + name + "\","
+        + " \"labels\": {\"spydra-cluster\": \"1\", \"client\": \"" + client + "\"},"
+        + " \"status\": {\"state\": \"" + state + "\"}}";
+  }
+}
@@ -0,0 +1,91 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.retry;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import org.junit.Test;
+
+public class ErrorClassifierTest {
+
+  @Test
+  public void testClassifiesGcloudOutput() {
+    assertEquals(ErrorCategory.RATE_LIMITED, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.clusters.list) RESOURCE_EXHAUSTED: Quota exceeded for quota "
+            + "metric 'Read requests' of service 'dataproc.googleapis.com'"));
+    assertEquals(ErrorCategory.RATE_LIMITED, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.jobs.describe) HTTPError 429: Too Many Requests"));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.clusters.delete) UNAVAILABLE: The service is currently "
+            + "unavailable."));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.jobs.describe) HTTPError 503: Backend Error"));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: gcloud crashed (ConnectionError): ('Connection aborted.', "
+            + "ConnectionResetError(104, 'Connection reset by peer'))"));
+    assertEquals(ErrorCategory.PERMANENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.clusters.create) INVALID_ARGUMENT: Insufficient 'CPUS' "
+            + "quota. Requested 24.0, available 8.0."));
+    assertEquals(ErrorCategory.PERMANENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.jobs.describe) NOT_FOUND: Not found: Job job-1"));
+  }
+
+  @Test
+  public void testOnlyStatusOfGcloudCommandIsTransient() {
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.clusters.list) INTERNAL: Internal error encountered."));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.operations.describe) DEADLINE_EXCEEDED: Deadline expired"));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(
+        "ERROR: gcloud crashed (ReadTimeout): HTTPSConnectionPool(host='dataproc.googleapis.com',"
+            + " port=443): Read timed out. (read timeout=300)"));
+    assertEquals(ErrorCategory.PERMANENT, ErrorClassifier.classify(
+        "Job [job-1] failed with error: INTERNAL error in the driver"));
+    assertEquals(ErrorCategory.PERMANENT, ErrorClassifier.classify(
+        "ERROR: (gcloud.dataproc.jobs.submit.hadoop) Job [job-1] failed with error:"
+            + " Task attempt timed out after 600 secs"));
+  }
+
+  @Test
+  public void testClassifiesHttpStatus() {
+    assertEquals(ErrorCategory.RATE_LIMITED, ErrorClassifier.classify(429));
+    assertEquals(ErrorCategory.TRANSIENT, ErrorClassifier.classify(503));
+    assertEquals(ErrorCategory.PERMANENT, ErrorClassifier.classify(403));
+  }
+
+  @Test
+  public void testClassifiesExceptions() {
+    assertEquals(ErrorCategory.TRANSIENT,
+        ErrorClassifier.classify(new RetryableException(ErrorCategory.TRANSIENT, "unavailable")));
+    assertEquals(ErrorCategory.TRANSIENT,
+        ErrorClassifier.classify(new SocketTimeoutException("Read timed out")));
+    assertEquals(ErrorCategory.TRANSIENT,
+        ErrorClassifier.classify(new ConnectException("Connection refused")));
+    assertEquals(ErrorCategory.PERMANENT,
+        ErrorClassifier.classify(new InterruptedIOException("Interrupted")));
+    assertEquals(ErrorCategory.PERMANENT,
+        ErrorClassifier.classify(new IOException("Failed to parse")));
+  }
+}
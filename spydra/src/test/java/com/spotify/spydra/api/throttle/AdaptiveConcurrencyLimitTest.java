@@ -0,0 +1,86 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.throttle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  @Test
+  public void testHalvesOnOverloadAndRecoversAdditively() {
+    AdaptiveConcurrencyLimit concurrency = new AdaptiveConcurrencyLimit(8);
+
+    call(concurrency, true);
+    assertEquals(4, concurrency.limit());
+    call(concurrency, true);
+    call(concurrency, true);
+    call(concurrency, true);
+    assertEquals(1, concurrency.limit());
+
+    call(concurrency, false);
+    assertEquals(2, concurrency.limit());
+    call(concurrency, false);
+    call(concurrency, false);
+    call(concurrency, false);
+    assertEquals(3, concurrency.limit());
+
+    for (int i = 0; i < 100; i++) {
+      call(concurrency, false);
+    }
+    assertEquals(8, concurrency.limit());
+  }
+
+  @Test
+  public void testBlocksAtLimit() throws Exception {
+    AdaptiveConcurrencyLimit concurrency = new AdaptiveConcurrencyLimit(1);
+    concurrency.acquire();
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiting = new Thread(() -> {
+      try {
+        concurrency.acquire();
+        acquired.countDown();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    waiting.start();
+
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    concurrency.release(false);
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+  }
+
+  private static void call(AdaptiveConcurrencyLimit concurrency, boolean overloaded) {
+    try {
+      concurrency.acquire();
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+    concurrency.release(overloaded);
+  }
+}
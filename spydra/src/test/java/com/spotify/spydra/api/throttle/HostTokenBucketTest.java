@@ -0,0 +1,111 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.api.throttle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostTokenBucketTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1000000);
+  private final List<Long> sleeps = new ArrayList<>();
+
+  private Path stateFile;
+
+  @Before
+  public void setUp() {
+    stateFile = folder.getRoot().toPath().resolve("state/dataproc-rate-limit");
+  }
+
+  @Test
+  public void testAllowsBurstThenPacesAtRate() throws Exception {
+    HostTokenBucket bucket = bucket();
+
+    assertEquals(0, bucket.tryAcquire());
+    assertEquals(0, bucket.tryAcquire());
+    assertEquals(500, bucket.tryAcquire());
+
+    now.addAndGet(500);
+    assertEquals(0, bucket.tryAcquire());
+  }
+
+  @Test
+  public void testSharesStateBetweenInstances() throws Exception {
+    bucket().tryAcquire();
+    bucket().tryAcquire();
+
+    assertEquals(500, bucket().tryAcquire());
+  }
+
+  @Test
+  public void testAcquireWaitsForPermit() throws Exception {
+    HostTokenBucket bucket = new HostTokenBucket(stateFile, 2, 1, now::get, millis -> {
+      sleeps.add(millis);
+      now.addAndGet(millis);
+    });
+
+    bucket.acquire();
+    bucket.acquire();
+
+    assertEquals(1, sleeps.size());
+    assertEquals(500L, (long) sleeps.get(0));
+  }
+
+  @Test
+  public void testPauseHoldsBackPermits() throws Exception {
+    HostTokenBucket bucket = bucket();
+
+    bucket.pause(Duration.ofSeconds(10));
+    bucket().pause(Duration.ofSeconds(5));
+
+    assertEquals(10000, bucket.tryAcquire());
+    now.addAndGet(10000);
+    assertEquals(0, bucket.tryAcquire());
+  }
+
+  @Test
+  public void testDoesNotDrainWhenClockStepsBack() throws Exception {
+    HostTokenBucket bucket = bucket();
+    bucket.tryAcquire();
+
+    now.addAndGet(-60000);
+
+    assertEquals(0, bucket.tryAcquire());
+    assertTrue(bucket.tryAcquire() > 0);
+  }
+
+  private HostTokenBucket bucket() {
+    return new HostTokenBucket(stateFile, 2, 2, now::get, sleeps::add);
+  }
+}
@@ -0,0 +1,266 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncMetricsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SpydraArgument arguments = new SpydraArgument();
+
+  @Test
+  public void testEmitsInOrderOnBackgroundThread() {
+    RecordingMetrics recording = new RecordingMetrics();
+    AsyncMetrics metrics = new AsyncMetrics(recording);
+
+    metrics.clusterCreation(arguments, "zone", true);
+    metrics.jobSubmission(arguments, "dataproc", true);
+    metrics.clusterDeletion(arguments, false);
+    metrics.executionResult(arguments, true);
+    metrics.flush();
+
+    assertEquals(Arrays.asList("creation", "submission", "deletion", "result", "flush"),
+        recording.events);
+    assertEquals(Collections.singletonList("metrics-dispatcher-RecordingMetrics"),
+        recording.threads());
+  }
+
+  @Test
+  public void testSlowBackendDoesNotBlockCaller() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingMetrics recording = new RecordingMetrics(release);
+    AsyncMetrics metrics = new AsyncMetrics(recording, 10, Duration.ofSeconds(10));
+
+    long start = System.nanoTime();
+    metrics.clusterCreation(arguments, "zone", true);
+    metrics.clusterDeletion(arguments, true);
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+    release.countDown();
+    metrics.flush();
+    assertEquals(Arrays.asList("creation", "deletion", "flush"), recording.events);
+  }
+
+  @Test
+  public void testEmitsArgumentsAsTheyWereWhenQueued() {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingMetrics recording = new RecordingMetrics(release);
+    AsyncMetrics metrics = new AsyncMetrics(recording, 10, Duration.ofSeconds(10));
+    SpydraArgument changing = new SpydraArgument();
+    changing.getCluster().setName("first");
+    changing.getCluster().getOptions().put(SpydraArgument.OPTION_ZONE, "zone-1");
+
+    metrics.clusterCreation(changing, "zone-1", true);
+    changing.getCluster().setName("second");
+    changing.getCluster().getOptions().put(SpydraArgument.OPTION_ZONE, "zone-2");
+    release.countDown();
+    metrics.flush();
+
+    SpydraArgument emitted = recording.arguments.get(0);
+    assertEquals("first", emitted.getCluster().getName());
+    assertEquals("zone-1", emitted.getCluster().getOptions().get(SpydraArgument.OPTION_ZONE));
+  }
+
+  @Test
+  public void testDropsEventsWhenQueueIsFull() {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingMetrics recording = new RecordingMetrics(release);
+    AsyncMetrics metrics = new AsyncMetrics(recording, 2, Duration.ofSeconds(10));
+
+    for (int i = 0; i < 10; i++) {
+      metrics.jobSubmission(arguments, "dataproc", true);
+    }
+    release.countDown();
+    metrics.flush();
+
+    // One event may already be taken off the queue when the rest is emitted
+    assertTrue(metrics.droppedEvents() >= 7);
+    assertEquals(10 - metrics.droppedEvents() + 1, recording.events.size());
+  }
+
+  @Test
+  public void testFlushGivesUpAfterTimeout() {
+    RecordingMetrics recording = new RecordingMetrics(new CountDownLatch(1));
+    AsyncMetrics metrics = new AsyncMetrics(recording, 10, Duration.ofMillis(100));
+
+    metrics.clusterCreation(arguments, "zone", true);
+    long start = System.nanoTime();
+    metrics.flush();
+
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void testSpoolsEventsNotFlushedInTime() throws Exception {
+    Path spoolDir = folder.getRoot().toPath();
+    AsyncMetrics stuck = new AsyncMetrics(new RecordingMetrics(new CountDownLatch(1)), 10,
+        Duration.ofMillis(100), Optional.of(spoolDir));
+    SpydraArgument spooledArguments = new SpydraArgument();
+    spooledArguments.setClientId("spooled");
+
+    stuck.clusterCreation(spooledArguments, "zone", true);
+    stuck.jobSubmission(spooledArguments, "dataproc", false);
+    stuck.clusterUsage(spooledArguments, new ClusterUsage("cluster", true, 8,
+        Duration.ofMinutes(10), Duration.ofMinutes(5), 2));
+    stuck.fatalError(spooledArguments, new IOException("boom"));
+    stuck.flush();
+    assertFalse(stuck.hasUnflushedEvents());
+
+    RecordingMetrics recording = new RecordingMetrics();
+    AsyncMetrics next = new AsyncMetrics(recording, 10, Duration.ofSeconds(10),
+        Optional.of(spoolDir));
+    next.flush();
+
+    // The creation may already have been handed to the stuck implementation
+    List<String> events = recording.events;
+    assertEquals(Arrays.asList("submission", "usage", "fatal", "flush"),
+        events.subList(events.size() - 4, events.size()));
+    assertEquals("spooled", recording.arguments.get(0).getClientId());
+    assertEquals(Duration.ofMinutes(5), recording.usage.getJobTime());
+    assertEquals(2, recording.usage.getSharedBy());
+    assertEquals("java.io.IOException: boom", recording.throwable.toString());
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testFlushedEventsAreNotSpooled() {
+    AsyncMetrics metrics = new AsyncMetrics(new RecordingMetrics(), 10, Duration.ofSeconds(10),
+        Optional.of(folder.getRoot().toPath()));
+
+    metrics.executionResult(arguments, true);
+    assertTrue(metrics.hasUnflushedEvents());
+    metrics.flush();
+
+    assertFalse(metrics.hasUnflushedEvents());
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testUnreadableSpoolIsDiscarded() throws Exception {
+    Path spoolDir = folder.getRoot().toPath();
+    Files.write(spoolDir.resolve(RecordingMetrics.class.getName() + "-1-broken.json"),
+        "not json".getBytes(StandardCharsets.UTF_8));
+    RecordingMetrics recording = new RecordingMetrics();
+
+    new AsyncMetrics(recording, 10, Duration.ofSeconds(10), Optional.of(spoolDir)).flush();
+
+    assertEquals(Collections.singletonList("flush"), recording.events);
+    assertEquals(0, folder.getRoot().list().length);
+  }
+
+  static class RecordingMetrics extends Metrics {
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+    final List<SpydraArgument> arguments = Collections.synchronizedList(new ArrayList<>());
+    volatile ClusterUsage usage;
+    volatile Throwable throwable;
+    private final CountDownLatch release;
+
+    RecordingMetrics() {
+      this(new CountDownLatch(0));
+    }
+
+    RecordingMetrics(CountDownLatch release) {
+      super("user");
+      this.release = release;
+    }
+
+    List<String> threads() {
+      return new ArrayList<>(new LinkedHashSet<>(threadNames));
+    }
+
+    private void record(String event, SpydraArgument arguments) {
+      this.arguments.add(arguments);
+      record(event);
+    }
+
+    private void record(String event) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      threadNames.add(Thread.currentThread().getName());
+      events.add(event);
+    }
+
+    @Override
+    public void clusterCreation(SpydraArgument arguments, String zoneUri, boolean success) {
+      record("creation", arguments);
+    }
+
+    @Override
+    public void clusterDeletion(SpydraArgument arguments, boolean success) {
+      record("deletion", arguments);
+    }
+
+    @Override
+    public void jobSubmission(SpydraArgument arguments, String type, boolean success) {
+      record("submission", arguments);
+    }
+
+    @Override
+    public void clusterUsage(SpydraArgument arguments, ClusterUsage usage) {
+      this.usage = usage;
+      record("usage", arguments);
+    }
+
+    @Override
+    public void fatalError(SpydraArgument argument, Throwable throwable) {
+      this.throwable = throwable;
+      record("fatal", argument);
+    }
+
+    @Override
+    public void executionResult(SpydraArgument argument, boolean success) {
+      record("result", argument);
+    }
+
+    @Override
+    public void flush() {
+      record("flush");
+    }
+  }
+}
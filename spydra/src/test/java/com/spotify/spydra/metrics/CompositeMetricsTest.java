@@ -0,0 +1,90 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.metrics.AsyncMetricsTest.RecordingMetrics;
+import com.spotify.spydra.model.SpydraArgument;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CompositeMetricsTest {
+
+  private final SpydraArgument arguments = new SpydraArgument();
+
+  @Test
+  public void testEmitsToEverySink() {
+    RecordingMetrics first = new RecordingMetrics();
+    RecordingMetrics second = new RecordingMetrics();
+    CompositeMetrics metrics = new CompositeMetrics(Arrays.asList(first, second), 10,
+        Duration.ofSeconds(10));
+
+    metrics.clusterCreation(arguments, "zone", true);
+    metrics.executionResult(arguments, true);
+    metrics.flush();
+
+    assertEquals(Arrays.asList("creation", "result", "flush"), first.events);
+    assertEquals(Arrays.asList("creation", "result", "flush"), second.events);
+  }
+
+  @Test
+  public void testFailingSinkDoesNotAffectOthers() {
+    RecordingMetrics recording = new RecordingMetrics();
+    CompositeMetrics metrics = new CompositeMetrics(Arrays.asList(new FailingMetrics(),
+        recording), 10, Duration.ofSeconds(10));
+
+    metrics.clusterDeletion(arguments, true);
+    metrics.flush();
+
+    assertEquals(Arrays.asList("deletion", "flush"), recording.events);
+  }
+
+  @Test
+  public void testStuckSinksShareFlushTimeout() {
+    RecordingMetrics recording = new RecordingMetrics();
+    CompositeMetrics metrics = new CompositeMetrics(Arrays.asList(
+        new RecordingMetrics(new CountDownLatch(1)),
+        new RecordingMetrics(new CountDownLatch(1)),
+        recording), 10, Duration.ofMillis(500));
+
+    long start = System.nanoTime();
+    metrics.jobSubmission(arguments, "dataproc", true);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    metrics.flush();
+
+    // Both stuck sinks are waited for at the same time rather than one after the other
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    assertEquals(Arrays.asList("submission", "flush"), recording.events);
+  }
+
+  private static class FailingMetrics extends RecordingMetrics {
+
+    @Override
+    public void clusterDeletion(SpydraArgument arguments, boolean success) {
+      throw new IllegalStateException("backend is down");
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.metrics.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.metrics.ProcessUsage;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrometheusMetricsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SpydraArgument arguments = new SpydraArgument();
+
+  public PrometheusMetricsTest() {
+    arguments.setClientId("client");
+  }
+
+  @Test
+  public void testAddsUpSubmissionsInTextfile() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    for (int i = 0; i < 2; i++) {
+      PrometheusMetrics metrics = new PrometheusMetrics("user", Optional.of(directory),
+          Optional.empty());
+      metrics.clusterCreation(arguments, "zone", true);
+      metrics.phaseLatency(arguments, "cluster_create", Duration.ofSeconds(90));
+      metrics.executionResult(arguments, i == 0);
+      metrics.flush();
+      // Flushing again adds nothing
+      metrics.flush();
+    }
+
+    String text = new String(
+        Files.readAllBytes(directory.resolve(PrometheusMetrics.TEXTFILE_NAME)), UTF_8);
+    Map<String, Double> samples = PrometheusRegistry.parse(text);
+    assertEquals(2.0, samples.get(
+        "spydra_cluster_creations_total{client_id=\"client\",success=\"true\"}"), 0);
+    assertEquals(1.0, samples.get(
+        "spydra_executions_total{client_id=\"client\",success=\"false\"}"), 0);
+    assertEquals(0.0, samples.get("spydra_phase_duration_seconds_bucket"
+        + "{client_id=\"client\",phase=\"cluster_create\",le=\"60\"}"), 0);
+    assertEquals(2.0, samples.get("spydra_phase_duration_seconds_bucket"
+        + "{client_id=\"client\",phase=\"cluster_create\",le=\"120\"}"), 0);
+    assertEquals(180.0, samples.get(
+        "spydra_phase_duration_seconds_sum{client_id=\"client\",phase=\"cluster_create\"}"), 0);
+    assertThat(text, containsString("# TYPE spydra_phase_duration_seconds histogram\n"));
+    assertThat(text, containsString("# TYPE spydra_cluster_creations_total counter\n"));
+  }
+
+  @Test
+  public void testServesMetricsOnLoopback() throws IOException {
+    PrometheusMetrics metrics = new PrometheusMetrics("user", Optional.empty(), Optional.of(0));
+    metrics.processUsage(arguments, new ProcessUsage("clusters.list", 3, 1,
+        Duration.ofSeconds(6), Optional.empty(), 2048));
+    metrics.fatalError(arguments, new IOException("failure"));
+
+    assertTrue(metrics.httpPort().isPresent());
+    URL url = new URL("http://127.0.0.1:" + metrics.httpPort().get() + "/metrics");
+    String text;
+    try (InputStream in = url.openStream()) {
+      text = IOUtils.toString(in, UTF_8);
+    }
+    assertThat(text, containsString(
+        "spydra_process_invocations_total{client_id=\"client\",kind=\"clusters.list\"} 3\n"));
+    assertThat(text, containsString(
+        "spydra_process_output_bytes_total{client_id=\"client\",kind=\"clusters.list\"} 2048\n"));
+    assertThat(text, containsString(
+        "spydra_fatal_errors_total{client_id=\"client\",exception=\"IOException\"} 1\n"));
+  }
+
+  @Test
+  public void testEscapesLabelValues() {
+    PrometheusRegistry registry = new PrometheusRegistry();
+    registry.counter("errors_total", "Errors.", "message").inc("a \"quoted\"\nvalue");
+
+    String text = registry.format(registry.samples());
+    assertThat(text, containsString("errors_total{message=\"a \\\"quoted\\\"\\nvalue\"} 1\n"));
+    assertEquals(registry.samples(), PrometheusRegistry.parse(text));
+  }
+}
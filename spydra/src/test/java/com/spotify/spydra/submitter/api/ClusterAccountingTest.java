@@ -0,0 +1,147 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.metrics.ClusterUsage;
+import com.spotify.spydra.model.SpydraArgument;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ClusterAccountingTest {
+
+  private final MutableClock clock = new MutableClock();
+  private final SpydraArgument arguments = new SpydraArgument();
+
+  @Test
+  public void testChargesOwnedClusterAsAWhole() {
+    ClusterAccounting accounting = new ClusterAccounting(clock);
+    clock.advance(Duration.ofSeconds(90));
+    accounting.clusterAcquired(cluster(2, "n1-standard-4", 4, "n1-highmem-8"), false);
+    accounting.jobStarted();
+    clock.advance(Duration.ofMinutes(30));
+    accounting.jobFinished();
+    clock.advance(Duration.ofSeconds(30));
+
+    ClusterUsage usage = accounting.usage(arguments).get();
+    assertFalse(usage.isPooled());
+    assertEquals(40, usage.getVcpus());
+    assertEquals(Duration.ofMinutes(32), usage.getClusterTime());
+    assertEquals(Duration.ofMinutes(30), usage.getJobTime());
+    assertEquals(Duration.ofMinutes(2), usage.getIdleTime());
+    assertEquals(Duration.ofMinutes(32), usage.getAttributedTime());
+    assertEquals(40 * 32 / 60.0, usage.getVcpuHours(), 0.001);
+  }
+
+  @Test
+  public void testDividesPooledClusterBetweenRunningJobs() {
+    ClusterAccounting accounting = new ClusterAccounting(clock);
+    clock.advance(Duration.ofSeconds(10));
+    Cluster cluster = cluster(1, "n1-standard-4", 2, "n1-standard-4");
+    cluster.metrics.yarnMetrics =
+        Collections.singletonMap(Cluster.Metrics.YARN_APPS_RUNNING, "3");
+    accounting.clusterAcquired(cluster, true);
+    accounting.jobStarted();
+    clock.advance(Duration.ofHours(1));
+    accounting.jobFinished();
+    clock.advance(Duration.ofSeconds(10));
+
+    ClusterUsage usage = accounting.usage(arguments).get();
+    assertEquals(4, usage.getSharedBy());
+    assertEquals(Duration.ofHours(1), usage.getClusterTime());
+    assertEquals(Duration.ZERO, usage.getIdleTime());
+    assertEquals(Duration.ofMinutes(15), usage.getAttributedTime());
+    assertEquals(3.0, usage.getVcpuHours(), 0.001);
+  }
+
+  @Test
+  public void testNothingIsChargedWithoutCluster() {
+    ClusterAccounting accounting = new ClusterAccounting(clock);
+    accounting.jobStarted();
+    accounting.jobFinished();
+
+    assertFalse(accounting.usage(arguments).isPresent());
+  }
+
+  @Test
+  public void testFallsBackToClusterOptions() {
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MASTER_MACHINE_TYPE,
+        "n1-standard-2");
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_WORKER_MACHINE_TYPE,
+        "custom-6-23040");
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_NUM_WORKERS, "3");
+
+    assertEquals(20, ClusterAccounting.vcpus(new Cluster(), arguments));
+  }
+
+  @Test
+  public void testReadsVcpusFromMachineType() {
+    assertEquals(4, ClusterAccounting.vcpus("n1-standard-4"));
+    assertEquals(16, ClusterAccounting.vcpus(
+        "https://www.googleapis.com/compute/v1/projects/p/zones/z/machineTypes/e2-highmem-16"));
+    assertEquals(8, ClusterAccounting.vcpus("n2-custom-8-30720"));
+    assertEquals(0, ClusterAccounting.vcpus("f1-micro"));
+    assertEquals(0, ClusterAccounting.vcpus(null));
+  }
+
+  private static Cluster cluster(int masters, String masterType, int workers,
+                                 String workerType) {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = "spydra-1";
+    cluster.config.masterConfig.numInstances = masters;
+    cluster.config.masterConfig.machineTypeUri = masterType;
+    cluster.config.workerConfig.numInstances = workers;
+    cluster.config.workerConfig.machineTypeUri = workerType;
+    return cluster;
+  }
+
+  private static class MutableClock extends Clock {
+
+    private Instant now = Instant.parse("2018-03-01T10:00:00Z");
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
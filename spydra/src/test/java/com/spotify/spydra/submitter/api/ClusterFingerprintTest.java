@@ -0,0 +1,76 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.spydra.model.SpydraArgument;
+import org.junit.Test;
+
+public class ClusterFingerprintTest {
+
+  @Test
+  public void testIgnoresOptionOrder() {
+    SpydraArgument first = arguments();
+    first.getCluster().getOptions().put(SpydraArgument.OPTION_INIT_ACTIONS, "gs://a,gs://b");
+    SpydraArgument second = arguments();
+    second.getCluster().getOptions().put(SpydraArgument.OPTION_INIT_ACTIONS, "gs://b, gs://a");
+
+    assertThat(ClusterFingerprint.of(first), is(ClusterFingerprint.of(second)));
+  }
+
+  @Test
+  public void testIgnoresPerInvocationValues() {
+    SpydraArgument first = arguments();
+    first.getCluster().getOptions().put(SpydraArgument.OPTION_PROPERTIES,
+        "mapred:mapreduce.jobhistory.intermediate-done-dir=gs://bucket/uuid-1,core:foo=bar");
+    first.getCluster().getOptions().put(SpydraArgument.OPTION_LABELS, "spydra-cluster=1");
+    SpydraArgument second = arguments();
+    second.getCluster().getOptions().put(SpydraArgument.OPTION_PROPERTIES,
+        "core:foo=bar,mapred:mapreduce.jobhistory.intermediate-done-dir=gs://bucket/uuid-2");
+
+    assertThat(ClusterFingerprint.of(first), is(ClusterFingerprint.of(second)));
+  }
+
+  @Test
+  public void testDiffersOnClusterConfiguration() {
+    SpydraArgument first = arguments();
+    SpydraArgument second = arguments();
+    second.getCluster().numWorkers(10);
+
+    assertThat(ClusterFingerprint.of(first), is(not(ClusterFingerprint.of(second))));
+  }
+
+  @Test
+  public void testFitsInLabelValue() {
+    assertThat(ClusterFingerprint.of(arguments()).length(), is(32));
+  }
+
+  private static SpydraArgument arguments() {
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setRegion("europe-west1");
+    arguments.getCluster().project("project");
+    arguments.getCluster().numWorkers(2);
+    return arguments;
+  }
+}
@@ -0,0 +1,114 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.model.ClusterType;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.SpydraArgumentUtil;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import org.junit.Test;
+
+public class ClusterHeartbeatTest {
+
+  private static final Clock CLOCK =
+      Clock.fixed(Instant.parse("2018-03-01T10:15:30.500Z"), ZoneOffset.UTC);
+
+  private final DataprocApi dataprocApi = mock(DataprocApi.class);
+  private final SpydraArgument arguments = new SpydraArgument();
+
+  @Test
+  public void testUpdatesLabelAndExpiration() {
+    ClusterHeartbeat heartbeat = new ClusterHeartbeat(
+        dataprocApi, arguments, Duration.ofMinutes(1), Duration.ofMinutes(15), CLOCK);
+
+    Map<String, String> updates = heartbeat.updates();
+
+    assertEquals("spydra-heartbeat=1519899330",
+        updates.get(ClusterHeartbeat.OPTION_UPDATE_LABELS));
+    assertEquals("2018-03-01T10:30:30Z", updates.get(ClusterHeartbeat.OPTION_EXPIRATION_TIME));
+  }
+
+  @Test
+  public void testOnlyUpdatesLabelWithoutTimeout() {
+    ClusterHeartbeat heartbeat = new ClusterHeartbeat(
+        dataprocApi, arguments, Duration.ofMinutes(1), null, CLOCK);
+
+    assertFalse(heartbeat.updates().containsKey(ClusterHeartbeat.OPTION_EXPIRATION_TIME));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsZeroInterval() {
+    checkArguments(Duration.ZERO, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsZeroIntervalWithTimeout() {
+    checkArguments(Duration.ZERO, Duration.ofMinutes(15));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNegativeInterval() {
+    checkArguments(Duration.ofMinutes(-1), Duration.ofMinutes(15));
+  }
+
+  @Test
+  public void testAcceptsIntervalWithinTimeout() {
+    checkArguments(Duration.ofMinutes(1), Duration.ofMinutes(15));
+  }
+
+  @Test
+  public void testBeatUpdatesCluster() throws Exception {
+    ClusterHeartbeat heartbeat = new ClusterHeartbeat(
+        dataprocApi, arguments, Duration.ofMinutes(1), Duration.ofMinutes(15), CLOCK);
+    when(dataprocApi.updateCluster(arguments, heartbeat.updates())).thenReturn(true);
+
+    heartbeat.beat();
+
+    verify(dataprocApi).updateCluster(arguments, heartbeat.updates());
+  }
+
+  private static void checkArguments(Duration interval, Duration timeout) {
+    SpydraArgument.Heartbeat heartbeat = new SpydraArgument.Heartbeat();
+    heartbeat.setInterval(interval);
+    if (timeout != null) {
+      heartbeat.setTimeout(timeout);
+    }
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setHeartbeat(heartbeat);
+    arguments.setMetricClass("com.spotify.spydra.metrics.impl.LoggingMetrics");
+    arguments.setClusterType(ClusterType.DATAPROC);
+    arguments.setJobType(SpydraArgument.JOB_TYPE_HADOOP);
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_CLUSTER, "cluster");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_PROJECT, "project");
+    SpydraArgumentUtil.checkRequiredArguments(arguments, false, true);
+  }
+}
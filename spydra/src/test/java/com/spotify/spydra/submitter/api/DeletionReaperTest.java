@@ -0,0 +1,238 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.hamcrest.CustomTypeSafeMatcher;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeletionReaperTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DataprocApi dataprocApi;
+  private DeletionQueue queue;
+  private SpydraArgument arguments;
+
+  @Before
+  public void setUp() throws Exception {
+    dataprocApi = mock(DataprocApi.class);
+    queue = new DeletionQueue(folder.getRoot().toPath());
+    arguments = new SpydraArgument();
+    arguments.setClientId("client");
+    arguments.setRegion("europe-west1");
+    arguments.getCluster().project("project");
+    arguments.getCluster().setName("spydra-1");
+  }
+
+  @Test
+  public void testDeletesQueuedClusters() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+    queue.enqueue(request("spydra-other"));
+
+    assertTrue(reaper(false).delete(arguments));
+
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-1")));
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-other")));
+    assertTrue(queue.list().isEmpty());
+  }
+
+  @Test
+  public void testCoalescesDeletionsOfSameCluster() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+    queue.enqueue(request("spydra-1"));
+    queue.enqueue(request("spydra-1"));
+
+    assertEquals(1, queue.list().size());
+    reaper(false).reap(arguments);
+
+    verify(dataprocApi, times(1)).deleteCluster(any(SpydraArgument.class));
+  }
+
+  @Test
+  public void testRetriesFailedDeletion() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(false, true);
+
+    reaper(false).delete(arguments);
+
+    verify(dataprocApi, times(2)).deleteCluster(argThat(cluster("spydra-1")));
+    assertTrue(queue.list().isEmpty());
+  }
+
+  @Test
+  public void testKeepsDeletionThatKeepsFailing() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(false);
+
+    assertFalse(reaper(false).delete(arguments));
+
+    verify(dataprocApi, times(DeletionReaper.MAX_ATTEMPTS)).deleteCluster(
+        any(SpydraArgument.class));
+    assertEquals(1, queue.list().size());
+  }
+
+  @Test
+  public void testDropsDeletionThatReapersKeepGivingUp() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(false);
+
+    assertFalse(reaper(false).delete(arguments));
+    for (int reap = 2; reap <= DeletionReaper.MAX_FAILED_REAPS; reap++) {
+      assertEquals(reap - 1, queue.list().get(DeletionQueue.key(request("spydra-1"))).failedReaps);
+      assertTrue(reaper(false).reap(arguments));
+    }
+
+    assertTrue(queue.list().isEmpty());
+    assertFalse(reaper(false).reap(arguments));
+    verify(dataprocApi, times(DeletionReaper.MAX_ATTEMPTS * DeletionReaper.MAX_FAILED_REAPS))
+        .deleteCluster(any(SpydraArgument.class));
+  }
+
+  @Test
+  public void testOnlyDeletesClustersOfOwnAccount() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_ACCOUNT, "me@example.com");
+    DeletionQueue.Request other = request("spydra-other");
+    other.account = "other@example.com";
+    queue.enqueue(other);
+
+    assertTrue(reaper(false).delete(arguments));
+
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-1")));
+    verify(dataprocApi, never()).deleteCluster(argThat(cluster("spydra-other")));
+    assertEquals(Collections.singleton(DeletionQueue.key(other)), queue.list().keySet());
+  }
+
+  @Test
+  public void testReconcilesErrorClusters() throws Exception {
+    Cluster errorCluster = new Cluster();
+    errorCluster.clusterName = "spydra-error";
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(errorCluster));
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+
+    reaper(true).delete(arguments);
+
+    verify(dataprocApi).listClusters(eq(arguments), argThat(ownErrorClusters()));
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-1")));
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-error")));
+  }
+
+  @Test
+  public void testOnlyReconcilesClustersOfKnownClient() throws Exception {
+    arguments.clientId = Optional.empty();
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+
+    reaper(true).delete(arguments);
+
+    verify(dataprocApi, never()).listClusters(any(SpydraArgument.class), any(ClusterQuery.class));
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-1")));
+  }
+
+  @Test
+  public void testReconciliationIsOptIn() {
+    assertFalse(new SpydraArgument.DeletionReaper().isReconcileErrorClusters());
+  }
+
+  @Test
+  public void testWaitsForRunningReaper() throws Exception {
+    when(dataprocApi.deleteCluster(any(SpydraArgument.class))).thenReturn(true);
+    CompletableFuture<Boolean> deleted;
+    try (FileChannel channel = FileChannel.open(queue.lockFile(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock ignored = channel.lock()) {
+      deleted = CompletableFuture.supplyAsync(() -> {
+        try {
+          return reaper(false).delete(arguments);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      Thread.sleep(100);
+      assertFalse(deleted.isDone());
+      verify(dataprocApi, never()).deleteCluster(any(SpydraArgument.class));
+    }
+
+    // Reaped by the waiting client once the running reaper is done
+    assertTrue(deleted.get());
+    verify(dataprocApi).deleteCluster(argThat(cluster("spydra-1")));
+    assertTrue(queue.list().isEmpty());
+  }
+
+  private DeletionReaper reaper(boolean reconcile) {
+    return new DeletionReaper(dataprocApi, queue, 2, 1000.0, reconcile, Duration.ofMillis(1));
+  }
+
+  private static DeletionQueue.Request request(String clusterName) {
+    DeletionQueue.Request request = new DeletionQueue.Request();
+    request.project = "project";
+    request.region = "europe-west1";
+    request.clusterName = clusterName;
+    return request;
+  }
+
+  private static Matcher<ClusterQuery> ownErrorClusters() {
+    return new CustomTypeSafeMatcher<ClusterQuery>("query of the client's ERROR clusters") {
+      @Override
+      protected boolean matchesSafely(ClusterQuery item) {
+        return item.filter().contains("labels." + DynamicSubmitter.SPYDRA_CLIENTID_LABEL
+            + " = client") && item.filter().contains("status.state = ERROR");
+      }
+    };
+  }
+
+  private static Matcher<SpydraArgument> cluster(String clusterName) {
+    return new CustomTypeSafeMatcher<SpydraArgument>("arguments of cluster " + clusterName) {
+      @Override
+      protected boolean matchesSafely(SpydraArgument item) {
+        return clusterName.equals(item.getCluster().getName())
+            && "project".equals(item.getCluster().getOptions().get(SpydraArgument.OPTION_PROJECT));
+      }
+    };
+  }
+}
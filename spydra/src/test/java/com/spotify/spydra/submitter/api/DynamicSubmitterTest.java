@@ -19,23 +19,33 @@
  */
 package com.spotify.spydra.submitter.api;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.spotify.spydra.api.DataprocApi;
 import com.spotify.spydra.api.model.Cluster;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.submitter.executor.JobStateStore;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Created by TwN on 2017-04-20.
@@ -44,6 +54,9 @@ public class DynamicSubmitterTest {
 
   private static final String spydraClusterName = "spydra-uuid";
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   DynamicSubmitter dynamicSubmitter;
   DataprocApi dataprocApi;
   SpydraArgument arguments;
@@ -75,6 +88,30 @@ public class DynamicSubmitterTest {
     verify(dataprocApi).deleteCluster(arguments);
   }
 
+  @Test
+  public void doNotRunDetachedSubmissionRunningElsewhere() throws Exception {
+    SpydraArgument.DetachedSubmit detachedSubmit = new SpydraArgument.DetachedSubmit();
+    detachedSubmit.setStateDir(folder.getRoot().getPath());
+    arguments.setDetachedSubmit(detachedSubmit);
+    arguments.setClientId(clientId);
+    JobStateStore store = JobStateStore.forArguments(arguments);
+
+    CompletableFuture<JobStateStore.Lock> other = CompletableFuture.supplyAsync(() -> {
+      try {
+        return store.tryLock(JobStateStore.key(arguments)).get();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    try (JobStateStore.Lock ignored = other.get()) {
+      assertFalse(new DynamicSubmitter(dataprocApi, mock(GcpUtils.class)).executeJob(arguments));
+    }
+
+    // Neither a cluster of its own nor releasing the one of the running submission
+    verify(dataprocApi, never()).createCluster(any(SpydraArgument.class));
+    verify(dataprocApi, never()).deleteCluster(any(SpydraArgument.class));
+  }
+
   private static Cluster perfectCluster() {
     Cluster cluster = new Cluster();
     cluster.clusterName = spydraClusterName;
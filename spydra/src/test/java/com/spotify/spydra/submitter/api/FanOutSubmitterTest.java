@@ -0,0 +1,155 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.spotify.spydra.model.ClusterType;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.SpydraArgumentUtil;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class FanOutSubmitterTest {
+
+  @Test
+  public void testDatePartitions() {
+    SpydraArgument.FanOut fanOut = new SpydraArgument.FanOut();
+    fanOut.setStart(LocalDate.parse("2018-01-30"));
+    fanOut.setEnd(LocalDate.parse("2018-02-03"));
+    fanOut.setStep(Period.ofDays(2));
+
+    assertEquals(Arrays.asList("2018-01-30", "2018-02-01"), FanOutSubmitter.partitions(fanOut));
+  }
+
+  @Test
+  public void testShardIsIndependentCopy() {
+    SpydraArgument arguments = arguments(Arrays.asList("a", "b"), 1);
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_PROPERTIES,
+        "mapred:mapreduce.jobhistory.intermediate-done-dir=gs://bucket/uuid,core:foo=bar");
+    arguments.setDryRun(true);
+
+    SpydraArgument shard = FanOutSubmitter.shard(arguments, 1, "b");
+
+    assertEquals(Collections.singletonList("--date=b"), shard.getSubmit().getJobArgs());
+    assertEquals(
+        "mapred:mapreduce.jobhistory.intermediate-done-dir=gs://bucket/uuid/shard-1,core:foo=bar",
+        shard.getCluster().getOptions().get(SpydraArgument.OPTION_PROPERTIES));
+    assertTrue(shard.isDryRun());
+    assertFalse(shard.isFanOutEnabled());
+    assertEquals(Collections.singletonList("--date=${PARTITION}"),
+        arguments.getSubmit().getJobArgs());
+  }
+
+  @Test
+  public void testConcurrencyIsBoundedAndStatusAggregated() {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    ConcurrentHashMap<String, Boolean> submitted = new ConcurrentHashMap<>();
+    Submitter shardSubmitter = new Submitter() {
+      @Override
+      public boolean executeJob(SpydraArgument shard) {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        String jobArg = shard.getSubmit().getJobArgs().get(0);
+        submitted.put(jobArg, true);
+        return !jobArg.equals("--date=c");
+      }
+    };
+    FanOutSubmitter submitter =
+        new FanOutSubmitter(shard -> shardSubmitter, mock(SharedStaging.class));
+
+    boolean success = submitter.executeJob(arguments(Arrays.asList("a", "b", "c", "d", "e"), 2));
+
+    assertFalse(success);
+    assertEquals(5, submitted.size());
+    assertTrue(maxRunning.get() <= 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyPartitions() {
+    checkArguments(arguments(Collections.emptyList(), 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyDateRange() {
+    checkArguments(dateArguments("2018-02-03", "2018-02-03", Period.ofDays(1)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsZeroStep() {
+    checkArguments(dateArguments("2018-01-30", "2018-02-03", Period.ZERO));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNegativeStep() {
+    checkArguments(dateArguments("2018-01-30", "2018-02-03", Period.ofDays(-1)));
+  }
+
+  @Test
+  public void testAcceptsDateRange() {
+    checkArguments(dateArguments("2018-01-30", "2018-02-03", Period.ofDays(1)));
+  }
+
+  private static void checkArguments(SpydraArgument arguments) {
+    arguments.setMetricClass("com.spotify.spydra.metrics.impl.LoggingMetrics");
+    arguments.setClusterType(ClusterType.DATAPROC);
+    arguments.setJobType(SpydraArgument.JOB_TYPE_HADOOP);
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_CLUSTER, "cluster");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_PROJECT, "project");
+    SpydraArgumentUtil.checkRequiredArguments(arguments, false, true);
+  }
+
+  private static SpydraArgument dateArguments(String start, String end, Period step) {
+    SpydraArgument.FanOut fanOut = new SpydraArgument.FanOut();
+    fanOut.setStart(LocalDate.parse(start));
+    fanOut.setEnd(LocalDate.parse(end));
+    fanOut.setStep(step);
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setFanOut(fanOut);
+    arguments.getSubmit().setJobArgs(Collections.singletonList("--date=${PARTITION}"));
+    return arguments;
+  }
+
+  private static SpydraArgument arguments(List<String> partitions, int concurrency) {
+    SpydraArgument.FanOut fanOut = new SpydraArgument.FanOut();
+    fanOut.setPartitions(partitions);
+    fanOut.setConcurrency(concurrency);
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setFanOut(fanOut);
+    arguments.getSubmit().setJobArgs(Collections.singletonList("--date=${PARTITION}"));
+    return arguments;
+  }
+}
@@ -20,7 +20,12 @@
 
 package com.spotify.spydra.submitter.api;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.eq;
@@ -31,17 +36,26 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.spotify.spydra.api.ClusterQuery;
 import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.gcloud.GcloudClusterAlreadyExistsException;
 import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.metrics.ClusterUsage;
 import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.testing.FakeGcp;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
@@ -99,6 +113,16 @@ public class PoolingTest {
       clientId = "my-client-id";
     }
 
+    private void givenClusters(List<Cluster> clusters) throws Exception {
+      when(dataprocApi.listClusters(eq(arguments), anyMapOf(String.class, String.class)))
+          .thenReturn(clusters);
+      when(dataprocApi.findCluster(eq(arguments), any(ClusterQuery.class)))
+          .thenAnswer(invocation -> {
+            ClusterQuery query = (ClusterQuery) invocation.getArguments()[1];
+            return clusters.stream().filter(query::matches).findFirst();
+          });
+    }
+
     @Test
     public void acquirePooledCluster() throws Exception {
       final Duration age = Duration.ofMinutes(30);
@@ -111,8 +135,7 @@ public class PoolingTest {
       arguments.setClientId(clientId);
       arguments.setPooling(pooling);
 
-      when(dataprocApi.listClusters(eq(arguments), anyMapOf(String.class, String.class)))
-          .thenReturn(clusters);
+      givenClusters(clusters);
       when(dataprocApi.createCluster(arguments))
           .thenReturn(Optional.of(perfectCluster(clientId, 0, 1)));
 
@@ -138,8 +161,7 @@ public class PoolingTest {
       arguments.setClientId(clientId);
       arguments.setPooling(pooling);
 
-      when(dataprocApi.listClusters(eq(arguments), anyMapOf(String.class, String.class)))
-          .thenReturn(clusters);
+      givenClusters(clusters);
       when(dataprocApi.createCluster(arguments))
           .thenReturn(Optional.of(perfectCluster(clientId, 0, 3)));
 
@@ -167,8 +189,7 @@ public class PoolingTest {
       when(randomPlacementGenerator.randomPlacement(anyListOf(ClusterPlacement.class)))
           .thenReturn(clusterPlacement);
 
-      when(dataprocApi.listClusters(eq(arguments), anyMapOf(String.class, String.class)))
-          .thenReturn(clusters);
+      givenClusters(clusters);
       when(dataprocApi.createCluster(arguments))
           .thenReturn(Optional.of(perfectCluster(clientId, 1, 1)));
       boolean result = poolingSubmitter.acquireCluster(arguments, dataprocApi);
@@ -176,6 +197,33 @@ public class PoolingTest {
       verify(dataprocApi, times(1)).createCluster(arguments);
     }
 
+    @Test
+    public void failOnClusterBeingDeleted() throws Exception {
+      Cluster deleting = perfectCluster(clientId, 1, 1);
+      deleting.status.state = Cluster.Status.DELETING;
+
+      SpydraArgument.Pooling pooling = new SpydraArgument.Pooling();
+      pooling.setLimit(2);
+      pooling.setMaxAge(Duration.ofMinutes(30));
+      arguments.setPooling(pooling);
+      arguments.setClientId(clientId);
+
+      reset(randomPlacementGenerator);
+      when(randomPlacementGenerator.randomPlacement(anyListOf(ClusterPlacement.class)))
+          .thenReturn(new ClusterPlacementBuilder().clusterNumber(1).clusterGeneration(1).build());
+
+      givenClusters(Collections.singletonList(deleting));
+      when(dataprocApi.createCluster(arguments))
+          .thenThrow(new GcloudClusterAlreadyExistsException("already exists"));
+      try {
+        poolingSubmitter.acquireCluster(arguments, dataprocApi);
+        fail();
+      } catch (IOException e) {
+        assertThat(e.getMessage(), containsString("is being deleted"));
+      }
+      verify(dataprocApi, times(1)).createCluster(arguments);
+    }
+
     @Test
     public void releaseCluster() throws Exception {
       List<Cluster> clusters = Arrays.asList(perfectCluster(clientId, 0, 1),
@@ -217,4 +265,62 @@ public class PoolingTest {
       verify(dataprocApi).deleteCluster(arguments);
     }
   }
+
+  public static class PooledClusterUsageTest {
+
+    private FakeGcp gcp;
+
+    @Before
+    public void setUp() throws Exception {
+      gcp = FakeGcp.start();
+      gcp.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+      gcp.close();
+    }
+
+    @Test
+    public void usageOfFoundClusterCountsWorkersAndRunningApplications() throws Exception {
+      DataprocApi dataprocApi = new DataprocApi();
+      List<Cluster> acquired = new ArrayList<>();
+      PoolingSubmitter submitter = new PoolingSubmitter(() -> NOW, placements -> placements.get(0),
+          dataprocApi, new GcpUtils()) {
+        @Override
+        void clusterAcquired(Cluster cluster, boolean pooled) {
+          acquired.add(cluster);
+        }
+      };
+
+      SpydraArgument creating = pooledArguments();
+      assertTrue(submitter.acquireCluster(creating, dataprocApi));
+      gcp.dataproc().setJobRunTime(Duration.ofMinutes(1));
+      creating.setJobType(SpydraArgument.JOB_TYPE_HADOOP);
+      assertTrue(dataprocApi.submitDetached(creating).isPresent());
+
+      // Found by its placement this time, with the fields of the listing only
+      SpydraArgument finding = pooledArguments();
+      assertTrue(submitter.acquireCluster(finding, dataprocApi));
+      assertEquals(1, gcp.dataproc().createdClusters());
+
+      ClusterAccounting accounting = new ClusterAccounting(Clock.systemUTC());
+      accounting.clusterAcquired(acquired.get(1), true);
+      accounting.jobStarted();
+      accounting.jobFinished();
+      ClusterUsage usage = accounting.usage(finding).get();
+      // A master and two workers with 4 vCPUs each, as the fake creates them by default
+      assertEquals(12, usage.getVcpus());
+      assertEquals(2, usage.getSharedBy());
+    }
+
+    private static SpydraArgument pooledArguments() {
+      SpydraArgument arguments = new SpydraArgument();
+      arguments.setClientId("my-client-id");
+      arguments.setPooling(1, Duration.ofMinutes(30));
+      arguments.setRegion("europe-west1");
+      arguments.getCluster().project("project");
+      return arguments;
+    }
+  }
 }
@@ -0,0 +1,302 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.api;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.metrics.ClusterUsage;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReusingSubmitterTest {
+
+  private static final String CLIENT_ID = "my-client-id";
+  private static final String LOG_BUCKET = "log-bucket";
+
+  private ReusingSubmitter submitter;
+  private DataprocApi dataprocApi;
+  private GcpUtils gcpUtils;
+  private SpydraArgument arguments;
+
+  @Before
+  public void before() throws Exception {
+    dataprocApi = mock(DataprocApi.class);
+    gcpUtils = mock(GcpUtils.class);
+    submitter = new ReusingSubmitter(dataprocApi, gcpUtils);
+    arguments = new SpydraArgument();
+    arguments.setClientId(CLIENT_ID);
+    arguments.setLogBucket(LOG_BUCKET);
+    arguments.setRegion("europe-west1");
+    arguments.getCluster().project("project");
+    arguments.setReuseIdleClusters(true);
+    when(dataprocApi.findCluster(eq(arguments), any(ClusterQuery.class))).thenAnswer(
+        invocation -> Optional.of(
+            idleCluster(((ClusterQuery) invocation.getArguments()[1]).clusterName().get())));
+    when(gcpUtils.blobVersion(anyString(), anyString())).thenReturn(Optional.empty());
+  }
+
+  @Test
+  public void reuseIdleCluster() throws Exception {
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idleCluster("spydra-idle")));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(dataprocApi, never()).createCluster(arguments);
+    assertThat(arguments.getSubmit().getOptions().get(SpydraArgument.OPTION_CLUSTER),
+        is("spydra-idle"));
+  }
+
+  @Test
+  public void skipLeasedCluster() throws Exception {
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Arrays.asList(idleCluster("spydra-leased"), idleCluster("spydra-idle")));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET),
+        eq(ClusterLease.leaseName(arguments, "spydra-leased")), any(byte[].class)))
+        .thenReturn(Optional.empty());
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET),
+        eq(ClusterLease.leaseName(arguments, "spydra-idle")), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(dataprocApi, never()).createCluster(arguments);
+    assertThat(arguments.getSubmit().getOptions().get(SpydraArgument.OPTION_CLUSTER),
+        is("spydra-idle"));
+  }
+
+  @Test
+  public void createClusterWhenNoneIsIdle() throws Exception {
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.emptyList());
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(dataprocApi.createCluster(arguments)).thenReturn(Optional.of(idleCluster("new")));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(dataprocApi, times(1)).createCluster(arguments);
+    assertThat(arguments.getCluster().getOptions().get(SpydraArgument.OPTION_LABELS),
+        containsString(ReusingSubmitter.CONFIG_FINGERPRINT_LABEL + "="));
+  }
+
+  @Test
+  public void accountUsageOfReusedAndCreatedClusters() throws Exception {
+    List<Cluster> acquired = new ArrayList<>();
+    ReusingSubmitter accounted = new ReusingSubmitter(dataprocApi, gcpUtils) {
+      @Override
+      void clusterAcquired(Cluster cluster, boolean pooled) {
+        acquired.add(cluster);
+      }
+    };
+    Cluster idle = idleCluster("spydra-idle");
+    idle.config.workerConfig.numInstances = 2;
+    idle.config.workerConfig.machineTypeUri = "n1-standard-4";
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idle), Collections.emptyList());
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(dataprocApi.createCluster(arguments)).thenReturn(Optional.of(idleCluster("new")));
+
+    assertTrue(accounted.acquireCluster(arguments, dataprocApi));
+    assertTrue(accounted.acquireCluster(arguments, dataprocApi));
+
+    assertEquals(Arrays.asList("spydra-idle", "new"),
+        acquired.stream().map(cluster -> cluster.clusterName).collect(Collectors.toList()));
+    ClusterAccounting accounting = new ClusterAccounting(Clock.systemUTC());
+    accounting.clusterAcquired(acquired.get(0), false);
+    accounting.jobStarted();
+    accounting.jobFinished();
+    ClusterUsage usage = accounting.usage(arguments).get();
+    assertEquals("spydra-idle", usage.getClusterName());
+    assertEquals(8, usage.getVcpus());
+    assertEquals(1, usage.getSharedBy());
+  }
+
+  @Test
+  public void releaseKeepsHealthyCluster() throws Exception {
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idleCluster("spydra-idle")));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+    when(dataprocApi.listClusters(eq(arguments), anyMapOf(String.class, String.class)))
+        .thenReturn(Collections.emptyList());
+    when(gcpUtils.deleteBlobIfUnchanged(anyString(), anyString(), anyLong())).thenReturn(true);
+
+    assertTrue(submitter.releaseCluster(arguments, dataprocApi));
+
+    verify(dataprocApi, never()).deleteCluster(arguments);
+    verify(gcpUtils).deleteBlobIfUnchanged(LOG_BUCKET,
+        ClusterLease.leaseName(arguments, "spydra-idle"), 1L);
+  }
+
+  @Test
+  public void takeOverStaleLease() throws Exception {
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "30m");
+    String leaseName = ClusterLease.leaseName(arguments, "spydra-abandoned");
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idleCluster("spydra-abandoned")));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), eq(leaseName), any(byte[].class)))
+        .thenReturn(Optional.empty());
+    when(gcpUtils.blobVersion(LOG_BUCKET, leaseName)).thenReturn(Optional.of(
+        new GcpUtils.BlobVersion(7, Instant.now().minus(Duration.ofHours(2)))));
+    when(gcpUtils.replaceBlobIfUnchanged(eq(LOG_BUCKET), eq(leaseName), eq(7L),
+        any(byte[].class))).thenReturn(Optional.of(8L));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(dataprocApi, never()).createCluster(arguments);
+    assertThat(arguments.getSubmit().getOptions().get(SpydraArgument.OPTION_CLUSTER),
+        is("spydra-abandoned"));
+  }
+
+  @Test
+  public void keepRecentLease() throws Exception {
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "1h");
+    String leaseName = ClusterLease.leaseName(arguments, "spydra-leased");
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idleCluster("spydra-leased")));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), eq(leaseName), any(byte[].class)))
+        .thenReturn(Optional.empty());
+    when(gcpUtils.blobVersion(LOG_BUCKET, leaseName)).thenReturn(Optional.of(
+        new GcpUtils.BlobVersion(7, Instant.now().minus(Duration.ofMinutes(30)))));
+    when(dataprocApi.createCluster(arguments)).thenReturn(Optional.of(idleCluster("new")));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(gcpUtils, never()).replaceBlobIfUnchanged(anyString(), anyString(), anyLong(),
+        any(byte[].class));
+    verify(dataprocApi).createCluster(arguments);
+  }
+
+  @Test
+  public void renewHeldLease() throws Exception {
+    String leaseName = ClusterLease.leaseName(arguments, "spydra-leased");
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), eq(leaseName), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(gcpUtils.replaceBlobIfUnchanged(eq(LOG_BUCKET), eq(leaseName), eq(1L),
+        any(byte[].class))).thenReturn(Optional.of(2L));
+    when(gcpUtils.deleteBlobIfUnchanged(anyString(), anyString(), anyLong())).thenReturn(true);
+    ClusterLease lease = new ClusterLease(gcpUtils);
+
+    assertTrue(lease.tryAcquire(arguments, "spydra-leased"));
+    assertTrue(lease.renew(arguments, "spydra-leased"));
+    lease.release(arguments, "spydra-leased");
+
+    verify(gcpUtils).deleteBlobIfUnchanged(LOG_BUCKET, leaseName, 2L);
+  }
+
+  @Test
+  public void doNotReleaseLeaseTakenOver() throws Exception {
+    String leaseName = ClusterLease.leaseName(arguments, "spydra-leased");
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), eq(leaseName), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(gcpUtils.replaceBlobIfUnchanged(eq(LOG_BUCKET), eq(leaseName), eq(1L),
+        any(byte[].class))).thenReturn(Optional.empty());
+    ClusterLease lease = new ClusterLease(gcpUtils);
+
+    assertTrue(lease.tryAcquire(arguments, "spydra-leased"));
+    assertFalse(lease.renew(arguments, "spydra-leased"));
+    lease.release(arguments, "spydra-leased");
+
+    verify(gcpUtils, never()).deleteBlobIfUnchanged(anyString(), anyString(), anyLong());
+    verify(gcpUtils, never()).deleteBlob(anyString(), anyString());
+  }
+
+  @Test
+  public void renewalIntervalFollowsMaxIdle() {
+    assertThat(ClusterLease.renewInterval(arguments), is(ClusterLease.DEFAULT_RENEW_INTERVAL));
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "1h");
+    assertThat(ClusterLease.renewInterval(arguments), is(Duration.ofMinutes(15)));
+  }
+
+  @Test
+  public void skipClusterDeletedAfterLeasing() throws Exception {
+    Cluster deleting = idleCluster("spydra-deleting");
+    deleting.status.state = Cluster.Status.DELETING;
+    when(dataprocApi.listClusters(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Collections.singletonList(idleCluster("spydra-deleting")));
+    when(dataprocApi.findCluster(eq(arguments), any(ClusterQuery.class)))
+        .thenReturn(Optional.of(deleting));
+    when(gcpUtils.createBlobIfAbsent(eq(LOG_BUCKET), anyString(), any(byte[].class)))
+        .thenReturn(Optional.of(1L));
+    when(dataprocApi.createCluster(arguments)).thenReturn(Optional.of(idleCluster("new")));
+
+    assertTrue(submitter.acquireCluster(arguments, dataprocApi));
+
+    verify(gcpUtils).deleteBlobIfUnchanged(LOG_BUCKET,
+        ClusterLease.leaseName(arguments, "spydra-deleting"), 1L);
+    verify(dataprocApi).createCluster(arguments);
+  }
+
+  @Test
+  public void parseMaxIdle() {
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "1h30m");
+    assertThat(ClusterLease.maxIdle(arguments), is(Optional.of(Duration.ofMinutes(90))));
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "2d");
+    assertThat(ClusterLease.maxIdle(arguments), is(Optional.of(Duration.ofDays(2))));
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_MAX_IDLE, "soon");
+    assertThat(ClusterLease.maxIdle(arguments), is(Optional.empty()));
+  }
+
+  private static Cluster idleCluster(String name) {
+    Cluster cluster = new Cluster();
+    cluster.clusterName = name;
+    cluster.status = new Cluster.Status();
+    cluster.status.state = Cluster.Status.RUNNING;
+    cluster.config.gceClusterConfig.zoneUri = "europe-west1-b";
+    return cluster;
+  }
+}
@@ -0,0 +1,188 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.stubbing.OngoingStubbing;
+
+public class DetachedDataprocExecutorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private DataprocApi dataprocApi;
+  private DetachedDataprocExecutor executor;
+  private SpydraArgument arguments;
+  private JobStateStore store;
+
+  @Before
+  public void setUp() {
+    dataprocApi = mock(DataprocApi.class);
+    executor = new DetachedDataprocExecutor(dataprocApi, mock(GcpUtils.class));
+
+    SpydraArgument.DetachedSubmit detachedSubmit = new SpydraArgument.DetachedSubmit();
+    detachedSubmit.setStateDir(folder.getRoot().getPath());
+    detachedSubmit.setMinPollInterval(Duration.ofMillis(1));
+    detachedSubmit.setMaxPollInterval(Duration.ofMillis(1));
+    arguments = new SpydraArgument();
+    arguments.setClientId("client");
+    arguments.setRegion("europe-west1");
+    arguments.setDetachedSubmit(detachedSubmit);
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_JAR, "job.jar");
+    arguments.getSubmit().setJobArgs(Collections.singletonList("input"));
+    store = JobStateStore.forArguments(arguments);
+  }
+
+  @Test
+  public void testSubmitAndPollUntilDone() throws Exception {
+    when(dataprocApi.submitDetached(arguments)).thenReturn(Optional.of(job(Job.Status.PENDING)));
+    when(dataprocApi.describeJob(eq(arguments), any(String.class)))
+        .thenReturn(Optional.of(job("RUNNING")), Optional.of(job(Job.Status.DONE)));
+
+    assertTrue(executor.submit(arguments));
+
+    assertFalse(store.load(JobStateStore.key(arguments)).isPresent());
+  }
+
+  @Test
+  public void testResumeDoesNotSubmitAgain() throws Exception {
+    DetachedJobState state = new DetachedJobState();
+    state.key = JobStateStore.key(arguments);
+    state.jobId = "job-1";
+    store.save(state);
+    when(dataprocApi.describeJob(arguments, "job-1"))
+        .thenReturn(Optional.of(job("RUNNING")), Optional.of(job(Job.Status.ERROR)));
+
+    assertFalse(executor.submit(arguments));
+
+    verify(dataprocApi, never()).submitDetached(any(SpydraArgument.class));
+    assertFalse(store.load(state.key).isPresent());
+  }
+
+  @Test
+  public void testFailedSubmitClearsState() throws Exception {
+    when(dataprocApi.submitDetached(arguments)).thenReturn(Optional.empty());
+    when(dataprocApi.describeJob(eq(arguments), any(String.class))).thenReturn(Optional.empty());
+
+    assertFalse(executor.submit(arguments));
+
+    assertFalse(store.load(JobStateStore.key(arguments)).isPresent());
+  }
+
+  @Test
+  public void testGivesUpAfterRepeatedDescribeFailures() throws Exception {
+    when(dataprocApi.submitDetached(arguments)).thenReturn(Optional.of(job(Job.Status.PENDING)));
+    when(dataprocApi.describeJob(eq(arguments), any(String.class)))
+        .thenThrow(new IOException("PERMISSION_DENIED"));
+
+    assertFalse(executor.submit(arguments));
+
+    verify(dataprocApi, times(DetachedDataprocExecutor.MAX_FAILED_DESCRIBES))
+        .describeJob(eq(arguments), any(String.class));
+    // The job may still be running, so the next invocation resumes waiting for it
+    assertTrue(store.load(JobStateStore.key(arguments)).isPresent());
+  }
+
+  @Test
+  public void testDoesNotRunSubmissionRunningElsewhere() throws Exception {
+    CompletableFuture<JobStateStore.Lock> other = CompletableFuture.supplyAsync(() -> {
+      try {
+        return store.tryLock(JobStateStore.key(arguments)).get();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+
+    try (JobStateStore.Lock ignored = other.get()) {
+      assertFalse(executor.submit(arguments));
+    }
+
+    verify(dataprocApi, never()).submitDetached(any(SpydraArgument.class));
+    verify(dataprocApi, never()).describeJob(any(SpydraArgument.class), any(String.class));
+  }
+
+  @Test
+  public void testSuccessfulDescribeResetsFailures() throws Exception {
+    when(dataprocApi.submitDetached(arguments)).thenReturn(Optional.of(job(Job.Status.PENDING)));
+    OngoingStubbing<Optional<Job>> describe =
+        when(dataprocApi.describeJob(eq(arguments), any(String.class)));
+    for (int i = 0; i < DetachedDataprocExecutor.MAX_FAILED_DESCRIBES - 1; i++) {
+      describe = describe.thenReturn(Optional.empty());
+    }
+    describe = describe.thenReturn(Optional.of(job("RUNNING")));
+    for (int i = 0; i < DetachedDataprocExecutor.MAX_FAILED_DESCRIBES - 1; i++) {
+      describe = describe.thenThrow(new IOException("UNAVAILABLE"));
+    }
+    describe.thenReturn(Optional.of(job(Job.Status.DONE)));
+
+    assertTrue(executor.submit(arguments));
+  }
+
+  @Test
+  public void testFailedDescribeOfStoredJobDoesNotSubmitAgain() throws Exception {
+    DetachedJobState state = new DetachedJobState();
+    state.key = JobStateStore.key(arguments);
+    state.jobId = "job-1";
+    store.save(state);
+    when(dataprocApi.describeJob(arguments, "job-1"))
+        .thenThrow(new IOException("UNAVAILABLE"));
+
+    try {
+      executor.submit(arguments);
+      fail();
+    } catch (IOException expected) {
+      // The job may exist, so it is not submitted again
+    }
+
+    verify(dataprocApi, never()).submitDetached(any(SpydraArgument.class));
+    assertTrue(store.load(state.key).isPresent());
+  }
+
+  private static Job job(String state) {
+    Job job = new Job();
+    job.status.state = state;
+    return job;
+  }
+}
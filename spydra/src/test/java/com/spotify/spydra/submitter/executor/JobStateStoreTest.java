@@ -0,0 +1,118 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.submitter.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.model.SpydraArgument;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JobStateStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSaveLoadDelete() throws Exception {
+    JobStateStore store = new JobStateStore(folder.getRoot().toPath().resolve("jobs"));
+    DetachedJobState state = new DetachedJobState();
+    state.key = "client-abc";
+    state.jobId = "job-1";
+    state.clusterName = "spydra-1";
+    state.driverOutputOffset = 42;
+
+    store.save(state);
+    Optional<DetachedJobState> loaded = store.load("client-abc");
+
+    assertTrue(loaded.isPresent());
+    assertEquals("job-1", loaded.get().jobId);
+    assertEquals("spydra-1", loaded.get().clusterName);
+    assertEquals(42, loaded.get().driverOutputOffset);
+
+    store.delete("client-abc");
+    assertFalse(store.load("client-abc").isPresent());
+  }
+
+  @Test
+  public void testLockIsExclusiveBetweenThreads() throws Exception {
+    JobStateStore store = new JobStateStore(folder.getRoot().toPath().resolve("jobs"));
+
+    try (JobStateStore.Lock lock = store.tryLock("client-abc").get()) {
+      // Taken again by the same thread, but not by others
+      store.tryLock("client-abc").get().close();
+      assertFalse(CompletableFuture.supplyAsync(() -> tryLock(store, "client-abc")).get());
+      assertTrue(CompletableFuture.supplyAsync(() -> tryLock(store, "client-def")).get());
+    }
+    assertTrue(CompletableFuture.supplyAsync(() -> tryLock(store, "client-abc")).get());
+  }
+
+  private static boolean tryLock(JobStateStore store, String key) {
+    try {
+      Optional<JobStateStore.Lock> lock = store.tryLock(key);
+      if (lock.isPresent()) {
+        lock.get().close();
+      }
+      return lock.isPresent();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Test
+  public void testKeyIgnoresPerInvocationOptions() {
+    SpydraArgument first = arguments();
+    first.getSubmit().getOptions().put(SpydraArgument.OPTION_CLUSTER, "spydra-1");
+    first.getSubmit().getOptions().put(SpydraArgument.OPTION_PROPERTIES, "dir=gs://b/uuid-1");
+    SpydraArgument second = arguments();
+    second.getSubmit().getOptions().put(SpydraArgument.OPTION_CLUSTER, "spydra-2");
+    second.getSubmit().getOptions().put(SpydraArgument.OPTION_PROPERTIES, "dir=gs://b/uuid-2");
+
+    assertEquals(JobStateStore.key(first), JobStateStore.key(second));
+    assertTrue(JobStateStore.key(first).startsWith("client-"));
+  }
+
+  @Test
+  public void testKeyDependsOnJobArgs() {
+    SpydraArgument first = arguments();
+    SpydraArgument second = arguments();
+    second.getSubmit().setJobArgs(Collections.singletonList("other"));
+
+    assertNotEquals(JobStateStore.key(first), JobStateStore.key(second));
+  }
+
+  private static SpydraArgument arguments() {
+    SpydraArgument arguments = new SpydraArgument();
+    arguments.setClientId("client");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_JAR, "job.jar");
+    arguments.getSubmit().setJobArgs(Collections.singletonList("input"));
+    return arguments;
+  }
+}
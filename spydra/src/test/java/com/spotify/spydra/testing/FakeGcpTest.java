@@ -0,0 +1,170 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.DataprocApi;
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.testing.FakeGcloud.CallerActivity;
+import com.spotify.spydra.util.GcpUtils;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeGcpTest {
+
+  private static final String CLUSTER = "spydra-fake";
+  private static final String HISTORY_DIR = "history/client/uuid/done_intermediate";
+
+  private FakeGcp gcp;
+  private SpydraArgument arguments;
+
+  @Before
+  public void setUp() throws Exception {
+    gcp = FakeGcp.start();
+    gcp.install();
+
+    arguments = new SpydraArgument();
+    arguments.setRegion("europe-west1");
+    arguments.setJobType("hadoop");
+    arguments.getCluster().setName(CLUSTER);
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_PROJECT, "project");
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_LABELS, "spydra-cluster=1");
+    arguments.getCluster().getOptions().put(SpydraArgument.OPTION_PROPERTIES,
+        "mapred:mapreduce.jobhistory.intermediate-done-dir=gs://logs/" + HISTORY_DIR);
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_PROJECT, "project");
+    arguments.getSubmit().getOptions().put(SpydraArgument.OPTION_CLUSTER, CLUSTER);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    gcp.close();
+  }
+
+  @Test
+  public void testCreatesListsAndDeletesClusters() throws Exception {
+    DataprocApi dataprocApi = new DataprocApi();
+
+    Optional<Cluster> created = dataprocApi.createCluster(arguments);
+    assertTrue(created.isPresent());
+    assertEquals(Cluster.Status.RUNNING, created.get().status.state);
+    assertEquals("europe-west1-b", created.get().config.gceClusterConfig.zoneUri);
+
+    Optional<Cluster> found = dataprocApi.findCluster(arguments,
+        ClusterQuery.builder().label("spydra-cluster", "1").states("RUNNING", "ERROR").build());
+    assertTrue(found.isPresent());
+    assertEquals(CLUSTER, found.get().clusterName);
+
+    assertTrue(dataprocApi.updateCluster(arguments,
+        Collections.singletonMap("update-labels", "spydra-heartbeat=1")));
+    assertEquals("1", dataprocApi.findCluster(arguments,
+        ClusterQuery.builder().clusterName(CLUSTER).build()).get().labels.get("spydra-heartbeat"));
+
+    assertTrue(dataprocApi.deleteCluster(arguments));
+    assertTrue(gcp.dataproc().clusters().isEmpty());
+    assertEquals(1, gcp.dataproc().peakClusters());
+    // A cluster that is already gone counts as deleted
+    assertTrue(dataprocApi.deleteCluster(arguments));
+  }
+
+  @Test
+  public void testRunsJobsAndMovesHistory() throws Exception {
+    DataprocApi dataprocApi = new DataprocApi();
+    assertTrue(dataprocApi.createCluster(arguments).isPresent());
+
+    assertTrue(dataprocApi.submit(arguments));
+
+    Optional<Job> job = dataprocApi.submitDetached(arguments);
+    assertTrue(job.isPresent());
+    assertEquals(Job.Status.DONE,
+        dataprocApi.describeJob(arguments, job.get().reference.jobId).get().status.state);
+    assertFalse(dataprocApi.describeJob(arguments, "unknown-job").isPresent());
+
+    for (int i = 0; i < 100 && gcp.storage().list("logs", HISTORY_DIR + "/").size() < 5; i++) {
+      Thread.sleep(50);
+    }
+    // The directory and a history and configuration file for each of the two jobs
+    assertEquals(5, gcp.storage().list("logs", HISTORY_DIR + "/").size());
+  }
+
+  @Test
+  public void testAttributesCallsToCallers() throws Exception {
+    System.setProperty(GcloudExecutor.GCLOUD_COMMAND_PROPERTY,
+        gcp.gcloud().command("client-1").toString());
+    DataprocApi dataprocApi = new DataprocApi();
+    assertTrue(dataprocApi.createCluster(arguments).isPresent());
+    assertTrue(dataprocApi.submit(arguments));
+
+    CallerActivity activity = gcp.gcloud().callers().get("client-1");
+    assertEquals(gcp.dataproc().calls().values().stream().mapToInt(Integer::intValue).sum(),
+        activity.calls);
+    assertTrue(activity.firstJobSubmission.isPresent());
+    assertEquals(1, gcp.dataproc().createdClusters());
+  }
+
+  @Test
+  public void testFailsInjectedJobFailures() throws Exception {
+    DataprocApi dataprocApi = new DataprocApi();
+    assertTrue(dataprocApi.createCluster(arguments).isPresent());
+    gcp.dataproc().failNextJobs(1);
+
+    assertFalse(dataprocApi.submit(arguments));
+    assertTrue(dataprocApi.submit(arguments));
+  }
+
+  @Test
+  public void testRetriesInjectedTransientFailures() throws Exception {
+    gcp.dataproc().failNext("clusters.list", 1, FakeDataproc.UNAVAILABLE);
+
+    assertTrue(new DataprocApi().listClusters(arguments, ClusterQuery.builder().build())
+        .isEmpty());
+    assertEquals(2, gcp.dataproc().calls("clusters.list"));
+  }
+
+  @Test
+  public void testRejectsClustersBeyondQuota() throws Exception {
+    gcp.dataproc().setMaxClusters(0);
+
+    assertFalse(new DataprocApi().createCluster(arguments).isPresent());
+    assertTrue(gcp.dataproc().clusters().isEmpty());
+  }
+
+  @Test
+  public void testDeletesBlobs() throws Exception {
+    GcpUtils gcpUtils = new GcpUtils();
+    gcpUtils.configureStorageFromEnvironment();
+    gcp.storage().put("bucket", "staging/job.jar", "jar".getBytes(UTF_8));
+
+    assertTrue(gcpUtils.deleteBlob("bucket", "staging/job.jar"));
+    assertFalse(gcpUtils.deleteBlob("bucket", "staging/job.jar"));
+    assertTrue(gcp.storage().list("bucket", "staging/").isEmpty());
+  }
+}
@@ -0,0 +1,34 @@
+#!/usr/bin/env bash
+#
+# Measures the startup time of the spydra CLI as the time from JVM start to the first gcloud call,
+# using a dry-run submission that does not talk to GCP.
+#
+# Usage: benchmark.sh [iterations] [shared archive]
+#
+# Build the archive with `mvn package -P appcds` (requires JDK 10 or later) and pass
+# target/spydra.jsa as the second argument to compare startup with class-data sharing.
+
+set -euo pipefail
+
+DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+ITERATIONS="${1:-10}"
+ARCHIVE="${2:-}"
+JAR="$(ls "${DIR}"/../target/spydra-*-jar-with-dependencies.jar | head -n 1)"
+
+JAVA_OPTS=(-Dspydra.startup.trace=true)
+if [ -n "${ARCHIVE}" ]; then
+  JAVA_OPTS+=(-XX:SharedArchiveFile="${ARCHIVE}" -Xshare:auto)
+fi
+
+total=0
+for i in $(seq "${ITERATIONS}"); do
+  start=$(date +%s%N)
+  output=$(java "${JAVA_OPTS[@]}" -jar "${JAR}" submit \
+    --spydra-json="${DIR}/appcds-training.json" 2>&1)
+  end=$(date +%s%N)
+  first_call=$(echo "${output}" | sed -n 's/.*Time to first gcloud call: \([0-9]*\) ms.*/\1/p')
+  wall=$(( (end - start) / 1000000 ))
+  total=$(( total + ${first_call:-0} ))
+  echo "run ${i}: first gcloud call after ${first_call:-?} ms, exit after ${wall} ms"
+done
+echo "mean time to first gcloud call: $(( total / ITERATIONS )) ms"
@@ -0,0 +1,666 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.testing;
+
+import static com.spotify.spydra.model.SpydraArgument.OPTION_LABELS;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_MASTER_MACHINE_TYPE;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_METADATA;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_NUM_WORKERS;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_PROPERTIES;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_WORKER_MACHINE_TYPE;
+import static com.spotify.spydra.model.SpydraArgument.OPTION_ZONE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.model.Cluster;
+import com.spotify.spydra.api.model.Job;
+import com.spotify.spydra.api.model.Operation;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process stand-in for Dataproc, holding clusters, their creation operations and jobs.
+ * It is driven through {@link FakeGcloud}.
+ *
+ * <p>Clusters take {@link #setClusterCreateTime(Duration)} to come up and
+ * {@link #setClusterDeleteTime(Duration)} to go away, and jobs run for
+ * {@link #setJobRunTime(Duration)}. When a {@link FakeStorage} is given, every cluster gets the
+ * intermediate history directory of its properties, and the history files of a job appear in it
+ * {@link #setHistoryDelay(Duration)} after the job finished.
+ *
+ * <p>Calls fail the way Dataproc fails them when a quota is exhausted, and any call can be made
+ * to fail with {@link #failNext(String, int, String)}. Calls are named like the process usage
+ * of Spydra names them, e.g. clusters.create or jobs.describe.
+ */
+public class FakeDataproc implements AutoCloseable {
+
+  public static final String UNAVAILABLE = "UNAVAILABLE: The service is currently unavailable.";
+  public static final String RATE_LIMITED = "RESOURCE_EXHAUSTED: Quota exceeded for quota metric "
+      + "'Read requests' and limit 'Read requests per minute' of service "
+      + "'dataproc.googleapis.com'.";
+
+  /**
+   * The bucket that driver output is written to.
+   */
+  public static final String STAGING_BUCKET = "fake-dataproc-staging";
+
+  private static final String INTERMEDIATE_DONE_DIR_PROPERTY =
+      "mapred:mapreduce.jobhistory.intermediate-done-dir";
+
+  /**
+   * A failed call, with the message gcloud prints for it.
+   */
+  static class CallFailure extends Exception {
+
+    CallFailure(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A submitted job, as far as gcloud reports it.
+   */
+  static class JobHandle {
+
+    final String id;
+    final Instant finishes;
+    final boolean failing;
+    final String json;
+
+    JobHandle(String id, Instant finishes, boolean failing, String json) {
+      this.id = id;
+      this.finishes = finishes;
+      this.failing = failing;
+      this.json = json;
+    }
+  }
+
+  private static class ClusterState {
+
+    final String name;
+    final String uuid = UUID.randomUUID().toString();
+    final String project;
+    final String region;
+    final String operation;
+    final Map<String, String> options;
+    final Map<String, String> labels;
+    final Instant created = Instant.now();
+    final boolean failing;
+    Instant deleted;
+    int runningJobs;
+
+    ClusterState(String name, String project, String region, Map<String, String> options,
+                 boolean failing) {
+      this.name = name;
+      this.project = project;
+      this.region = region;
+      this.operation = String.format("projects/%s/regions/%s/operations/%s",
+          project, region, UUID.randomUUID());
+      this.options = options;
+      this.labels = new TreeMap<>(keyValues(options.getOrDefault(OPTION_LABELS, "")));
+      this.failing = failing;
+    }
+  }
+
+  private static class JobState {
+
+    final String id;
+    final String project;
+    final ClusterState cluster;
+    final Instant submitted = Instant.now();
+    final Instant finishes;
+    final boolean failing;
+
+    JobState(String id, String project, ClusterState cluster, Duration runTime,
+             boolean failing) {
+      this.id = id;
+      this.project = project;
+      this.cluster = cluster;
+      this.finishes = submitted.plus(runTime);
+      this.failing = failing;
+    }
+
+    String state(Instant now) {
+      if (now.isBefore(finishes)) {
+        return "RUNNING";
+      }
+      return failing ? Job.Status.ERROR : Job.Status.DONE;
+    }
+  }
+
+  private final Optional<FakeStorage> storage;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-dataproc-%d").build());
+
+  // All guarded by this
+  private final Map<String, ClusterState> clusters = new LinkedHashMap<>();
+  private final Map<String, ClusterState> operations = new HashMap<>();
+  private final Map<String, JobState> jobs = new HashMap<>();
+  private final Map<String, Deque<String>> failures = new HashMap<>();
+  private final Map<String, Integer> calls = new TreeMap<>();
+  private final Deque<Instant> recentCalls = new ArrayDeque<>();
+  private int failingClusters;
+  private int failingJobs;
+  private int createdClusters;
+  private int peakClusters;
+
+  private volatile Duration callLatency = Duration.ZERO;
+  private volatile Duration clusterCreateTime = Duration.ZERO;
+  private volatile Duration clusterDeleteTime = Duration.ZERO;
+  private volatile Duration jobRunTime = Duration.ZERO;
+  private volatile Duration historyDelay = Duration.ZERO;
+  private volatile int maxClusters = Integer.MAX_VALUE;
+  private volatile int maxCallsPerMinute = Integer.MAX_VALUE;
+
+  public FakeDataproc() {
+    this(Optional.empty());
+  }
+
+  public FakeDataproc(Optional<FakeStorage> storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * How long every call takes before it is answered, as gcloud and the API add up to a second.
+   */
+  public void setCallLatency(Duration callLatency) {
+    this.callLatency = callLatency;
+  }
+
+  public void setClusterCreateTime(Duration clusterCreateTime) {
+    this.clusterCreateTime = clusterCreateTime;
+  }
+
+  public void setClusterDeleteTime(Duration clusterDeleteTime) {
+    this.clusterDeleteTime = clusterDeleteTime;
+  }
+
+  public void setJobRunTime(Duration jobRunTime) {
+    this.jobRunTime = jobRunTime;
+  }
+
+  public void setHistoryDelay(Duration historyDelay) {
+    this.historyDelay = historyDelay;
+  }
+
+  /**
+   * Fails cluster creations with an insufficient quota error while this many clusters exist.
+   */
+  public void setMaxClusters(int maxClusters) {
+    this.maxClusters = maxClusters;
+  }
+
+  /**
+   * Rejects calls as rate limited once this many were made within the last minute.
+   */
+  public void setMaxCallsPerMinute(int maxCallsPerMinute) {
+    this.maxCallsPerMinute = maxCallsPerMinute;
+  }
+
+  /**
+   * Fails the next calls of a kind, e.g. clusters.create, with an error such as
+   * {@link #UNAVAILABLE} or {@link #RATE_LIMITED}.
+   */
+  public synchronized void failNext(String kind, int times, String error) {
+    Deque<String> queue = failures.computeIfAbsent(kind, ignored -> new ArrayDeque<>());
+    for (int i = 0; i < times; i++) {
+      queue.add(error);
+    }
+  }
+
+  /**
+   * Makes the next cluster creations fail once they are done, leaving the clusters in ERROR.
+   */
+  public synchronized void failNextClusters(int times) {
+    failingClusters += times;
+  }
+
+  /**
+   * Makes the next jobs fail once they are done.
+   */
+  public synchronized void failNextJobs(int times) {
+    failingJobs += times;
+  }
+
+  /**
+   * The number of calls of a kind made so far, including failed ones.
+   */
+  public synchronized int calls(String kind) {
+    return calls.getOrDefault(kind, 0);
+  }
+
+  /**
+   * The number of calls made so far by kind.
+   */
+  public synchronized Map<String, Integer> calls() {
+    return new TreeMap<>(calls);
+  }
+
+  /**
+   * The clusters that exist now, as gcloud would list them.
+   */
+  public synchronized List<Cluster> clusters() {
+    Instant now = Instant.now();
+    List<Cluster> existing = new ArrayList<>();
+    for (ClusterState cluster : liveClusters(now)) {
+      existing.add(model(cluster, now));
+    }
+    return existing;
+  }
+
+  /**
+   * The number of clusters whose creation was accepted so far.
+   */
+  public synchronized int createdClusters() {
+    return createdClusters;
+  }
+
+  /**
+   * The largest number of clusters that existed at the same time.
+   */
+  public synchronized int peakClusters() {
+    return peakClusters;
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Accounts for a call before it is made, failing it if it is rate limited or was told to fail.
+   */
+  void call(String kind) throws CallFailure, InterruptedException {
+    if (!callLatency.isZero()) {
+      Thread.sleep(callLatency.toMillis());
+    }
+    synchronized (this) {
+      calls.merge(kind, 1, Integer::sum);
+      Instant now = Instant.now();
+      while (!recentCalls.isEmpty() && recentCalls.peek().isBefore(now.minusSeconds(60))) {
+        recentCalls.poll();
+      }
+      if (recentCalls.size() >= maxCallsPerMinute) {
+        throw new CallFailure(RATE_LIMITED);
+      }
+      recentCalls.add(now);
+      Deque<String> injected = failures.get(kind);
+      if (injected != null && !injected.isEmpty()) {
+        throw new CallFailure(injected.poll());
+      }
+    }
+  }
+
+  synchronized String createCluster(String project, String region, String name,
+                                    Map<String, String> options) throws CallFailure {
+    Instant now = Instant.now();
+    List<ClusterState> live = liveClusters(now);
+    if (live.stream().anyMatch(cluster -> cluster.name.equals(name))) {
+      throw new CallFailure(String.format("ALREADY_EXISTS: Already exists: Failed to create "
+          + "cluster: Cluster projects/%s/regions/%s/clusters/%s", project, region, name));
+    }
+    if (live.size() >= maxClusters) {
+      throw new CallFailure(String.format("INVALID_ARGUMENT: Insufficient 'CPUS' quota. "
+          + "%d of %d clusters are in use.", live.size(), maxClusters));
+    }
+    boolean failing = failingClusters > 0;
+    if (failing) {
+      failingClusters--;
+    }
+    ClusterState cluster = new ClusterState(name, project, region, options, failing);
+    clusters.put(name, cluster);
+    operations.put(cluster.operation, cluster);
+    createdClusters++;
+    peakClusters = Math.max(peakClusters, live.size() + 1);
+    if (!failing) {
+      scheduler.schedule(() -> createHistoryDirectory(cluster),
+          clusterCreateTime.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    return operation(cluster, now).toString();
+  }
+
+  synchronized String describeOperation(String name) throws CallFailure {
+    ClusterState cluster = operations.get(name);
+    if (cluster == null) {
+      throw new CallFailure("NOT_FOUND: Operation not found: " + name);
+    }
+    return operation(cluster, Instant.now()).toString();
+  }
+
+  synchronized void cancelOperation(String name) throws CallFailure {
+    ClusterState cluster = operations.get(name);
+    if (cluster == null) {
+      throw new CallFailure("NOT_FOUND: Operation not found: " + name);
+    }
+    if (cluster.deleted == null) {
+      cluster.deleted = Instant.now();
+    }
+  }
+
+  synchronized void deleteCluster(String name) throws CallFailure {
+    Instant now = Instant.now();
+    ClusterState cluster = liveCluster(name, now);
+    if (cluster.deleted != null) {
+      throw new CallFailure(String.format("FAILED_PRECONDITION: Cannot delete cluster '%s' "
+          + "while it has other pending delete operations.", name));
+    }
+    cluster.deleted = now;
+  }
+
+  synchronized void updateCluster(String name, Map<String, String> options) throws CallFailure {
+    ClusterState cluster = liveCluster(name, Instant.now());
+    cluster.labels.putAll(keyValues(options.getOrDefault("update-labels", "")));
+    for (String label : options.getOrDefault("remove-labels", "").split(",")) {
+      cluster.labels.remove(label);
+    }
+  }
+
+  synchronized String listClusters(ClusterQuery query) {
+    Instant now = Instant.now();
+    ArrayNode listing = JsonNodeFactory.instance.arrayNode();
+    for (ClusterState cluster : liveClusters(now)) {
+      if (listing.size() >= query.limit().orElse(Integer.MAX_VALUE)) {
+        break;
+      }
+      if (query.matches(model(cluster, now))) {
+        listing.add(project(clusterJson(cluster, now), query.fields()));
+      }
+    }
+    return listing.toString();
+  }
+
+  /**
+   * Keeps only the given fields of a description, e.g. config.masterConfig.numInstances, or all
+   * of them if none are given.
+   */
+  private static ObjectNode project(ObjectNode json, List<String> fields) {
+    if (fields.isEmpty()) {
+      return json;
+    }
+    ObjectNode projection = JsonNodeFactory.instance.objectNode();
+    for (String field : fields) {
+      String[] path = field.split("\\.");
+      JsonNode value = json.at("/" + String.join("/", path));
+      if (value.isMissingNode()) {
+        continue;
+      }
+      ObjectNode target = projection;
+      for (int i = 0; i < path.length - 1; i++) {
+        target = target.has(path[i]) ? (ObjectNode) target.get(path[i]) : target.putObject(path[i]);
+      }
+      target.set(path[path.length - 1], value);
+    }
+    return projection;
+  }
+
+  /**
+   * Starts a job on a running cluster, returning when it finishes.
+   */
+  synchronized JobHandle submitJob(String project, String clusterName, Optional<String> jobId)
+      throws CallFailure {
+    Instant now = Instant.now();
+    ClusterState cluster = liveCluster(clusterName, now);
+    if (!state(cluster, now).equals(Cluster.Status.RUNNING)) {
+      throw new CallFailure(String.format("FAILED_PRECONDITION: Cluster '%s' is in state %s "
+          + "and cannot accept jobs.", clusterName, state(cluster, now)));
+    }
+    String id = jobId.orElseGet(() -> UUID.randomUUID().toString().replace("-", ""));
+    if (jobs.containsKey(id)) {
+      throw new CallFailure("ALREADY_EXISTS: Already exists: Job " + id);
+    }
+    boolean failing = failingJobs > 0;
+    if (failing) {
+      failingJobs--;
+    }
+    JobState job = new JobState(id, project, cluster, jobRunTime, failing);
+    jobs.put(id, job);
+    cluster.runningJobs++;
+    scheduler.schedule(() -> finishJob(job), jobRunTime.toMillis(), TimeUnit.MILLISECONDS);
+    return new JobHandle(id, job.finishes, failing, jobJson(job, now).toString());
+  }
+
+  synchronized String describeJob(String id) throws CallFailure {
+    JobState job = jobs.get(id);
+    if (job == null) {
+      throw new CallFailure("NOT_FOUND: Not found: Job " + id);
+    }
+    return jobJson(job, Instant.now()).toString();
+  }
+
+  private ClusterState liveCluster(String name, Instant now) throws CallFailure {
+    ClusterState cluster = clusters.get(name);
+    if (cluster == null || isGone(cluster, now)) {
+      throw new CallFailure("NOT_FOUND: Not found: Cluster " + name);
+    }
+    return cluster;
+  }
+
+  private List<ClusterState> liveClusters(Instant now) {
+    List<ClusterState> live = new ArrayList<>();
+    for (ClusterState cluster : clusters.values()) {
+      if (!isGone(cluster, now)) {
+        live.add(cluster);
+      }
+    }
+    return live;
+  }
+
+  private boolean isGone(ClusterState cluster, Instant now) {
+    return cluster.deleted != null && !now.isBefore(cluster.deleted.plus(clusterDeleteTime));
+  }
+
+  private boolean isCreated(ClusterState cluster, Instant now) {
+    return !now.isBefore(cluster.created.plus(clusterCreateTime));
+  }
+
+  private String state(ClusterState cluster, Instant now) {
+    if (cluster.deleted != null) {
+      return Cluster.Status.DELETING;
+    }
+    if (!isCreated(cluster, now)) {
+      return Cluster.Status.CREATING;
+    }
+    return cluster.failing ? Cluster.Status.ERROR : Cluster.Status.RUNNING;
+  }
+
+  private Instant stateStartTime(ClusterState cluster, Instant now) {
+    if (cluster.deleted != null) {
+      return cluster.deleted;
+    }
+    return isCreated(cluster, now) ? cluster.created.plus(clusterCreateTime) : cluster.created;
+  }
+
+  private Cluster model(ClusterState cluster, Instant now) {
+    Cluster model = new Cluster();
+    model.clusterName = cluster.name;
+    model.labels = new TreeMap<>(cluster.labels);
+    model.status = new Cluster.Status();
+    model.status.state = state(cluster, now);
+    model.status.stateStartTime = stateStartTime(cluster, now).atZone(ZoneOffset.UTC);
+    return model;
+  }
+
+  private ObjectNode operation(ClusterState cluster, Instant now) {
+    boolean cancelled = cluster.deleted != null && cluster.deleted.isBefore(
+        cluster.created.plus(clusterCreateTime));
+    boolean done = cancelled || isCreated(cluster, now);
+    ObjectNode operation = JsonNodeFactory.instance.objectNode()
+        .put("name", cluster.operation)
+        .put("done", done);
+    ObjectNode metadata = operation.putObject("metadata")
+        .put("clusterName", cluster.name)
+        .put("clusterUuid", cluster.uuid)
+        .put("operationType", "CREATE")
+        .put("description", "Create cluster with 2 workers");
+    metadata.putObject("status")
+        .put("state", done ? Operation.Metadata.Status.DONE : Operation.Metadata.Status.RUNNING)
+        .put("innerState", done ? "DONE" : "RUNNING")
+        .put("stateStartTime", (done ? now : cluster.created).toString());
+    if (cancelled) {
+      operation.putObject("error").put("code", 1).put("message", "Operation cancelled");
+    } else if (done && cluster.failing) {
+      operation.putObject("error").put("code", 13)
+          .put("message", "Initialization action failed. Failed action "
+              + "'gs://fake/init.sh', see output in: gs://fake/init-output");
+    } else if (done) {
+      operation.set("response", clusterJson(cluster, now));
+    }
+    return operation;
+  }
+
+  private ObjectNode clusterJson(ClusterState cluster, Instant now) {
+    ObjectNode json = JsonNodeFactory.instance.objectNode()
+        .put("clusterName", cluster.name)
+        .put("clusterUuid", cluster.uuid)
+        .put("projectId", cluster.project);
+    ObjectNode config = json.putObject("config").put("configBucket", STAGING_BUCKET);
+    ObjectNode gceClusterConfig = config.putObject("gceClusterConfig")
+        .put("zoneUri", cluster.options.getOrDefault(OPTION_ZONE, cluster.region + "-b"));
+    ObjectNode metadata = gceClusterConfig.putObject("metadata");
+    keyValues(cluster.options.getOrDefault(OPTION_METADATA, "")).forEach(metadata::put);
+    ObjectNode masterConfig = config.putObject("masterConfig")
+        .put("numInstances", 1)
+        .put("machineTypeUri", cluster.options.getOrDefault(
+            OPTION_MASTER_MACHINE_TYPE, "n1-standard-4"));
+    masterConfig.putArray("instanceNames").add(cluster.name + "-m");
+    config.putObject("workerConfig")
+        .put("numInstances",
+            Integer.parseInt(cluster.options.getOrDefault(OPTION_NUM_WORKERS, "2")))
+        .put("machineTypeUri", cluster.options.getOrDefault(
+            OPTION_WORKER_MACHINE_TYPE, "n1-standard-4"));
+    ObjectNode properties = config.putObject("softwareConfig").putObject("properties");
+    properties(cluster).forEach(properties::put);
+    ObjectNode labels = json.putObject("labels");
+    cluster.labels.forEach(labels::put);
+    json.putObject("metrics").putObject("yarnMetrics")
+        .put(Cluster.Metrics.YARN_APPS_RUNNING, Integer.toString(cluster.runningJobs));
+    json.putObject("status")
+        .put("state", state(cluster, now))
+        .put("stateStartTime", stateStartTime(cluster, now).toString());
+    return json;
+  }
+
+  private ObjectNode jobJson(JobState job, Instant now) {
+    ObjectNode json = JsonNodeFactory.instance.objectNode();
+    json.putObject("reference")
+        .put("projectId", job.project)
+        .put("jobId", job.id);
+    json.putObject("placement")
+        .put("clusterName", job.cluster.name)
+        .put("clusterUuid", job.cluster.uuid);
+    String state = job.state(now);
+    ObjectNode status = json.putObject("status")
+        .put("state", state)
+        .put("stateStartTime", (now.isBefore(job.finishes) ? job.submitted : job.finishes)
+            .toString());
+    if (state.equals(Job.Status.ERROR)) {
+      status.put("details", "Job failed with message [Injected failure]");
+    }
+    json.put("driverOutputResourceUri", "gs://" + STAGING_BUCKET + "/"
+        + driverOutputPrefix(job));
+    return json;
+  }
+
+  private static String driverOutputPrefix(JobState job) {
+    return String.format("google-cloud-dataproc-metainfo/%s/jobs/%s/driveroutput",
+        job.cluster.uuid, job.id);
+  }
+
+  private void finishJob(JobState job) {
+    synchronized (this) {
+      job.cluster.runningJobs--;
+    }
+    storage.ifPresent(storage -> {
+      storage.put(STAGING_BUCKET, driverOutputPrefix(job) + ".000000000", String.format(
+          "Running job %s on cluster %s%n", job.id, job.cluster.name).getBytes(UTF_8));
+      scheduler.schedule(() -> moveHistory(job), historyDelay.toMillis(), TimeUnit.MILLISECONDS);
+    });
+  }
+
+  private void createHistoryDirectory(ClusterState cluster) {
+    storage.ifPresent(storage -> historyDirectory(cluster).ifPresent(directory ->
+        storage.put(directory.getHost(), path(directory) + "/", new byte[0])));
+  }
+
+  private void moveHistory(JobState job) {
+    storage.ifPresent(storage -> historyDirectory(job.cluster).ifPresent(directory -> {
+      String prefix = String.format("%s/root/job_%d_%04d", path(directory),
+          job.cluster.created.toEpochMilli(), Math.abs(job.id.hashCode()) % 10000);
+      storage.put(directory.getHost(), prefix + ".jhist", new byte[0]);
+      storage.put(directory.getHost(), prefix + "_conf.xml", new byte[0]);
+    }));
+  }
+
+  private static Optional<URI> historyDirectory(ClusterState cluster) {
+    return Optional.ofNullable(properties(cluster).get(INTERMEDIATE_DONE_DIR_PROPERTY))
+        .map(URI::create)
+        .filter(uri -> uri.getHost() != null);
+  }
+
+  private static String path(URI directory) {
+    String path = directory.getPath();
+    return path.startsWith("/") ? path.substring(1) : path;
+  }
+
+  private static Map<String, String> properties(ClusterState cluster) {
+    return keyValues(cluster.options.getOrDefault(OPTION_PROPERTIES, ""));
+  }
+
+  /**
+   * Parses a gcloud key value list such as a=1,b=2.
+   */
+  static Map<String, String> keyValues(String list) {
+    if (list.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String entry : list.split(",")) {
+      int separator = entry.indexOf('=');
+      if (separator < 0) {
+        values.put(entry, "");
+      } else {
+        values.put(entry.substring(0, separator), entry.substring(separator + 1));
+      }
+    }
+    return values;
+  }
+}
@@ -0,0 +1,371 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.testing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.api.ClusterQuery;
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.model.SpydraArgument;
+import com.spotify.spydra.testing.FakeDataproc.CallFailure;
+import com.spotify.spydra.testing.FakeDataproc.JobHandle;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fake gcloud executable answering the dataproc commands Spydra runs from a
+ * {@link FakeDataproc}, so that whole submissions can run without a GCP project.
+ *
+ * <p>The executable is a bash script that hands its arguments over a loopback connection to
+ * this object and prints what it answers, so calls cost a process start like with gcloud, but
+ * none of its Python start up. Set {@link GcloudExecutor#GCLOUD_COMMAND_PROPERTY} to
+ * {@link #command()} to use it.
+ */
+public class FakeGcloud implements AutoCloseable {
+
+  /**
+   * The environment variable naming the caller that calls are attributed to, see
+   * {@link #callers()}.
+   */
+  public static final String CALLER_VARIABLE = "SPYDRA_FAKE_CALLER";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FakeGcloud.class);
+
+  private static final int EXIT_FAILURE = 1;
+  private static final int EXIT_USAGE = 2;
+  // Load tests can have many calls waiting for their jobs at once
+  private static final int BACKLOG = 1024;
+
+  // Sends the caller, the argument count and the NUL terminated arguments, then prints the
+  // answer after its first line, which holds the exit code, to standard error if the call failed
+  private static final String SCRIPT = "#!/usr/bin/env bash\n"
+      + "exec 3<>/dev/tcp/127.0.0.1/%d || exit 2\n"
+      + "{ printf '%%s\\n%%d\\n' \"${" + CALLER_VARIABLE + ":-}\" \"$#\";\n"
+      + "  [ \"$#\" -eq 0 ] || printf '%%s\\0' \"$@\"; } >&3\n"
+      + "IFS= read -r code <&3\n"
+      + "code=\"${code:-2}\"\n"
+      + "if [ \"$code\" -eq 0 ]; then cat <&3; else cat <&3 >&2; fi\n"
+      + "exit \"$code\"\n";
+
+  private static final String CALLER_SCRIPT = "#!/usr/bin/env bash\n"
+      + "export " + CALLER_VARIABLE + "=%s\n"
+      + "exec %s \"$@\"\n";
+
+  /**
+   * The calls of one caller.
+   */
+  public static class CallerActivity {
+
+    public final int calls;
+    public final Instant firstCall;
+    public final Optional<Instant> firstJobSubmission;
+
+    CallerActivity(int calls, Instant firstCall, Optional<Instant> firstJobSubmission) {
+      this.calls = calls;
+      this.firstCall = firstCall;
+      this.firstJobSubmission = firstJobSubmission;
+    }
+
+    CallerActivity record(String kind, Instant now) {
+      return new CallerActivity(calls + 1, firstCall,
+          firstJobSubmission.isPresent() || !kind.equals("jobs.submit")
+              ? firstJobSubmission
+              : Optional.of(now));
+    }
+  }
+
+  /**
+   * The exit code and output of a call.
+   */
+  static class Result {
+
+    final int exitCode;
+    final String output;
+
+    Result(int exitCode, String output) {
+      this.exitCode = exitCode;
+      this.output = output;
+    }
+  }
+
+  private final FakeDataproc dataproc;
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final Path directory;
+  private final Path command;
+  private final Map<String, CallerActivity> callers = new ConcurrentHashMap<>();
+
+  private FakeGcloud(FakeDataproc dataproc, ServerSocket serverSocket) throws IOException {
+    this.dataproc = dataproc;
+    this.serverSocket = serverSocket;
+    this.executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-gcloud-%d").build());
+    this.directory = Files.createTempDirectory("fake-gcloud");
+    this.command = directory.resolve("gcloud");
+    Files.write(command, String.format(SCRIPT, serverSocket.getLocalPort()).getBytes(UTF_8));
+    Files.setPosixFilePermissions(command, PosixFilePermissions.fromString("rwx------"));
+    executor.execute(this::serve);
+  }
+
+  /**
+   * Writes the executable and starts answering its calls from the given Dataproc.
+   */
+  public static FakeGcloud start(FakeDataproc dataproc) throws IOException {
+    return new FakeGcloud(dataproc,
+        new ServerSocket(0, BACKLOG, InetAddress.getByName("127.0.0.1")));
+  }
+
+  /**
+   * The path of the executable, named gcloud.
+   */
+  public Path command() {
+    return command;
+  }
+
+  /**
+   * Writes an executable whose calls are attributed to the given caller, for callers that
+   * share an environment, such as threads of one JVM. Others can set {@link #CALLER_VARIABLE}.
+   *
+   * @param caller letters, digits, dashes, dots and underscores
+   */
+  public synchronized Path command(String caller) throws IOException {
+    if (!caller.matches("[\\w.-]+")) {
+      throw new IllegalArgumentException("Invalid caller: " + caller);
+    }
+    Path callerCommand = directory.resolve(caller).resolve("gcloud");
+    if (!Files.exists(callerCommand)) {
+      Files.createDirectories(callerCommand.getParent());
+      Files.write(callerCommand, String.format(CALLER_SCRIPT, caller, command).getBytes(UTF_8));
+      Files.setPosixFilePermissions(callerCommand, PosixFilePermissions.fromString("rwx------"));
+    }
+    return callerCommand;
+  }
+
+  /**
+   * What each caller called so far. Calls without a caller are attributed to the empty one.
+   */
+  public Map<String, CallerActivity> callers() {
+    return new TreeMap<>(callers);
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    executor.shutdownNow();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private void serve() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        executor.execute(() -> answer(socket));
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          LOGGER.warn("Failed to accept a fake gcloud call", e);
+        }
+      }
+    }
+  }
+
+  private void answer(Socket socket) {
+    try (Socket ignored = socket;
+         InputStream in = new BufferedInputStream(socket.getInputStream());
+         OutputStream out = socket.getOutputStream()) {
+      String caller = readUntil(in, '\n');
+      Result result = run(caller, readArguments(in));
+      out.write((result.exitCode + "\n" + result.output).getBytes(UTF_8));
+    } catch (IOException e) {
+      LOGGER.warn("Failed to answer a fake gcloud call", e);
+    }
+  }
+
+  private static List<String> readArguments(InputStream in) throws IOException {
+    int count = Integer.parseInt(readUntil(in, '\n'));
+    List<String> arguments = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      arguments.add(readUntil(in, '\0'));
+    }
+    return arguments;
+  }
+
+  private static String readUntil(InputStream in, char terminator) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int read;
+    while ((read = in.read()) != terminator) {
+      if (read < 0) {
+        throw new IOException("Fake gcloud call ended early");
+      }
+      bytes.write(read);
+    }
+    return new String(bytes.toByteArray(), UTF_8);
+  }
+
+  /**
+   * Runs a gcloud command line, without the executable.
+   */
+  Result run(String caller, List<String> arguments) {
+    List<String> words = new ArrayList<>();
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 0; i < arguments.size(); i++) {
+      String argument = arguments.get(i);
+      if (argument.equals("--")) {
+        // Job arguments, which the fake jobs do not look at
+        break;
+      } else if (argument.equals("--account") && i + 1 < arguments.size()) {
+        options.put("account", arguments.get(++i));
+      } else if (argument.startsWith("--")) {
+        int separator = argument.indexOf('=');
+        if (separator < 0) {
+          options.put(argument.substring(2), "");
+        } else {
+          options.put(argument.substring(2, separator), argument.substring(separator + 1));
+        }
+      } else if (!argument.equals("alpha") && !argument.equals("beta")) {
+        words.add(argument);
+      }
+    }
+
+    if (words.size() < 3 || !words.get(0).equals("dataproc")) {
+      return new Result(EXIT_USAGE, "ERROR: (gcloud) Invalid choice: " + words + "\n");
+    }
+    String kind = words.get(1) + "." + words.get(2);
+    String name = words.size() > 3 ? words.get(3) : "";
+    String project = options.getOrDefault(SpydraArgument.OPTION_PROJECT, FakeGcp.PROJECT);
+    String region = options.getOrDefault(SpydraArgument.OPTION_REGION, "global");
+    Instant now = Instant.now();
+    callers.merge(caller, new CallerActivity(1, now, kind.equals("jobs.submit")
+        ? Optional.of(now)
+        : Optional.empty()), (previous, ignored) -> previous.record(kind, now));
+    try {
+      dataproc.call(kind);
+      switch (kind) {
+        case "clusters.create":
+          return success(dataproc.createCluster(project, region, name, options));
+        case "clusters.delete":
+          dataproc.deleteCluster(name);
+          return success("");
+        case "clusters.update":
+          dataproc.updateCluster(name, options);
+          return success("");
+        case "clusters.list":
+          return success(dataproc.listClusters(query(options)));
+        case "operations.describe":
+          return success(dataproc.describeOperation(name));
+        case "operations.cancel":
+          dataproc.cancelOperation(name);
+          return success("");
+        case "jobs.submit":
+          return submit(project, options);
+        case "jobs.describe":
+          return success(dataproc.describeJob(name));
+        default:
+          return new Result(EXIT_USAGE, "ERROR: (gcloud.dataproc) Invalid choice: " + kind + "\n");
+      }
+    } catch (CallFailure e) {
+      return new Result(EXIT_FAILURE, String.format("ERROR: (gcloud.dataproc.%s) %s%n",
+          kind, e.getMessage()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Result(EXIT_FAILURE, "ERROR: (gcloud) Interrupted\n");
+    }
+  }
+
+  private Result submit(String project, Map<String, String> options)
+      throws CallFailure, InterruptedException {
+    JobHandle job = dataproc.submitJob(project,
+        options.getOrDefault(SpydraArgument.OPTION_CLUSTER, ""),
+        Optional.ofNullable(options.get(SpydraArgument.OPTION_JOB_ID)));
+    if (options.containsKey("async")) {
+      return success(job.json);
+    }
+    // Like gcloud, wait for the job and report how it went
+    Duration remaining = Duration.between(Instant.now(), job.finishes);
+    if (!remaining.isNegative()) {
+      Thread.sleep(remaining.toMillis());
+    }
+    String submitted = String.format("Job [%s] submitted.%nWaiting for job output...%n", job.id);
+    if (job.failing) {
+      return new Result(EXIT_FAILURE, submitted + String.format(
+          "ERROR: (gcloud.dataproc.jobs.submit) Job [%s] failed with error:%nInjected failure%n",
+          job.id));
+    }
+    return success(submitted + String.format("Job [%s] finished successfully.%n", job.id));
+  }
+
+  private static Result success(String output) {
+    return new Result(0, output.isEmpty() || output.endsWith("\n") ? output : output + "\n");
+  }
+
+  /**
+   * Reads the query back from the filter and limit options gcloud was given.
+   */
+  private static ClusterQuery query(Map<String, String> options) {
+    ClusterQuery.Builder query = ClusterQuery.builder();
+    String filter = options.getOrDefault(SpydraArgument.OPTIONS_FILTER, "");
+    for (String term : filter.split(" AND ")) {
+      // Alternatives, such as of states, are written as (status.state = A OR status.state = B)
+      for (String alternative : term.replaceAll("^\\(|\\)$", "").split(" OR ")) {
+        String[] keyValue = alternative.split(" = ", 2);
+        if (keyValue.length == 2) {
+          query.filter(keyValue[0].trim(), keyValue[1].trim());
+        }
+      }
+    }
+    Optional.ofNullable(options.get("limit")).map(Integer::valueOf).ifPresent(query::limit);
+    // Like gcloud, only the fields projected by --format=json(...) are printed
+    String format = options.getOrDefault("format", "json");
+    query.fields(format.startsWith("json(") && format.endsWith(")")
+        ? format.substring("json(".length(), format.length() - 1).split(",")
+        : new String[0]);
+    return query.build();
+  }
+}
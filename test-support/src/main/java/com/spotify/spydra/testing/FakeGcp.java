@@ -0,0 +1,128 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.testing;
+
+import com.spotify.spydra.api.gcloud.GcloudExecutor;
+import com.spotify.spydra.util.GcpUtils;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Fakes of gcloud, Dataproc and Cloud Storage standing in for a GCP project, to run whole
+ * submissions offline, e.g. to measure the overhead Spydra adds to a submission, races between
+ * pooled submissions or the wait for job history.
+ *
+ * <p>{@link #install()} points Spydra in this JVM at the fakes through system properties, which
+ * {@link #close()} restores. Spydra processes started separately are pointed at them with
+ * {@link #jvmArguments()}. Latencies, quotas and failures are set on {@link #dataproc()} and
+ * {@link #storage()}.
+ */
+public class FakeGcp implements AutoCloseable {
+
+  /**
+   * The project of calls that do not name one, and of Cloud Storage.
+   */
+  public static final String PROJECT = "fake-project";
+
+  // Read by the storage client and the application default credentials for the project
+  private static final String PROJECT_PROPERTY = "GOOGLE_CLOUD_PROJECT";
+
+  private final FakeStorage storage;
+  private final FakeDataproc dataproc;
+  private final FakeGcloud gcloud;
+  private final Map<String, Optional<String>> replaced = new LinkedHashMap<>();
+
+  private FakeGcp(FakeStorage storage, FakeDataproc dataproc, FakeGcloud gcloud) {
+    this.storage = storage;
+    this.dataproc = dataproc;
+    this.gcloud = gcloud;
+  }
+
+  public static FakeGcp start() throws IOException {
+    FakeStorage storage = FakeStorage.start();
+    FakeDataproc dataproc = new FakeDataproc(Optional.of(storage));
+    return new FakeGcp(storage, dataproc, FakeGcloud.start(dataproc));
+  }
+
+  public FakeStorage storage() {
+    return storage;
+  }
+
+  public FakeDataproc dataproc() {
+    return dataproc;
+  }
+
+  public FakeGcloud gcloud() {
+    return gcloud;
+  }
+
+  /**
+   * The system properties pointing Spydra at the fakes.
+   */
+  public Map<String, String> systemProperties() {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put(GcloudExecutor.GCLOUD_COMMAND_PROPERTY, gcloud.command().toString());
+    properties.put(GcpUtils.STORAGE_ENDPOINT_PROPERTY, storage.endpoint());
+    properties.put(PROJECT_PROPERTY, PROJECT);
+    return properties;
+  }
+
+  /**
+   * The JVM arguments pointing a separately started Spydra at the fakes.
+   */
+  public List<String> jvmArguments() {
+    return systemProperties().entrySet().stream()
+        .map(property -> "-D" + property.getKey() + "=" + property.getValue())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Points Spydra in this JVM at the fakes. Only Dataproc APIs created afterwards use them.
+   */
+  public synchronized void install() {
+    systemProperties().forEach((key, value) -> {
+      replaced.putIfAbsent(key, Optional.ofNullable(System.getProperty(key)));
+      System.setProperty(key, value);
+    });
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    replaced.forEach((key, value) -> {
+      if (value.isPresent()) {
+        System.setProperty(key, value.get());
+      } else {
+        System.clearProperty(key);
+      }
+    });
+    replaced.clear();
+    try {
+      gcloud.close();
+    } finally {
+      dataproc.close();
+      storage.close();
+    }
+  }
+}
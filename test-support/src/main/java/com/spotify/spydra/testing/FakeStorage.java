@@ -0,0 +1,528 @@
+/*-
+ * -\-\-
+ * Spydra
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.spydra.testing;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spotify.spydra.model.JsonCodecs;
+import com.spotify.spydra.util.GcpUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory stand-in for the Cloud Storage JSON API, served over HTTP on the loopback
+ * interface. It covers the calls Spydra makes: getting buckets and objects, listing objects by
+ * prefix, multipart and resumable uploads with generation preconditions, ranged downloads and
+ * deletes.
+ *
+ * <p>Set {@link GcpUtils#STORAGE_ENDPOINT_PROPERTY} to {@link #endpoint()} to use it. Every
+ * bucket exists. Requests can be slowed down with {@link #setLatency(Duration)} and failed with
+ * {@link #failNext(int, int)}.
+ */
+public class FakeStorage implements AutoCloseable {
+
+  private static final String API_PREFIX = "/storage/v1/b";
+  private static final String UPLOAD_PREFIX = "/upload/storage/v1/b";
+  private static final Pattern CONTENT_RANGE =
+      Pattern.compile("bytes (?:(\\d+)-(\\d+)|\\*)/(\\d+|\\*)");
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private static final int HTTP_RESUME_INCOMPLETE = 308;
+
+  private static class StoredObject {
+
+    final String bucket;
+    final String name;
+    final byte[] content;
+    final String contentType;
+    final long generation;
+    final Instant updated;
+
+    StoredObject(String bucket, String name, byte[] content, String contentType,
+                 long generation) {
+      this.bucket = bucket;
+      this.name = name;
+      this.content = content;
+      this.contentType = contentType;
+      this.generation = generation;
+      this.updated = Instant.now();
+    }
+  }
+
+  private static class Upload {
+
+    final String bucket;
+    final String name;
+    final String contentType;
+    final Optional<Long> ifGenerationMatch;
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+    Upload(String bucket, String name, String contentType, Optional<Long> ifGenerationMatch) {
+      this.bucket = bucket;
+      this.name = name;
+      this.contentType = contentType;
+      this.ifGenerationMatch = ifGenerationMatch;
+    }
+  }
+
+  /**
+   * Answers a request with an error status.
+   */
+  private static class RequestFailure extends Exception {
+
+    final int status;
+
+    RequestFailure(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  // Keyed by bucket and object name separated by a slash, so that a prefix is a key range
+  private final ConcurrentNavigableMap<String, StoredObject> objects =
+      new ConcurrentSkipListMap<>();
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final AtomicLong generations = new AtomicLong(1);
+  private final AtomicLong uploadIds = new AtomicLong();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final Deque<Integer> failures = new ArrayDeque<>();
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private volatile Duration latency = Duration.ZERO;
+
+  private FakeStorage(HttpServer server) {
+    this.server = server;
+    this.executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-storage-%d").build());
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Starts serving on an ephemeral port of the loopback interface.
+   */
+  public static FakeStorage start() throws IOException {
+    return new FakeStorage(HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0));
+  }
+
+  /**
+   * The root URL to configure the storage client with.
+   */
+  public String endpoint() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+  }
+
+  /**
+   * Delays every request by the given time before it is answered.
+   */
+  public void setLatency(Duration latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Fails the next requests with the given HTTP status, e.g. 503 or 429.
+   */
+  public synchronized void failNext(int times, int status) {
+    for (int i = 0; i < times; i++) {
+      failures.add(status);
+    }
+  }
+
+  /**
+   * The number of requests served so far.
+   */
+  public int requests() {
+    return requests.get();
+  }
+
+  public void put(String bucket, String name, byte[] content) {
+    objects.put(key(bucket, name), new StoredObject(
+        bucket, name, content, "application/octet-stream", generations.getAndIncrement()));
+  }
+
+  public Optional<byte[]> get(String bucket, String name) {
+    return Optional.ofNullable(objects.get(key(bucket, name))).map(object -> object.content);
+  }
+
+  /**
+   * Lists the names of the objects in a bucket starting with the prefix, in order.
+   */
+  public List<String> list(String bucket, String prefix) {
+    return listObjects(bucket, prefix).stream()
+        .map(object -> object.name)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private static String key(String bucket, String name) {
+    return bucket + "/" + name;
+  }
+
+  private List<StoredObject> listObjects(String bucket, String prefix) {
+    String from = key(bucket, prefix);
+    return objects.subMap(from, true, from + Character.MAX_VALUE, false).values().stream()
+        .collect(Collectors.toList());
+  }
+
+  private synchronized Optional<Integer> nextFailure() {
+    return Optional.ofNullable(failures.poll());
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try {
+      if (!latency.isZero()) {
+        Thread.sleep(latency.toMillis());
+      }
+      Optional<Integer> failure = nextFailure();
+      if (failure.isPresent()) {
+        throw new RequestFailure(failure.get(), "Injected failure");
+      }
+      String path = exchange.getRequestURI().getRawPath();
+      Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      if (path.startsWith(UPLOAD_PREFIX)) {
+        upload(exchange, path.substring(UPLOAD_PREFIX.length()), query);
+      } else if (path.startsWith(API_PREFIX)) {
+        api(exchange, path.substring(API_PREFIX.length()), query);
+      } else {
+        throw new RequestFailure(404, "Not Found");
+      }
+    } catch (RequestFailure e) {
+      sendError(exchange, e.status, e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sendError(exchange, 503, "Shutting down");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void api(HttpExchange exchange, String path, Map<String, String> query)
+      throws IOException, RequestFailure {
+    String method = exchange.getRequestMethod();
+    if (path.isEmpty() || path.equals("/")) {
+      if (!method.equals("POST")) {
+        throw new RequestFailure(405, "Listing buckets is not supported");
+      }
+      JsonNode bucket = JsonCodecs.LOWER_CAMEL_CASE.read(exchange.getRequestBody(),
+          JsonNode.class);
+      sendJson(exchange, 200, bucketJson(bucket.path("name").asText()));
+      return;
+    }
+    String[] segments = path.substring(1).split("/", 3);
+    String bucket = decode(segments[0]);
+    if (segments.length == 1) {
+      sendJson(exchange, 200, bucketJson(bucket));
+    } else if (segments.length == 2 && segments[1].equals("o")) {
+      ObjectNode list = JsonNodeFactory.instance.objectNode().put("kind", "storage#objects");
+      ArrayNode items = list.putArray("items");
+      listObjects(bucket, query.getOrDefault("prefix", ""))
+          .forEach(object -> items.add(objectJson(object)));
+      sendJson(exchange, 200, list);
+    } else if (segments.length == 3 && segments[1].equals("o")) {
+      String name = decode(segments[2]);
+      if (method.equals("DELETE")) {
+        Optional<Long> ifGenerationMatch =
+            Optional.ofNullable(query.get("ifGenerationMatch")).map(Long::valueOf);
+        StoredObject object = objects.get(key(bucket, name));
+        if (object == null) {
+          throw new RequestFailure(404, "No such object: " + key(bucket, name));
+        }
+        if (ifGenerationMatch.map(generation -> generation != object.generation).orElse(false)
+            || !objects.remove(key(bucket, name), object)) {
+          throw new RequestFailure(412, "Generation does not match: " + key(bucket, name));
+        }
+        exchange.sendResponseHeaders(204, -1);
+        return;
+      }
+      StoredObject object = objects.get(key(bucket, name));
+      if (object == null) {
+        throw new RequestFailure(404, "No such object: " + key(bucket, name));
+      }
+      if ("media".equals(query.get("alt"))) {
+        download(exchange, object);
+      } else {
+        sendJson(exchange, 200, objectJson(object));
+      }
+    } else {
+      throw new RequestFailure(404, "Not Found");
+    }
+  }
+
+  private void download(HttpExchange exchange, StoredObject object)
+      throws IOException, RequestFailure {
+    byte[] content = object.content;
+    int status = 200;
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range != null) {
+      Matcher matcher = RANGE.matcher(range);
+      if (!matcher.matches()) {
+        throw new RequestFailure(400, "Invalid range: " + range);
+      }
+      int start = Integer.parseInt(matcher.group(1));
+      if (start >= content.length) {
+        throw new RequestFailure(416, "Requested range not satisfiable");
+      }
+      int end = matcher.group(2).isEmpty()
+          ? content.length - 1
+          : Math.min(Integer.parseInt(matcher.group(2)), content.length - 1);
+      content = Arrays.copyOfRange(content, start, end + 1);
+      status = 206;
+    }
+    exchange.getResponseHeaders().set("Content-Type", object.contentType);
+    exchange.getResponseHeaders().set("ETag", Long.toString(object.generation));
+    exchange.getResponseHeaders().set("x-goog-generation", Long.toString(object.generation));
+    send(exchange, status, content);
+  }
+
+  private void upload(HttpExchange exchange, String path, Map<String, String> query)
+      throws IOException, RequestFailure {
+    String[] segments = path.substring(1).split("/");
+    if (segments.length != 2 || !segments[1].equals("o")) {
+      throw new RequestFailure(404, "Not Found");
+    }
+    String bucket = decode(segments[0]);
+    Optional<Long> ifGenerationMatch =
+        Optional.ofNullable(query.get("ifGenerationMatch")).map(Long::valueOf);
+    byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+    switch (query.getOrDefault("uploadType", "")) {
+      case "media":
+        store(exchange, new Upload(bucket, query.get("name"),
+            exchange.getRequestHeaders().getFirst("Content-Type"), ifGenerationMatch), body);
+        break;
+      case "multipart":
+        multipartUpload(exchange, bucket, ifGenerationMatch, body);
+        break;
+      case "resumable":
+        resumableUpload(exchange, bucket, query, ifGenerationMatch, body);
+        break;
+      default:
+        throw new RequestFailure(400, "Unsupported upload type");
+    }
+  }
+
+  private void multipartUpload(HttpExchange exchange, String bucket,
+                               Optional<Long> ifGenerationMatch, byte[] body)
+      throws IOException, RequestFailure {
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    Matcher boundary = Pattern.compile("boundary=\"?([^\";]+)\"?").matcher(contentType);
+    if (!boundary.find()) {
+      throw new RequestFailure(400, "Missing multipart boundary");
+    }
+    // ISO-8859-1 maps every byte to one char, so the media part survives the round trip
+    String[] parts = new String(body, ISO_8859_1).split("--" + Pattern.quote(boundary.group(1)));
+    if (parts.length < 3) {
+      throw new RequestFailure(400, "Expected metadata and media parts");
+    }
+    JsonNode metadata = JsonCodecs.LOWER_CAMEL_CASE.read(partContent(parts[1]), JsonNode.class);
+    byte[] media = partContent(parts[2]).getBytes(ISO_8859_1);
+    store(exchange, new Upload(bucket, metadata.path("name").asText(),
+        metadata.path("contentType").asText("application/octet-stream"), ifGenerationMatch),
+        media);
+  }
+
+  private static String partContent(String part) {
+    int headersEnd = part.indexOf("\r\n\r\n");
+    String content = headersEnd < 0 ? "" : part.substring(headersEnd + 4);
+    return content.endsWith("\r\n") ? content.substring(0, content.length() - 2) : content;
+  }
+
+  private void resumableUpload(HttpExchange exchange, String bucket, Map<String, String> query,
+                               Optional<Long> ifGenerationMatch, byte[] body)
+      throws IOException, RequestFailure {
+    String uploadId = query.get("upload_id");
+    if (uploadId == null) {
+      JsonNode metadata = body.length == 0
+          ? JsonNodeFactory.instance.objectNode()
+          : JsonCodecs.LOWER_CAMEL_CASE.read(new String(body, UTF_8), JsonNode.class);
+      String id = Long.toString(uploadIds.incrementAndGet());
+      uploads.put(id, new Upload(bucket, metadata.path("name").asText(query.get("name")),
+          metadata.path("contentType").asText("application/octet-stream"), ifGenerationMatch));
+      exchange.getResponseHeaders().set("Location", endpoint() + UPLOAD_PREFIX + "/"
+          + bucket + "/o?uploadType=resumable&upload_id=" + id);
+      send(exchange, 200, new byte[0]);
+      return;
+    }
+
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      throw new RequestFailure(404, "No such upload: " + uploadId);
+    }
+    String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+    Matcher range = CONTENT_RANGE.matcher(contentRange == null ? "" : contentRange);
+    if (!range.matches()) {
+      throw new RequestFailure(400, "Invalid content range: " + contentRange);
+    }
+    synchronized (upload) {
+      if (range.group(1) != null && Long.parseLong(range.group(1)) != upload.content.size()) {
+        throw new RequestFailure(400, "Upload chunks must be sent in order");
+      }
+      upload.content.write(body);
+      boolean last = !range.group(3).equals("*")
+          && Long.parseLong(range.group(3)) == upload.content.size();
+      if (!last) {
+        exchange.getResponseHeaders().set("Range", "bytes=0-" + (upload.content.size() - 1));
+        exchange.sendResponseHeaders(HTTP_RESUME_INCOMPLETE, -1);
+        return;
+      }
+    }
+    uploads.remove(uploadId);
+    store(exchange, upload, upload.content.toByteArray());
+  }
+
+  private void store(HttpExchange exchange, Upload upload, byte[] content)
+      throws IOException, RequestFailure {
+    if (upload.name == null || upload.name.isEmpty()) {
+      throw new RequestFailure(400, "Missing object name");
+    }
+    String key = key(upload.bucket, upload.name);
+    StoredObject stored = new StoredObject(upload.bucket, upload.name, content,
+        upload.contentType, generations.getAndIncrement());
+    if (upload.ifGenerationMatch.isPresent()) {
+      long expected = upload.ifGenerationMatch.get();
+      boolean matched = expected == 0
+          ? objects.putIfAbsent(key, stored) == null
+          : replaceGeneration(key, expected, stored);
+      if (!matched) {
+        throw new RequestFailure(412, "Precondition Failed");
+      }
+    } else {
+      objects.put(key, stored);
+    }
+    sendJson(exchange, 200, objectJson(stored));
+  }
+
+  private boolean replaceGeneration(String key, long generation, StoredObject replacement) {
+    StoredObject current = objects.get(key);
+    return current != null && current.generation == generation
+        && objects.replace(key, current, replacement);
+  }
+
+  private static ObjectNode bucketJson(String bucket) {
+    return JsonNodeFactory.instance.objectNode()
+        .put("kind", "storage#bucket")
+        .put("id", bucket)
+        .put("name", bucket)
+        .put("location", "EU");
+  }
+
+  private static ObjectNode objectJson(StoredObject object) {
+    return JsonNodeFactory.instance.objectNode()
+        .put("kind", "storage#object")
+        .put("id", object.bucket + "/" + object.name + "/" + object.generation)
+        .put("bucket", object.bucket)
+        .put("name", object.name)
+        .put("generation", Long.toString(object.generation))
+        .put("metageneration", "1")
+        .put("contentType", object.contentType)
+        .put("size", Integer.toString(object.content.length))
+        .put("etag", Long.toString(object.generation))
+        .put("updated", object.updated.toString());
+  }
+
+  private static Map<String, String> query(String rawQuery) throws IOException {
+    Map<String, String> query = new LinkedHashMap<>();
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        int separator = parameter.indexOf('=');
+        if (separator < 0) {
+          query.put(decode(parameter), "");
+        } else {
+          query.put(decode(parameter.substring(0, separator)),
+              decode(parameter.substring(separator + 1)));
+        }
+      }
+    }
+    return query;
+  }
+
+  private static String decode(String encoded) throws IOException {
+    return URLDecoder.decode(encoded.replace("+", "%2B"), UTF_8.name());
+  }
+
+  private static void sendJson(HttpExchange exchange, int status, JsonNode json)
+      throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    send(exchange, status, json.toString().getBytes(UTF_8));
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message)
+      throws IOException {
+    ObjectNode error = JsonNodeFactory.instance.objectNode();
+    ObjectNode details = error.putObject("error").put("code", status).put("message", message);
+    details.putArray("errors").addObject().put("message", message).put("reason", "fake");
+    // Drain the request, the client may still be sending it
+    try (InputStream in = exchange.getRequestBody()) {
+      ByteStreams.copy(in, ByteStreams.nullOutputStream());
+    }
+    sendJson(exchange, status, error);
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    if (body.length == 0) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}